@@ -4,6 +4,8 @@ import com.aerospike.client.AerospikeClient;
 import io.github.aerospike_examples.timeseries.DataPoint;
 import io.github.aerospike_examples.timeseries.util.Constants;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -13,6 +15,21 @@ class BatchInsertTimeSeriesRunnable extends InsertTimeSeriesRunnable {
 
     private final long requiredTimeSeriesRangeSeconds;
 
+    // Encoding(s) to use for batch puts - see OptionsHelper.BatchEncodings
+    private final String batchEncoding;
+
+    // Statistics are kept per encoding so encodings can be compared. Indexes into the arrays below
+    static final int PUT_ITEMS_STATS_INDEX = 0;
+    static final int PER_POINT_STATS_INDEX = 1;
+    // Data points written using each encoding
+    final long[] pointCountByEncoding = new long[2];
+    // Wall clock time spent in put calls using each encoding
+    final long[] putTimeNanosByEncoding = new long[2];
+    // Client CPU time spent in put calls using each encoding
+    final long[] cpuTimeNanosByEncoding = new long[2];
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
     /**
      * Constructor for a runnable that will generate timeSeriesCount time series for us
      * Package level visibility as this will not be used in isolation
@@ -28,6 +45,7 @@ class BatchInsertTimeSeriesRunnable extends InsertTimeSeriesRunnable {
         super(asClient, asNamespace, asSet, timeSeriesCountPerObject, benchmarkClient, randomSeed);
         recordsPerBlock = benchmarkClient.recordsPerBlock;
         requiredTimeSeriesRangeSeconds = benchmarkClient.timeSeriesRangeSeconds;
+        batchEncoding = benchmarkClient.batchEncoding;
     }
 
     public void run() {
@@ -50,6 +68,8 @@ class BatchInsertTimeSeriesRunnable extends InsertTimeSeriesRunnable {
         long recordsToInsertPerSeries = requiredTimeSeriesRangeSeconds / observationIntervalSeconds;
         int iterations = (int) Math.ceil(((double) requiredTimeSeriesRangeSeconds / observationIntervalSeconds) / recordsPerBlock);
         long maxTimestamp = startTime + requiredTimeSeriesRangeSeconds * Constants.MILLISECONDS_IN_SECOND;
+        // In compare mode we alternate between encodings, starting with putItems
+        boolean usePutItems = false;
 
         for (int iterationCount = 0; iterationCount < iterations; iterationCount++) {
             for (String timeSeriesName : lastObservationTimes.keySet()) {
@@ -67,7 +87,24 @@ class BatchInsertTimeSeriesRunnable extends InsertTimeSeriesRunnable {
                     recordsInCurrentBatch++;
                 }
                 DataPoint[] dataPoints = dataPointVector.toArray(new DataPoint[0]);
+                switch (batchEncoding) {
+                    case OptionsHelper.BatchEncodings.COMPARE:
+                        usePutItems = !usePutItems;
+                        break;
+                    case OptionsHelper.BatchEncodings.PER_POINT:
+                        usePutItems = false;
+                        break;
+                    default:
+                        usePutItems = true;
+                }
+                timeSeriesClient.setUsePutItemsForBatchPut(usePutItems);
+                long putStartCpuTimeNanos = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+                long putStartTimeNanos = System.nanoTime();
                 timeSeriesClient.put(timeSeriesName, dataPoints);
+                int statsIndex = usePutItems ? PUT_ITEMS_STATS_INDEX : PER_POINT_STATS_INDEX;
+                putTimeNanosByEncoding[statsIndex] += System.nanoTime() - putStartTimeNanos;
+                cpuTimeNanosByEncoding[statsIndex] += THREAD_MX_BEAN.getCurrentThreadCpuTime() - putStartCpuTimeNanos;
+                pointCountByEncoding[statsIndex] += dataPoints.length;
                 lastObservationTimes.put(timeSeriesName, dataPoints[dataPoints.length - 1].getTimestamp());
                 lastObservationValues.put(timeSeriesName, dataPoints[dataPoints.length - 1].getValue());
                 recordCountPerSeries.put(timeSeriesName, recordCountPerSeries.get(timeSeriesName) + recordsInCurrentBatch);
@@ -80,6 +80,11 @@ public class OptionsHelper {
          * Flag to indicate time series name to use when reading data : i
          */
         public static final String TIME_SERIES_NAME_FLAG = "i";
+
+        /**
+         * Flag to indicate encoding to use for batch inserts : e
+         */
+        public static final String BATCH_ENCODING_FLAG = "e";
     }
 
     /**
@@ -102,6 +107,26 @@ public class OptionsHelper {
         public static final String QUERY = "query";
     }
 
+    /**
+     * Encodings available for batch inserts
+     */
+    public static class BatchEncodings {
+        /**
+         * Each chunk of points is sent as a single putItems map operation : putItems
+         */
+        public static final String PUT_ITEMS = "putItems";
+
+        /**
+         * One map put operation is sent per point : perPoint
+         */
+        public static final String PER_POINT = "perPoint";
+
+        /**
+         * Alternate between the two encodings, reporting throughput and client CPU for each : compare
+         */
+        public static final String COMPARE = "compare";
+    }
+
     public static class TimeUnitIndicators {
         public static final String YEAR = "Y";
         public static final String DAY = "D";
@@ -152,6 +177,9 @@ public class OptionsHelper {
                 String.format("No of time series to simulate. Optional. Defaults to %d", TimeSeriesBenchmarker.DEFAULT_TIME_SERIES_COUNT));
         Option intervalOption = new Option(BenchmarkerFlags.INTERVAL_BETWEEN_OBSERVATIONS_SECONDS_FLAG, "interval", true,
                 "Average interval between observations. Required");
+        Option batchEncodingOption = new Option(BenchmarkerFlags.BATCH_ENCODING_FLAG, "batchEncoding", true,
+                String.format("Encoding for batch inserts - values allowed are %s, %s and %s. Only valid in %s mode. Optional. Defaults to %s",
+                        BatchEncodings.PUT_ITEMS, BatchEncodings.PER_POINT, BatchEncodings.COMPARE, BenchmarkModes.BATCH_INSERT, BatchEncodings.PUT_ITEMS));
 
         // These options are common to all modes
         hostOption.setRequired(true);
@@ -167,6 +195,7 @@ public class OptionsHelper {
         timeSeriesRangeOption.setRequired(false);
         timeSeriesCountOption.setRequired(false);
         intervalOption.setRequired(false);
+        batchEncodingOption.setRequired(false);
 
         cmdLineOptions.addOption(hostOption);
         cmdLineOptions.addOption(namespaceOption);
@@ -179,6 +208,7 @@ public class OptionsHelper {
         cmdLineOptions.addOption(threadCountOption);
         cmdLineOptions.addOption(timeSeriesCountOption);
         cmdLineOptions.addOption(intervalOption);
+        cmdLineOptions.addOption(batchEncodingOption);
         return cmdLineOptions;
     }
 
@@ -195,6 +225,7 @@ public class OptionsHelper {
         for (Option option : options.getOptions()) {
             switch (option.getOpt()) {
                 case BenchmarkerFlags.TIME_SERIES_RANGE_FLAG:
+                case BenchmarkerFlags.BATCH_ENCODING_FLAG:
                     break;
                 default:
                     clonedOptions.addOption(option);
@@ -245,6 +276,7 @@ public class OptionsHelper {
                 case BenchmarkerFlags.TIME_SERIES_RANGE_FLAG:
                 case BenchmarkerFlags.TIME_SERIES_COUNT_FLAG:
                 case BenchmarkerFlags.INTERVAL_BETWEEN_OBSERVATIONS_SECONDS_FLAG:
+                case BenchmarkerFlags.BATCH_ENCODING_FLAG:
                     break;
                 default:
                     clonedOptions.addOption(option);
@@ -310,6 +342,8 @@ public class OptionsHelper {
                 return Constants.DEFAULT_TIME_SERIES_SET;
             case BenchmarkerFlags.TIME_SERIES_COUNT_FLAG:
                 return Integer.toString(TimeSeriesBenchmarker.DEFAULT_TIME_SERIES_COUNT);
+            case BenchmarkerFlags.BATCH_ENCODING_FLAG:
+                return BatchEncodings.PUT_ITEMS;
             default:
                 return null;
         }
@@ -350,6 +384,17 @@ public class OptionsHelper {
                 break;
             case BenchmarkerFlags.TIME_SERIES_RANGE_FLAG:
                 checkTimeString(value);
+                break;
+            case BenchmarkerFlags.BATCH_ENCODING_FLAG:
+                switch (value) {
+                    case BatchEncodings.PUT_ITEMS:
+                    case BatchEncodings.PER_POINT:
+                    case BatchEncodings.COMPARE:
+                        break;
+                    default:
+                        throw new Utilities.ParseException(String.format("-%s flag should take one of %s,%s,%s values. Argument supplied is %s",
+                                flag, BatchEncodings.PUT_ITEMS, BatchEncodings.PER_POINT, BatchEncodings.COMPARE, value));
+                }
         }
     }
 
@@ -76,6 +76,8 @@ public class TimeSeriesBenchmarker {
     final int dailyDriftPct;
     final int dailyVolatilityPct;
     private final String runMode;
+    // Encoding(s) to use in batch insert mode - see OptionsHelper.BatchEncodings
+    String batchEncoding = OptionsHelper.BatchEncodings.PUT_ITEMS;
     // Seed for initialising sources of randomness
     // If a seed is supplied in the constructor this will be used else a random seed is selected
     private final long randomSeed;
@@ -190,6 +192,7 @@ public class TimeSeriesBenchmarker {
                 DEFAULT_DAILY_VOLATILITY_PCT,
                 new Random().nextLong()
         );
+        benchmarker.batchEncoding = OptionsHelper.getOptionUsingDefaults(cmd, OptionsHelper.BenchmarkerFlags.BATCH_ENCODING_FLAG);
         return benchmarker;
     }
 
@@ -211,6 +214,7 @@ public class TimeSeriesBenchmarker {
                 output.println();
                 long recordCount = timeSeriesRangeSeconds / averageObservationIntervalSeconds;
                 output.println(String.format("Inserting %d records per series for %d series, over a period of %d seconds", recordCount, timeSeriesCount, timeSeriesRangeSeconds));
+                output.println(String.format("Batch encoding : %s", batchEncoding));
                 output.println();
                 break;
             case OptionsHelper.BenchmarkModes.QUERY:
@@ -231,6 +235,7 @@ public class TimeSeriesBenchmarker {
         if ((runMode.equals(OptionsHelper.BenchmarkModes.BATCH_INSERT) || runMode.equals(OptionsHelper.BenchmarkModes.REAL_TIME_INSERT))) {
             timeSeriesClient.getAsClient().truncate(new InfoPolicy(), asNamespace, asSet, null);
             timeSeriesClient.getAsClient().truncate(new InfoPolicy(), asNamespace, TimeSeriesClient.timeSeriesIndexSetName(asSet), null);
+            timeSeriesClient.getAsClient().truncate(new InfoPolicy(), asNamespace, TimeSeriesClient.catalogSetName(asSet), null);
         }
 
         // Set up all the runnable objects  - based on how many threads are configured
@@ -291,6 +296,34 @@ public class TimeSeriesBenchmarker {
         output.println();
         outputStatus(lastUpdateCount, lastAverageThreadRunTimeMs, lastCumulativeLatencyMs, true);
         output.println();
+        if (runMode.equals(OptionsHelper.BenchmarkModes.BATCH_INSERT)) {
+            outputBatchEncodingSummary(OptionsHelper.BatchEncodings.PUT_ITEMS, BatchInsertTimeSeriesRunnable.PUT_ITEMS_STATS_INDEX);
+            outputBatchEncodingSummary(OptionsHelper.BatchEncodings.PER_POINT, BatchInsertTimeSeriesRunnable.PER_POINT_STATS_INDEX);
+            output.println();
+        }
+    }
+
+    /**
+     * Output throughput and client CPU cost per point for a batch insert encoding, if it has been used
+     *
+     * @param encodingName - name of encoding
+     * @param statsIndex   - index of the encoding's statistics in BatchInsertTimeSeriesRunnable
+     */
+    private void outputBatchEncodingSummary(String encodingName, int statsIndex) {
+        long pointCount = 0;
+        long putTimeNanos = 0;
+        long cpuTimeNanos = 0;
+        for (TimeSeriesRunnable benchmarkClientObject : benchmarkClientObjects) {
+            BatchInsertTimeSeriesRunnable runnable = (BatchInsertTimeSeriesRunnable) benchmarkClientObject;
+            pointCount += runnable.pointCountByEncoding[statsIndex];
+            putTimeNanos += runnable.putTimeNanosByEncoding[statsIndex];
+            cpuTimeNanos += runnable.cpuTimeNanosByEncoding[statsIndex];
+        }
+        if (pointCount > 0) {
+            // Put time is summed across threads, so scale by thread count to get aggregate throughput
+            output.println(String.format("Encoding : %s, Data point count : %d, Updates/sec : %.3f, Client CPU per point : %.3f us",
+                    encodingName, pointCount, (double) threadCount * pointCount * 1000000000L / putTimeNanos, (double) cpuTimeNanos / pointCount / 1000));
+        }
     }
 
     /**
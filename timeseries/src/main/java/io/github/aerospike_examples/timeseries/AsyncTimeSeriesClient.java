@@ -0,0 +1,1106 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
+import com.aerospike.client.async.EventLoops;
+import com.aerospike.client.listener.BatchListListener;
+import com.aerospike.client.listener.DeleteListener;
+import com.aerospike.client.listener.RecordListener;
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.Policy;
+import com.aerospike.client.policy.WritePolicy;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous equivalent of TimeSeriesClient
+ * <p>
+ * All database calls are made using the Aerospike async API, so a small number of event loop threads can keep
+ * a large number of writes and reads in flight. Each method returns a CompletableFuture which completes once the
+ * full sequence of database calls required (including any block 'archiving') is done.
+ * <p>
+ * The AerospikeClient used by the underlying TimeSeriesClient must have been created with ClientPolicy.eventLoops
+ * set to the EventLoops object supplied here. Configuration - namespace, set, block size and policies - is taken from the
+ * TimeSeriesClient, so data written by either client can be read by the other.
+ * <p>
+ * Completion callbacks run on event loop threads, so should not block.
+ */
+public class AsyncTimeSeriesClient {
+
+    /**
+     * Number of times block 'archiving' is retried if the current block changes while it is being copied
+     * See TimeSeriesClient for a full explanation
+     */
+    private static final int RETRY_COUNT_FOR_FAILED_BLOCK_COPY = 5;
+
+    // Synchronous client - supplies configuration, keys and operations
+    private final TimeSeriesClient timeSeriesClient;
+    // Event loops used to run commands
+    private final EventLoops eventLoops;
+
+    /**
+     * AsyncTimeSeriesClient constructor
+     *
+     * @param timeSeriesClient - TimeSeriesClient supplying the Aerospike client, namespace, set, block size and policies
+     * @param eventLoops       - event loops the Aerospike client was created with
+     */
+    public AsyncTimeSeriesClient(TimeSeriesClient timeSeriesClient, EventLoops eventLoops) {
+        this.timeSeriesClient = timeSeriesClient;
+        this.eventLoops = eventLoops;
+    }
+
+    /**
+     * Getter method for the underlying TimeSeriesClient
+     *
+     * @return TimeSeriesClient object
+     */
+    @SuppressWarnings("unused") // Required in API
+    public TimeSeriesClient getTimeSeriesClient() {
+        return timeSeriesClient;
+    }
+
+    /**
+     * Asynchronously save a data point to the database
+     * <p>
+     * Semantics are as per TimeSeriesClient.put(String timeSeriesName, DataPoint dataPoint)
+     *
+     * @param timeSeriesName - time series name to write to
+     * @param dataPoint      - data point to write
+     * @return future completing when the point has been written
+     */
+    public CompletableFuture<Void> put(String timeSeriesName, DataPoint dataPoint) {
+        return putToStripe(timeSeriesClient.stripeName(timeSeriesName, dataPoint.getTimestamp()), dataPoint)
+                .thenRun(() -> timeSeriesClient.updateTailCache(timeSeriesName, TimeSeriesClient.singlePointBatch(dataPoint)));
+    }
+
+    /**
+     * Asynchronously save a data point to a single stripe of a time series - the series itself unless striping is in use
+     *
+     * @param timeSeriesName - stripe name
+     * @param dataPoint      - data point to write
+     * @return future completing when the point has been written
+     */
+    private CompletableFuture<Void> putToStripe(String timeSeriesName, DataPoint dataPoint) {
+        if (timeSeriesClient.isBucketed()) return putToBucket(timeSeriesName, TimeSeriesClient.singlePointBatch(dataPoint), 0, 1);
+        return operateOnCurrentBlock(timeSeriesClient.onTimeWritePolicy(dataPoint.getTimestamp()), timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName),
+                timeSeriesClient.opsForPut(timeSeriesName, dataPoint))
+                .thenCompose(record -> {
+                    // A null result means the point precedes the current block, or there is no current block - see putLatePoints
+                    if (record == null) return putLatePoints(timeSeriesName, TimeSeriesClient.singlePointBatch(dataPoint));
+                    return addToCatalogIfNew(timeSeriesName, record).thenCompose(ignore -> rolloverIfFull(timeSeriesName, record));
+                });
+    }
+
+    /**
+     * Add a series to the catalog if the write whose result is given created the current block, or bucket, and the
+     * series has not already been added - see TimeSeriesClient.isCatalogAdditionNeeded
+     *
+     * @param timeSeriesName - stripe name
+     * @param writeResult    - record returned by the write
+     * @return future completing when the catalog has been updated, if required
+     */
+    private CompletableFuture<Void> addToCatalogIfNew(String timeSeriesName, Record writeResult) {
+        if (!timeSeriesClient.isCatalogAdditionNeeded(timeSeriesName, writeResult)) return CompletableFuture.completedFuture(null);
+        return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForCatalog(timeSeriesName),
+                SeriesCatalog.opForAddition(timeSeriesClient.seriesNameForMetadata(timeSeriesName)))
+                .thenRun(() -> timeSeriesClient.catalogAdditionMade(timeSeriesName));
+    }
+
+    /**
+     * Given the result of a write to the current block, 'archive' the block if it is full
+     *
+     * @param timeSeriesName - name of series written to
+     * @param putResult      - record returned by the write
+     * @return future completing when any archiving required is complete, or has been handed to the background archiver
+     */
+    private CompletableFuture<Void> rolloverIfFull(String timeSeriesName, Record putResult) {
+        if (timeSeriesClient.isBackgroundArchiverEnabled()) {
+            timeSeriesClient.archiveInBackgroundIfFull(timeSeriesName, putResult);
+            return CompletableFuture.completedFuture(null);
+        }
+        // If the block is now full the write returns a snapshot of it - save a copy of the block with key TimeSeries-StartTime
+        Record fullBlock = TimeSeriesClient.fullBlockSnapshot(putResult);
+        if (fullBlock != null) {
+            return copyCurrentDataToHistoricBlock(timeSeriesName, fullBlock, RETRY_COUNT_FOR_FAILED_BLOCK_COPY, 0);
+        } else {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Save points that precede the start of the current block, or that found no current block
+     * Semantics are as per TimeSeriesClient - points after the latest historic block go to the current block, others to
+     * the historic block covering them
+     *
+     * @param timeSeriesName - time series name
+     * @param latePoints     - points preceding the start of the current block, or that found no current block
+     * @return future completing when the points have been written and the index updated
+     */
+    private CompletableFuture<Void> putLatePoints(String timeSeriesName, DataPointBatch latePoints) {
+        return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForTimeSeriesIndexes(timeSeriesName), TimeSeriesClient.opForIndexEntries())
+                .thenCompose(indexRecord -> {
+                    TreeMap<Long, Map<?, ?>> indexEntries = TimeSeriesClient.indexEntries(indexRecord);
+                    long latestArchivedEndTime = TimeSeriesClient.latestArchivedEndTime(indexEntries);
+                    DataPointBatch currentBlockPoints = TimeSeriesClient.pointsAfter(latePoints, latestArchivedEndTime, true);
+                    CompletableFuture<Void> currentBlockWrite = currentBlockPoints.getLength() == 0 ? CompletableFuture.completedFuture(null)
+                            : operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName),
+                            timeSeriesClient.opsForEarlyPointsPut(timeSeriesName, currentBlockPoints))
+                            .thenCompose(record -> addToCatalogIfNew(timeSeriesName, record).thenCompose(ignore -> rolloverIfFull(timeSeriesName, record)));
+                    return CompletableFuture.allOf(currentBlockWrite,
+                            putToHistoricBlocks(timeSeriesName, indexEntries, TimeSeriesClient.pointsAfter(latePoints, latestArchivedEndTime, false)));
+                });
+    }
+
+    /**
+     * Save points not after the end of the latest historic block to the historic blocks covering them
+     * See TimeSeriesClient.putLatePoints
+     *
+     * @param timeSeriesName - time series name
+     * @param indexEntries   - index entries, as returned by TimeSeriesClient.indexEntries - may be null if there are no points
+     * @param latePoints     - points not after the end of the latest historic block
+     * @return future completing when the points have been written and the index updated
+     */
+    private CompletableFuture<Void> putToHistoricBlocks(String timeSeriesName, TreeMap<Long, Map<?, ?>> indexEntries, DataPointBatch latePoints) {
+        if (latePoints.getLength() == 0) return CompletableFuture.completedFuture(null);
+        Key indexKey = timeSeriesClient.asKeyForTimeSeriesIndexes(timeSeriesName);
+        List<CompletableFuture<Integer>> blockWrites = new ArrayList<>();
+        for (Map.Entry<Long, DataPointBatch> latePointsForBlock : TimeSeriesClient.latePointsByBlock(indexEntries.navigableKeySet(), latePoints).entrySet()) {
+            long blockStartTime = latePointsForBlock.getKey();
+            blockWrites.add(operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForHistoricTimeSeriesBlock(timeSeriesName, blockStartTime),
+                    timeSeriesClient.opsForLatePointsPut(timeSeriesName, blockStartTime, latePointsForBlock.getValue()))
+                    .thenCompose(record -> operate(timeSeriesClient.getWritePolicy(), indexKey,
+                            timeSeriesClient.opsForLateBlockIndexUpdate(timeSeriesName, blockStartTime, record)))
+                    .thenCompose(ignore -> rollupBlock(timeSeriesName, blockStartTime)));
+        }
+        return CompletableFuture.allOf(blockWrites.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Asynchronously save data points to the database
+     * <p>
+     * Semantics are as per TimeSeriesClient.put(String timeSeriesName, DataPoint[] dataPoints)
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as an array
+     * @return future completing when all points have been written
+     */
+    public CompletableFuture<Void> put(String timeSeriesName, DataPoint[] dataPoints) {
+        return put(timeSeriesName, new DataPointBatch(dataPoints));
+    }
+
+    /**
+     * Asynchronously save a batch of data points to the database
+     * <p>
+     * Semantics are as per TimeSeriesClient.put(String timeSeriesName, DataPointBatch dataPoints)
+     * The batch must not be modified until the returned future completes
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as a batch
+     * @return future completing when all points have been written
+     */
+    public CompletableFuture<Void> put(String timeSeriesName, DataPointBatch dataPoints) {
+        CompletableFuture<Void> write;
+        if (!timeSeriesClient.isStriped()) {
+            write = putToStripe(timeSeriesName, dataPoints);
+        } else {
+            // Stripes are independent so can all be written at once
+            List<CompletableFuture<Void>> stripeWrites = new ArrayList<>();
+            for (Map.Entry<String, DataPointBatch> dataPointsForStripe : timeSeriesClient.dataPointsByStripe(timeSeriesName, dataPoints).entrySet())
+                stripeWrites.add(putToStripe(dataPointsForStripe.getKey(), dataPointsForStripe.getValue()));
+            write = CompletableFuture.allOf(stripeWrites.toArray(new CompletableFuture[0]));
+        }
+        // Cached tails are updated once the points are written - see TimeSeriesClient.setTailCache
+        return write.thenRun(() -> timeSeriesClient.updateTailCache(timeSeriesName, dataPoints));
+    }
+
+    /**
+     * Asynchronously save data points to a single stripe of a time series - the series itself unless striping is in use
+     *
+     * @param timeSeriesName - stripe name
+     * @param dataPoints     - data points as a batch
+     * @return future completing when all points have been written
+     */
+    private CompletableFuture<Void> putToStripe(String timeSeriesName, DataPointBatch dataPoints) {
+        if (timeSeriesClient.isBucketed()) {
+            // One write per bucket - these can all be in flight at once
+            DataPointBatch bucketOrderedDataPoints = timeSeriesClient.bucketOrderedDataPoints(dataPoints);
+            List<CompletableFuture<Void>> bucketWrites = new ArrayList<>();
+            int firstRecord = 0;
+            for (int i = 1; i <= bucketOrderedDataPoints.getLength(); i++) {
+                if (i == bucketOrderedDataPoints.getLength() || timeSeriesClient.bucketStartTime(bucketOrderedDataPoints.getTimestamp(i)) !=
+                        timeSeriesClient.bucketStartTime(bucketOrderedDataPoints.getTimestamp(firstRecord))) {
+                    bucketWrites.add(putToBucket(timeSeriesName, bucketOrderedDataPoints, firstRecord, i - firstRecord));
+                    firstRecord = i;
+                }
+            }
+            return CompletableFuture.allOf(bucketWrites.toArray(new CompletableFuture[0]));
+        }
+        // First of all need to find out how much 'room' is available, and the current block start time
+        return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName),
+                TimeSeriesClient.opsForCurrentBlockState())
+                .thenCompose(record -> {
+                    if (record == null || record.getValue(Constants.METADATA_BIN_NAME) == null) {
+                        // No current block - points not after the latest historic block go to the historic blocks, so the block created starts after them
+                        return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForTimeSeriesIndexes(timeSeriesName), TimeSeriesClient.opForIndexEntries())
+                                .thenCompose(indexRecord -> {
+                                    TreeMap<Long, Map<?, ?>> indexEntries = TimeSeriesClient.indexEntries(indexRecord);
+                                    long latestArchivedEndTime = TimeSeriesClient.latestArchivedEndTime(indexEntries);
+                                    return putToHistoricBlocks(timeSeriesName, indexEntries, TimeSeriesClient.pointsAfter(dataPoints, latestArchivedEndTime, false))
+                                            .thenCompose(ignore -> putFrom(timeSeriesName, TimeSeriesClient.pointsAfter(dataPoints, latestArchivedEndTime, true), 0, 0, true));
+                                });
+                    }
+                    int existingRecordCount = record.getInt(Constants.TIME_SERIES_BIN_NAME);
+                    // Points preceding the current block go to the historic blocks covering them
+                    DataPointBatch latePoints = TimeSeriesClient.latePoints(dataPoints, record);
+                    if (latePoints.getLength() == 0) return putFrom(timeSeriesName, dataPoints, 0, existingRecordCount, false);
+                    return putLatePoints(timeSeriesName, latePoints)
+                            .thenCompose(ignore -> putFrom(timeSeriesName, TimeSeriesClient.onTimePoints(dataPoints, record), 0, existingRecordCount, false));
+                });
+    }
+
+    /**
+     * Save a run of data points, all in the same bucket, to their bucket, adding the bucket to the index if the write created it
+     * See TimeSeriesClient.setBucketWidth
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as a batch
+     * @param firstRecord    - index of first data point to insert
+     * @param recordCount    - number of data points to insert
+     * @return future completing when the points have been written
+     */
+    private CompletableFuture<Void> putToBucket(String timeSeriesName, DataPointBatch dataPoints, int firstRecord, int recordCount) {
+        long bucketStartTime = timeSeriesClient.bucketStartTime(dataPoints.getTimestamp(firstRecord));
+        return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForHistoricTimeSeriesBlock(timeSeriesName, bucketStartTime),
+                timeSeriesClient.opsForBucketPut(timeSeriesName, bucketStartTime, dataPoints, firstRecord, recordCount))
+                .thenCompose(record -> {
+                    if (!TimeSeriesClient.isNewRecord(record)) return CompletableFuture.completedFuture(null);
+                    return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForTimeSeriesIndexes(timeSeriesName),
+                            timeSeriesClient.opsForBucketIndexRecord(timeSeriesName, bucketStartTime))
+                            .thenCompose(ignore -> addToCatalogIfNew(timeSeriesName, record));
+                });
+    }
+
+    /**
+     * Load the data points from lastRecordLoaded onwards - chaining further calls until all points are loaded
+     *
+     * @param timeSeriesName      - time series name
+     * @param dataPoints          - data points as a batch
+     * @param lastRecordLoaded    - index of first data point not yet loaded
+     * @param existingRecordCount - no of points in the current block
+     * @param createCurrentBlock  - true if the points follow every historic block, so the write may create the current block
+     * @return future completing when all points have been written
+     */
+    private CompletableFuture<Void> putFrom(String timeSeriesName, DataPointBatch dataPoints, int lastRecordLoaded, int existingRecordCount,
+                                            boolean createCurrentBlock) {
+        // Stop when all records have been 'put'
+        if (lastRecordLoaded >= dataPoints.getLength()) return CompletableFuture.completedFuture(null);
+        // Load records remaining or whatever we have space for, whichever is the smaller
+        int numberOfRecordsToLoad = Math.min(dataPoints.getLength() - lastRecordLoaded, timeSeriesClient.roomInCurrentBlock(existingRecordCount));
+        Operation[] ops = timeSeriesClient.opsForBatchPut(timeSeriesName, dataPoints, lastRecordLoaded, numberOfRecordsToLoad);
+        // Filtered out if the block start time has moved past the run since it was read. Only the first run may create the
+        // block - later ones find it deleted if it has been rolled over
+        long earliestTimestamp = TimeSeriesClient.earliestTimestamp(dataPoints, lastRecordLoaded, numberOfRecordsToLoad);
+        WritePolicy runWritePolicy = createCurrentBlock ? timeSeriesClient.currentBlockCreationPolicy(earliestTimestamp) : timeSeriesClient.onTimeWritePolicy(earliestTimestamp);
+        return operateOnCurrentBlock(runWritePolicy, timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName), ops)
+                .thenCompose(record -> {
+                    // Start again with the points remaining, so those now late, or preceding the end of a block rolled over, go to the historic blocks covering them
+                    if (record == null) return putToStripe(timeSeriesName,
+                            TimeSeriesClient.subBatch(dataPoints, lastRecordLoaded, dataPoints.getLength() - lastRecordLoaded));
+                    // If the block is full, 'archive' it
+                    return addToCatalogIfNew(timeSeriesName, record).thenCompose(ignore -> rolloverIfFull(timeSeriesName, record))
+                            // If we're at this point we know we'll be inserting to an empty block
+                            .thenCompose(ignore -> putFrom(timeSeriesName, dataPoints, lastRecordLoaded + numberOfRecordsToLoad, 0, false));
+                });
+    }
+
+    /**
+     * Take the full current block for timeSeriesName and copy it to a historic block
+     * Remove the current block when done - retrying if the current block changed while being copied
+     * See TimeSeriesClient for a full explanation
+     *
+     * @param timeSeriesName - name of series we're processing
+     * @param fullBlock      - snapshot of the current block, as returned by the write that filled it
+     * @param retryCount     - number of retries to allow if there is a generation check error
+     * @param roundTrips     - database round trips used by this rollover so far
+     * @return future completing when the copy is complete
+     */
+    private CompletableFuture<Void> copyCurrentDataToHistoricBlock(String timeSeriesName, Record fullBlock, int retryCount, int roundTrips) {
+        Key currentKey = timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName);
+        return writeHistoricBlock(timeSeriesName, fullBlock, RETRY_COUNT_FOR_FAILED_BLOCK_COPY, roundTrips)
+                .thenCompose(copyRoundTrips -> operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForTimeSeriesIndexes(timeSeriesName),
+                        timeSeriesClient.opsForTimeSeriesIndexRecord(timeSeriesName, fullBlock))
+                        .thenCompose(ignore -> rollupBlock(timeSeriesName, TimeSeriesClient.blockStartTime(fullBlock)))
+                        // Successful completion of the write means the archived block exists - no need for a separate check
+                        // We check that in the meantime the current record has not changed via the generation check
+                        .thenCompose(rollupRoundTrips -> delete(timeSeriesClient.generationCheckWritePolicy(fullBlock.generation), currentKey)
+                                .handle((existed, throwable) -> {
+                                    int rolloverRoundTrips = copyRoundTrips + 2 + rollupRoundTrips;
+                                    if (throwable == null) {
+                                        timeSeriesClient.recordBlockRollover(rolloverRoundTrips);
+                                        return CompletableFuture.<Void>completedFuture(null);
+                                    }
+                                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                                    if (cause instanceof AerospikeException && ((AerospikeException) cause).getResultCode() == ResultCode.GENERATION_ERROR) {
+                                        // If the delete fails, we retry with a fresh copy of the current block, unless it has since been
+                                        // 'archived' by another writer. If retries are exhausted we still have all the data, possibly twice
+                                        if (retryCount > 0)
+                                            return retryCopyCurrentDataToHistoricBlock(timeSeriesName, retryCount - 1, rolloverRoundTrips);
+                                        timeSeriesClient.recordBlockRollover(rolloverRoundTrips);
+                                        return CompletableFuture.<Void>completedFuture(null);
+                                    }
+                                    CompletableFuture<Void> failed = new CompletableFuture<>();
+                                    failed.completeExceptionally(cause);
+                                    return failed;
+                                })
+                                .thenCompose(future -> future)));
+    }
+
+    /**
+     * Merge a snapshot of the current block into the corresponding historic block, retrying if another copy of the same
+     * block got there first
+     * See TimeSeriesClient.writeHistoricBlock for a full explanation
+     *
+     * @param timeSeriesName - name of series we're processing
+     * @param block          - snapshot of the current block
+     * @param retryCount     - number of retries to allow if the historic block changed while being merged
+     * @param roundTrips     - database round trips used by this rollover so far
+     * @return future giving the round trips used by the rollover once the block is written
+     */
+    private CompletableFuture<Integer> writeHistoricBlock(String timeSeriesName, Record block, int retryCount, int roundTrips) {
+        Key historicKey = timeSeriesClient.asKeyForHistoricTimeSeriesBlock(timeSeriesName, TimeSeriesClient.blockStartTime(block));
+        if (!timeSeriesClient.isHistoricBlockMergedOnClient())
+            return operate(timeSeriesClient.getWritePolicy(), historicKey, timeSeriesClient.opsForHistoricBlock(block))
+                    .thenApply(ignore -> roundTrips + 1);
+        return get(timeSeriesClient.getReadPolicy(), historicKey)
+                .thenCompose(historicBlock -> thenOrRetry(operate(timeSeriesClient.unchangedRecordWritePolicy(historicBlock), historicKey,
+                                timeSeriesClient.opsForHistoricBlock(TimeSeriesClient.mergedHistoricBlock(block, historicBlock))),
+                        retryCount,
+                        () -> CompletableFuture.completedFuture(roundTrips + 2),
+                        () -> writeHistoricBlock(timeSeriesName, block, retryCount - 1, roundTrips + 2)));
+    }
+
+    /**
+     * Re-read the current block after a failed rollover and retry the rollover if the block is still full
+     *
+     * @param timeSeriesName - name of series we're processing
+     * @param retryCount     - number of retries to allow if there is a further generation check error
+     * @param roundTrips     - database round trips used by this rollover so far
+     * @return future completing when the copy is complete
+     */
+    private CompletableFuture<Void> retryCopyCurrentDataToHistoricBlock(String timeSeriesName, int retryCount, int roundTrips) {
+        return get(timeSeriesClient.getReadPolicy(), timeSeriesClient.asCurrentKeyForTimeSeries(timeSeriesName))
+                .thenCompose(currentRecord -> {
+                    if (timeSeriesClient.isFullBlock(currentRecord))
+                        return copyCurrentDataToHistoricBlock(timeSeriesName, currentRecord, retryCount, roundTrips + 1);
+                    timeSeriesClient.recordBlockRollover(roundTrips + 1);
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+
+    /**
+     * Update the rollup tiers for a historic block, if rollups are in use
+     * See TimeSeriesClient.rollupBlock for a full explanation
+     *
+     * @param timeSeriesName - name of series we're processing
+     * @param blockStartTime - start time of the historic block
+     * @return future giving the database round trips used, once all the tiers have been updated
+     */
+    private CompletableFuture<Integer> rollupBlock(String timeSeriesName, long blockStartTime) {
+        RollupTiers tiers = timeSeriesClient.getRollupTiers();
+        if (tiers == null) return CompletableFuture.completedFuture(0);
+        return rollupFinestTier(tiers, timeSeriesName, blockStartTime, RETRY_COUNT_FOR_FAILED_BLOCK_COPY, 0);
+    }
+
+    /**
+     * Set a historic block's contribution to the finest rollup tier, then recompute the coarser tiers
+     *
+     * @param tiers          - rollup tiers
+     * @param timeSeriesName - name of series we're processing
+     * @param blockStartTime - start time of the historic block
+     * @param retryCount     - number of retries to allow if a rollup record is written by another writer
+     * @param roundTrips     - database round trips used by this rollup so far
+     * @return future giving the database round trips used, once all the tiers have been updated
+     */
+    private CompletableFuture<Integer> rollupFinestTier(RollupTiers tiers, String timeSeriesName, long blockStartTime, int retryCount, int roundTrips) {
+        Key blockKey = timeSeriesClient.asKeyForHistoricTimeSeriesBlock(timeSeriesName, blockStartTime);
+        return get(timeSeriesClient.getReadPolicy(), blockKey)
+                .thenCompose(block -> {
+                    if (block == null) return CompletableFuture.completedFuture(roundTrips + 1);
+                    SortedMap<Long, List<Object>> bucketAggregates = RollupTiers.bucketAggregates(
+                            TimeSeriesClient.pointsFromBlocks(new Record[]{block}, Long.MIN_VALUE, Long.MAX_VALUE, new DataPointBatch()), tiers.getWidths()[0]);
+                    if (bucketAggregates.isEmpty()) return CompletableFuture.completedFuture(roundTrips + 1);
+                    SortedSet<Long> bucketStartTimes = new TreeSet<>(bucketAggregates.keySet());
+                    List<BatchRead> recordHeaderReads = tiers.recordHeaderReads(timeSeriesName, 0, bucketStartTimes);
+                    return get(new BatchPolicy(timeSeriesClient.getReadPolicy()), recordHeaderReads)
+                            .thenCompose(ignore -> getHeader(timeSeriesClient.getReadPolicy(), blockKey))
+                            .thenCompose(blockHeader -> {
+                                // If the block has changed, the writer that changed it rolls it up
+                                if (blockHeader == null || blockHeader.generation != block.generation) return CompletableFuture.completedFuture(roundTrips + 3);
+                                Map<Key, Record> rollupRecords = TimeSeriesClient.records(recordHeaderReads);
+                                Map<Key, Operation[]> opsByKey = tiers.opsForBlock(timeSeriesName, blockStartTime, bucketAggregates);
+                                int tierRoundTrips = roundTrips + 3 + opsByKey.size();
+                                return thenOrRetry(writeUnchangedRecords(opsByKey, rollupRecords), retryCount,
+                                        () -> rollupTier(tiers, timeSeriesName, 1, bucketStartTimes, rollupRecords, RETRY_COUNT_FOR_FAILED_BLOCK_COPY, tierRoundTrips),
+                                        () -> rollupFinestTier(tiers, timeSeriesName, blockStartTime, retryCount - 1, tierRoundTrips));
+                            });
+                });
+    }
+
+    /**
+     * Recompute the buckets of a rollup tier covering the given buckets of the tier below, then do the same for the
+     * tiers above
+     *
+     * @param tiers                 - rollup tiers
+     * @param timeSeriesName        - name of series we're processing
+     * @param tier                  - tier to recompute
+     * @param finerBucketStartTimes - start times of the buckets changed in the tier below
+     * @param rollupRecords         - rollup records of this tier and those above, as read before the tier below was read
+     * @param retryCount            - number of retries to allow if a rollup record is written by another writer
+     * @param roundTrips            - database round trips used by this rollup so far
+     * @return future giving the database round trips used, once this tier and those above have been updated
+     */
+    private CompletableFuture<Integer> rollupTier(RollupTiers tiers, String timeSeriesName, int tier, SortedSet<Long> finerBucketStartTimes,
+                                                  Map<Key, Record> rollupRecords, int retryCount, int roundTrips) {
+        if (tier >= tiers.getTierCount()) return CompletableFuture.completedFuture(roundTrips);
+        SortedSet<Long> bucketStartTimes = tiers.coveringBuckets(finerBucketStartTimes, tier);
+        BatchPolicy batchPolicy = new BatchPolicy(timeSeriesClient.getReadPolicy());
+        return get(batchPolicy, tiers.finerBucketReads(timeSeriesName, tier, bucketStartTimes))
+                .thenCompose(finerBucketReads -> {
+                    Map<Key, Operation[]> opsByKey = tiers.opsForTotals(timeSeriesName, tier, bucketStartTimes, finerBucketReads);
+                    int tierRoundTrips = roundTrips + 1 + opsByKey.size();
+                    return thenOrRetry(writeUnchangedRecords(opsByKey, rollupRecords), retryCount,
+                            () -> rollupTier(tiers, timeSeriesName, tier + 1, bucketStartTimes, rollupRecords, RETRY_COUNT_FOR_FAILED_BLOCK_COPY, tierRoundTrips),
+                            () -> {
+                                // Read the records again, then the tier below
+                                List<BatchRead> recordHeaderReads = tiers.recordHeaderReads(timeSeriesName, tier, bucketStartTimes);
+                                return get(batchPolicy, recordHeaderReads).thenCompose(ignore -> {
+                                    rollupRecords.putAll(TimeSeriesClient.records(recordHeaderReads));
+                                    return rollupTier(tiers, timeSeriesName, tier, finerBucketStartTimes, rollupRecords, retryCount - 1, tierRoundTrips + 1);
+                                });
+                            });
+                });
+    }
+
+    /**
+     * Apply a set of operations, one per record, in parallel, each only if its record is as it was read
+     *
+     * @param opsByKey - operations keyed by record
+     * @param records  - records as read, keyed by record - see TimeSeriesClient.records
+     * @return future completing when all have been applied
+     */
+    private CompletableFuture<Void> writeUnchangedRecords(Map<Key, Operation[]> opsByKey, Map<Key, Record> records) {
+        List<CompletableFuture<Record>> writes = new ArrayList<>();
+        for (Map.Entry<Key, Operation[]> recordOps : opsByKey.entrySet())
+            writes.add(operate(timeSeriesClient.unchangedRecordWritePolicy(records.get(recordOps.getKey())), recordOps.getKey(), recordOps.getValue()));
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Continue after writes made with TimeSeriesClient.unchangedRecordWritePolicy - with next if they succeeded, or with
+     * retry if one failed as its record was written by another writer, and retries remain
+     *
+     * @param write      - future completing when the writes have been made
+     * @param retryCount - number of retries remaining
+     * @param next       - continuation if the writes succeed
+     * @param retry      - continuation if the writes are to be retried
+     * @param <T>        - result type
+     * @return future completing with the continuation
+     */
+    private static <T> CompletableFuture<T> thenOrRetry(CompletableFuture<?> write, int retryCount,
+                                                        Supplier<CompletableFuture<T>> next, Supplier<CompletableFuture<T>> retry) {
+        return write.handle((ignore, throwable) -> {
+                    if (throwable == null) return next.get();
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    if (retryCount > 0 && cause instanceof AerospikeException && TimeSeriesClient.isConcurrentWrite((AerospikeException) cause))
+                        return retry.get();
+                    CompletableFuture<T> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(cause);
+                    return failed;
+                })
+                .thenCompose(future -> future);
+    }
+
+    /**
+     * Apply a set of operations, one per record, in parallel
+     *
+     * @param opsByKey - operations keyed by record
+     * @return future completing when all have been applied
+     */
+    private CompletableFuture<Void> operateAll(Map<Key, Operation[]> opsByKey) {
+        List<CompletableFuture<Record>> writes = new ArrayList<>();
+        for (Map.Entry<Key, Operation[]> recordOps : opsByKey.entrySet())
+            writes.add(operate(timeSeriesClient.getWritePolicy(), recordOps.getKey(), recordOps.getValue()));
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Asynchronously retrieve a specific data point for a named time series
+     *
+     * @param timeSeriesName name of relevant series
+     * @param dateTime       timestamp for point we want
+     * @return future supplying the data point, or null if not found
+     */
+    @SuppressWarnings("unused") // Required in API
+    public CompletableFuture<DataPoint> getPoint(String timeSeriesName, Date dateTime) {
+        return getPoints(timeSeriesName, dateTime, dateTime).thenApply(dataPoints -> dataPoints.length == 1 ? dataPoints[0] : null);
+    }
+
+    /**
+     * Asynchronously retrieve the latest data point for a named time series
+     *
+     * @param timeSeriesName name of relevant series
+     * @return future supplying the latest data point, or null if the series has no points
+     */
+    @SuppressWarnings("unused") // Required in API
+    public CompletableFuture<DataPoint> getLatest(String timeSeriesName) {
+        return getLastN(timeSeriesName, 1).thenApply(dataPoints -> dataPoints.length == 1 ? dataPoints[0] : null);
+    }
+
+    /**
+     * Asynchronously retrieve the latest n data points for a named time series
+     * <p>
+     * Semantics are as per TimeSeriesClient.getLastN(String, int)
+     *
+     * @param timeSeriesName name of relevant series
+     * @param n              number of points required
+     * @return future supplying up to n latest data points, in timestamp order
+     */
+    public CompletableFuture<DataPoint[]> getLastN(String timeSeriesName, int n) {
+        return readTail(timeSeriesClient.tailRead(timeSeriesName, n));
+    }
+
+    /**
+     * Make the reads of a tail read, one round at a time
+     *
+     * @param tailRead - tail read
+     * @return future supplying the latest data points
+     */
+    private CompletableFuture<DataPoint[]> readTail(TailRead tailRead) {
+        BlockCacheRead read = tailRead.nextRead();
+        if (read == null) return CompletableFuture.completedFuture(tailRead.getResult());
+        return getAll(read.getReads()).thenCompose(ignore -> complete(read)).thenCompose(ignore -> readTail(tailRead));
+    }
+
+    /**
+     * Asynchronously retrieve all time series points between two given date / times (inclusive)
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return future supplying the data points found, in timestamp order
+     */
+    public CompletableFuture<DataPoint[]> getPoints(String timeSeriesName, Date fromDateTime, Date toDateTime) {
+        return getPoints(timeSeriesName, fromDateTime.getTime(), toDateTime.getTime());
+    }
+
+    /**
+     * Asynchronously retrieve all time series points between two given times (inclusive) into a batch
+     * <p>
+     * Semantics are as per TimeSeriesClient.getPoints(String, long, long, DataPointBatch)
+     * The batch must not be used until the returned future completes
+     *
+     * @param timeSeriesName - name of time series
+     * @param startTime      - start time for required range, as a long
+     * @param endTime        - end time for required range, as a long
+     * @param dataPoints     - batch to receive the data points, in timestamp order
+     * @return future supplying the batch passed in
+     */
+    public CompletableFuture<DataPointBatch> getPoints(String timeSeriesName, long startTime, long endTime, DataPointBatch dataPoints) {
+        return getBlocks(timeSeriesName, startTime, endTime)
+                .thenApply(timeSeriesBlocks -> TimeSeriesClient.pointsFromBlocks(timeSeriesBlocks, startTime, endTime, dataPoints));
+    }
+
+    /**
+     * Asynchronously retrieve all time series points between two given date / times (inclusive) for each of a number of
+     * time series
+     * <p>
+     * Semantics are as per TimeSeriesClient.getPoints(Collection, Date, Date)
+     *
+     * @param timeSeriesNames - names of time series
+     * @param fromDateTime    - start time for required range
+     * @param toDateTime      - end time for required range
+     * @return future supplying the data points for each series, in timestamp order, keyed by series name in the order given
+     */
+    public CompletableFuture<Map<String, DataPoint[]>> getPoints(Collection<String> timeSeriesNames, Date fromDateTime, Date toDateTime) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        List<String> seriesNames = new ArrayList<>(new LinkedHashSet<>(timeSeriesNames));
+        CompletableFuture<List<BatchRead>> stripeIndexReads = timeSeriesClient.isBucketed() || endTime < startTime ? CompletableFuture.completedFuture(null)
+                : getAll(timeSeriesClient.stripeIndexReads(seriesNames));
+        return stripeIndexReads.thenCompose(completedReads -> {
+            List<List<BatchRead>> blockReadsBySeries = new ArrayList<>();
+            List<BatchRead> blockReads = new ArrayList<>();
+            for (List<Key[]> blockRuns : timeSeriesClient.blockRunsBySeries(seriesNames, completedReads, startTime, endTime)) {
+                blockReadsBySeries.add(TimeSeriesClient.blockReads(blockRuns, startTime, endTime));
+                blockReads.addAll(blockReadsBySeries.get(blockReadsBySeries.size() - 1));
+            }
+            BlockCacheRead blockCacheRead = timeSeriesClient.blockCacheRead(seriesNames, blockReads);
+            return getAll(blockCacheRead.getReads()).thenCompose(ignore -> complete(blockCacheRead)).thenApply(ignore -> {
+                Map<String, DataPoint[]> dataPointsBySeries = new LinkedHashMap<>();
+                for (int i = 0; i < seriesNames.size(); i++)
+                    dataPointsBySeries.put(seriesNames.get(i), TimeSeriesClient.dataPointsFromBlocks(TimeSeriesClient.records(blockReadsBySeries.get(i)),
+                            startTime, endTime));
+                return dataPointsBySeries;
+            });
+        });
+    }
+
+    /**
+     * Internal method - asynchronously retrieve time series data points with start and end time expressed as longs
+     *
+     * @param timeSeriesName name of time series we're retrieving points for
+     * @param startTime      start time of required range
+     * @param endTime        end time of required range
+     * @return future supplying DataPoint[]
+     */
+    private CompletableFuture<DataPoint[]> getPoints(String timeSeriesName, long startTime, long endTime) {
+        return getBlocks(timeSeriesName, startTime, endTime)
+                .thenApply(timeSeriesBlocks -> TimeSeriesClient.dataPointsFromBlocks(timeSeriesBlocks, startTime, endTime));
+    }
+
+    /**
+     * Internal method - asynchronously retrieve the blocks holding the data points between startTime and endTime
+     *
+     * @param timeSeriesName name of time series we're retrieving blocks for
+     * @param startTime      start time of required range
+     * @param endTime        end time of required range
+     * @return future supplying the blocks as retrieved from the database. May contain nulls
+     */
+    private CompletableFuture<Record[]> getBlocks(String timeSeriesName, long startTime, long endTime) {
+        // Try cached block directories first - see TimeSeriesClient.setBlockDirectoryCacheSize
+        CachedBlockRead cachedBlockRead = timeSeriesClient.cachedBlockRead(timeSeriesName, startTime, endTime);
+        if (cachedBlockRead != null) {
+            return get(new BatchPolicy(timeSeriesClient.getReadPolicy()), cachedBlockRead.getReads())
+                    .thenCompose(ignore -> {
+                        BlockCacheRead blockCacheRead = cachedBlockRead.result();
+                        return blockCacheRead != null ? complete(blockCacheRead) : getBlocksUsingIndex(timeSeriesName, startTime, endTime);
+                    });
+        }
+        return getBlocksUsingIndex(timeSeriesName, startTime, endTime);
+    }
+
+    /**
+     * Internal method - asynchronously retrieve the blocks holding the data points between startTime and endTime,
+     * reading the index to find them
+     *
+     * @param timeSeriesName name of time series we're retrieving blocks for
+     * @param startTime      start time of required range
+     * @param endTime        end time of required range
+     * @return future supplying the blocks as retrieved from the database. May contain nulls
+     */
+    private CompletableFuture<Record[]> getBlocksUsingIndex(String timeSeriesName, long startTime, long endTime) {
+        return getBlockRuns(timeSeriesName, startTime, endTime)
+                .thenCompose(blockRuns -> {
+                    BlockCacheRead blockCacheRead = timeSeriesClient.blockCacheRead(Collections.singletonList(timeSeriesName),
+                            TimeSeriesClient.blockReads(blockRuns, startTime, endTime));
+                    return get(new BatchPolicy(timeSeriesClient.getReadPolicy()), blockCacheRead.getReads()).thenCompose(ignore -> complete(blockCacheRead));
+                });
+    }
+
+    /**
+     * Complete a block cache read, once its reads have been made - making any follow up reads
+     * See TimeSeriesClient.setBlockCacheSize
+     *
+     * @param blockCacheRead - block cache read
+     * @return future supplying the blocks as retrieved from the database, in block read order. May contain nulls
+     */
+    private CompletableFuture<Record[]> complete(BlockCacheRead blockCacheRead) {
+        return getAll(blockCacheRead.getFollowUpReads()).thenApply(ignore -> {
+            blockCacheRead.complete();
+            return TimeSeriesClient.records(blockCacheRead.getBlockReads());
+        });
+    }
+
+    /**
+     * Internal method - asynchronously find the keys of the blocks holding the data points between startTime and endTime
+     *
+     * @param timeSeriesName name of time series we're retrieving blocks for
+     * @param startTime      start time of required range
+     * @param endTime        end time of required range
+     * @return future supplying runs of keys, one per stripe, each in time order
+     */
+    private CompletableFuture<List<Key[]>> getBlockRuns(String timeSeriesName, long startTime, long endTime) {
+        if (endTime < startTime) return CompletableFuture.completedFuture(new ArrayList<>());
+        // In the bucketed layout, keys can be calculated directly - no need to read the index
+        if (timeSeriesClient.isBucketed()) {
+            return CompletableFuture.completedFuture(timeSeriesClient.blockRunsForBuckets(timeSeriesClient.stripeNames(timeSeriesName),
+                    timeSeriesClient.bucketStartTimesForRange(startTime, endTime)));
+        }
+        // If striped, read all the stripe indexes in one batch
+        if (timeSeriesClient.isStriped()) {
+            return get(new BatchPolicy(timeSeriesClient.getReadPolicy()), timeSeriesClient.stripeIndexReads(timeSeriesName))
+                    .thenApply(stripeIndexReads -> {
+                        timeSeriesClient.cacheBlockDirectories(timeSeriesName, stripeIndexReads);
+                        return timeSeriesClient.blockRunsForStripeIndexReads(timeSeriesName, stripeIndexReads, startTime, endTime);
+                    });
+        }
+        return operate(timeSeriesClient.getWritePolicy(), timeSeriesClient.asKeyForTimeSeriesIndexes(timeSeriesName),
+                TimeSeriesClient.opForBlockStartTimes())
+                .thenApply(indexListRecord -> {
+                    timeSeriesClient.cacheBlockDirectory(timeSeriesName, indexListRecord);
+                    return Collections.singletonList(timeSeriesClient.keysForBlockStartTimes(timeSeriesName,
+                            TimeSeriesClient.blockStartTimesForRange(indexListRecord, startTime, endTime)));
+                });
+    }
+
+    /**
+     * Asynchronously retrieve the rollups of a time series between two given date / times (inclusive), for one of the
+     * rollup tiers
+     * <p>
+     * Semantics are as per TimeSeriesClient.getRollups
+     *
+     * @param timeSeriesName - name of time series
+     * @param rollupWidth    - bucket width of the rollup tier, as passed to TimeSeriesClient.setRollupWidths
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return future supplying the rollups in time order, omitting buckets with no points
+     */
+    public CompletableFuture<Rollup[]> getRollups(String timeSeriesName, long rollupWidth, Date fromDateTime, Date toDateTime) {
+        RollupTiers tiers = timeSeriesClient.rollupTiersForQuery();
+        int tier = tiers.tier(rollupWidth);
+        String[] stripeNames = timeSeriesClient.stripeNames(timeSeriesName);
+        return get(new BatchPolicy(timeSeriesClient.getReadPolicy()), tiers.queryReads(stripeNames, tier, fromDateTime.getTime(), toDateTime.getTime()))
+                .thenApply(queryReads -> tiers.queryResult(stripeNames, tier, fromDateTime.getTime(), toDateTime.getTime(), queryReads));
+    }
+
+    /**
+     * Asynchronously run a query vs a particular time series range. Query types are as per the enum QueryOperation
+     *
+     * @param timeSeriesName - time series to run query against
+     * @param operation      - operation to apply to query e.g. avg, vol, max, min
+     * @param fromDateTime   - start time for required time series range
+     * @param toDateTime     - end time for required time series range
+     * @return future supplying the result of the query
+     */
+    public CompletableFuture<Double> runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        CompletableFuture<QueryPlan> queryPlan;
+        if (timeSeriesClient.isBucketed()) {
+            queryPlan = getBlockRuns(timeSeriesName, startTime, endTime)
+                    .thenApply(blockRuns -> new QueryPlan(blockRuns, null, false, startTime, endTime, operation));
+        } else {
+            // Index entries are read whole, as their summaries may make block reads unnecessary
+            List<BatchRead> indexEntryReads = timeSeriesClient.indexEntryReads(timeSeriesName);
+            queryPlan = (endTime >= startTime ? get(new BatchPolicy(timeSeriesClient.getReadPolicy()), indexEntryReads) : CompletableFuture.completedFuture(indexEntryReads))
+                    .thenApply(completedReads -> timeSeriesClient.queryPlanForIndexEntryReads(timeSeriesName, completedReads, startTime, endTime, operation));
+        }
+        return queryPlan.thenCompose(plan -> runQueryPlan(timeSeriesName, plan));
+    }
+
+    /**
+     * Asynchronously run a query vs the same range of each of a number of time series
+     * <p>
+     * Semantics are as per TimeSeriesClient.runQuery(Collection, QueryOperation, Date, Date)
+     *
+     * @param timeSeriesNames - time series to run query against
+     * @param operation       - operation to apply to query e.g. avg, vol, max, min
+     * @param fromDateTime    - start time for required time series range
+     * @param toDateTime      - end time for required time series range
+     * @return future supplying the result of the query for each series, keyed by series name in the order given
+     */
+    public CompletableFuture<Map<String, Double>> runQuery(Collection<String> timeSeriesNames, QueryOperation operation, Date fromDateTime, Date toDateTime) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        List<String> seriesNames = new ArrayList<>(new LinkedHashSet<>(timeSeriesNames));
+        List<BatchRead> indexEntryReads = timeSeriesClient.isBucketed() ? null : timeSeriesClient.indexEntryReads(seriesNames);
+        return (indexEntryReads != null && endTime >= startTime ? getAll(indexEntryReads) : CompletableFuture.completedFuture(indexEntryReads))
+                .thenApply(completedReads -> timeSeriesClient.queryPlans(seriesNames, completedReads, startTime, endTime, operation))
+                .thenCompose(queryPlans -> readBlocks(seriesNames, queryPlans)
+                        .thenCompose(ignore -> getAll(TimeSeriesClient.followUpReads(queryPlans)))
+                        .thenApply(ignore -> TimeSeriesClient.queryResults(seriesNames, queryPlans)));
+    }
+
+    /**
+     * Asynchronously run a query vs a particular time series range, computing one result per fixed time bucket
+     * <p>
+     * Semantics are as per TimeSeriesClient.runQuery(String, QueryOperation, Date, Date, long)
+     *
+     * @param timeSeriesName - time series to run query against
+     * @param operation      - operation to apply to query e.g. avg, vol, max, min
+     * @param fromDateTime   - start time for required time series range
+     * @param toDateTime     - end time for required time series range
+     * @param bucketWidth    - width of the time buckets in milliseconds
+     * @return future supplying bucket start times and results, as a batch of timestamps and values in time order
+     */
+    public CompletableFuture<DataPointBatch> runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime, long bucketWidth) {
+        if (bucketWidth <= 0) throw new IllegalArgumentException("bucketWidth must be positive");
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        TreeMap<Long, QueryAggregator> bucketAggregators = new TreeMap<>();
+        long rollupWidth = timeSeriesClient.rollupWidthForBuckets(operation, bucketWidth);
+        long[] wholeBuckets = TimeSeriesClient.wholeBucketRange(startTime, endTime, bucketWidth);
+        CompletableFuture<Void> accumulated;
+        if (rollupWidth > 0 && wholeBuckets != null) {
+            long wholeBucketsStartTime = wholeBuckets[0];
+            long wholeBucketsEndTime = wholeBuckets[1];
+            // Partial buckets at the ends of the range are accumulated in turn, as the aggregators are not thread safe
+            accumulated = getRollups(timeSeriesName, rollupWidth, new Date(wholeBucketsStartTime), new Date(wholeBucketsEndTime))
+                    .thenAccept(rollups -> TimeSeriesClient.acceptRollups(rollups, bucketWidth, bucketAggregators))
+                    .thenCompose(ignore -> accumulateBuckets(timeSeriesName, operation, startTime, wholeBucketsStartTime - 1, bucketWidth, bucketAggregators))
+                    .thenCompose(ignore -> accumulateBuckets(timeSeriesName, operation, wholeBucketsEndTime + 1, endTime, bucketWidth, bucketAggregators));
+        } else {
+            accumulated = accumulateBuckets(timeSeriesName, operation, startTime, endTime, bucketWidth, bucketAggregators);
+        }
+        return accumulated.thenApply(ignore -> TimeSeriesClient.bucketResults(bucketAggregators, operation, new DataPointBatch()));
+    }
+
+    /**
+     * Asynchronously accumulate the points in a range into per bucket aggregators
+     * See TimeSeriesClient.accumulateBuckets
+     *
+     * @param timeSeriesName    - time series name
+     * @param operation         - query operation
+     * @param startTime         - start of range
+     * @param endTime           - end of range
+     * @param bucketWidth       - bucket width
+     * @param bucketAggregators - aggregators keyed by bucket start time
+     * @return future completing when the points have been accumulated
+     */
+    private CompletableFuture<Void> accumulateBuckets(String timeSeriesName, QueryOperation operation, long startTime, long endTime, long bucketWidth,
+                                                      TreeMap<Long, QueryAggregator> bucketAggregators) {
+        if (endTime < startTime) return CompletableFuture.completedFuture(null);
+        CompletableFuture<QueryPlan> queryPlan;
+        if (timeSeriesClient.isBucketed()) {
+            queryPlan = getBlockRuns(timeSeriesName, startTime, endTime)
+                    .thenApply(blockRuns -> new QueryPlan(blockRuns, null, false, startTime, endTime, operation, bucketWidth));
+        } else {
+            queryPlan = get(new BatchPolicy(timeSeriesClient.getReadPolicy()), timeSeriesClient.indexEntryReads(timeSeriesName))
+                    .thenApply(completedReads -> timeSeriesClient.queryPlanForIndexEntryReads(timeSeriesName, completedReads, startTime, endTime,
+                            operation, bucketWidth));
+        }
+        return queryPlan.thenCompose(plan -> readBlocks(Collections.singletonList(timeSeriesName), Collections.singletonList(plan))
+                .thenCompose(ignore -> plan.getFollowUpReads().isEmpty() ? CompletableFuture.completedFuture(null) :
+                        get(new BatchPolicy(timeSeriesClient.getReadPolicy()), plan.getFollowUpReads()))
+                .thenAccept(ignore -> plan.accumulateBuckets(bucketAggregators)));
+    }
+
+    /**
+     * Carry out the reads for a query plan
+     *
+     * @param timeSeriesName - time series queried
+     * @param queryPlan      - query plan
+     * @return future supplying the result of the query
+     */
+    private CompletableFuture<Double> runQueryPlan(String timeSeriesName, QueryPlan queryPlan) {
+        return readBlocks(Collections.singletonList(timeSeriesName), Collections.singletonList(queryPlan))
+                .thenCompose(ignore -> queryPlan.getFollowUpReads().isEmpty() ? CompletableFuture.completedFuture(null) :
+                        get(new BatchPolicy(timeSeriesClient.getReadPolicy()), queryPlan.getFollowUpReads()))
+                .thenApply(ignore -> queryPlan.result());
+    }
+
+    /**
+     * Make the block reads of a number of query plans, through the block cache - see TimeSeriesClient.setBlockCacheSize
+     *
+     * @param timeSeriesNames - time series queried, one per plan
+     * @param queryPlans      - query plans
+     * @return future completing when the block reads of the plans have their records
+     */
+    private CompletableFuture<Record[]> readBlocks(List<String> timeSeriesNames, List<QueryPlan> queryPlans) {
+        BlockCacheRead blockCacheRead = timeSeriesClient.queryBlockCacheRead(timeSeriesNames, queryPlans);
+        return getAll(blockCacheRead.getReads()).thenCompose(ignore -> complete(blockCacheRead));
+    }
+
+    /**
+     * Asynchronously list a page of the time series in the set, optionally restricted to names starting with a prefix
+     * <p>
+     * Semantics are as per TimeSeriesClient.listSeries
+     *
+     * @param prefix    - only list names starting with this prefix - use an empty string to list all series
+     * @param pageToken - SeriesNamePage.getNextPageToken() from the previous page, or null for the first page
+     * @param pageSize  - maximum number of names in the page
+     * @return future supplying the page of series names
+     */
+    public CompletableFuture<SeriesNamePage> listSeries(String prefix, String pageToken, int pageSize) {
+        return listFrom(new SeriesListing(timeSeriesClient.getSeriesCatalog(), prefix, pageToken, pageSize));
+    }
+
+    /**
+     * Run the remaining rounds of reads for a series listing - chaining further calls until the page is complete
+     *
+     * @param seriesListing - series listing
+     * @return future supplying the page of series names
+     */
+    private CompletableFuture<SeriesNamePage> listFrom(SeriesListing seriesListing) {
+        List<BatchRead> reads = seriesListing.getReads();
+        if (reads.isEmpty()) return CompletableFuture.completedFuture(seriesListing.result());
+        return getAll(reads).thenCompose(ignore -> listFrom(seriesListing));
+    }
+
+    /**
+     * Asynchronously set the tags of a time series, replacing any it already has
+     * <p>
+     * Semantics are as per TimeSeriesClient.setTags
+     *
+     * @param timeSeriesName - time series name
+     * @param tags           - tag keys and values, which must not be empty. Keys must not contain '='
+     * @return future completing when the tags and tag index have been updated
+     */
+    public CompletableFuture<Void> setTags(String timeSeriesName, Map<String, String> tags) {
+        TagIndex.checkTags(tags);
+        TagIndex tagIndex = timeSeriesClient.getTagIndex();
+        return operateAll(tagIndex.opsForIndexAdditions(timeSeriesName, tags))
+                .thenCompose(ignore -> operate(timeSeriesClient.getWritePolicy(), tagIndex.seriesTagsKey(timeSeriesName), tagIndex.opsForSeriesTags(timeSeriesName, tags)))
+                .thenCompose(previous -> operateAll(tagIndex.opsForIndexRemovals(timeSeriesName, TagIndex.tags(previous), tags)));
+    }
+
+    /**
+     * Asynchronously get the tags of a time series
+     *
+     * @param timeSeriesName - time series name
+     * @return future supplying tag keys and values, in key order - empty if the series has no tags
+     */
+    public CompletableFuture<Map<String, String>> getTags(String timeSeriesName) {
+        return get(timeSeriesClient.getReadPolicy(), timeSeriesClient.getTagIndex().seriesTagsKey(timeSeriesName)).thenApply(TagIndex::tags);
+    }
+
+    /**
+     * Asynchronously find the time series whose tags satisfy all the given matchers
+     * <p>
+     * Semantics are as per TimeSeriesClient.findSeries
+     *
+     * @param tagMatchers - tag matchers, of which there must be at least one
+     * @return future supplying names of matching series, in name order
+     */
+    public CompletableFuture<SortedSet<String>> findSeries(TagMatcher... tagMatchers) {
+        TagQuery tagQuery = new TagQuery(timeSeriesClient.getTagIndex(), tagMatchers);
+        return getAll(tagQuery.getReads())
+                .thenCompose(ignore -> tagQuery.getFollowUpReads().isEmpty() ? CompletableFuture.completedFuture(null) : getAll(tagQuery.getFollowUpReads()))
+                .thenApply(ignore -> tagQuery.result());
+    }
+
+    /**
+     * Batch read, splitting the reads into batches of at most Constants.MAX_RECORDS_PER_BATCH_READ, issued in parallel
+     *
+     * @param batchReads - batch reads
+     * @return future supplying the batch reads passed in, once all have completed
+     */
+    private CompletableFuture<List<BatchRead>> getAll(List<BatchRead> batchReads) {
+        List<CompletableFuture<List<BatchRead>>> batches = new ArrayList<>();
+        for (List<BatchRead> batch : TimeSeriesClient.batches(batchReads)) batches.add(get(new BatchPolicy(timeSeriesClient.getReadPolicy()), batch));
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0])).thenApply(ignore -> batchReads);
+    }
+
+    /*
+        Adaptors from the Aerospike listener style async API to CompletableFuture
+        Exceptions thrown when a command is issued are routed to the future rather than thrown
+     */
+
+    private CompletableFuture<Record> operate(WritePolicy policy, Key key, Operation... ops) {
+        CompletableFuture<Record> future = new CompletableFuture<>();
+        try {
+            asClient().operate(eventLoops.next(), recordListener(future), policy, key, ops);
+        } catch (AerospikeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // As per operate, for writes to the current block with the onTimeWritePolicy - completes with null if there is no current block
+    private CompletableFuture<Record> operateOnCurrentBlock(WritePolicy policy, Key key, Operation... ops) {
+        return operate(policy, key, ops).handle((record, throwable) -> {
+            if (throwable == null) return record;
+            Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+            if (cause instanceof AerospikeException && TimeSeriesClient.isMissingRecord((AerospikeException) cause)) return null;
+            throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(cause);
+        });
+    }
+
+    private CompletableFuture<Record> getHeader(Policy policy, Key key) {
+        CompletableFuture<Record> future = new CompletableFuture<>();
+        try {
+            asClient().getHeader(eventLoops.next(), recordListener(future), policy, key);
+        } catch (AerospikeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Record> get(Policy policy, Key key) {
+        CompletableFuture<Record> future = new CompletableFuture<>();
+        try {
+            asClient().get(eventLoops.next(), recordListener(future), policy, key);
+        } catch (AerospikeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletableFuture<List<BatchRead>> get(BatchPolicy policy, List<BatchRead> batchReads) {
+        CompletableFuture<List<BatchRead>> future = new CompletableFuture<>();
+        try {
+            asClient().get(eventLoops.next(), new BatchListListener() {
+                @Override
+                public void onSuccess(List<BatchRead> records) {
+                    future.complete(records);
+                }
+
+                @Override
+                public void onFailure(AerospikeException exception) {
+                    future.completeExceptionally(exception);
+                }
+            }, policy, batchReads);
+        } catch (AerospikeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private CompletableFuture<Boolean> delete(WritePolicy policy, Key key) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        try {
+            asClient().delete(eventLoops.next(), new DeleteListener() {
+                @Override
+                public void onSuccess(Key key, boolean existed) {
+                    future.complete(existed);
+                }
+
+                @Override
+                public void onFailure(AerospikeException exception) {
+                    future.completeExceptionally(exception);
+                }
+            }, policy, key);
+        } catch (AerospikeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static RecordListener recordListener(CompletableFuture<Record> future) {
+        return new RecordListener() {
+            @Override
+            public void onSuccess(Key key, Record record) {
+                future.complete(record);
+            }
+
+            @Override
+            public void onFailure(AerospikeException exception) {
+                future.completeExceptionally(exception);
+            }
+        };
+    }
+
+    private AerospikeClient asClient() {
+        return timeSeriesClient.getAsClient();
+    }
+}
@@ -0,0 +1,272 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least recently used cache of blocks, weighted by their serialized size - see TimeSeriesClient.setBlockCacheSize
+ * <p>
+ * Blocks are held serialized - their points, and any encoded bins - either on the heap or in direct (off heap) byte
+ * buffers, with the generation of the record they were read from. A cached block may only be used if a header only
+ * read of its record returns the same generation, as historic blocks change when late points are written to them - see
+ * BlockCacheRead
+ * <p>
+ * Thread safe
+ */
+final class BlockCache {
+
+    // Bins held for a block, other than the map bin
+    private static final String[] ENCODED_BIN_NAMES = {Constants.COMPRESSED_TIME_SERIES_BIN_NAME,
+            Constants.COLUMNAR_TIMESTAMPS_BIN_NAME, Constants.COLUMNAR_VALUES_BIN_NAME};
+
+    private final long maxBytes;
+    private final boolean offHeap;
+    // Access ordered, so iteration starts with the least recently used
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * BlockCache constructor
+     *
+     * @param maxBytes - maximum total serialized size of the blocks held
+     * @param offHeap  - whether blocks are held in direct byte buffers rather than on the heap
+     */
+    BlockCache(long maxBytes, boolean offHeap) {
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Maximum total serialized size of the blocks held
+     *
+     * @return size in bytes
+     */
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Whether blocks are held off heap
+     *
+     * @return true if held in direct byte buffers
+     */
+    boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Whether a block is cached, whatever its generation
+     *
+     * @param key - block key
+     * @return true if cached
+     */
+    boolean contains(Key key) {
+        synchronized (entries) {
+            return entries.containsKey(key);
+        }
+    }
+
+    /**
+     * A cached block, if it has the given generation. A block with another generation is out of date, so is removed
+     *
+     * @param key        - block key
+     * @param generation - current generation of the block record
+     * @return block as per a full read of the block - null if not cached or out of date
+     */
+    Record get(Key key, int generation) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) return null;
+            if (entry.generation != generation) {
+                remove(key, entry);
+                return null;
+            }
+        }
+        return decode(entry.bytes(), generation);
+    }
+
+    /**
+     * Cache a block read in full, replacing any held - blocks larger than the whole cache are not cached
+     *
+     * @param key   - block key
+     * @param block - block as per a full read of the block
+     */
+    void put(Key key, Record block) {
+        byte[] encoded = encode(block);
+        if (encoded == null || encoded.length > maxBytes) return;
+        Entry entry = new Entry(encoded, block.generation, offHeap);
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) bytes -= previous.length;
+            bytes += entry.length;
+            // Evict least recently used first
+            Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes) {
+                bytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove a block, if cached
+     *
+     * @param key - block key
+     */
+    void remove(Key key) {
+        synchronized (entries) {
+            Entry entry = entries.remove(key);
+            if (entry != null) bytes -= entry.length;
+        }
+    }
+
+    // Caller must hold the lock on entries
+    private void remove(Key key, Entry entry) {
+        if (entries.remove(key, entry)) bytes -= entry.length;
+    }
+
+    /**
+     * Total serialized size of the blocks held
+     *
+     * @return size in bytes
+     */
+    long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Count a block read as served from the cache or not
+     *
+     * @param hit - true if the block was served from the cache
+     */
+    void countRead(boolean hit) {
+        (hit ? hitCount : missCount).incrementAndGet();
+    }
+
+    /**
+     * Number of block reads served from the cache
+     *
+     * @return hit count
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of block reads not served from the cache, as the block was not cached or was out of date
+     *
+     * @return miss count
+     */
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Serialize a block - the points in its map bin, in iteration order, then each encoded bin
+     *
+     * @param block - block as per a full read of the block
+     * @return serialized block - null if the map bin is not a map, as is the case for a block trimmed to a range
+     */
+    static byte[] encode(Record block) {
+        Object timeSeries = block.getValue(Constants.TIME_SERIES_BIN_NAME);
+        if (timeSeries != null && !(timeSeries instanceof Map)) return null;
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(byteStream);
+            out.writeInt(timeSeries == null ? -1 : ((Map<?, ?>) timeSeries).size());
+            if (timeSeries != null) {
+                for (Map.Entry<?, ?> point : ((Map<?, ?>) timeSeries).entrySet()) {
+                    out.writeLong((Long) point.getKey());
+                    out.writeDouble((Double) point.getValue());
+                }
+            }
+            for (String binName : ENCODED_BIN_NAMES) {
+                byte[] encodedBin = (byte[]) block.getValue(binName);
+                out.writeInt(encodedBin == null ? -1 : encodedBin.length);
+                if (encodedBin != null) out.write(encodedBin);
+            }
+            out.flush();
+            return byteStream.toByteArray();
+        } catch (IOException e) {
+            // Not possible for an in memory stream
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Deserialize a block serialized by encode
+     *
+     * @param encoded    - serialized block
+     * @param generation - generation of the block record
+     * @return block as per a full read of the block
+     */
+    static Record decode(ByteBuffer encoded, int generation) {
+        Map<String, Object> bins = new HashMap<>();
+        int pointCount = encoded.getInt();
+        if (pointCount >= 0) {
+            Map<Long, Double> timeSeries = new LinkedHashMap<>(pointCount * 4 / 3 + 1);
+            for (int i = 0; i < pointCount; i++) timeSeries.put(encoded.getLong(), encoded.getDouble());
+            bins.put(Constants.TIME_SERIES_BIN_NAME, timeSeries);
+        }
+        for (String binName : ENCODED_BIN_NAMES) {
+            int length = encoded.getInt();
+            if (length >= 0) {
+                byte[] encodedBin = new byte[length];
+                encoded.get(encodedBin);
+                bins.put(binName, encodedBin);
+            }
+        }
+        return new Record(bins, generation, 0);
+    }
+
+    /**
+     * A cached block - serialized, with the generation of the record it was read from
+     */
+    private static final class Entry {
+        private final byte[] heapBytes;
+        private final ByteBuffer offHeapBytes;
+        private final int length;
+        private final int generation;
+
+        private Entry(byte[] encoded, int generation, boolean offHeap) {
+            this.length = encoded.length;
+            this.generation = generation;
+            if (offHeap) {
+                this.heapBytes = null;
+                this.offHeapBytes = ByteBuffer.allocateDirect(encoded.length);
+                offHeapBytes.put(encoded);
+            } else {
+                this.heapBytes = encoded;
+                this.offHeapBytes = null;
+            }
+        }
+
+        /**
+         * Serialized block, positioned at its start - each call returns an independent buffer
+         *
+         * @return serialized block
+         */
+        private ByteBuffer bytes() {
+            if (heapBytes != null) return ByteBuffer.wrap(heapBytes);
+            ByteBuffer buffer = offHeapBytes.duplicate();
+            buffer.rewind();
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read of a set of blocks through the block cache - see BlockCache - and the disk block cache - see DiskBlockCache
+ * <p>
+ * Each historic block read that retrieves points is replaced - by a header only read if the block is in either cache,
+ * or by a read of the whole block if not, so it can be cached. Cached blocks are only used if the header only read
+ * returns the generation they were cached with - and, for the disk block cache, the last update time, which the reads
+ * also return if it is in use. The block cache is tried first, then the disk block cache - a block
+ * found on disk is added to the block cache. Blocks found to be out of date are read again, whole, by a follow up
+ * read. Other reads are made as given. Once complete, the records of the block reads given are as if they had been
+ * read from the database - whole, rather than trimmed to the range, for historic blocks
+ * <p>
+ * If neither cache is in use, the block reads given are made as they are
+ * <p>
+ * Usage - batch read getReads(), then getFollowUpReads() if not empty, then call complete()
+ */
+final class BlockCacheRead {
+
+    private final BlockCache blockCache;
+    private final DiskBlockCache diskBlockCache;
+    private final List<BatchRead> blockReads;
+    // Whether each block read may be served from the caches
+    private final List<Boolean> cacheable;
+    private final List<BatchRead> reads;
+    // Whether each read is a header only read of a cached block
+    private final List<Boolean> headerOnly = new ArrayList<>();
+    // Blocks served from the caches, by index of block read - null where not served from the caches
+    private Record[] cachedBlocks = null;
+    // Whole reads of blocks found to be out of date, by index of block read - null where not needed
+    private BatchRead[] followUpReads = null;
+
+    /**
+     * BlockCacheRead constructor, without a disk block cache
+     *
+     * @param blockCache - block cache - null if not in use
+     * @param blockReads - block reads
+     * @param cacheable  - whether each block read is a read of the points of a historic block, so may be served from the cache
+     */
+    BlockCacheRead(BlockCache blockCache, List<BatchRead> blockReads, List<Boolean> cacheable) {
+        this(blockCache, null, blockReads, cacheable);
+    }
+
+    /**
+     * BlockCacheRead constructor
+     *
+     * @param blockCache     - block cache - null if not in use
+     * @param diskBlockCache - disk block cache - null if not in use
+     * @param blockReads     - block reads
+     * @param cacheable      - whether each block read is a read of the points of a historic block, so may be served
+     *                       from the caches. May be null if neither cache is in use
+     */
+    BlockCacheRead(BlockCache blockCache, DiskBlockCache diskBlockCache, List<BatchRead> blockReads, List<Boolean> cacheable) {
+        this.blockCache = blockCache;
+        this.diskBlockCache = diskBlockCache;
+        this.blockReads = blockReads;
+        this.cacheable = cacheable;
+        if (!isCaching()) {
+            this.reads = blockReads;
+            return;
+        }
+        this.reads = new ArrayList<>(blockReads.size());
+        for (int i = 0; i < blockReads.size(); i++) {
+            BatchRead blockRead = blockReads.get(i);
+            boolean cached = cacheable.get(i) && isCached(blockRead.key);
+            headerOnly.add(cached);
+            if (cached) reads.add(headerRead(blockRead.key));
+            else if (cacheable.get(i)) reads.add(wholeBlockRead(blockRead.key));
+            else reads.add(blockRead);
+        }
+    }
+
+    private boolean isCaching() {
+        return blockCache != null || diskBlockCache != null;
+    }
+
+    // Header only read of a block - with its last update time, if the disk block cache is in use
+    private BatchRead headerRead(Key key) {
+        return diskBlockCache == null ? new BatchRead(key, false) : new BatchRead(key, DiskBlockCache.opsForHeaderRead());
+    }
+
+    // Read of the points of a block - with its last update time, if the disk block cache is in use
+    private BatchRead wholeBlockRead(Key key) {
+        return diskBlockCache == null ? new BatchRead(key, TimeSeriesClient.BLOCK_DATA_BIN_NAMES) : new BatchRead(key, DiskBlockCache.opsForBlockRead());
+    }
+
+    private boolean isCached(Key key) {
+        return (blockCache != null && blockCache.contains(key)) || (diskBlockCache != null && diskBlockCache.contains(key));
+    }
+
+    /**
+     * The block reads given, whose records are set by complete()
+     *
+     * @return block reads
+     */
+    List<BatchRead> getBlockReads() {
+        return blockReads;
+    }
+
+    /**
+     * Batch reads to make in place of the block reads - see class description
+     *
+     * @return batch reads
+     */
+    List<BatchRead> getReads() {
+        return reads;
+    }
+
+    /**
+     * Batch reads needed once getReads() have completed - whole reads of cached blocks found to be out of date
+     *
+     * @return batch reads - usually empty
+     */
+    List<BatchRead> getFollowUpReads() {
+        List<BatchRead> pendingReads = new ArrayList<>();
+        if (!isCaching()) return pendingReads;
+        if (followUpReads == null) {
+            cachedBlocks = new Record[reads.size()];
+            followUpReads = new BatchRead[reads.size()];
+            for (int i = 0; i < reads.size(); i++) {
+                if (cacheable.get(i)) checkCached(i);
+            }
+        }
+        for (BatchRead followUpRead : followUpReads) if (followUpRead != null) pendingReads.add(followUpRead);
+        return pendingReads;
+    }
+
+    /**
+     * Use the cached block for a read if it is current, trying the block cache then the disk block cache, counting
+     * hits and misses in each cache tried. If neither holds a current copy a follow up read is needed, unless the block
+     * was read whole in the first place, or no longer exists
+     *
+     * @param i - index of read
+     */
+    private void checkCached(int i) {
+        BatchRead read = reads.get(i);
+        if (!headerOnly.get(i) || read.record == null) {
+            if (blockCache != null) blockCache.countRead(false);
+            if (diskBlockCache != null) diskBlockCache.countRead(false);
+            if (headerOnly.get(i)) {
+                if (blockCache != null) blockCache.remove(read.key);
+                if (diskBlockCache != null) diskBlockCache.remove(read.key);
+            }
+            return;
+        }
+        if (blockCache != null) {
+            cachedBlocks[i] = blockCache.get(read.key, read.record.generation);
+            blockCache.countRead(cachedBlocks[i] != null);
+        }
+        if (cachedBlocks[i] == null && diskBlockCache != null) {
+            cachedBlocks[i] = diskBlockCache.get(read.key, read.record.generation, DiskBlockCache.lastUpdateTime(read.record));
+            diskBlockCache.countRead(cachedBlocks[i] != null);
+            if (cachedBlocks[i] != null && blockCache != null) blockCache.put(read.key, cachedBlocks[i]);
+        }
+        if (cachedBlocks[i] == null) followUpReads[i] = wholeBlockRead(read.key);
+    }
+
+    /**
+     * Set the records of the block reads, and cache the historic blocks read whole, once all reads have completed
+     */
+    void complete() {
+        if (!isCaching()) return;
+        getFollowUpReads();
+        for (int i = 0; i < reads.size(); i++) {
+            BatchRead blockRead = blockReads.get(i);
+            if (!cacheable.get(i)) continue;
+            if (cachedBlocks[i] != null) {
+                blockRead.record = cachedBlocks[i];
+                continue;
+            }
+            // Either read whole in the first place, or by a follow up read. A header only read of a missing block has no record
+            Record block = followUpReads[i] != null ? followUpReads[i].record : headerOnly.get(i) ? null : reads.get(i).record;
+            if (block != null) {
+                if (blockCache != null) blockCache.put(blockRead.key, block);
+                if (diskBlockCache != null) diskBlockCache.put(blockRead.key, block);
+            }
+            blockRead.record = block;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.Record;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least recently used cache of block directories - the block start times held in the index record of each
+ * time series (or stripe) - see TimeSeriesClient.setBlockDirectoryCacheSize
+ * <p>
+ * Each directory is held with the generation of the index record it was read from. Every change to an index record -
+ * a block being archived, or late points being written to a historic block - increments its generation, so a cached
+ * directory is current if a header only read of the index record returns the same generation. That read is batched
+ * with the block reads the directory implies, so a cache hit costs no extra round trip. A missing index record is
+ * cached as generation zero
+ * <p>
+ * Thread safe
+ */
+final class BlockDirectoryCache {
+
+    private final int maxSize;
+    // Access ordered, so the eldest entry is the least recently used
+    private final Map<String, Directory> directories;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * BlockDirectoryCache constructor
+     *
+     * @param maxSize - maximum number of directories held
+     */
+    BlockDirectoryCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.directories = new LinkedHashMap<String, Directory>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Directory> eldest) {
+                return size() > BlockDirectoryCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Maximum number of directories held
+     *
+     * @return maximum size
+     */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Cache the directory of a time series, replacing any held
+     *
+     * @param timeSeriesName  - stripe name
+     * @param indexListRecord - index record as returned by TimeSeriesClient.opForBlockStartTimes - null if there is none
+     */
+    void put(String timeSeriesName, Record indexListRecord) {
+        synchronized (directories) {
+            directories.put(timeSeriesName, new Directory(indexListRecord));
+        }
+    }
+
+    /**
+     * Cached directory of a time series
+     * A directory must be confirmed with isCurrent before it is relied on
+     *
+     * @param timeSeriesName - stripe name
+     * @return directory - null if none is cached
+     */
+    Directory get(String timeSeriesName) {
+        Directory directory;
+        synchronized (directories) {
+            directory = directories.get(timeSeriesName);
+        }
+        return directory;
+    }
+
+    /**
+     * Whether a directory returned by get is current, given a header only read of its index record
+     * A directory that is not current is removed, so the next read of the series refreshes it
+     *
+     * @param timeSeriesName - stripe name
+     * @param directory      - directory returned by get
+     * @param indexHeader    - index record header - null if there is no index record
+     * @return true if the directory is current
+     */
+    boolean isCurrent(String timeSeriesName, Directory directory, Record indexHeader) {
+        if (directory.generation == (indexHeader == null ? 0 : indexHeader.generation)) return true;
+        synchronized (directories) {
+            // Unless it has already been refreshed
+            directories.remove(timeSeriesName, directory);
+        }
+        return false;
+    }
+
+    /**
+     * Count a read of a time series as served from the cache or not
+     *
+     * @param hit - true if the read used cached directories for all stripes of the series
+     */
+    void countRead(boolean hit) {
+        (hit ? hitCount : missCount).incrementAndGet();
+    }
+
+    /**
+     * Number of reads served from the cache
+     *
+     * @return hit count
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of reads that needed to read an index record, because no directory was cached or it was out of date
+     *
+     * @return miss count
+     */
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * A cached directory - the index record it was read from, and its generation
+     */
+    static final class Directory {
+        private final Record indexListRecord;
+        private final int generation;
+
+        private Directory(Record indexListRecord) {
+            this.indexListRecord = indexListRecord;
+            this.generation = indexListRecord == null ? 0 : indexListRecord.generation;
+        }
+
+        /**
+         * Index record the directory was read from
+         *
+         * @return index record - null if the series had no index record
+         */
+        Record getIndexListRecord() {
+            return indexListRecord;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.aerospike_examples.timeseries;
+
+/**
+ * Enumeration of the formats historic blocks can be stored in
+ */
+public enum BlockEncoding {
+
+    /**
+     * Points held in a key ordered Aerospike map of timestamp to value - bin tsSeries
+     */
+    MAP("map", "key ordered map of timestamp to value"),
+
+    /**
+     * Points compressed into a blob - bin tsCompressed. Timestamps are delta of delta encoded and values XOR encoded
+     * as per Facebook's Gorilla time series database
+     */
+    GORILLA("gorilla", "delta of delta timestamps with XOR encoded values"),
+
+    /**
+     * Points held as two packed columns of little endian primitives - timestamps in bin tsTimestamps, preceded by a
+     * small header, and values in bin tsValues. Decoded via ByteBuffer views, without creating an object per point
+     */
+    COLUMNAR("columnar", "packed timestamp and value columns");
+
+    private final String shortName;
+    private final String description;
+
+    BlockEncoding(String shortName, String description) {
+        this.shortName = shortName;
+        this.description = description;
+    }
+
+    /**
+     * Get short name for encoding
+     *
+     * @return short name for encoding
+     */
+    @SuppressWarnings("unused")
+    public String getShortName() {
+        return shortName;
+    }
+
+    /**
+     * Description of encoding
+     *
+     * @return description of encoding
+     */
+    @SuppressWarnings("unused")
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.aerospike_examples.timeseries;
+
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.Map;
+
+/**
+ * Summary statistics for a historic block, as held in its time series index entry, or for the current block, as held in
+ * the running statistics in its metadata
+ * <p>
+ * Recorded when a block is archived. Writing late points to a block replaces its index entry without a summary, so a
+ * summary, when present, always describes the whole block
+ */
+final class BlockSummary {
+
+    private final long startTime;
+    private final long endTime;
+    private final long count;
+    private final double sum;
+    private final double sumOfSquares;
+    private final double minValue;
+    private final double maxValue;
+
+    private BlockSummary(long startTime, long endTime, long count, double sum, double sumOfSquares, double minValue, double maxValue) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.count = count;
+        this.sum = sum;
+        this.sumOfSquares = sumOfSquares;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * Add summary fields for a block to its index entry
+     *
+     * @param indexEntry - index entry for the block
+     * @param timeSeries - the points in the block
+     */
+    static void putSummaryFields(Map<String, Object> indexEntry, Map<Long, Double> timeSeries) {
+        double sum = 0;
+        double sumOfSquares = 0;
+        double minValue = Double.MAX_VALUE;
+        double maxValue = -Double.MAX_VALUE;
+        for (double value : timeSeries.values()) {
+            sum += value;
+            sumOfSquares += value * value;
+            minValue = Math.min(minValue, value);
+            maxValue = Math.max(maxValue, value);
+        }
+        indexEntry.put(Constants.SUM_FIELD_NAME, sum);
+        indexEntry.put(Constants.SUM_OF_SQUARES_FIELD_NAME, sumOfSquares);
+        indexEntry.put(Constants.MIN_VALUE_FIELD_NAME, minValue);
+        indexEntry.put(Constants.MAX_VALUE_FIELD_NAME, maxValue);
+    }
+
+    /**
+     * Add summary fields for a block to its index entry, taking them from the running statistics in the block's metadata
+     * if those describe the same number of points - see TimeSeriesClient.opsForRunningStatistics. As running statistics
+     * that are present always describe every point in the block, this means they describe these points
+     *
+     * @param indexEntry - index entry for the block
+     * @param timeSeries - the points in the block
+     * @param metadata   - metadata of the block the points were taken from. May be null
+     */
+    static void putSummaryFields(Map<String, Object> indexEntry, Map<Long, Double> timeSeries, Map<?, ?> metadata) {
+        // The minimum and maximum are only present if all the running statistics are
+        if (metadata == null || !metadata.containsKey(Constants.MIN_VALUE_FIELD_NAME)
+                || ((Number) metadata.get(Constants.ENTRY_COUNT_FIELD_NAME)).longValue() != timeSeries.size()) {
+            putSummaryFields(indexEntry, timeSeries);
+            return;
+        }
+        for (String fieldName : new String[]{Constants.SUM_FIELD_NAME, Constants.SUM_OF_SQUARES_FIELD_NAME,
+                Constants.MIN_VALUE_FIELD_NAME, Constants.MAX_VALUE_FIELD_NAME})
+            indexEntry.put(fieldName, ((Number) metadata.get(fieldName)).doubleValue());
+    }
+
+    /**
+     * Summary held in an index entry
+     *
+     * @param startTime  - start time of the block
+     * @param indexEntry - index entry for the block, as retrieved from the database. May be null
+     * @return summary, or null if the entry does not hold a summary
+     */
+    static BlockSummary fromIndexEntry(long startTime, Map<?, ?> indexEntry) {
+        if (indexEntry == null || !indexEntry.containsKey(Constants.SUM_FIELD_NAME)) return null;
+        return new BlockSummary(startTime,
+                ((Number) indexEntry.get(Constants.END_TIME_FIELD_NAME)).longValue(),
+                ((Number) indexEntry.get(Constants.ENTRY_COUNT_FIELD_NAME)).longValue(),
+                ((Number) indexEntry.get(Constants.SUM_FIELD_NAME)).doubleValue(),
+                ((Number) indexEntry.get(Constants.SUM_OF_SQUARES_FIELD_NAME)).doubleValue(),
+                ((Number) indexEntry.get(Constants.MIN_VALUE_FIELD_NAME)).doubleValue(),
+                ((Number) indexEntry.get(Constants.MAX_VALUE_FIELD_NAME)).doubleValue());
+    }
+
+    /**
+     * Summary of the current block, from the running statistics in its metadata - see TimeSeriesClient.opsForRunningStatistics
+     * The minimum and maximum are absent once the block has been trimmed by the background archiver, in which case they
+     * are set so as not to affect a query result
+     *
+     * @param metadata - metadata of the current block, as retrieved from the database. May be null
+     * @return summary, or null if the metadata does not hold running statistics
+     */
+    static BlockSummary fromRunningStatistics(Map<?, ?> metadata) {
+        if (metadata == null || !metadata.containsKey(Constants.SUM_FIELD_NAME)) return null;
+        Object minValue = metadata.get(Constants.MIN_VALUE_FIELD_NAME);
+        Object maxValue = metadata.get(Constants.MAX_VALUE_FIELD_NAME);
+        // The current block is still being written to, so its end time is open
+        return new BlockSummary(((Number) metadata.get(Constants.START_TIME_FIELD_NAME)).longValue(), Long.MAX_VALUE,
+                ((Number) metadata.get(Constants.ENTRY_COUNT_FIELD_NAME)).longValue(),
+                ((Number) metadata.get(Constants.SUM_FIELD_NAME)).doubleValue(),
+                ((Number) metadata.get(Constants.SUM_OF_SQUARES_FIELD_NAME)).doubleValue(),
+                minValue == null ? Double.MAX_VALUE : ((Number) minValue).doubleValue(),
+                maxValue == null ? -Double.MAX_VALUE : ((Number) maxValue).doubleValue());
+    }
+
+    /**
+     * Whether the block lies wholly within a time range, so the summary can stand in for its points
+     *
+     * @param rangeStartTime - start of range
+     * @param rangeEndTime   - end of range
+     * @return true if the block lies within the range
+     */
+    boolean isWithin(long rangeStartTime, long rangeEndTime) {
+        return startTime >= rangeStartTime && endTime <= rangeEndTime;
+    }
+
+    /**
+     * Whether the block lies wholly within a single time bucket, so the summary can stand in for its points in a
+     * bucketed query - see QueryPlan
+     *
+     * @param bucketWidth - bucket width
+     * @return true if the block lies within a single bucket
+     */
+    boolean isWithinBucket(long bucketWidth) {
+        return QueryPlan.bucketStartTime(startTime, bucketWidth) == QueryPlan.bucketStartTime(endTime, bucketWidth);
+    }
+
+    long getStartTime() {
+        return startTime;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getSum() {
+        return sum;
+    }
+
+    double getSumOfSquares() {
+        return sumOfSquares;
+    }
+
+    double getMinValue() {
+        return minValue;
+    }
+
+    double getMaxValue() {
+        return maxValue;
+    }
+}
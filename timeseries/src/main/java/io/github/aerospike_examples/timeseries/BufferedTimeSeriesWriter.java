@@ -0,0 +1,273 @@
+package io.github.aerospike_examples.timeseries;
+
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write coalescing wrapper for TimeSeriesClient
+ * <p>
+ * Points are accumulated in memory, per series, and written as micro-batches via TimeSeriesClient.put(String, DataPoint[]).
+ * This replaces one database update per point with one update per batch, cutting round trips and write amplification,
+ * as every update to a block re-writes the whole block.
+ * <p>
+ * A series is flushed when it has maxPointsPerSeries points buffered, or when its oldest buffered point is more than
+ * maxAgeMs old. Total buffered points are capped at maxPendingPoints - a put which would exceed this flushes its own series
+ * before returning. All buffered points are flushed on close().
+ * <p>
+ * Buffered points are not visible to readers until flushed. If a flush fails the points are kept, to be retried by
+ * later flushes, and the exception from a background flush is re-thrown from the next call to put, flush or close.
+ * While failed flushes leave maxPendingPoints points buffered, put rejects further points with an
+ * IllegalStateException, so memory stays bounded during an outage.
+ * <p>
+ * Once closed, put and flush throw IllegalStateException. If the final flush fails, close may be called again to retry it.
+ */
+public class BufferedTimeSeriesWriter implements AutoCloseable {
+
+    // Client used for flushing
+    private final TimeSeriesClient timeSeriesClient;
+    // Flush thresholds
+    private final int maxPointsPerSeries;
+    private final long maxAgeMs;
+    private final int maxPendingPoints;
+
+    // Buffers, one per series
+    private final Map<String, SeriesBuffer> seriesBuffers = new ConcurrentHashMap<>();
+    // Total points buffered across all series
+    private final AtomicInteger pendingPointCount = new AtomicInteger();
+    // Runs age based flushes
+    private final ScheduledExecutorService flushScheduler;
+    // Exception from a background flush, to be surfaced to the caller
+    private volatile RuntimeException backgroundFlushException = null;
+    // Set by close - no further points are accepted
+    private volatile boolean closed = false;
+
+    /**
+     * BufferedTimeSeriesWriter constructor
+     *
+     * @param timeSeriesClient   - client to write with
+     * @param maxPointsPerSeries - a series is flushed when it has this many points buffered
+     * @param maxAgeMs           - a series is flushed when its oldest buffered point has been held for this long
+     * @param maxPendingPoints   - upper limit on points buffered across all series
+     */
+    public BufferedTimeSeriesWriter(TimeSeriesClient timeSeriesClient, int maxPointsPerSeries, long maxAgeMs, int maxPendingPoints) {
+        if (maxPointsPerSeries < 1 || maxAgeMs < 1 || maxPendingPoints < 1)
+            throw new IllegalArgumentException("maxPointsPerSeries, maxAgeMs and maxPendingPoints must all be positive");
+        this.timeSeriesClient = timeSeriesClient;
+        this.maxPointsPerSeries = maxPointsPerSeries;
+        this.maxAgeMs = maxAgeMs;
+        this.maxPendingPoints = maxPendingPoints;
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BufferedTimeSeriesWriter-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Check twice per max age period so no point is held much longer than maxAgeMs
+        long checkPeriodMs = Math.max(1, maxAgeMs / 2);
+        flushScheduler.scheduleWithFixedDelay(this::flushAgedSeries, checkPeriodMs, checkPeriodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * BufferedTimeSeriesWriter constructor using default thresholds
+     * See Constants.DEFAULT_BUFFERED_WRITER_MAX_POINTS_PER_SERIES, DEFAULT_BUFFERED_WRITER_MAX_AGE_MS and
+     * DEFAULT_BUFFERED_WRITER_MAX_PENDING_POINTS
+     *
+     * @param timeSeriesClient - client to write with
+     */
+    @SuppressWarnings("unused") // Required in API
+    public BufferedTimeSeriesWriter(TimeSeriesClient timeSeriesClient) {
+        this(timeSeriesClient, Constants.DEFAULT_BUFFERED_WRITER_MAX_POINTS_PER_SERIES, Constants.DEFAULT_BUFFERED_WRITER_MAX_AGE_MS,
+                Constants.DEFAULT_BUFFERED_WRITER_MAX_PENDING_POINTS);
+    }
+
+    /**
+     * Buffer a data point for time series timeSeriesName
+     * The series will be flushed by this call if this takes it to maxPointsPerSeries points, or if the writer as a whole
+     * is holding maxPendingPoints
+     *
+     * @param timeSeriesName - name of time series
+     * @param dataPoint      - data point
+     * @throws IllegalStateException if the writer is closed, or failed flushes have left maxPendingPoints points buffered
+     */
+    public void put(String timeSeriesName, DataPoint dataPoint) {
+        checkNotClosed();
+        throwBackgroundFlushException();
+        // Successful flushes keep the total below the limit, so it is only reached if flushes are failing
+        if (pendingPointCount.get() >= maxPendingPoints)
+            throw new IllegalStateException(maxPendingPoints + " points are buffered awaiting a successful flush - point rejected");
+        SeriesBuffer seriesBuffer = seriesBuffers.computeIfAbsent(timeSeriesName, SeriesBuffer::new);
+        int seriesPointCount = seriesBuffer.add(dataPoint);
+        int totalPointCount = pendingPointCount.incrementAndGet();
+        if (seriesPointCount >= maxPointsPerSeries || totalPointCount >= maxPendingPoints) {
+            flush(seriesBuffer);
+        }
+    }
+
+    /**
+     * Flush buffered points for a single series
+     *
+     * @param timeSeriesName - name of time series
+     * @throws IllegalStateException if the writer is closed
+     */
+    @SuppressWarnings("unused") // Required in API
+    public void flush(String timeSeriesName) {
+        checkNotClosed();
+        throwBackgroundFlushException();
+        SeriesBuffer seriesBuffer = seriesBuffers.get(timeSeriesName);
+        if (seriesBuffer != null) flush(seriesBuffer);
+    }
+
+    /**
+     * Flush buffered points for all series
+     *
+     * @throws IllegalStateException if the writer is closed
+     */
+    public void flush() {
+        checkNotClosed();
+        flushAll();
+    }
+
+    private void flushAll() {
+        throwBackgroundFlushException();
+        for (SeriesBuffer seriesBuffer : seriesBuffers.values()) flush(seriesBuffer);
+    }
+
+    /**
+     * Total number of points buffered, across all series
+     *
+     * @return buffered point count
+     */
+    public int getPendingPointCount() {
+        return pendingPointCount.get();
+    }
+
+    /**
+     * Number of points buffered for a single series
+     *
+     * @param timeSeriesName - name of time series
+     * @return buffered point count for series
+     */
+    public int getPendingPointCount(String timeSeriesName) {
+        SeriesBuffer seriesBuffer = seriesBuffers.get(timeSeriesName);
+        return seriesBuffer == null ? 0 : seriesBuffer.size();
+    }
+
+    /**
+     * Stop accepting points, stop age based flushing and flush all buffered points
+     * May be called again to retry the flush if it fails
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flushScheduler.shutdown();
+        try {
+            flushScheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+    }
+
+    /**
+     * Write the points held for a series to the database
+     * Flushes for the same series are serialised so batches are written in the order they were taken
+     *
+     * @param seriesBuffer - buffer for series
+     */
+    private void flush(SeriesBuffer seriesBuffer) {
+        synchronized (seriesBuffer.flushLock) {
+            DataPoint[] dataPoints = seriesBuffer.drain();
+            if (dataPoints.length == 0) return;
+            pendingPointCount.addAndGet(-dataPoints.length);
+            // TimeSeriesClient takes the first point in a batch as the block start time, so order by timestamp
+            Arrays.sort(dataPoints, Comparator.comparingLong(DataPoint::getTimestamp));
+            try {
+                timeSeriesClient.put(seriesBuffer.timeSeriesName, dataPoints);
+            } catch (RuntimeException e) {
+                // Hang on to the points so they can be retried
+                seriesBuffer.restore(dataPoints);
+                pendingPointCount.addAndGet(dataPoints.length);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Scheduled task - flush any series whose oldest point has been held for longer than maxAgeMs
+     */
+    private void flushAgedSeries() {
+        long flushIfBufferedBefore = System.currentTimeMillis() - maxAgeMs;
+        for (SeriesBuffer seriesBuffer : seriesBuffers.values()) {
+            if (seriesBuffer.firstPointBufferedBefore(flushIfBufferedBefore)) {
+                try {
+                    flush(seriesBuffer);
+                } catch (RuntimeException e) {
+                    backgroundFlushException = e;
+                }
+            }
+        }
+    }
+
+    private void checkNotClosed() {
+        if (closed) throw new IllegalStateException("BufferedTimeSeriesWriter is closed");
+    }
+
+    private void throwBackgroundFlushException() {
+        RuntimeException e = backgroundFlushException;
+        if (e != null) {
+            backgroundFlushException = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Points buffered for a single series, plus the time the oldest of them was buffered
+     */
+    private static class SeriesBuffer {
+        private final String timeSeriesName;
+        // Held while a flush is in progress
+        private final Object flushLock = new Object();
+        private List<DataPoint> dataPoints = new ArrayList<>();
+        private long firstPointBufferedTime = 0;
+
+        private SeriesBuffer(String timeSeriesName) {
+            this.timeSeriesName = timeSeriesName;
+        }
+
+        private synchronized int add(DataPoint dataPoint) {
+            if (dataPoints.isEmpty()) firstPointBufferedTime = System.currentTimeMillis();
+            dataPoints.add(dataPoint);
+            return dataPoints.size();
+        }
+
+        private synchronized DataPoint[] drain() {
+            DataPoint[] drained = dataPoints.toArray(new DataPoint[0]);
+            dataPoints = new ArrayList<>();
+            return drained;
+        }
+
+        private synchronized void restore(DataPoint[] unwritten) {
+            List<DataPoint> restored = new ArrayList<>(Arrays.asList(unwritten));
+            restored.addAll(dataPoints);
+            dataPoints = restored;
+            firstPointBufferedTime = System.currentTimeMillis();
+        }
+
+        private synchronized int size() {
+            return dataPoints.size();
+        }
+
+        private synchronized boolean firstPointBufferedBefore(long time) {
+            return !dataPoints.isEmpty() && firstPointBufferedTime < time;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Key;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read of the blocks of a time series covering a range, using cached block directories - see BlockDirectoryCache
+ * <p>
+ * The block reads are batched with header only reads of the index record of each stripe. If every index record still
+ * has the generation its directory was cached with, the blocks read are those an uncached read would have read.
+ * Otherwise the out of date directories are evicted, and the read must be made without the cache
+ * <p>
+ * The block reads are made through the block cache - see BlockCacheRead
+ * <p>
+ * Usage - batch read getReads(), then call result(), then complete the block cache read returned, if any
+ */
+final class CachedBlockRead {
+
+    private final BlockDirectoryCache blockDirectoryCache;
+    private final String[] stripeNames;
+    private final BlockDirectoryCache.Directory[] directories;
+    private final BlockCacheRead blockCacheRead;
+    private final List<BatchRead> reads;
+
+    /**
+     * CachedBlockRead constructor
+     *
+     * @param blockDirectoryCache - block directory cache
+     * @param stripeNames         - stripe names - just the time series name if striping is not in use
+     * @param directories         - cached directory of each stripe
+     * @param indexKeys           - key of the index record of each stripe
+     * @param blockCacheRead      - read through the block cache of the blocks implied by the directories
+     */
+    CachedBlockRead(BlockDirectoryCache blockDirectoryCache, String[] stripeNames, BlockDirectoryCache.Directory[] directories,
+                    Key[] indexKeys, BlockCacheRead blockCacheRead) {
+        this.blockDirectoryCache = blockDirectoryCache;
+        this.stripeNames = stripeNames;
+        this.directories = directories;
+        this.blockCacheRead = blockCacheRead;
+        this.reads = new ArrayList<>(blockCacheRead.getReads());
+        for (Key indexKey : indexKeys) reads.add(new BatchRead(indexKey, false));
+    }
+
+    /**
+     * Batch reads - the reads of the block cache read, followed by a header only read of the index record of each stripe
+     *
+     * @return batch reads
+     */
+    List<BatchRead> getReads() {
+        return reads;
+    }
+
+    /**
+     * The block cache read, once getReads() have completed, if the directories used were current
+     *
+     * @return block cache read, still to be completed - null if any directory was out of date
+     */
+    BlockCacheRead result() {
+        boolean current = true;
+        // Check every stripe, so all out of date directories are evicted
+        for (int i = 0; i < stripeNames.length; i++)
+            current &= blockDirectoryCache.isCurrent(stripeNames[i], directories[i], reads.get(reads.size() - stripeNames.length + i).record);
+        blockDirectoryCache.countRead(current);
+        return current ? blockCacheRead : null;
+    }
+}
@@ -0,0 +1,120 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Packing of a block of data points into two columns of little endian primitives
+ * <p>
+ * The timestamp column is an eight byte header - point count then format version, both 32 bit - followed by the
+ * timestamps as 64 bit longs, in ascending order. The value column holds the corresponding values as 64 bit doubles.
+ * Columns are read through ByteBuffer views, so decoding creates no per point objects, and as timestamps are ordered
+ * the points in a time range are found by binary search.
+ */
+final class ColumnarCodec {
+
+    // Header size - eight bytes, so the timestamps that follow are aligned
+    private static final int HEADER_SIZE = 8;
+    private static final int FORMAT_VERSION = 1;
+
+    private ColumnarCodec() {
+    }
+
+    /**
+     * Encode a block of points as a timestamp column and a value column
+     *
+     * @param timeSeries - timestamp to value map, as held in a block's time series bin
+     * @return two element array - timestamp column then value column
+     */
+    static byte[][] encode(Map<Long, Double> timeSeries) {
+        long[] timestamps = new long[timeSeries.size()];
+        int i = 0;
+        for (Long timestamp : timeSeries.keySet()) timestamps[i++] = timestamp;
+        // Maps retrieved from the database are not guaranteed to iterate in key order
+        Arrays.sort(timestamps);
+        double[] values = new double[timestamps.length];
+        for (i = 0; i < timestamps.length; i++) values[i] = timeSeries.get(timestamps[i]);
+        return new byte[][]{timestampColumn(timestamps, timestamps.length), valueColumn(values, values.length)};
+    }
+
+    /**
+     * Encode timestamps as a timestamp column
+     *
+     * @param timestamps - timestamps, in ascending order
+     * @param count      - number of timestamps to encode, from the start of the array
+     * @return timestamp column
+     */
+    static byte[] timestampColumn(long[] timestamps, int count) {
+        ByteBuffer column = ByteBuffer.allocate(HEADER_SIZE + count * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        column.putInt(count).putInt(FORMAT_VERSION);
+        column.asLongBuffer().put(timestamps, 0, count);
+        return column.array();
+    }
+
+    /**
+     * Encode values as a value column
+     *
+     * @param values - values
+     * @param count  - number of values to encode, from the start of the array
+     * @return value column
+     */
+    static byte[] valueColumn(double[] values, int count) {
+        ByteBuffer column = ByteBuffer.allocate(count * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        column.asDoubleBuffer().put(values, 0, count);
+        return column.array();
+    }
+
+    /**
+     * Number of points held in a block
+     *
+     * @param timestampColumn - timestamp column
+     * @return point count
+     */
+    static int pointCount(byte[] timestampColumn) {
+        return ByteBuffer.wrap(timestampColumn).order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+    }
+
+    /**
+     * Pass the points between startTime and endTime to consumer, in timestamp order
+     *
+     * @param timestampColumn - timestamp column
+     * @param valueColumn     - value column
+     * @param startTime       - start of required range
+     * @param endTime         - end of required range
+     * @param consumer        - receives points
+     */
+    static void decode(byte[] timestampColumn, byte[] valueColumn, long startTime, long endTime, PointConsumer consumer) {
+        int count = pointCount(timestampColumn);
+        LongBuffer timestamps = ByteBuffer.wrap(timestampColumn, HEADER_SIZE, count * Long.BYTES).slice()
+                .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        DoubleBuffer values = ByteBuffer.wrap(valueColumn).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        for (int i = firstIndexAtOrAfter(timestamps, count, startTime); i < count; i++) {
+            long timestamp = timestamps.get(i);
+            if (timestamp > endTime) break;
+            consumer.accept(timestamp, values.get(i));
+        }
+    }
+
+    /**
+     * Index of the first timestamp at or after the given time
+     *
+     * @param timestamps - timestamps in ascending order
+     * @param count      - number of timestamps
+     * @param time       - time to search for
+     * @return index, or count if all timestamps precede time
+     */
+    private static int firstIndexAtOrAfter(LongBuffer timestamps, int count, long time) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps.get(mid) < time) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+}
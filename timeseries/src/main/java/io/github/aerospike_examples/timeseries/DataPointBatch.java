@@ -0,0 +1,136 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.Arrays;
+
+/**
+ * A batch of data points held as parallel arrays of primitives - timestamps and values - rather than as DataPoint objects
+ * <p>
+ * Intended for high volume ingest and query loops. A batch can be cleared and re-used, so once its arrays have grown
+ * to the size required, filling it, writing it with TimeSeriesClient.put(String, DataPointBatch) or reading into it
+ * with TimeSeriesClient.getPoints(String, long, long, DataPointBatch) does not create an object per point.
+ * <p>
+ * Not thread safe
+ */
+public class DataPointBatch {
+
+    // Initial capacity if none is specified
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] timestamps;
+    private double[] values;
+    private int length = 0;
+
+    /**
+     * DataPointBatch constructor - empty batch with default capacity
+     */
+    public DataPointBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * DataPointBatch constructor - empty batch with room for capacity points before its arrays need to grow
+     *
+     * @param capacity - initial capacity
+     */
+    public DataPointBatch(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("capacity must not be negative");
+        timestamps = new long[capacity];
+        values = new double[capacity];
+    }
+
+    /**
+     * DataPointBatch constructor - batch holding the given data points
+     *
+     * @param dataPoints - data points as an array
+     */
+    public DataPointBatch(DataPoint[] dataPoints) {
+        this(dataPoints.length);
+        for (DataPoint dataPoint : dataPoints) add(dataPoint.getTimestamp(), dataPoint.getValue());
+    }
+
+    /**
+     * Add a data point to the end of the batch, growing the batch if needed
+     *
+     * @param timestamp - timestamp as a long
+     * @param value     - data point value
+     */
+    public void add(long timestamp, double value) {
+        if (length == timestamps.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, length * 2);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        timestamps[length] = timestamp;
+        values[length] = value;
+        length++;
+    }
+
+    /**
+     * Empty the batch, retaining its capacity
+     */
+    public void clear() {
+        length = 0;
+    }
+
+    /**
+     * Number of data points in the batch
+     *
+     * @return length of batch
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Timestamp of the i'th data point
+     *
+     * @param i - index of data point
+     * @return timestamp as long
+     */
+    public long getTimestamp(int i) {
+        if (i >= length) throw new IndexOutOfBoundsException("Index " + i + " is beyond batch length " + length);
+        return timestamps[i];
+    }
+
+    /**
+     * Value of the i'th data point
+     *
+     * @param i - index of data point
+     * @return value of data point
+     */
+    public double getValue(int i) {
+        if (i >= length) throw new IndexOutOfBoundsException("Index " + i + " is beyond batch length " + length);
+        return values[i];
+    }
+
+    /**
+     * Backing array of timestamps. Only the first getLength() entries are meaningful
+     * The array is replaced if the batch grows, so should not be held on to across calls to add
+     *
+     * @return timestamps
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Backing array of values. Only the first getLength() entries are meaningful
+     * The array is replaced if the batch grows, so should not be held on to across calls to add
+     *
+     * @return values
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * The batch as DataPoint objects
+     *
+     * @return data points as an array
+     */
+    public DataPoint[] toDataPoints() {
+        DataPoint[] dataPoints = new DataPoint[length];
+        for (int i = 0; i < length; i++) dataPoints[i] = new DataPoint(timestamps[i], values[i]);
+        return dataPoints;
+    }
+}
@@ -0,0 +1,175 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Record;
+import com.aerospike.client.policy.BatchPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Iterates over the data points between two times held in a sequence of blocks, fetching the blocks lazily
+ * <p>
+ * Blocks are supplied as groups of batch reads, in time order - the points in a group must not precede those in an earlier
+ * group. Groups are fetched blocksPerFetch blocks at a time with a batch read, and the next fetch is started as soon
+ * as the points from the previous one start to be consumed, so at most two fetches' worth of blocks are held at once.
+ * <p>
+ * Points are returned in strictly ascending timestamp order. A point with a timestamp not later than its predecessor
+ * is a duplicate left by an interrupted block copy, and is skipped.
+ * <p>
+ * Not thread safe
+ */
+class DataPointIterator implements Iterator<DataPoint> {
+
+    private final AerospikeClient asClient;
+    private final BatchPolicy batchPolicy;
+    private final List<BatchRead[]> blockGroups;
+    private final long startTime;
+    private final long endTime;
+    private final int blocksPerFetch;
+
+    // Index of the first group not yet fetched
+    private int nextGroup = 0;
+    // Fetch in flight, or null if all groups have been fetched
+    private CompletableFuture<Record[]> prefetch;
+    // Points from the latest fetch, and the position of the next one to return
+    private final DataPointBatch points = new DataPointBatch();
+    private int position = 0;
+    private long lastTimestamp = Long.MIN_VALUE;
+    // Next point to return, if already found
+    private DataPoint nextDataPoint = null;
+
+    /**
+     * DataPointIterator constructor
+     *
+     * @param asClient       - Aerospike client
+     * @param batchPolicy    - policy for block reads
+     * @param blockGroups    - reads for the blocks, grouped, with the groups in time order. See TimeSeriesClient.blockReads
+     * @param startTime      - start of required range
+     * @param endTime        - end of required range
+     * @param blocksPerFetch - number of blocks to read with each batch read. A group is never split across reads
+     */
+    DataPointIterator(AerospikeClient asClient, BatchPolicy batchPolicy, List<BatchRead[]> blockGroups, long startTime, long endTime, int blocksPerFetch) {
+        this.asClient = asClient;
+        this.batchPolicy = batchPolicy;
+        this.blockGroups = blockGroups;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.blocksPerFetch = blocksPerFetch;
+        prefetch = fetchNextGroups();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextDataPoint == null) {
+            if (position < points.getLength()) {
+                long timestamp = points.getTimestamp(position);
+                if (timestamp > lastTimestamp) {
+                    nextDataPoint = new DataPoint(timestamp, points.getValue(position));
+                    lastTimestamp = timestamp;
+                }
+                position++;
+            } else if (prefetch == null) {
+                return false;
+            } else {
+                Record[] blocks = awaitFetch(prefetch);
+                // Start on the next fetch while the points from this one are consumed
+                prefetch = fetchNextGroups();
+                TimeSeriesClient.pointsFromBlocks(blocks, startTime, endTime, points);
+                position = 0;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public DataPoint next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        DataPoint dataPoint = nextDataPoint;
+        nextDataPoint = null;
+        return dataPoint;
+    }
+
+    /**
+     * Start a batch read of the next blocksPerFetch blocks - or the next group, if larger
+     *
+     * @return the read in flight, or null if all groups have been fetched
+     */
+    private CompletableFuture<Record[]> fetchNextGroups() {
+        if (nextGroup >= blockGroups.size()) return null;
+        List<BatchRead> blockReads = new ArrayList<>();
+        while (nextGroup < blockGroups.size() && (blockReads.isEmpty() || blockReads.size() + blockGroups.get(nextGroup).length <= blocksPerFetch)) {
+            Collections.addAll(blockReads, blockGroups.get(nextGroup));
+            nextGroup++;
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            asClient.get(batchPolicy, blockReads);
+            return TimeSeriesClient.records(blockReads);
+        });
+    }
+
+    private static Record[] awaitFetch(CompletableFuture<Record[]> fetch) {
+        try {
+            return fetch.join();
+        } catch (CompletionException e) {
+            // Surface database errors as they would be from a synchronous read
+            if (e.getCause() instanceof AerospikeException) throw (AerospikeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Merge iterators, each returning points in ascending timestamp order, into a single iterator in ascending timestamp order
+     * Used to combine the stripes of a striped series. Only the next point from each iterator is held
+     *
+     * @param iterators - iterators to merge
+     * @return merged iterator
+     */
+    static Iterator<DataPoint> merge(List<? extends Iterator<DataPoint>> iterators) {
+        return new Iterator<DataPoint>() {
+            // Next point from each iterator with points remaining, paired with the iterator
+            private PriorityQueue<Head> heads = null;
+
+            @Override
+            public boolean hasNext() {
+                // Merging starts on first use, so nothing is read until needed
+                if (heads == null) {
+                    heads = new PriorityQueue<>(Math.max(1, iterators.size()));
+                    for (Iterator<DataPoint> iterator : iterators) if (iterator.hasNext()) heads.add(new Head(iterator.next(), iterator));
+                }
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public DataPoint next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Head head = heads.poll();
+                if (head.iterator.hasNext()) heads.add(new Head(head.iterator.next(), head.iterator));
+                return head.dataPoint;
+            }
+        };
+    }
+
+    private static class Head implements Comparable<Head> {
+        private final DataPoint dataPoint;
+        private final Iterator<DataPoint> iterator;
+
+        private Head(DataPoint dataPoint, Iterator<DataPoint> iterator) {
+            this.dataPoint = dataPoint;
+            this.iterator = iterator;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            return Long.compare(dataPoint.getTimestamp(), other.dataPoint.getTimestamp());
+        }
+    }
+}
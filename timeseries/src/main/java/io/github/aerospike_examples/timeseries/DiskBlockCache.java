@@ -0,0 +1,379 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.exp.Exp;
+import com.aerospike.client.exp.ExpOperation;
+import com.aerospike.client.exp.ExpReadFlags;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Second tier cache of decoded historic blocks, in a memory mapped file on local disk - see
+ * TimeSeriesClient.setDiskBlockCache
+ * <p>
+ * The file is an arena of fixed size slots, each holding one block - its key digest, the generation and last update
+ * time of the record it was read from, and its points, serialized as per BlockCache.encode. Encoded blocks are decoded before they are
+ * stored, so the points are held in a map bin. Blocks too large for a slot are not cached. Slots are reused in clock
+ * order - a slot used since the clock hand last passed it is skipped once - which approximates least recently used
+ * <p>
+ * The file persists across restarts. On opening, the slots are scanned to rebuild the index of the blocks held, so a
+ * restarted client starts warm. A block may only be used if a read of its record's header returns the same generation
+ * and last update time - the generation alone is not enough, as the record may have been deleted and rewritten, its
+ * generation starting again, while the process was down. Blocks must be read with opsForBlockRead, and checked with
+ * opsForHeaderRead, so the last update time is returned. A file written with a different format, slot size or slot
+ * count is discarded
+ * <p>
+ * Thread safe
+ */
+final class DiskBlockCache implements Closeable {
+
+    // File header - magic number, slot size, slot count, format version
+    private static final int MAGIC = 0x54534243;
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 16;
+    // Slot header - payload length (-1 if the slot is empty), generation, last update time, key digest
+    private static final int DIGEST_SIZE = 20;
+    private static final int SLOT_HEADER_SIZE = 16 + DIGEST_SIZE;
+
+    /**
+     * Name under which reads made with opsForBlockRead or opsForHeaderRead return the record's last update time
+     */
+    static final String LAST_UPDATE_TIME_NAME = "lastUpdate";
+
+    private final String namespace;
+    private final int slotSize;
+    private final int slotCount;
+    private final int slotsPerSegment;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    // Slot holding each cached block
+    private final Map<Key, Integer> slots = new HashMap<>();
+    // Key of the block held in each slot - null if empty
+    private final Key[] slotKeys;
+    // Clock reference bits
+    private final boolean[] referenced;
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private int clockHand = 0;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * DiskBlockCache constructor - opens, or creates, the cache file for a namespace in a directory
+     *
+     * @param directory - directory to hold the cache file - created if need be
+     * @param namespace - namespace of the blocks cached - each namespace has its own file
+     * @param slotSize  - size in bytes of each slot, so the maximum serialized size of a block cached, plus a small header
+     * @param slotCount - number of slots, so the maximum number of blocks cached
+     * @throws IOException if the file cannot be created or mapped
+     */
+    DiskBlockCache(Path directory, String namespace, int slotSize, int slotCount) throws IOException {
+        if (slotSize <= SLOT_HEADER_SIZE) throw new IllegalArgumentException("slotSize must be greater than " + SLOT_HEADER_SIZE);
+        if (slotCount <= 0) throw new IllegalArgumentException("slotCount must be positive");
+        this.namespace = namespace;
+        this.slotSize = slotSize;
+        this.slotCount = slotCount;
+        this.slotsPerSegment = Integer.MAX_VALUE / slotSize;
+        this.slotKeys = new Key[slotCount];
+        this.referenced = new boolean[slotCount];
+        Files.createDirectories(directory);
+        Path file = directory.resolve(String.format(Constants.DISK_BLOCK_CACHE_FILE_NAME_FORMAT, namespace));
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean reuse = channel.size() == FILE_HEADER_SIZE + (long) slotSize * slotCount && hasHeader(channel, slotSize, slotCount);
+        if (!reuse) channel.truncate(0);
+        this.segments = new MappedByteBuffer[(slotCount + slotsPerSegment - 1) / slotsPerSegment];
+        for (int i = 0; i < segments.length; i++) {
+            int segmentSlots = Math.min(slotsPerSegment, slotCount - i * slotsPerSegment);
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, FILE_HEADER_SIZE + (long) i * slotsPerSegment * slotSize,
+                    (long) segmentSlots * slotSize);
+        }
+        if (reuse) {
+            loadIndex();
+        } else {
+            for (int slot = 0; slot < slotCount; slot++) {
+                clearSlot(slot);
+                freeSlots.add(slot);
+            }
+            writeHeader();
+        }
+    }
+
+    private static boolean hasHeader(FileChannel channel, int slotSize, int slotCount) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        return header.getInt() == MAGIC && header.getInt() == slotSize && header.getInt() == slotCount && header.getInt() == FORMAT_VERSION;
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(slotSize).putInt(slotCount).putInt(FORMAT_VERSION);
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    // Rebuild the index from the slots - slots left part written by a crash have no length, so are empty
+    private void loadIndex() {
+        for (int slot = 0; slot < slotCount; slot++) {
+            ByteBuffer buffer = slotBuffer(slot);
+            int length = buffer.getInt();
+            if (length < 0 || length > slotSize - SLOT_HEADER_SIZE) {
+                freeSlots.add(slot);
+                continue;
+            }
+            buffer.getInt();
+            buffer.getLong();
+            byte[] digest = new byte[DIGEST_SIZE];
+            buffer.get(digest);
+            Key key = new Key(namespace, digest, null, null);
+            Integer previous = slots.put(key, slot);
+            if (previous != null) {
+                clearSlot(previous);
+                freeSlots.add(previous);
+            }
+            slotKeys[slot] = key;
+        }
+    }
+
+    /**
+     * Operations reading the points of a block, and its record's last update time, so the block can be cached
+     *
+     * @return operations
+     */
+    static Operation[] opsForBlockRead() {
+        Operation[] ops = new Operation[TimeSeriesClient.BLOCK_DATA_BIN_NAMES.length + 1];
+        for (int i = 0; i < TimeSeriesClient.BLOCK_DATA_BIN_NAMES.length; i++) ops[i] = Operation.get(TimeSeriesClient.BLOCK_DATA_BIN_NAMES[i]);
+        ops[ops.length - 1] = opForLastUpdateTime();
+        return ops;
+    }
+
+    /**
+     * Operations reading just a block record's last update time - the record generation is returned with it
+     *
+     * @return operations
+     */
+    static Operation[] opsForHeaderRead() {
+        return new Operation[]{opForLastUpdateTime()};
+    }
+
+    private static Operation opForLastUpdateTime() {
+        return ExpOperation.read(LAST_UPDATE_TIME_NAME, Exp.build(Exp.lastUpdate()), ExpReadFlags.DEFAULT);
+    }
+
+    /**
+     * Last update time of a record, as returned by a read made with opsForBlockRead or opsForHeaderRead
+     *
+     * @param record - record read
+     * @return last update time in nanoseconds since the epoch - zero if not read
+     */
+    static long lastUpdateTime(Record record) {
+        return record.getLong(LAST_UPDATE_TIME_NAME);
+    }
+
+    /**
+     * Maximum number of blocks held
+     *
+     * @return slot count
+     */
+    int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Size of each slot
+     *
+     * @return slot size in bytes
+     */
+    int getSlotSize() {
+        return slotSize;
+    }
+
+    /**
+     * Number of blocks held
+     *
+     * @return block count
+     */
+    synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Whether a block is cached, whatever its generation
+     *
+     * @param key - block key
+     * @return true if cached
+     */
+    synchronized boolean contains(Key key) {
+        return slots.containsKey(key);
+    }
+
+    /**
+     * A cached block, if it has the given generation and last update time. A block with another generation or last
+     * update time is out of date, so is removed
+     *
+     * @param key            - block key
+     * @param generation     - current generation of the block record
+     * @param lastUpdateTime - current last update time of the block record - see lastUpdateTime
+     * @return block, with its points in its map bin - null if not cached or out of date
+     */
+    synchronized Record get(Key key, int generation, long lastUpdateTime) {
+        Integer slot = slots.get(key);
+        if (slot == null) return null;
+        ByteBuffer buffer = slotBuffer(slot);
+        int length = buffer.getInt();
+        if (buffer.getInt() != generation || buffer.getLong() != lastUpdateTime) {
+            remove(key);
+            return null;
+        }
+        referenced[slot] = true;
+        buffer.position(buffer.position() + DIGEST_SIZE);
+        buffer.limit(buffer.position() + length);
+        return BlockCache.decode(buffer.slice(), generation);
+    }
+
+    /**
+     * Cache a block read in full, replacing any held. Blocks too large for a slot, or read without their last update
+     * time, are not cached
+     *
+     * @param key   - block key
+     * @param block - block as per a full read of the block made with opsForBlockRead
+     */
+    void put(Key key, Record block) {
+        long lastUpdateTime = lastUpdateTime(block);
+        if (lastUpdateTime == 0) return;
+        byte[] encoded = BlockCache.encode(decoded(block));
+        if (encoded == null || encoded.length > slotSize - SLOT_HEADER_SIZE) return;
+        synchronized (this) {
+            Integer slot = slots.get(key);
+            if (slot == null) slot = allocateSlot();
+            ByteBuffer buffer = slotBuffer(slot);
+            // The length is written last, so a slot part written by a crash is read as empty
+            buffer.putInt(-1).putInt(block.generation).putLong(lastUpdateTime).put(key.digest).put(encoded);
+            slotBuffer(slot).putInt(encoded.length);
+            slots.put(key, slot);
+            slotKeys[slot] = key;
+            referenced[slot] = true;
+        }
+    }
+
+    /**
+     * Remove a block, if cached
+     *
+     * @param key - block key
+     */
+    synchronized void remove(Key key) {
+        Integer slot = slots.remove(key);
+        if (slot != null) {
+            clearSlot(slot);
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Remove all blocks - needed if the set has been truncated, as recreated blocks restart their generations
+     */
+    synchronized void clear() {
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slotKeys[slot] != null) {
+                clearSlot(slot);
+                freeSlots.add(slot);
+            }
+        }
+        slots.clear();
+    }
+
+    /**
+     * Flush the file to disk and release it. The cache must not be used afterwards
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer segment : segments) segment.force();
+        channel.close();
+    }
+
+    /**
+     * Count a block read as served from the cache or not
+     *
+     * @param hit - true if the block was served from the cache
+     */
+    void countRead(boolean hit) {
+        (hit ? hitCount : missCount).incrementAndGet();
+    }
+
+    /**
+     * Number of block reads served from the cache
+     *
+     * @return hit count
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of block reads looked for in the cache but not served from it, as the block was not cached or was out of date
+     *
+     * @return miss count
+     */
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    // A free slot if there is one, otherwise the slot of the block evicted by the clock
+    private int allocateSlot() {
+        if (!freeSlots.isEmpty()) return freeSlots.poll();
+        while (referenced[clockHand]) {
+            referenced[clockHand] = false;
+            clockHand = (clockHand + 1) % slotCount;
+        }
+        int slot = clockHand;
+        clockHand = (clockHand + 1) % slotCount;
+        if (slotKeys[slot] != null) slots.remove(slotKeys[slot]);
+        return slot;
+    }
+
+    private void clearSlot(int slot) {
+        slotBuffer(slot).putInt(-1);
+        slotKeys[slot] = null;
+        referenced[slot] = false;
+    }
+
+    // Independent buffer over a slot, positioned at its start
+    private ByteBuffer slotBuffer(int slot) {
+        ByteBuffer buffer = segments[slot / slotsPerSegment].duplicate();
+        int offset = (slot % slotsPerSegment) * slotSize;
+        buffer.limit(offset + slotSize).position(offset);
+        return buffer.slice();
+    }
+
+    /**
+     * A block with any encoded bins decoded, so all its points are in its map bin
+     *
+     * @param block - block as per a full read of the block
+     * @return block with a map bin only - the block itself if not encoded
+     */
+    static Record decoded(Record block) {
+        if (block.getValue(Constants.COMPRESSED_TIME_SERIES_BIN_NAME) == null && block.getValue(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME) == null)
+            return block;
+        Map<Long, Double> timeSeries = new LinkedHashMap<>();
+        for (DataPoint dataPoint : TimeSeriesClient.dataPointsFromBlocks(new Record[]{block}, Long.MIN_VALUE, Long.MAX_VALUE))
+            timeSeries.put(dataPoint.getTimestamp(), dataPoint.getValue());
+        return new Record(Collections.singletonMap(Constants.TIME_SERIES_BIN_NAME, timeSeries), block.generation, block.expiration);
+    }
+}
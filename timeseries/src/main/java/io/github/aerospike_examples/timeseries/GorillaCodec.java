@@ -0,0 +1,228 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Compression of a block of data points, as per Facebook's Gorilla time series database
+ * <p>
+ * The encoded block is a 32 bit point count followed by a bit stream. The first point is stored as a raw 64 bit
+ * timestamp and 64 bit value. For each subsequent point, the timestamp is stored as the change in the gap between
+ * timestamps (delta of delta) - a single bit if the gap is unchanged, as is the case for regularly sampled series.
+ * The value is stored as its XOR with the previous value - a single bit if the value is unchanged, otherwise only the
+ * bits that differ, re-using the previous leading / trailing zero count where possible.
+ * <p>
+ * Points must be supplied in timestamp order
+ */
+final class GorillaCodec {
+
+    // Bits in the point count at the start of an encoded block
+    private static final int COUNT_BITS = 32;
+    // Delta of delta ranges - control bits and value bits for each range. Deltas outside all ranges are stored in full
+    private static final int[] DOD_CONTROL_BITS = {2, 3, 4};
+    private static final long[] DOD_CONTROL_VALUES = {0b10, 0b110, 0b1110};
+    private static final int[] DOD_VALUE_BITS = {7, 9, 12};
+    private static final long DOD_FULL_CONTROL_VALUE = 0b1111;
+    private static final int LEADING_ZERO_BITS = 5;
+    private static final int MEANINGFUL_BIT_COUNT_BITS = 6;
+    // Leading zero count is held in 5 bits so is capped
+    private static final int MAX_LEADING_ZEROS = 31;
+
+    private GorillaCodec() {
+    }
+
+    /**
+     * Encode a block of points
+     *
+     * @param timeSeries - timestamp to value map, as held in a block's time series bin
+     * @return encoded block
+     */
+    static byte[] encode(Map<Long, Double> timeSeries) {
+        long[] timestamps = new long[timeSeries.size()];
+        int i = 0;
+        for (Long timestamp : timeSeries.keySet()) timestamps[i++] = timestamp;
+        // Maps retrieved from the database are not guaranteed to iterate in key order
+        Arrays.sort(timestamps);
+        double[] values = new double[timestamps.length];
+        for (i = 0; i < timestamps.length; i++) values[i] = timeSeries.get(timestamps[i]);
+        return encode(timestamps, values, timestamps.length);
+    }
+
+    /**
+     * Encode a block of points
+     *
+     * @param timestamps - timestamps, in ascending order
+     * @param values     - values, corresponding to timestamps
+     * @param count      - number of points to encode, from the start of the arrays
+     * @return encoded block
+     */
+    static byte[] encode(long[] timestamps, double[] values, int count) {
+        // Allow for the worst case - no compression at all
+        BitWriter writer = new BitWriter(COUNT_BITS + count * 2 * (Long.SIZE + 16));
+        writer.write(count, COUNT_BITS);
+        if (count == 0) return writer.toByteArray();
+
+        writer.write(timestamps[0], Long.SIZE);
+        long previousValueBits = Double.doubleToRawLongBits(values[0]);
+        writer.write(previousValueBits, Long.SIZE);
+        long previousDelta = 0;
+        int previousLeadingZeros = -1;
+        int previousTrailingZeros = 0;
+
+        for (int i = 1; i < count; i++) {
+            // Timestamp
+            long delta = timestamps[i] - timestamps[i - 1];
+            writeDeltaOfDelta(writer, delta - previousDelta);
+            previousDelta = delta;
+
+            // Value
+            long valueBits = Double.doubleToRawLongBits(values[i]);
+            long xor = valueBits ^ previousValueBits;
+            previousValueBits = valueBits;
+            if (xor == 0) {
+                writer.write(0, 1);
+                continue;
+            }
+            writer.write(1, 1);
+            int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), MAX_LEADING_ZEROS);
+            int trailingZeros = Long.numberOfTrailingZeros(xor);
+            if (previousLeadingZeros >= 0 && leadingZeros >= previousLeadingZeros && trailingZeros >= previousTrailingZeros) {
+                // Meaningful bits fit in the previous window
+                writer.write(0, 1);
+                writer.write(xor >>> previousTrailingZeros, Long.SIZE - previousLeadingZeros - previousTrailingZeros);
+            } else {
+                int meaningfulBits = Long.SIZE - leadingZeros - trailingZeros;
+                writer.write(1, 1);
+                writer.write(leadingZeros, LEADING_ZERO_BITS);
+                // 1 to 64 stored as 0 to 63
+                writer.write(meaningfulBits - 1, MEANINGFUL_BIT_COUNT_BITS);
+                writer.write(xor >>> trailingZeros, meaningfulBits);
+                previousLeadingZeros = leadingZeros;
+                previousTrailingZeros = trailingZeros;
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Number of points held in an encoded block
+     *
+     * @param block - encoded block
+     * @return point count
+     */
+    static int pointCount(byte[] block) {
+        return (int) new BitReader(block).read(COUNT_BITS);
+    }
+
+    /**
+     * Decode a block, passing each point to consumer in timestamp order
+     *
+     * @param block    - encoded block
+     * @param consumer - receives decoded points
+     */
+    static void decode(byte[] block, PointConsumer consumer) {
+        BitReader reader = new BitReader(block);
+        int count = (int) reader.read(COUNT_BITS);
+        if (count == 0) return;
+
+        long timestamp = reader.read(Long.SIZE);
+        long valueBits = reader.read(Long.SIZE);
+        consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+        long delta = 0;
+        int leadingZeros = 0;
+        int trailingZeros = 0;
+
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(reader);
+            timestamp += delta;
+            if (reader.read(1) == 1) {
+                if (reader.read(1) == 1) {
+                    leadingZeros = (int) reader.read(LEADING_ZERO_BITS);
+                    trailingZeros = Long.SIZE - leadingZeros - ((int) reader.read(MEANINGFUL_BIT_COUNT_BITS) + 1);
+                }
+                valueBits ^= reader.read(Long.SIZE - leadingZeros - trailingZeros) << trailingZeros;
+            }
+            consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+        }
+    }
+
+    private static void writeDeltaOfDelta(BitWriter writer, long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writer.write(0, 1);
+            return;
+        }
+        for (int range = 0; range < DOD_VALUE_BITS.length; range++) {
+            long limit = 1L << (DOD_VALUE_BITS[range] - 1);
+            if (deltaOfDelta >= -limit && deltaOfDelta < limit) {
+                writer.write(DOD_CONTROL_VALUES[range], DOD_CONTROL_BITS[range]);
+                writer.write(deltaOfDelta, DOD_VALUE_BITS[range]);
+                return;
+            }
+        }
+        writer.write(DOD_FULL_CONTROL_VALUE, DOD_CONTROL_BITS[DOD_CONTROL_BITS.length - 1]);
+        writer.write(deltaOfDelta, Long.SIZE);
+    }
+
+    private static long readDeltaOfDelta(BitReader reader) {
+        // Count leading one bits of the control value, up to the number of ranges + 1
+        int range = 0;
+        while (range <= DOD_VALUE_BITS.length && reader.read(1) == 1) range++;
+        if (range == 0) return 0;
+        int valueBits = range <= DOD_VALUE_BITS.length ? DOD_VALUE_BITS[range - 1] : Long.SIZE;
+        // Sign extend
+        return (reader.read(valueBits) << (Long.SIZE - valueBits)) >> (Long.SIZE - valueBits);
+    }
+
+    /**
+     * Writes values of up to 64 bits to a byte array, most significant bit first
+     */
+    private static class BitWriter {
+        private byte[] buffer;
+        private int bitPosition = 0;
+
+        private BitWriter(int initialCapacityInBits) {
+            buffer = new byte[(initialCapacityInBits + 7) / 8];
+        }
+
+        private void write(long value, int bitCount) {
+            while (bitPosition + bitCount > buffer.length * 8) buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, buffer.length + 8));
+            while (bitCount > 0) {
+                int freeBits = 8 - (bitPosition & 7);
+                int bitsToWrite = Math.min(freeBits, bitCount);
+                int bits = (int) (value >>> (bitCount - bitsToWrite)) & ((1 << bitsToWrite) - 1);
+                buffer[bitPosition >>> 3] |= bits << (freeBits - bitsToWrite);
+                bitPosition += bitsToWrite;
+                bitCount -= bitsToWrite;
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, (bitPosition + 7) / 8);
+        }
+    }
+
+    /**
+     * Reads values of up to 64 bits from a byte array, as written by BitWriter
+     */
+    private static class BitReader {
+        private final byte[] buffer;
+        private int bitPosition = 0;
+
+        private BitReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private long read(int bitCount) {
+            long value = 0;
+            while (bitCount > 0) {
+                int availableBits = 8 - (bitPosition & 7);
+                int bitsToRead = Math.min(availableBits, bitCount);
+                int bits = ((buffer[bitPosition >>> 3] & 0xFF) >>> (availableBits - bitsToRead)) & ((1 << bitsToRead) - 1);
+                value = (value << bitsToRead) | bits;
+                bitPosition += bitsToRead;
+                bitCount -= bitsToRead;
+            }
+            return value;
+        }
+    }
+}
@@ -24,6 +24,14 @@ public interface ITimeSeriesClient {
      */
     void put(String timeSeriesName, DataPoint[] dataPoints);
 
+    /**
+     * Save a batch of data points, held as primitive arrays, to the database
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as a batch
+     */
+    void put(String timeSeriesName, DataPointBatch dataPoints);
+
     /**
      * Get all the data points for time series timeSeriesName
      * between startDateTime and endDateTime (inclusive)
@@ -35,6 +43,18 @@ public interface ITimeSeriesClient {
      */
     DataPoint[] getPoints(String timeSeriesName, Date startDateTime, Date endDateTime);
 
+    /**
+     * Get all the data points for time series timeSeriesName
+     * between startTime and endTime (inclusive), clearing and filling a batch
+     *
+     * @param timeSeriesName - time series name
+     * @param startTime      - start time for interval, as a long
+     * @param endTime        - end time for interval, as a long
+     * @param dataPoints     - batch to receive the data points
+     * @return the batch passed in
+     */
+    DataPointBatch getPoints(String timeSeriesName, long startTime, long endTime, DataPointBatch dataPoints);
+
     /**
      * Get a particular data point for timeSeriesName
      * Returns null if no point available
@@ -45,6 +65,25 @@ public interface ITimeSeriesClient {
      */
     DataPoint getPoint(String timeSeriesName, Date dateTime);
 
+    /**
+     * Get the latest data point for timeSeriesName
+     * Returns null if the series has no points
+     *
+     * @param timeSeriesName - time series name
+     * @return latest DataPoint for timeSeriesName if any
+     */
+    DataPoint getLatest(String timeSeriesName);
+
+    /**
+     * Get the latest n data points for timeSeriesName, in timestamp order
+     * Fewer are returned if the series has fewer points
+     *
+     * @param timeSeriesName - time series name
+     * @param n              - number of data points
+     * @return latest n Data Points for timeSeriesName
+     */
+    DataPoint[] getLastN(String timeSeriesName, int n);
+
     /**
      * Run a query vs a particular time series range. Query types are as per the enum QueryOperation
      *
@@ -0,0 +1,14 @@
+package io.github.aerospike_examples.timeseries;
+
+/**
+ * Receives data points as primitives, so blocks can be decoded without creating an object per point
+ */
+interface PointConsumer {
+    /**
+     * Accept a data point
+     *
+     * @param timestamp - timestamp of point
+     * @param value     - value of point
+     */
+    void accept(long timestamp, double value);
+}
@@ -0,0 +1,135 @@
+package io.github.aerospike_examples.timeseries;
+
+/**
+ * Accumulates the statistics needed for every QueryOperation in a single pass over a series of points,
+ * without holding the points
+ */
+class QueryAggregator implements PointConsumer {
+
+    private long count = 0;
+    private double sum = 0;
+    private double maxValue = Double.MIN_VALUE;
+    private double minValue = Double.MAX_VALUE;
+    // Running mean and sum of squared differences from it, for volatility - Welford's method
+    private double mean = 0;
+    private double sumOfSquaredDifferences = 0;
+
+    @Override
+    public void accept(long timestamp, double value) {
+        count++;
+        sum += value;
+        maxValue = Math.max(maxValue, value);
+        minValue = Math.min(minValue, value);
+        double difference = value - mean;
+        mean += difference / count;
+        sumOfSquaredDifferences += difference * (value - mean);
+    }
+
+    /**
+     * Combine a point count computed on the server for a whole block - see QueryPlan
+     * Only the COUNT result is affected
+     *
+     * @param blockCount - number of points in the block
+     */
+    void acceptCount(long blockCount) {
+        count += blockCount;
+    }
+
+    /**
+     * Combine a minimum computed on the server for a whole block - see QueryPlan
+     * Only the MIN result is affected
+     *
+     * @param blockMinValue - minimum value in the block
+     */
+    void acceptMin(double blockMinValue) {
+        minValue = Math.min(minValue, blockMinValue);
+    }
+
+    /**
+     * Combine a maximum computed on the server for a whole block - see QueryPlan
+     * Only the MAX result is affected
+     *
+     * @param blockMaxValue - maximum value in the block
+     */
+    void acceptMax(double blockMaxValue) {
+        maxValue = Math.max(maxValue, blockMaxValue);
+    }
+
+    /**
+     * Combine the summary of a block lying wholly within the query range, in place of its points
+     *
+     * @param blockSummary - summary from the block's index entry
+     */
+    void acceptSummary(BlockSummary blockSummary) {
+        long blockCount = blockSummary.getCount();
+        if (blockCount == 0) return;
+        // Merge the block's mean and sum of squared differences with the running values - Chan et al.
+        double blockMean = blockSummary.getSum() / blockCount;
+        double blockSumOfSquaredDifferences = Math.max(0, blockSummary.getSumOfSquares() - blockSummary.getSum() * blockMean);
+        double difference = blockMean - mean;
+        long combinedCount = count + blockCount;
+        mean += difference * blockCount / combinedCount;
+        sumOfSquaredDifferences += blockSumOfSquaredDifferences + difference * difference * count * blockCount / combinedCount;
+        count = combinedCount;
+        sum += blockSummary.getSum();
+        minValue = Math.min(minValue, blockSummary.getMinValue());
+        maxValue = Math.max(maxValue, blockSummary.getMaxValue());
+    }
+
+    /**
+     * Combine a rollup bucket lying wholly within the query range, in place of its points
+     * The volatility is not affected, as a rollup holds no sum of squares, so rollups must not be used for VOL
+     *
+     * @param rollup - rollup bucket
+     */
+    void acceptRollup(Rollup rollup) {
+        if (rollup.getCount() == 0) return;
+        count += rollup.getCount();
+        sum += rollup.getSum();
+        minValue = Math.min(minValue, rollup.getMinValue());
+        maxValue = Math.max(maxValue, rollup.getMaxValue());
+    }
+
+    /**
+     * Combine the statistics accumulated by another aggregator with those accumulated by this one
+     *
+     * @param other - other aggregator
+     * @return this aggregator
+     */
+    QueryAggregator combine(QueryAggregator other) {
+        if (other.count > 0) {
+            long combinedCount = count + other.count;
+            double difference = other.mean - mean;
+            mean += difference * other.count / combinedCount;
+            sumOfSquaredDifferences += other.sumOfSquaredDifferences + difference * difference * count * other.count / combinedCount;
+            count = combinedCount;
+            sum += other.sum;
+        }
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+        return this;
+    }
+
+    /**
+     * Result of a query operation over the points accepted so far
+     *
+     * @param operation - operation to apply e.g. avg, vol, max, min
+     * @return result of the operation as a double
+     */
+    double result(QueryOperation operation) {
+        switch (operation) {
+            case MAX:
+                return maxValue == Double.MIN_VALUE ? Double.NaN : maxValue;
+            case MIN:
+                return minValue == Double.MAX_VALUE ? Double.NaN : minValue;
+            case COUNT:
+                return count;
+            case AVG:
+                return count > 0 ? sum / count : Double.NaN;
+            case VOL:
+                return count > 0 ? Math.sqrt(sumOfSquaredDifferences / count) : Double.NaN;
+            default:
+                return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapReturnType;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Per block plan for a query over a time range
+ * <p>
+ * Historic blocks lying wholly within the range whose index entries hold summary statistics - see BlockSummary - are
+ * not read at all, for any operation. The block before the current block is the exception - see below.
+ * <p>
+ * For MIN, MAX and COUNT, blocks wholly inside the range are aggregated on the server - by value rank 0 or -1, or map
+ * size - so a few bytes are returned per block rather than all of its points. Points are retrieved, as per
+ * TimeSeriesClient.blockReads, for the first and last blocks of each run, which may extend beyond the range. In the
+ * index based layout, the last two blocks of each run are both retrieved, as points may briefly be in both the current
+ * block and the most recent historic block, and must only be counted once. All blocks are retrieved for other operations.
+ * <p>
+ * In the index based layout, the current block is read with TimeSeriesClient.currentBlockRead, so if it lies wholly
+ * within the range, its running statistics are used and its points are not returned.
+ * <p>
+ * Encoded historic blocks are returned whole, as there is no server side aggregation of their encoded bins. If such a
+ * block also holds late points in its map bin, these may replace encoded points, so the block is read again in full
+ * by a follow up read.
+ * <p>
+ * A plan may also compute one result per fixed time bucket. Blocks may then span buckets, so there is no server side
+ * aggregation, and the current block is read as any other block. Summaries are only used for blocks lying wholly
+ * within a single bucket.
+ * <p>
+ * Usage - batch read getBlockReads(), then getFollowUpReads() if not empty, then call result(), or for a plan with a
+ * bucket width, accumulateBuckets(). The block reads may be made through the block cache - see BlockCacheRead - which
+ * must be completed before calling getFollowUpReads()
+ */
+class QueryPlan {
+
+    private final long startTime;
+    private final long endTime;
+    private final QueryOperation operation;
+    // Width of the time buckets results are computed for - zero for a single result over the range
+    private final long bucketWidth;
+
+    private final List<BatchRead> blockReads = new ArrayList<>();
+    // Whether each block read is aggregated on the server
+    private final List<Boolean> aggregatedOnServer = new ArrayList<>();
+    // Full reads of blocks that could not be aggregated on the server, keyed by index of the original block read
+    private Map<Integer, BatchRead> followUpReads = null;
+    // Summaries standing in for blocks lying wholly within the range, which need not be read at all
+    private final List<BlockSummary> summaries = new ArrayList<>();
+    // Indexes of the block reads which are current block reads
+    private final Set<Integer> currentBlockReads = new HashSet<>();
+
+    /**
+     * QueryPlan constructor
+     *
+     * @param blockRuns                  - runs of block keys, one per stripe, each in time order
+     * @param summaryRuns                - summaries of the blocks in each run, from their index entries, with null for
+     *                                   blocks without a summary. May be null
+     * @param runsMayEndWithCurrentBlock - true for the index based layout, false for the bucketed layout
+     * @param startTime                  - start of required range
+     * @param endTime                    - end of required range
+     * @param operation                  - query operation
+     */
+    QueryPlan(List<Key[]> blockRuns, List<BlockSummary[]> summaryRuns, boolean runsMayEndWithCurrentBlock, long startTime, long endTime,
+              QueryOperation operation) {
+        this(blockRuns, summaryRuns, runsMayEndWithCurrentBlock, null, startTime, endTime, operation, 0);
+    }
+
+    /**
+     * QueryPlan constructor for the index based layout, using the running statistics of the current block where possible
+     *
+     * @param blockRuns              - runs of block keys, one per stripe, each in time order
+     * @param summaryRuns            - summaries of the blocks in each run, from their index entries, with null for
+     *                               blocks without a summary. May be null
+     * @param latestArchivedEndTimes - for each run ending with the current block, the end time of the most recent
+     *                               historic block, Long.MIN_VALUE if there is none. Null for other runs
+     * @param startTime              - start of required range
+     * @param endTime                - end of required range
+     * @param operation              - query operation
+     */
+    QueryPlan(List<Key[]> blockRuns, List<BlockSummary[]> summaryRuns, Long[] latestArchivedEndTimes, long startTime, long endTime,
+              QueryOperation operation) {
+        this(blockRuns, summaryRuns, true, latestArchivedEndTimes, startTime, endTime, operation, 0);
+    }
+
+    /**
+     * QueryPlan constructor for a query computing one result per time bucket
+     *
+     * @param blockRuns                  - runs of block keys, one per stripe, each in time order
+     * @param summaryRuns                - summaries of the blocks in each run, from their index entries, with null for
+     *                                   blocks without a summary. May be null
+     * @param runsMayEndWithCurrentBlock - true for the index based layout, false for the bucketed layout
+     * @param startTime                  - start of required range
+     * @param endTime                    - end of required range
+     * @param operation                  - query operation
+     * @param bucketWidth                - width of the time buckets in milliseconds
+     */
+    QueryPlan(List<Key[]> blockRuns, List<BlockSummary[]> summaryRuns, boolean runsMayEndWithCurrentBlock, long startTime, long endTime,
+              QueryOperation operation, long bucketWidth) {
+        this(blockRuns, summaryRuns, runsMayEndWithCurrentBlock, null, startTime, endTime, operation, bucketWidth);
+    }
+
+    private QueryPlan(List<Key[]> blockRuns, List<BlockSummary[]> summaryRuns, boolean runsMayEndWithCurrentBlock, Long[] latestArchivedEndTimes,
+                      long startTime, long endTime, QueryOperation operation, long bucketWidth) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.operation = operation;
+        this.bucketWidth = bucketWidth;
+        Operation serverAggregate = bucketWidth > 0 ? null : serverAggregate(operation);
+        for (int run = 0; run < blockRuns.size(); run++) {
+            Key[] keys = blockRuns.get(run);
+            for (int i = 0; i < keys.length; i++) {
+                boolean edge = i == 0 || i == keys.length - 1 || (runsMayEndWithCurrentBlock && i == keys.length - 2);
+                BlockSummary summary = summaryRuns == null ? null : summaryRuns.get(run)[i];
+                // The block before the current block is always read, whatever its summary - see above
+                if (summary != null && summary.isWithin(startTime, endTime) && (bucketWidth == 0 || summary.isWithinBucket(bucketWidth))
+                        && !(runsMayEndWithCurrentBlock && i == keys.length - 2)) {
+                    summaries.add(summary);
+                } else if (latestArchivedEndTimes != null && latestArchivedEndTimes[run] != null && i == keys.length - 1) {
+                    currentBlockReads.add(blockReads.size());
+                    blockReads.add(TimeSeriesClient.currentBlockRead(keys[i], latestArchivedEndTimes[run], startTime, endTime, operation));
+                    aggregatedOnServer.add(false);
+                } else if (serverAggregate == null || edge) {
+                    blockReads.add(TimeSeriesClient.blockRead(keys[i], edge, startTime, endTime));
+                    aggregatedOnServer.add(false);
+                } else {
+                    blockReads.add(new BatchRead(keys[i], new Operation[]{serverAggregate,
+                            Operation.get(Constants.COMPRESSED_TIME_SERIES_BIN_NAME),
+                            Operation.get(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME),
+                            Operation.get(Constants.COLUMNAR_VALUES_BIN_NAME)}));
+                    aggregatedOnServer.add(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Map operation computing the result of a query operation for a whole block on the server
+     *
+     * @param operation - query operation
+     * @return map operation, or null if the operation cannot be computed on the server
+     */
+    private static Operation serverAggregate(QueryOperation operation) {
+        switch (operation) {
+            case MIN:
+                return MapOperation.getByRank(Constants.TIME_SERIES_BIN_NAME, 0, MapReturnType.VALUE);
+            case MAX:
+                return MapOperation.getByRank(Constants.TIME_SERIES_BIN_NAME, -1, MapReturnType.VALUE);
+            case COUNT:
+                return MapOperation.size(Constants.TIME_SERIES_BIN_NAME);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Batch reads for the blocks in the range that must be read
+     *
+     * @return batch reads
+     */
+    List<BatchRead> getBlockReads() {
+        return blockReads;
+    }
+
+    /**
+     * Whether a block read is aggregated on the server, rather than retrieving points
+     *
+     * @param i - index of block read
+     * @return true if aggregated on the server
+     */
+    boolean isAggregatedOnServer(int i) {
+        return aggregatedOnServer.get(i);
+    }
+
+    /**
+     * Whether a block read retrieves points, as per TimeSeriesClient.blockRead, so may be served from the block cache -
+     * see BlockCacheRead
+     *
+     * @param i - index of block read
+     * @return true if neither aggregated on the server nor a current block read
+     */
+    boolean isPointRead(int i) {
+        return !aggregatedOnServer.get(i) && !currentBlockReads.contains(i);
+    }
+
+    /**
+     * Batch reads needed once getBlockReads() have completed - see class description
+     *
+     * @return batch reads - usually empty
+     */
+    List<BatchRead> getFollowUpReads() {
+        if (followUpReads == null) {
+            followUpReads = new HashMap<>();
+            for (int i = 0; i < blockReads.size(); i++) {
+                Record block = blockReads.get(i).record;
+                if (aggregatedOnServer.get(i) && block != null && isEncoded(block) && hasLatePoints(block))
+                    followUpReads.put(i, TimeSeriesClient.blockRead(blockReads.get(i).key, false, startTime, endTime));
+                // Points not returned, but running statistics not usable - should not happen, but read the points to be sure
+                if (currentBlockReads.contains(i) && block != null && block.getValue(TimeSeriesClient.CURRENT_BLOCK_RANGE_POINTS_NAME) == null
+                        && runningStatistics(block) == null)
+                    followUpReads.put(i, TimeSeriesClient.blockRead(blockReads.get(i).key, true, startTime, endTime));
+            }
+        }
+        return new ArrayList<>(followUpReads.values());
+    }
+
+    /**
+     * Result of the query, once all reads have completed
+     *
+     * @return result of the query operation as a double
+     */
+    double result() {
+        getFollowUpReads();
+        // Blocks read in full, in time order within each run - other positions are null
+        Record[] blocks = new Record[blockReads.size()];
+        List<BlockSummary> blockSummaries = new ArrayList<>(summaries);
+        for (int i = 0; i < blocks.length; i++) {
+            Record block = blockReads.get(i).record;
+            if (followUpReads.containsKey(i)) blocks[i] = followUpReads.get(i).record;
+            else if (currentBlockReads.contains(i)) {
+                Object rangePoints = block == null ? null : block.getValue(TimeSeriesClient.CURRENT_BLOCK_RANGE_POINTS_NAME);
+                if (rangePoints != null)
+                    blocks[i] = new Record(Collections.singletonMap(Constants.TIME_SERIES_BIN_NAME, rangePoints), block.generation, block.expiration);
+                else if (block != null) blockSummaries.add(runningStatistics(block));
+            } else if (!aggregatedOnServer.get(i)) blocks[i] = block;
+        }
+        QueryAggregator aggregator = new QueryAggregator();
+        if (!TimeSeriesClient.forEachPointInOrder(blocks, startTime, endTime, aggregator)) {
+            aggregator = new QueryAggregator();
+            for (DataPoint dataPoint : TimeSeriesClient.dataPointsFromBlocks(blocks, startTime, endTime))
+                aggregator.accept(dataPoint.getTimestamp(), dataPoint.getValue());
+        }
+        for (int i = 0; i < blocks.length; i++) {
+            Record block = blockReads.get(i).record;
+            if (aggregatedOnServer.get(i) && block != null && !followUpReads.containsKey(i)) combineServerAggregate(block, aggregator);
+        }
+        for (BlockSummary summary : blockSummaries) aggregator.acceptSummary(summary);
+        return aggregator.result(operation);
+    }
+
+    /**
+     * Accumulate the points and summaries for each time bucket, once all reads have completed - for a plan with a
+     * bucket width
+     *
+     * @param bucketAggregators - aggregators keyed by bucket start time, created as needed
+     */
+    void accumulateBuckets(TreeMap<Long, QueryAggregator> bucketAggregators) {
+        getFollowUpReads();
+        Record[] blocks = new Record[blockReads.size()];
+        for (int i = 0; i < blocks.length; i++)
+            blocks[i] = followUpReads.containsKey(i) ? followUpReads.get(i).record : blockReads.get(i).record;
+        // Points are accumulated into a copy, so the fallback for out of order blocks can start again
+        TreeMap<Long, QueryAggregator> rangeAggregators = new TreeMap<>();
+        if (!TimeSeriesClient.forEachPointInOrder(blocks, startTime, endTime, new BucketConsumer(rangeAggregators, bucketWidth))) {
+            rangeAggregators.clear();
+            BucketConsumer bucketConsumer = new BucketConsumer(rangeAggregators, bucketWidth);
+            for (DataPoint dataPoint : TimeSeriesClient.dataPointsFromBlocks(blocks, startTime, endTime))
+                bucketConsumer.accept(dataPoint.getTimestamp(), dataPoint.getValue());
+        }
+        for (BlockSummary summary : summaries)
+            rangeAggregators.computeIfAbsent(bucketStartTime(summary.getStartTime(), bucketWidth), ignore -> new QueryAggregator()).acceptSummary(summary);
+        for (Map.Entry<Long, QueryAggregator> rangeAggregator : rangeAggregators.entrySet())
+            bucketAggregators.merge(rangeAggregator.getKey(), rangeAggregator.getValue(), QueryAggregator::combine);
+    }
+
+    /**
+     * Start time of the bucket of the given width holding a timestamp
+     *
+     * @param timestamp   - timestamp
+     * @param bucketWidth - bucket width
+     * @return bucket start time
+     */
+    static long bucketStartTime(long timestamp, long bucketWidth) {
+        return Math.floorDiv(timestamp, bucketWidth) * bucketWidth;
+    }
+
+    /**
+     * Routes points to the aggregator for their bucket. Points usually arrive in time order, so the aggregator for the
+     * latest bucket is kept to hand
+     */
+    private static class BucketConsumer implements PointConsumer {
+        private final TreeMap<Long, QueryAggregator> bucketAggregators;
+        private final long bucketWidth;
+        private long bucketStartTime = Long.MIN_VALUE;
+        private QueryAggregator bucketAggregator = null;
+
+        BucketConsumer(TreeMap<Long, QueryAggregator> bucketAggregators, long bucketWidth) {
+            this.bucketAggregators = bucketAggregators;
+            this.bucketWidth = bucketWidth;
+        }
+
+        @Override
+        public void accept(long timestamp, double value) {
+            if (bucketAggregator == null || timestamp < bucketStartTime || timestamp - bucketStartTime >= bucketWidth) {
+                bucketStartTime = bucketStartTime(timestamp, bucketWidth);
+                bucketAggregator = bucketAggregators.computeIfAbsent(bucketStartTime, ignore -> new QueryAggregator());
+            }
+            bucketAggregator.accept(timestamp, value);
+        }
+    }
+
+    /**
+     * Combine a block aggregated on the server into the query result
+     *
+     * @param block      - block as returned by the server aggregate read
+     * @param aggregator - query result so far
+     */
+    private void combineServerAggregate(Record block, QueryAggregator aggregator) {
+        // Any encoded bins are returned whole, so are decoded here
+        TimeSeriesClient.forEachPointInBlock(block, startTime, endTime, aggregator);
+        Object blockResult = block.getValue(Constants.TIME_SERIES_BIN_NAME);
+        if (blockResult == null) return;
+        switch (operation) {
+            case MIN:
+                aggregator.acceptMin(((Number) blockResult).doubleValue());
+                break;
+            case MAX:
+                aggregator.acceptMax(((Number) blockResult).doubleValue());
+                break;
+            case COUNT:
+                aggregator.acceptCount(((Number) blockResult).longValue());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Running statistics returned by a current block read, if they can be used for the query operation
+     *
+     * @param block - block as returned by the current block read
+     * @return summary, or null if not usable
+     */
+    private BlockSummary runningStatistics(Record block) {
+        Map<?, ?> metadata = block.getMap(Constants.METADATA_BIN_NAME);
+        if (metadata == null || !metadata.containsKey(TimeSeriesClient.runningStatisticFieldName(operation))) return null;
+        return BlockSummary.fromRunningStatistics(metadata);
+    }
+
+    private static boolean isEncoded(Record block) {
+        return block.getValue(Constants.COMPRESSED_TIME_SERIES_BIN_NAME) != null || block.getValue(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME) != null;
+    }
+
+    // The map bin of an encoded block only exists if late points have been written to it
+    private boolean hasLatePoints(Record block) {
+        Object blockResult = block.getValue(Constants.TIME_SERIES_BIN_NAME);
+        return blockResult != null && !(operation == QueryOperation.COUNT && ((Number) blockResult).longValue() == 0);
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.Date;
+
+/**
+ * Summary of the data points in a fixed time bucket of a rollup tier - see TimeSeriesClient.setRollupWidths
+ * <p>Holds the count, sum, minimum and maximum of the values in the bucket, and its last value</p>
+ */
+public class Rollup {
+
+    private final long startTime;
+    private final long width;
+    private final long count;
+    private final double sum;
+    private final double minValue;
+    private final double maxValue;
+    private final long lastTimestamp;
+    private final double lastValue;
+
+    /**
+     * Rollup constructor
+     *
+     * @param startTime     - start time of bucket
+     * @param width         - width of bucket in milliseconds
+     * @param count         - number of points in the bucket
+     * @param sum           - sum of values
+     * @param minValue      - minimum value
+     * @param maxValue      - maximum value
+     * @param lastTimestamp - timestamp of the last point in the bucket
+     * @param lastValue     - value of the last point in the bucket
+     */
+    public Rollup(long startTime, long width, long count, double sum, double minValue, double maxValue, long lastTimestamp, double lastValue) {
+        this.startTime = startTime;
+        this.width = width;
+        this.count = count;
+        this.sum = sum;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.lastTimestamp = lastTimestamp;
+        this.lastValue = lastValue;
+    }
+
+    /**
+     * Start time of bucket as a long
+     *
+     * @return start time
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Start time of bucket as a date/time
+     *
+     * @return start time as date/time
+     */
+    @SuppressWarnings("unused") // required for API
+    public Date getStartTimeAsDateTime() {
+        return new Date(startTime);
+    }
+
+    /**
+     * Width of bucket in milliseconds
+     *
+     * @return width
+     */
+    public long getWidth() {
+        return width;
+    }
+
+    /**
+     * Number of points in the bucket
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Sum of the values in the bucket
+     *
+     * @return sum
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Mean of the values in the bucket
+     *
+     * @return average
+     */
+    public double getAverage() {
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    /**
+     * Minimum value in the bucket
+     *
+     * @return minimum
+     */
+    public double getMinValue() {
+        return minValue;
+    }
+
+    /**
+     * Maximum value in the bucket
+     *
+     * @return maximum
+     */
+    public double getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Timestamp of the last point in the bucket
+     *
+     * @return timestamp as long
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Value of the last point in the bucket
+     *
+     * @return last value
+     */
+    public double getLastValue() {
+        return lastValue;
+    }
+
+    /**
+     * Utility method to present rollup as string
+     *
+     * @return rollup as a string
+     */
+    @Override
+    public String toString() {
+        return String.format("(%s,count=%d,sum=%f,min=%f,max=%f,last=%f)", startTime, count, sum, minValue, maxValue, lastValue);
+    }
+}
@@ -0,0 +1,384 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import com.aerospike.client.cdt.CTX;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapOrder;
+import com.aerospike.client.cdt.MapPolicy;
+import com.aerospike.client.cdt.MapReturnType;
+import com.aerospike.client.cdt.MapWriteFlags;
+import com.aerospike.client.cdt.MapWriteMode;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Maintains and reads the rollup tiers of a time series - see TimeSeriesClient.setRollupWidths
+ * <p>
+ * Each tier is held in its own set, as records of Constants.ROLLUP_BUCKETS_PER_RECORD buckets with key
+ * TimeSeriesName-RecordStartTime. Each record maps bucket start time to a bucket aggregate -
+ * [count, sum, min, max, last timestamp, last value]. Stripes of a striped series have their own records.
+ * <p>
+ * The finest tier is built from historic blocks. Each of its buckets maps the start time of each block with points in
+ * the bucket to the aggregate of those points, so rolling up a block again - as happens if it is archived more than
+ * once, or has late points written to it - replaces its contribution rather than adding to it. Each coarser tier is
+ * built from the tier below - a bucket is recomputed from the finer buckets it covers whenever one of them changes.
+ * <p>
+ * Usage - once a block has been archived or written to, apply opsForBlock, then for each coarser tier in turn, batch
+ * read finerBucketReads and apply opsForTotals. Several writers may roll up the same buckets at once, so rollup records
+ * are written with a generation check against recordHeaderReads, made before the data the buckets are computed from
+ */
+final class RollupTiers {
+
+    // Positions in a bucket aggregate
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MIN_VALUE = 2;
+    private static final int MAX_VALUE = 3;
+    private static final int LAST_TIMESTAMP = 4;
+    private static final int LAST_VALUE = 5;
+
+    // Map policies for rollup records - buckets are key ordered so can be read by range
+    private static final MapPolicy BUCKET_MAP_POLICY = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteMode.UPDATE);
+    private static final MapPolicy CREATE_BUCKET_MAP_POLICY = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.CREATE_ONLY + MapWriteFlags.NO_FAIL);
+
+    private final TimeSeriesClient timeSeriesClient;
+    private final long[] widths;
+
+    /**
+     * RollupTiers constructor
+     *
+     * @param timeSeriesClient - client the tiers belong to
+     * @param widths           - bucket widths of the tiers in milliseconds, ascending, each a multiple of the one before
+     */
+    RollupTiers(TimeSeriesClient timeSeriesClient, long[] widths) {
+        this.timeSeriesClient = timeSeriesClient;
+        this.widths = widths.clone();
+    }
+
+    /**
+     * Bucket widths of the tiers, finest first
+     *
+     * @return widths in milliseconds
+     */
+    long[] getWidths() {
+        return widths.clone();
+    }
+
+    /**
+     * Number of tiers
+     *
+     * @return tier count
+     */
+    int getTierCount() {
+        return widths.length;
+    }
+
+    /**
+     * Tier with the given bucket width
+     *
+     * @param width - bucket width in milliseconds
+     * @return tier, zero being the finest
+     */
+    int tier(long width) {
+        for (int tier = 0; tier < widths.length; tier++) if (widths[tier] == width) return tier;
+        throw new IllegalArgumentException("No rollup tier has width " + width + " - tiers are " + Arrays.toString(widths));
+    }
+
+    /**
+     * Start time of the bucket of the given width holding a timestamp
+     *
+     * @param timestamp - timestamp
+     * @param width     - bucket width
+     * @return bucket start time
+     */
+    static long bucketStartTime(long timestamp, long width) {
+        return Math.floorDiv(timestamp, width) * width;
+    }
+
+    /**
+     * Start time of the rollup record holding a bucket
+     *
+     * @param bucketStartTime - bucket start time
+     * @param width           - bucket width
+     * @return record start time
+     */
+    static long recordStartTime(long bucketStartTime, long width) {
+        long recordWidth = width * Constants.ROLLUP_BUCKETS_PER_RECORD;
+        return Math.floorDiv(bucketStartTime, recordWidth) * recordWidth;
+    }
+
+    /**
+     * Aggregates of a set of points, by bucket
+     *
+     * @param dataPoints - points
+     * @param width      - bucket width
+     * @return bucket aggregates keyed by bucket start time
+     */
+    static SortedMap<Long, List<Object>> bucketAggregates(DataPointBatch dataPoints, long width) {
+        SortedMap<Long, List<Object>> bucketAggregates = new TreeMap<>();
+        for (int i = 0; i < dataPoints.getLength(); i++) {
+            List<Object> pointAggregate = aggregate(1, dataPoints.getValue(i), dataPoints.getValue(i), dataPoints.getValue(i),
+                    dataPoints.getTimestamp(i), dataPoints.getValue(i));
+            bucketAggregates.merge(bucketStartTime(dataPoints.getTimestamp(i), width), pointAggregate, RollupTiers::merge);
+        }
+        return bucketAggregates;
+    }
+
+    /**
+     * Operations adding a block's contribution to the buckets of the finest tier, by rollup record
+     *
+     * @param timeSeriesName   - stripe name - the series name unless striping is in use
+     * @param blockStartTime   - start time of block
+     * @param bucketAggregates - aggregates of the block's points by bucket, as per bucketAggregates
+     * @return operations keyed by rollup record
+     */
+    Map<Key, Operation[]> opsForBlock(String timeSeriesName, long blockStartTime, SortedMap<Long, List<Object>> bucketAggregates) {
+        Map<Long, List<Operation>> opsByRecord = new TreeMap<>();
+        for (Map.Entry<Long, List<Object>> bucketAggregate : bucketAggregates.entrySet()) {
+            Value bucketStartTime = Value.get(bucketAggregate.getKey());
+            List<Operation> ops = opsByRecord.computeIfAbsent(recordStartTime(bucketAggregate.getKey(), widths[0]), ignore -> new ArrayList<>());
+            // Create the bucket if absent, then set the block's contribution to it
+            ops.add(MapOperation.put(CREATE_BUCKET_MAP_POLICY, Constants.ROLLUP_BIN_NAME, bucketStartTime, new Value.MapValue(new HashMap<>())));
+            ops.add(MapOperation.put(BUCKET_MAP_POLICY, Constants.ROLLUP_BIN_NAME, Value.get(blockStartTime),
+                    new Value.ListValue(bucketAggregate.getValue()), CTX.mapKey(bucketStartTime)));
+        }
+        return opsByRecord(timeSeriesName, 0, opsByRecord);
+    }
+
+    /**
+     * Header only reads of the rollup records of a tier holding the given buckets, and of the records of each coarser
+     * tier holding the buckets covering them
+     *
+     * @param timeSeriesName   - stripe name - the series name unless striping is in use
+     * @param tier             - first tier to read
+     * @param bucketStartTimes - start times of buckets in that tier
+     * @return batch reads
+     */
+    List<BatchRead> recordHeaderReads(String timeSeriesName, int tier, SortedSet<Long> bucketStartTimes) {
+        List<BatchRead> recordHeaderReads = new ArrayList<>();
+        for (; tier < widths.length; tier++) {
+            bucketStartTimes = coveringBuckets(bucketStartTimes, tier);
+            SortedSet<Long> recordStartTimes = new TreeSet<>();
+            for (long bucketStartTime : bucketStartTimes) recordStartTimes.add(recordStartTime(bucketStartTime, widths[tier]));
+            for (long recordStartTime : recordStartTimes)
+                recordHeaderReads.add(new BatchRead(timeSeriesClient.asKeyForRollup(timeSeriesName, widths[tier], recordStartTime), false));
+        }
+        return recordHeaderReads;
+    }
+
+    /**
+     * Buckets of a tier covering a set of buckets of the tier below
+     *
+     * @param finerBucketStartTimes - start times of buckets in the tier below
+     * @param tier                  - tier
+     * @return bucket start times
+     */
+    SortedSet<Long> coveringBuckets(SortedSet<Long> finerBucketStartTimes, int tier) {
+        SortedSet<Long> bucketStartTimes = new TreeSet<>();
+        for (long finerBucketStartTime : finerBucketStartTimes) bucketStartTimes.add(bucketStartTime(finerBucketStartTime, widths[tier]));
+        return bucketStartTimes;
+    }
+
+    /**
+     * Batch reads retrieving the buckets of the tier below needed to recompute the given buckets of a tier
+     *
+     * @param timeSeriesName   - stripe name - the series name unless striping is in use
+     * @param tier             - tier being recomputed - one or above
+     * @param bucketStartTimes - start times of the buckets being recomputed, as per coveringBuckets
+     * @return batch reads
+     */
+    List<BatchRead> finerBucketReads(String timeSeriesName, int tier, SortedSet<Long> bucketStartTimes) {
+        return bucketReads(timeSeriesName, tier - 1, bucketStartTimes.first(), bucketStartTimes.last() + widths[tier] - 1);
+    }
+
+    /**
+     * Operations setting the given buckets of a tier to the totals of the buckets they cover in the tier below
+     *
+     * @param timeSeriesName   - stripe name - the series name unless striping is in use
+     * @param tier             - tier being recomputed - one or above
+     * @param bucketStartTimes - start times of the buckets being recomputed
+     * @param finerBucketReads - completed batch reads, as per finerBucketReads
+     * @return operations keyed by rollup record
+     */
+    Map<Key, Operation[]> opsForTotals(String timeSeriesName, int tier, SortedSet<Long> bucketStartTimes, List<BatchRead> finerBucketReads) {
+        Map<Long, List<Object>> totals = new HashMap<>();
+        for (BatchRead finerBucketRead : finerBucketReads) {
+            for (Map.Entry<Long, Object> finerBucket : buckets(finerBucketRead.record).entrySet()) {
+                long bucketStartTime = bucketStartTime(finerBucket.getKey(), widths[tier]);
+                if (bucketStartTimes.contains(bucketStartTime)) totals.merge(bucketStartTime, total(finerBucket.getValue()), RollupTiers::merge);
+            }
+        }
+        Map<Long, List<Operation>> opsByRecord = new TreeMap<>();
+        for (Map.Entry<Long, List<Object>> bucketTotal : totals.entrySet())
+            opsByRecord.computeIfAbsent(recordStartTime(bucketTotal.getKey(), widths[tier]), ignore -> new ArrayList<>())
+                    .add(MapOperation.put(BUCKET_MAP_POLICY, Constants.ROLLUP_BIN_NAME, Value.get(bucketTotal.getKey()),
+                            new Value.ListValue(bucketTotal.getValue())));
+        return opsByRecord(timeSeriesName, tier, opsByRecord);
+    }
+
+    /**
+     * Batch reads for a query - the buckets of a tier covering a time range, and for the points not yet rolled up, the
+     * current block and latest index entry. One of each per stripe
+     *
+     * @param stripeNames - stripe names - just the series name unless striping is in use
+     * @param tier        - tier
+     * @param startTime   - start of range
+     * @param endTime     - end of range
+     * @return batch reads
+     */
+    List<BatchRead> queryReads(String[] stripeNames, int tier, long startTime, long endTime) {
+        long width = widths[tier];
+        long rangeStartTime = bucketStartTime(startTime, width);
+        long rangeEndTime = bucketStartTime(endTime, width) + width - 1;
+        List<BatchRead> queryReads = new ArrayList<>();
+        for (String stripeName : stripeNames) {
+            queryReads.addAll(bucketReads(stripeName, tier, rangeStartTime, rangeEndTime));
+            queryReads.add(TimeSeriesClient.blockRead(timeSeriesClient.asCurrentKeyForTimeSeries(stripeName), true, rangeStartTime, rangeEndTime));
+            queryReads.add(new BatchRead(timeSeriesClient.asKeyForTimeSeriesIndexes(stripeName), new Operation[]{
+                    MapOperation.getByIndex(Constants.TIME_SERIES_INDEX_BIN_NAME, -1, MapReturnType.KEY_VALUE)}));
+        }
+        return queryReads;
+    }
+
+    /**
+     * Result of a query, once the query reads have completed
+     * <p>
+     * Points in a current block are only counted if later than the most recent historic block, as they may briefly be in
+     * both while a block is archived
+     *
+     * @param stripeNames - stripe names, as passed to queryReads
+     * @param tier        - tier
+     * @param startTime   - start of range
+     * @param endTime     - end of range
+     * @param queryReads  - completed batch reads, as per queryReads
+     * @return rollups of the buckets overlapping the range, in time order, omitting buckets with no points
+     */
+    Rollup[] queryResult(String[] stripeNames, int tier, long startTime, long endTime, List<BatchRead> queryReads) {
+        long width = widths[tier];
+        long rangeStartTime = bucketStartTime(startTime, width);
+        long rangeEndTime = bucketStartTime(endTime, width) + width - 1;
+        TreeMap<Long, List<Object>> totals = new TreeMap<>();
+        int readsPerStripe = queryReads.size() / stripeNames.length;
+        for (int stripe = 0; stripe < stripeNames.length; stripe++) {
+            List<BatchRead> stripeReads = queryReads.subList(stripe * readsPerStripe, (stripe + 1) * readsPerStripe);
+            for (BatchRead bucketRead : stripeReads.subList(0, readsPerStripe - 2))
+                for (Map.Entry<Long, Object> bucket : buckets(bucketRead.record).entrySet())
+                    totals.merge(bucket.getKey(), total(bucket.getValue()), RollupTiers::merge);
+            Record currentBlock = stripeReads.get(readsPerStripe - 2).record;
+            if (currentBlock != null) {
+                long latestArchivedEndTime = latestArchivedEndTime(stripeReads.get(readsPerStripe - 1).record);
+                DataPointBatch currentPoints = TimeSeriesClient.pointsFromBlocks(new Record[]{currentBlock},
+                        Math.max(rangeStartTime, latestArchivedEndTime + 1), rangeEndTime, new DataPointBatch());
+                for (Map.Entry<Long, List<Object>> bucket : bucketAggregates(currentPoints, width).entrySet())
+                    totals.merge(bucket.getKey(), bucket.getValue(), RollupTiers::merge);
+            }
+        }
+        List<Rollup> rollups = new ArrayList<>();
+        for (Map.Entry<Long, List<Object>> bucketTotal : totals.subMap(rangeStartTime, true, rangeEndTime, true).entrySet()) {
+            List<Object> total = bucketTotal.getValue();
+            rollups.add(new Rollup(bucketTotal.getKey(), width, longValue(total, COUNT), doubleValue(total, SUM),
+                    doubleValue(total, MIN_VALUE), doubleValue(total, MAX_VALUE), longValue(total, LAST_TIMESTAMP), doubleValue(total, LAST_VALUE)));
+        }
+        return rollups.toArray(new Rollup[0]);
+    }
+
+    /**
+     * Batch reads retrieving the buckets of a tier between two times, one per rollup record
+     */
+    private List<BatchRead> bucketReads(String timeSeriesName, int tier, long startTime, long endTime) {
+        long width = widths[tier];
+        long recordWidth = width * Constants.ROLLUP_BUCKETS_PER_RECORD;
+        List<BatchRead> bucketReads = new ArrayList<>();
+        // Key range end is exclusive
+        Value rangeEnd = endTime == Long.MAX_VALUE ? null : Value.get(endTime + 1);
+        for (long recordStartTime = recordStartTime(bucketStartTime(startTime, width), width); recordStartTime <= endTime; recordStartTime += recordWidth) {
+            bucketReads.add(new BatchRead(timeSeriesClient.asKeyForRollup(timeSeriesName, width, recordStartTime), new Operation[]{
+                    MapOperation.getByKeyRange(Constants.ROLLUP_BIN_NAME, Value.get(startTime), rangeEnd, MapReturnType.KEY_VALUE)}));
+            // Guard against overflow at the end of time
+            if (recordStartTime > Long.MAX_VALUE - recordWidth) break;
+        }
+        return bucketReads;
+    }
+
+    private Map<Key, Operation[]> opsByRecord(String timeSeriesName, int tier, Map<Long, List<Operation>> opsByRecordStartTime) {
+        Map<Key, Operation[]> opsByRecord = new HashMap<>();
+        for (Map.Entry<Long, List<Operation>> recordOps : opsByRecordStartTime.entrySet()) {
+            List<Operation> ops = new ArrayList<>();
+            ops.add(Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(timeSeriesClient.seriesNameForMetadata(timeSeriesName)))));
+            ops.addAll(recordOps.getValue());
+            opsByRecord.put(timeSeriesClient.asKeyForRollup(timeSeriesName, widths[tier], recordOps.getKey()), ops.toArray(new Operation[0]));
+        }
+        return opsByRecord;
+    }
+
+    /**
+     * Buckets retrieved from a rollup record, keyed by bucket start time
+     * Returned by the server as a map or as a list of entries
+     */
+    private static TreeMap<Long, Object> buckets(Record rollupRecord) {
+        TreeMap<Long, Object> buckets = new TreeMap<>();
+        Object bucketEntries = rollupRecord == null ? null : rollupRecord.getValue(Constants.ROLLUP_BIN_NAME);
+        if (bucketEntries == null) return buckets;
+        Iterable<?> entries = bucketEntries instanceof Map ? ((Map<?, ?>) bucketEntries).entrySet() : (List<?>) bucketEntries;
+        for (Object entry : entries) buckets.put((Long) ((Map.Entry<?, ?>) entry).getKey(), ((Map.Entry<?, ?>) entry).getValue());
+        return buckets;
+    }
+
+    /**
+     * End time of the most recent historic block, given the latest index entry, Long.MIN_VALUE if there is none
+     */
+    private static long latestArchivedEndTime(Record indexRecord) {
+        Object latestEntry = indexRecord == null ? null : indexRecord.getValue(Constants.TIME_SERIES_INDEX_BIN_NAME);
+        if (latestEntry instanceof Map) latestEntry = ((Map<?, ?>) latestEntry).values().stream().findFirst().orElse(null);
+        else if (latestEntry instanceof List) latestEntry = ((List<?>) latestEntry).isEmpty() ? null : ((Map.Entry<?, ?>) ((List<?>) latestEntry).get(0)).getValue();
+        if (!(latestEntry instanceof Map)) return Long.MIN_VALUE;
+        return ((Number) ((Map<?, ?>) latestEntry).get(Constants.END_TIME_FIELD_NAME)).longValue();
+    }
+
+    /**
+     * Total of a bucket - in the finest tier, buckets hold a contribution per block, in others a single aggregate
+     */
+    private static List<Object> total(Object bucket) {
+        if (!(bucket instanceof Map)) return new ArrayList<>((List<?>) bucket);
+        List<Object> total = null;
+        for (Object contribution : ((Map<?, ?>) bucket).values())
+            total = total == null ? new ArrayList<>((List<?>) contribution) : merge(total, new ArrayList<>((List<?>) contribution));
+        return total;
+    }
+
+    private static List<Object> aggregate(long count, double sum, double minValue, double maxValue, long lastTimestamp, double lastValue) {
+        return new ArrayList<>(Arrays.asList(count, sum, minValue, maxValue, lastTimestamp, lastValue));
+    }
+
+    private static List<Object> merge(List<Object> aggregate, List<Object> other) {
+        boolean otherIsLater = longValue(other, LAST_TIMESTAMP) > longValue(aggregate, LAST_TIMESTAMP);
+        return aggregate(longValue(aggregate, COUNT) + longValue(other, COUNT),
+                doubleValue(aggregate, SUM) + doubleValue(other, SUM),
+                Math.min(doubleValue(aggregate, MIN_VALUE), doubleValue(other, MIN_VALUE)),
+                Math.max(doubleValue(aggregate, MAX_VALUE), doubleValue(other, MAX_VALUE)),
+                longValue(otherIsLater ? other : aggregate, LAST_TIMESTAMP),
+                doubleValue(otherIsLater ? other : aggregate, LAST_VALUE));
+    }
+
+    private static long longValue(List<?> aggregate, int position) {
+        return ((Number) aggregate.get(position)).longValue();
+    }
+
+    private static double doubleValue(List<?> aggregate, int position) {
+        return ((Number) aggregate.get(position)).doubleValue();
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Value;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapOrder;
+import com.aerospike.client.cdt.MapPolicy;
+import com.aerospike.client.cdt.MapReturnType;
+import com.aerospike.client.cdt.MapWriteFlags;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+/**
+ * Catalog of time series names, allowing series to be listed without scanning the namespace - see TimeSeriesClient.listSeries
+ * <p>
+ * Names are spread over Constants.SERIES_CATALOG_SHARD_COUNT records in the catalog set, by hash of the name, so no
+ * single record becomes a hot key or reaches the maximum record size. Each record holds a key ordered map from series
+ * name to 1, so a shard can be paged through with key relative index range operations - see SeriesListing
+ * <p>
+ * A series is added when a write creates its current block, or bucket. Each client remembers the series it has added,
+ * so a series is added once per client rather than after each of its blocks is archived - see
+ * TimeSeriesClient.isCatalogAdditionNeeded. Additions are create only map puts, so repeats by other clients leave the
+ * catalog unchanged. Series written before the catalog was introduced are added once their current block is next archived
+ */
+final class SeriesCatalog {
+
+    // Only add names that are absent, without failing if already present
+    private static final MapPolicy ADDITION_MAP_POLICY = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.CREATE_ONLY + MapWriteFlags.NO_FAIL);
+
+    private final String asNamespace;
+    private final String catalogSetName;
+
+    /**
+     * SeriesCatalog constructor
+     *
+     * @param asNamespace    - Aerospike namespace
+     * @param catalogSetName - set holding the catalog
+     */
+    SeriesCatalog(String asNamespace, String catalogSetName) {
+        this.asNamespace = asNamespace;
+        this.catalogSetName = catalogSetName;
+    }
+
+    /**
+     * Catalog shard a series name belongs to
+     *
+     * @param timeSeriesName - time series name
+     * @return shard number
+     */
+    static int shard(String timeSeriesName) {
+        // String.hashCode is specified, so is the same for every client
+        return Math.floorMod(timeSeriesName.hashCode(), Constants.SERIES_CATALOG_SHARD_COUNT);
+    }
+
+    /**
+     * Key of a catalog shard record
+     *
+     * @param shard - shard number
+     * @return key
+     */
+    Key shardKey(int shard) {
+        return new Key(asNamespace, catalogSetName, shard);
+    }
+
+    /**
+     * Key of the catalog shard record holding a series name
+     *
+     * @param timeSeriesName - time series name
+     * @return key
+     */
+    Key keyForSeries(String timeSeriesName) {
+        return shardKey(shard(timeSeriesName));
+    }
+
+    /**
+     * Operation adding a series name to its catalog shard record
+     *
+     * @param timeSeriesName - time series name
+     * @return operation
+     */
+    static Operation opForAddition(String timeSeriesName) {
+        return MapOperation.put(ADDITION_MAP_POLICY, Constants.SERIES_NAMES_BIN_NAME, Value.get(timeSeriesName), Value.get(1));
+    }
+
+    /**
+     * Operation reading, from a catalog shard record, up to count names not less than a given name, in name order
+     *
+     * @param fromName - first name that may be returned
+     * @param count    - maximum number of names to return
+     * @return operation
+     */
+    static Operation opForNamesFrom(String fromName, int count) {
+        return MapOperation.getByKeyRelativeIndexRange(Constants.SERIES_NAMES_BIN_NAME, Value.get(fromName), 0, count, MapReturnType.KEY);
+    }
+}
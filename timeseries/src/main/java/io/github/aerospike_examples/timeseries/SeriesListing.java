@@ -0,0 +1,133 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Operation;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plan for listing a page of series names from the catalog - see SeriesCatalog
+ * <p>
+ * Shards are visited in order, and names in name order within each shard, so the position reached is the shard and the
+ * last name listed from it. This is what the page token holds. Each round of reads asks a run of shards for as many
+ * names as are still needed. The run is sized so about MAX_NAMES_PER_ROUND names are requested, so small pages read
+ * many shards per round and large pages few
+ * <p>
+ * Usage - batch read getReads() until it returns an empty list, then call result()
+ */
+final class SeriesListing {
+
+    /**
+     * Target number of names requested across the shards read in one round
+     */
+    static final int MAX_NAMES_PER_ROUND = 10_000;
+
+    /**
+     * Separates shard and last name listed in page tokens
+     */
+    private static final String PAGE_TOKEN_SEPARATOR = ":";
+
+    private final SeriesCatalog seriesCatalog;
+    private final String prefix;
+    private final int pageSize;
+    private final List<String> names = new ArrayList<>();
+    // Position reached - the next shard to list from, and the last name listed from it, if any
+    private int shard;
+    private String lastName;
+    // Reads issued in the current round, one per shard from shard onwards
+    private List<BatchRead> reads = Collections.emptyList();
+
+    /**
+     * SeriesListing constructor
+     *
+     * @param seriesCatalog - series catalog
+     * @param prefix        - only list names starting with this prefix
+     * @param pageToken     - token from the previous page, or null for the first page
+     * @param pageSize      - maximum number of names to list
+     */
+    SeriesListing(SeriesCatalog seriesCatalog, String prefix, String pageToken, int pageSize) {
+        if (prefix == null) throw new IllegalArgumentException("Prefix must not be null - use an empty prefix to list all series");
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be greater than zero");
+        this.seriesCatalog = seriesCatalog;
+        this.prefix = prefix;
+        this.pageSize = pageSize;
+        if (pageToken != null) {
+            int separatorIndex = pageToken.indexOf(PAGE_TOKEN_SEPARATOR);
+            try {
+                shard = Integer.parseInt(pageToken.substring(0, Math.max(separatorIndex, 0)));
+            } catch (NumberFormatException e) {
+                shard = -1;
+            }
+            if (shard < 0 || shard >= Constants.SERIES_CATALOG_SHARD_COUNT)
+                throw new IllegalArgumentException("Invalid page token " + pageToken);
+            if (separatorIndex < pageToken.length() - 1) lastName = pageToken.substring(separatorIndex + 1);
+        }
+    }
+
+    /**
+     * Batch reads for the next round, once the reads of the previous round have completed
+     *
+     * @return batch reads - empty once the page is complete
+     */
+    List<BatchRead> getReads() {
+        acceptReads();
+        if (shard >= Constants.SERIES_CATALOG_SHARD_COUNT || names.size() == pageSize) {
+            reads = Collections.emptyList();
+            return reads;
+        }
+        int namesNeeded = pageSize - names.size();
+        int shardCount = Math.max(1, Math.min(Constants.SERIES_CATALOG_SHARD_COUNT - shard, MAX_NAMES_PER_ROUND / namesNeeded));
+        reads = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            String fromName = i == 0 ? fromName(lastName) : prefix;
+            reads.add(new BatchRead(seriesCatalog.shardKey(shard + i), new Operation[]{SeriesCatalog.opForNamesFrom(fromName, namesNeeded)}));
+        }
+        return reads;
+    }
+
+    /**
+     * The page of names, once getReads() has returned an empty list
+     *
+     * @return page
+     */
+    SeriesNamePage result() {
+        String nextPageToken = shard < Constants.SERIES_CATALOG_SHARD_COUNT ? shard + PAGE_TOKEN_SEPARATOR + (lastName == null ? "" : lastName) : null;
+        return new SeriesNamePage(names, nextPageToken);
+    }
+
+    /**
+     * Take names from the reads of the current round, in shard order, until the page is full
+     */
+    private void acceptReads() {
+        for (BatchRead read : reads) {
+            List<?> shardNames = read.record == null ? null : read.record.getList(Constants.SERIES_NAMES_BIN_NAME);
+            if (shardNames != null) {
+                for (Object name : shardNames) {
+                    // Names are in order, so none after the first without the prefix have it
+                    if (names.size() == pageSize || !((String) name).startsWith(prefix)) break;
+                    names.add((String) name);
+                    lastName = (String) name;
+                }
+            }
+            if (names.size() == pageSize) return;
+            // Shard exhausted
+            shard++;
+            lastName = null;
+        }
+    }
+
+    /**
+     * First name to list from a shard, given the last name listed from it
+     *
+     * @param lastName - last name listed from the shard, or null if none have been
+     * @return first name to list
+     */
+    private String fromName(String lastName) {
+        if (lastName == null || lastName.compareTo(prefix) < 0) return prefix;
+        // Smallest string greater than lastName
+        return lastName + '\0';
+    }
+}
@@ -0,0 +1,52 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of time series names, as returned by TimeSeriesClient.listSeries
+ */
+public final class SeriesNamePage {
+
+    private final List<String> names;
+    private final String nextPageToken;
+
+    /**
+     * SeriesNamePage constructor
+     *
+     * @param names         - series names in the page
+     * @param nextPageToken - token for the following page, or null if this is the last page
+     */
+    SeriesNamePage(List<String> names, String nextPageToken) {
+        this.names = Collections.unmodifiableList(names);
+        this.nextPageToken = nextPageToken;
+    }
+
+    /**
+     * Series names in the page
+     * Names are in order within each catalog shard, but not across the page as a whole
+     *
+     * @return series names
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Token to pass to TimeSeriesClient.listSeries to get the following page
+     *
+     * @return page token, or null if this is the last page
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    /**
+     * Whether there may be further series names to list
+     *
+     * @return true if there is a following page
+     */
+    public boolean hasNextPage() {
+        return nextPageToken != null;
+    }
+}
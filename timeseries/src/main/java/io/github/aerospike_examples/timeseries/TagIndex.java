@@ -0,0 +1,176 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapOrder;
+import com.aerospike.client.cdt.MapPolicy;
+import com.aerospike.client.cdt.MapReturnType;
+import com.aerospike.client.cdt.MapWriteMode;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records holding the tags of each time series, and the index used to find series by tag - see TimeSeriesClient.setTags
+ * <p>
+ * The tags of a series are held in the tag set, in a record with the series name as key. The tag index set holds,
+ * for each tag key and value, a record with key TagKey=TagValue listing the series with that tag value, and for each
+ * tag key, a record with key TagKey listing the values the tag has been given. Lookups by tag therefore read a handful
+ * of records rather than scanning the namespace - see TagQuery
+ * <p>
+ * Usage - to set the tags of a series, apply opsForIndexAdditions, then opsForSeriesTags, then opsForIndexRemovals
+ * given the tags returned by opsForSeriesTags. A failure part way through leaves at most some stale index entries, and
+ * setting the tags again completes the update
+ */
+final class TagIndex {
+
+    /**
+     * Separates tag key and value in the keys of tag index records
+     */
+    static final String TAG_KEY_VALUE_SEPARATOR = "=";
+
+    // Series and value listings are key ordered maps, so are returned sorted
+    private static final MapPolicy LISTING_MAP_POLICY = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteMode.UPDATE);
+
+    private final String asNamespace;
+    private final String tagSetName;
+    private final String tagIndexSetName;
+
+    /**
+     * TagIndex constructor
+     *
+     * @param asNamespace     - Aerospike namespace
+     * @param tagSetName      - set holding the tags of each series
+     * @param tagIndexSetName - set holding the tag index
+     */
+    TagIndex(String asNamespace, String tagSetName, String tagIndexSetName) {
+        this.asNamespace = asNamespace;
+        this.tagSetName = tagSetName;
+        this.tagIndexSetName = tagIndexSetName;
+    }
+
+    /**
+     * Check tags are valid - keys and values must not be null or empty, and keys must not contain TAG_KEY_VALUE_SEPARATOR
+     *
+     * @param tags - tags
+     */
+    static void checkTags(Map<String, String> tags) {
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (tag.getKey() == null || tag.getKey().isEmpty() || tag.getValue() == null || tag.getValue().isEmpty())
+                throw new IllegalArgumentException("Tag keys and values must not be empty");
+            if (tag.getKey().contains(TAG_KEY_VALUE_SEPARATOR))
+                throw new IllegalArgumentException("Tag key " + tag.getKey() + " must not contain " + TAG_KEY_VALUE_SEPARATOR);
+        }
+    }
+
+    /**
+     * Key of the record holding the tags of a series
+     *
+     * @param timeSeriesName - time series name
+     * @return key
+     */
+    Key seriesTagsKey(String timeSeriesName) {
+        return new Key(asNamespace, tagSetName, timeSeriesName);
+    }
+
+    /**
+     * Key of the tag index record listing the series with a given tag value
+     *
+     * @param tagKey   - tag key
+     * @param tagValue - tag value
+     * @return key
+     */
+    Key taggedSeriesKey(String tagKey, String tagValue) {
+        return new Key(asNamespace, tagIndexSetName, tagKey + TAG_KEY_VALUE_SEPARATOR + tagValue);
+    }
+
+    /**
+     * Key of the tag index record listing the values a tag has been given
+     *
+     * @param tagKey - tag key
+     * @return key
+     */
+    Key tagValuesKey(String tagKey) {
+        return new Key(asNamespace, tagIndexSetName, tagKey);
+    }
+
+    /**
+     * Operations adding a series to the tag index for each of its tags, by tag index record
+     *
+     * @param timeSeriesName - time series name
+     * @param tags           - tags of the series
+     * @return operations keyed by tag index record
+     */
+    Map<Key, Operation[]> opsForIndexAdditions(String timeSeriesName, Map<String, String> tags) {
+        Map<Key, List<Operation>> opsByKey = new LinkedHashMap<>();
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            opsByKey.computeIfAbsent(taggedSeriesKey(tag.getKey(), tag.getValue()), ignore -> new ArrayList<>())
+                    .add(MapOperation.put(LISTING_MAP_POLICY, Constants.TAGGED_SERIES_BIN_NAME, Value.get(timeSeriesName), Value.get(1)));
+            opsByKey.computeIfAbsent(tagValuesKey(tag.getKey()), ignore -> new ArrayList<>())
+                    .add(MapOperation.put(LISTING_MAP_POLICY, Constants.TAG_VALUES_BIN_NAME, Value.get(tag.getValue()), Value.get(1)));
+        }
+        return asArrays(opsByKey);
+    }
+
+    /**
+     * Operations replacing the tags of a series in its tag record, returning the tags it replaces
+     *
+     * @param timeSeriesName - time series name
+     * @param tags           - tags of the series
+     * @return operations to apply to the series tag record
+     */
+    Operation[] opsForSeriesTags(String timeSeriesName, Map<String, String> tags) {
+        return new Operation[]{
+                Operation.get(Constants.TAGS_BIN_NAME),
+                Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(timeSeriesName))),
+                Operation.put(new Bin(Constants.TAGS_BIN_NAME, new Value.MapValue(new TreeMap<>(tags))))
+        };
+    }
+
+    /**
+     * Operations removing a series from the tag index for tags it no longer has, by tag index record
+     * Tag values are not removed from the value listing of their tag key, as other series may have them - lookups
+     * ignore values no series has
+     *
+     * @param timeSeriesName - time series name
+     * @param previousTags   - tags the series had, as returned by the opsForSeriesTags write
+     * @param tags           - tags the series now has
+     * @return operations keyed by tag index record
+     */
+    Map<Key, Operation[]> opsForIndexRemovals(String timeSeriesName, Map<String, String> previousTags, Map<String, String> tags) {
+        Map<Key, List<Operation>> opsByKey = new LinkedHashMap<>();
+        for (Map.Entry<String, String> previousTag : previousTags.entrySet())
+            if (!previousTag.getValue().equals(tags.get(previousTag.getKey())))
+                opsByKey.computeIfAbsent(taggedSeriesKey(previousTag.getKey(), previousTag.getValue()), ignore -> new ArrayList<>())
+                        .add(MapOperation.removeByKey(Constants.TAGGED_SERIES_BIN_NAME, Value.get(timeSeriesName), MapReturnType.NONE));
+        return asArrays(opsByKey);
+    }
+
+    /**
+     * Tags held in a series tag record
+     *
+     * @param seriesTagsRecord - series tag record, or the record returned by the opsForSeriesTags write. May be null
+     * @return tags - empty if there are none
+     */
+    static Map<String, String> tags(Record seriesTagsRecord) {
+        Map<String, String> tags = new TreeMap<>();
+        Map<?, ?> tagMap = seriesTagsRecord == null ? null : seriesTagsRecord.getMap(Constants.TAGS_BIN_NAME);
+        if (tagMap != null) for (Map.Entry<?, ?> tag : tagMap.entrySet()) tags.put((String) tag.getKey(), (String) tag.getValue());
+        return tags;
+    }
+
+    private static Map<Key, Operation[]> asArrays(Map<Key, List<Operation>> opsByKey) {
+        Map<Key, Operation[]> opArraysByKey = new HashMap<>();
+        for (Map.Entry<Key, List<Operation>> keyOps : opsByKey.entrySet()) opArraysByKey.put(keyOps.getKey(), keyOps.getValue().toArray(new Operation[0]));
+        return opArraysByKey;
+    }
+}
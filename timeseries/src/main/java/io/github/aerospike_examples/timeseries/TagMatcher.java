@@ -0,0 +1,129 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.regex.Pattern;
+
+/**
+ * Condition on one tag of a time series, used to select series by tag - see TimeSeriesClient.findSeries
+ */
+public final class TagMatcher {
+
+    /**
+     * Kinds of tag condition
+     */
+    public enum Type {
+        /**
+         * The series has the tag with the given value
+         */
+        EQUAL,
+
+        /**
+         * The series has the tag, with a value other than the given one
+         */
+        NOT_EQUAL,
+
+        /**
+         * The series has the tag, with a value wholly matching the given regular expression
+         */
+        REGEX
+    }
+
+    private final String key;
+    private final Type type;
+    private final String value;
+    private final Pattern pattern;
+
+    private TagMatcher(String key, Type type, String value) {
+        if (key == null || value == null) throw new IllegalArgumentException("Tag matcher key and value must not be null");
+        this.key = key;
+        this.type = type;
+        this.value = value;
+        this.pattern = type == Type.REGEX ? Pattern.compile(value) : null;
+    }
+
+    /**
+     * Match series having the given tag value
+     *
+     * @param key   - tag key
+     * @param value - tag value
+     * @return matcher
+     */
+    public static TagMatcher equal(String key, String value) {
+        return new TagMatcher(key, Type.EQUAL, value);
+    }
+
+    /**
+     * Match series having the given tag, with a value other than the one given
+     *
+     * @param key   - tag key
+     * @param value - tag value to exclude
+     * @return matcher
+     */
+    public static TagMatcher notEqual(String key, String value) {
+        return new TagMatcher(key, Type.NOT_EQUAL, value);
+    }
+
+    /**
+     * Match series having the given tag, with a value wholly matching a regular expression
+     *
+     * @param key   - tag key
+     * @param regex - regular expression
+     * @return matcher
+     */
+    public static TagMatcher regex(String key, String regex) {
+        return new TagMatcher(key, Type.REGEX, regex);
+    }
+
+    /**
+     * Tag key
+     *
+     * @return key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Kind of condition
+     *
+     * @return type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Tag value, or regular expression for REGEX
+     *
+     * @return value
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Whether a series with the matcher's tag set to the given value is selected
+     *
+     * @param tagValue - value of the tag
+     * @return true if selected
+     */
+    public boolean matches(String tagValue) {
+        switch (type) {
+            case EQUAL:
+                return value.equals(tagValue);
+            case NOT_EQUAL:
+                return !value.equals(tagValue);
+            default:
+                return pattern.matcher(tagValue).matches();
+        }
+    }
+
+    /**
+     * Utility method to present matcher as string
+     *
+     * @return matcher as a string
+     */
+    @Override
+    public String toString() {
+        return key + (type == Type.EQUAL ? "=" : type == Type.NOT_EQUAL ? "!=" : "=~") + value;
+    }
+}
@@ -0,0 +1,120 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Plan for finding the series matching a set of tag matchers, using the tag index - see TagIndex
+ * <p>
+ * EQUAL matchers read the record listing the series with the tag value. Other matchers read the record listing the
+ * values of the tag, then a follow up read retrieves the series listings for the values that match. The series
+ * matching all the matchers are returned
+ * <p>
+ * Usage - batch read getReads(), then getFollowUpReads() if not empty, then call result()
+ */
+final class TagQuery {
+
+    private final TagIndex tagIndex;
+    private final TagMatcher[] matchers;
+    // One read per matcher
+    private final List<BatchRead> reads = new ArrayList<>();
+    // Series listing reads for the values selected by each matcher - empty for EQUAL matchers
+    private List<List<BatchRead>> followUpReads = null;
+
+    /**
+     * TagQuery constructor
+     *
+     * @param tagIndex - tag index
+     * @param matchers - tag matchers, of which there must be at least one
+     */
+    TagQuery(TagIndex tagIndex, TagMatcher... matchers) {
+        if (matchers.length == 0) throw new IllegalArgumentException("At least one tag matcher is required");
+        this.tagIndex = tagIndex;
+        this.matchers = matchers.clone();
+        for (TagMatcher matcher : matchers) {
+            if (matcher.getType() == TagMatcher.Type.EQUAL)
+                reads.add(new BatchRead(tagIndex.taggedSeriesKey(matcher.getKey(), matcher.getValue()), new String[]{Constants.TAGGED_SERIES_BIN_NAME}));
+            else
+                reads.add(new BatchRead(tagIndex.tagValuesKey(matcher.getKey()), new String[]{Constants.TAG_VALUES_BIN_NAME}));
+        }
+    }
+
+    /**
+     * Batch reads for the tag index records named by the matchers
+     *
+     * @return batch reads
+     */
+    List<BatchRead> getReads() {
+        return reads;
+    }
+
+    /**
+     * Batch reads needed once getReads() have completed - see class description
+     *
+     * @return batch reads - empty if all matchers are EQUAL matchers
+     */
+    List<BatchRead> getFollowUpReads() {
+        if (followUpReads == null) {
+            followUpReads = new ArrayList<>();
+            for (int i = 0; i < matchers.length; i++) {
+                List<BatchRead> matcherReads = new ArrayList<>();
+                if (matchers[i].getType() != TagMatcher.Type.EQUAL) {
+                    for (String tagValue : listing(reads.get(i).record, Constants.TAG_VALUES_BIN_NAME))
+                        if (matchers[i].matches(tagValue))
+                            matcherReads.add(new BatchRead(tagIndex.taggedSeriesKey(matchers[i].getKey(), tagValue),
+                                    new String[]{Constants.TAGGED_SERIES_BIN_NAME}));
+                }
+                followUpReads.add(matcherReads);
+            }
+        }
+        List<BatchRead> allFollowUpReads = new ArrayList<>();
+        for (List<BatchRead> matcherReads : followUpReads) allFollowUpReads.addAll(matcherReads);
+        return allFollowUpReads;
+    }
+
+    /**
+     * Series matching all the matchers, once all reads have completed
+     *
+     * @return series names, in name order
+     */
+    SortedSet<String> result() {
+        getFollowUpReads();
+        SortedSet<String> result = null;
+        for (int i = 0; i < matchers.length && (result == null || !result.isEmpty()); i++) {
+            Set<String> matched = new HashSet<>();
+            if (matchers[i].getType() == TagMatcher.Type.EQUAL) {
+                matched.addAll(listing(reads.get(i).record, Constants.TAGGED_SERIES_BIN_NAME));
+            } else {
+                for (BatchRead followUpRead : followUpReads.get(i)) matched.addAll(listing(followUpRead.record, Constants.TAGGED_SERIES_BIN_NAME));
+            }
+            if (result == null) result = new TreeSet<>(matched);
+            else result.retainAll(matched);
+        }
+        return result;
+    }
+
+    /**
+     * Keys of a listing map in a tag index record
+     *
+     * @param tagIndexRecord - tag index record. May be null
+     * @param binName        - bin holding the listing
+     * @return listed names or values
+     */
+    private static List<String> listing(Record tagIndexRecord, String binName) {
+        Map<?, ?> listing = tagIndexRecord == null ? null : tagIndexRecord.getMap(binName);
+        if (listing == null) return Collections.emptyList();
+        List<String> listed = new ArrayList<>();
+        for (Object name : listing.keySet()) listed.add((String) name);
+        return listed;
+    }
+}
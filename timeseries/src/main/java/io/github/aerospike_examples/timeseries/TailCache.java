@@ -0,0 +1,186 @@
+package io.github.aerospike_examples.timeseries;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, least recently used cache of the latest points of each time series - see TimeSeriesClient.setTailCache
+ * <p>
+ * A tail is loaded by a read of the latest points, and kept up to date by the writes of this client, which add their
+ * points as they complete. A tail holds the latest pointsPerSeries points, or every point if the series has fewer.
+ * Writes by other clients are not seen, so tails are reloaded once older than the maximum age
+ * <p>
+ * A write may complete while a tail is being read from the database, after the read but before the tail is cached, so
+ * the tail read would lack its points. Each series hashes to a write counter, incremented by every write, and a tail
+ * is only cached if the counter is unchanged since before it was read
+ * <p>
+ * Thread safe
+ */
+final class TailCache {
+
+    // Number of write counters series names are hashed to
+    private static final int WRITE_COUNTER_COUNT = 256;
+
+    private final int maxSeries;
+    private final int pointsPerSeries;
+    private final long maxAge;
+    // Access ordered, so the eldest entry is the least recently used
+    private final Map<String, Tail> tails;
+    private final AtomicLongArray writeCounters = new AtomicLongArray(WRITE_COUNTER_COUNT);
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * TailCache constructor
+     *
+     * @param maxSeries       - maximum number of series whose tails are held
+     * @param pointsPerSeries - number of points held per series
+     * @param maxAge          - age in milliseconds after which a tail is reloaded - zero or less for no limit
+     */
+    TailCache(int maxSeries, int pointsPerSeries, long maxAge) {
+        this.maxSeries = maxSeries;
+        this.pointsPerSeries = pointsPerSeries;
+        this.maxAge = maxAge;
+        this.tails = new LinkedHashMap<String, Tail>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Tail> eldest) {
+                return size() > TailCache.this.maxSeries;
+            }
+        };
+    }
+
+    /**
+     * Maximum number of series whose tails are held
+     *
+     * @return maximum size
+     */
+    int getMaxSeries() {
+        return maxSeries;
+    }
+
+    /**
+     * Number of points held per series
+     *
+     * @return points per series
+     */
+    int getPointsPerSeries() {
+        return pointsPerSeries;
+    }
+
+    /**
+     * The latest points of a series, if held, counting a hit or a miss
+     *
+     * @param timeSeriesName - time series name
+     * @param n              - number of points required
+     * @param now            - current time in milliseconds
+     * @return up to n latest points, in timestamp order - null if the tail is not held, is too old, or holds fewer than
+     * n points of a series with more
+     */
+    DataPoint[] get(String timeSeriesName, int n, long now) {
+        DataPoint[] dataPoints = null;
+        synchronized (tails) {
+            Tail tail = tails.get(timeSeriesName);
+            if (tail != null && maxAge > 0 && now - tail.loadTime > maxAge) {
+                tails.remove(timeSeriesName);
+            } else if (tail != null && (n <= tail.points.size() || tail.complete)) {
+                dataPoints = TimeSeriesClient.lastPoints(tail.points, n);
+            }
+        }
+        (dataPoints != null ? hitCount : missCount).incrementAndGet();
+        return dataPoints;
+    }
+
+    /**
+     * Write counter value for a series, to be taken before reading its tail from the database - see put
+     *
+     * @param timeSeriesName - time series name
+     * @return write counter value
+     */
+    long writeCount(String timeSeriesName) {
+        return writeCounters.get(writeCounterIndex(timeSeriesName));
+    }
+
+    /**
+     * Cache the tail of a series, as read from the database, unless it has been written since the write count was taken
+     *
+     * @param timeSeriesName - time series name
+     * @param writeCount     - write counter value taken before the read - see writeCount
+     * @param dataPoints     - latest points, in timestamp order
+     * @param complete       - true if these are all the points in the series
+     * @param now            - current time in milliseconds
+     */
+    void put(String timeSeriesName, long writeCount, DataPoint[] dataPoints, boolean complete, long now) {
+        TreeMap<Long, Double> points = new TreeMap<>();
+        for (int i = Math.max(0, dataPoints.length - pointsPerSeries); i < dataPoints.length; i++)
+            points.put(dataPoints[i].getTimestamp(), dataPoints[i].getValue());
+        Tail tail = new Tail(points, complete && dataPoints.length <= pointsPerSeries, now);
+        synchronized (tails) {
+            if (writeCounters.get(writeCounterIndex(timeSeriesName)) == writeCount) tails.put(timeSeriesName, tail);
+        }
+    }
+
+    /**
+     * Add points written to a series to its tail, if held - to be called once the write has completed
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - points written
+     */
+    void update(String timeSeriesName, DataPointBatch dataPoints) {
+        synchronized (tails) {
+            writeCounters.incrementAndGet(writeCounterIndex(timeSeriesName));
+            Tail tail = tails.get(timeSeriesName);
+            if (tail == null) return;
+            for (int i = 0; i < dataPoints.getLength(); i++) {
+                long timestamp = dataPoints.getTimestamp(i);
+                // Points earlier than the whole tail of a series with more points are not among its latest
+                if (tail.complete || tail.points.isEmpty() || timestamp >= tail.points.firstKey())
+                    tail.points.put(timestamp, dataPoints.getValue(i));
+            }
+            while (tail.points.size() > pointsPerSeries) {
+                tail.points.pollFirstEntry();
+                tail.complete = false;
+            }
+        }
+    }
+
+    /**
+     * Number of reads served from the cache
+     *
+     * @return hit count
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Number of reads not served from the cache
+     *
+     * @return miss count
+     */
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    private static int writeCounterIndex(String timeSeriesName) {
+        return Math.floorMod(timeSeriesName.hashCode(), WRITE_COUNTER_COUNT);
+    }
+
+    /**
+     * Latest points of a series
+     */
+    private static final class Tail {
+        private final TreeMap<Long, Double> points;
+        // Whether points holds every point in the series
+        private boolean complete;
+        private final long loadTime;
+
+        private Tail(TreeMap<Long, Double> points, boolean complete, long loadTime) {
+            this.points = points;
+            this.complete = complete;
+            this.loadTime = loadTime;
+        }
+    }
+}
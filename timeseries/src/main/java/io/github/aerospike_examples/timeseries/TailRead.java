@@ -0,0 +1,215 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapReturnType;
+import io.github.aerospike_examples.timeseries.util.Constants;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Read of the latest points of a time series - see TimeSeriesClient.getLastN
+ * <p>
+ * Served from the tail cache if it holds enough points - see TimeSeriesClient.setTailCache. Otherwise, the first round
+ * reads the latest points of the current block of each stripe, with a map index range operation, together with the
+ * index of each stripe. Only stripes with too few points in their current block need further rounds, which read their
+ * historic blocks, latest first - whole, through the block cache, so hot blocks are not sent again. In the bucketed
+ * layout, the latest points of each bucket are read with a map index range operation. A tail read from the database is
+ * added to the tail cache, holding as many points as the cache keeps per series
+ * <p>
+ * Usage - while nextRead() is not null, batch read its getReads(), and complete it as per BlockCacheRead. Then call
+ * getResult()
+ */
+final class TailRead {
+
+    private final TimeSeriesClient timeSeriesClient;
+    private final String timeSeriesName;
+    private final String[] stripeNames;
+    // Number of points required, and the number read from the database - more if the tail cache keeps more per series
+    private final int n;
+    private final int pointCount;
+    private final TailCache tailCache;
+    private final long writeCount;
+    // Latest points of each stripe read so far
+    private final List<TreeMap<Long, Double>> stripePoints = new ArrayList<>();
+    // Start times of the blocks of each stripe not yet read, latest first - null until the stripe index has been read
+    private final List<Deque<Long>> unreadBlockStartTimes = new ArrayList<>();
+    private DataPoint[] result = null;
+    private BlockCacheRead read = null;
+    // Stripe of each block read in the read in progress
+    private final List<Integer> readStripes = new ArrayList<>();
+
+    /**
+     * TailRead constructor
+     *
+     * @param timeSeriesClient - client supplying keys and configuration
+     * @param timeSeriesName   - time series name
+     * @param n                - number of points required
+     * @param tailCache        - tail cache - null if not in use
+     */
+    TailRead(TimeSeriesClient timeSeriesClient, String timeSeriesName, int n, TailCache tailCache) {
+        if (n <= 0) throw new IllegalArgumentException("n must be positive");
+        this.timeSeriesClient = timeSeriesClient;
+        this.timeSeriesName = timeSeriesName;
+        this.stripeNames = timeSeriesClient.stripeNames(timeSeriesName);
+        this.n = n;
+        this.tailCache = tailCache;
+        if (tailCache != null) {
+            // Taken before the cache is tried, so a write completing from now on stops the tail read being cached
+            this.writeCount = tailCache.writeCount(timeSeriesName);
+            this.result = tailCache.get(timeSeriesName, n, System.currentTimeMillis());
+            this.pointCount = Math.max(n, tailCache.getPointsPerSeries());
+        } else {
+            this.writeCount = 0;
+            this.pointCount = n;
+        }
+        for (int i = 0; i < stripeNames.length; i++) {
+            stripePoints.add(new TreeMap<>());
+            unreadBlockStartTimes.add(null);
+        }
+    }
+
+    /**
+     * The next read to make, once any previous read has completed
+     *
+     * @return block cache read - null if the tail has been read
+     */
+    BlockCacheRead nextRead() {
+        if (result != null) return null;
+        if (read != null) addPoints();
+        boolean firstRound = !indexesRead();
+        List<BatchRead> reads = firstRound ? firstRoundReads() : historicReads();
+        if (reads.isEmpty()) {
+            finish();
+            return null;
+        }
+        // Historic blocks are read whole so they can be served from the block cache - other reads are made as they are
+        read = firstRound || timeSeriesClient.isBucketed() ? new BlockCacheRead(null, reads, null)
+                : timeSeriesClient.blockCacheRead(Collections.singletonList(timeSeriesName), reads);
+        return read;
+    }
+
+    // Whether the first round, which reads the stripe indexes, has completed
+    private boolean indexesRead() {
+        return unreadBlockStartTimes.get(0) != null;
+    }
+
+    /**
+     * Latest points of the series, once read
+     *
+     * @return up to n latest points, in timestamp order
+     */
+    DataPoint[] getResult() {
+        return result;
+    }
+
+    /**
+     * First round - latest points of the current block of each stripe, unless bucketed, and the index of each stripe
+     *
+     * @return reads - current block reads first, then index reads, in stripe order
+     */
+    private List<BatchRead> firstRoundReads() {
+        List<BatchRead> reads = new ArrayList<>();
+        if (!timeSeriesClient.isBucketed()) {
+            for (String stripeName : stripeNames)
+                reads.add(tailRead(timeSeriesClient.asCurrentKeyForTimeSeries(stripeName), pointCount));
+        }
+        for (String stripeName : stripeNames)
+            reads.add(new BatchRead(timeSeriesClient.asKeyForTimeSeriesIndexes(stripeName), new Operation[]{TimeSeriesClient.opForBlockStartTimes()}));
+        return reads;
+    }
+
+    /**
+     * Later rounds - for each stripe lacking points, enough of its latest unread blocks to make them up if the blocks are
+     * full, and at least one
+     *
+     * @return reads - empty if no stripe needs, or has, more blocks
+     */
+    private List<BatchRead> historicReads() {
+        List<BatchRead> reads = new ArrayList<>();
+        readStripes.clear();
+        for (int i = 0; i < stripeNames.length; i++) {
+            int missing = pointCount - stripePoints.get(i).size();
+            Deque<Long> blockStartTimes = unreadBlockStartTimes.get(i);
+            int blockCount = Math.max(1, (missing + timeSeriesClient.getMaxBlockEntryCount() - 1) / timeSeriesClient.getMaxBlockEntryCount());
+            for (int j = 0; missing > 0 && j < blockCount && !blockStartTimes.isEmpty(); j++) {
+                Key blockKey = timeSeriesClient.asKeyForHistoricTimeSeriesBlock(stripeNames[i], blockStartTimes.poll());
+                reads.add(timeSeriesClient.isBucketed() ? tailRead(blockKey, missing) : new BatchRead(blockKey, TimeSeriesClient.BLOCK_DATA_BIN_NAMES));
+                readStripes.add(i);
+            }
+        }
+        return reads;
+    }
+
+    /**
+     * Read of the latest points of a block held as a map
+     *
+     * @param blockKey - block key
+     * @param count    - number of points
+     * @return read of the latest count points, or all points if fewer, as a list of map entries
+     */
+    private static BatchRead tailRead(Key blockKey, int count) {
+        return new BatchRead(blockKey, new Operation[]{MapOperation.getByIndexRange(Constants.TIME_SERIES_BIN_NAME, -count, MapReturnType.KEY_VALUE)});
+    }
+
+    /**
+     * Add the points, and block start times, retrieved by the read just completed
+     */
+    private void addPoints() {
+        List<BatchRead> blockReads = read.getBlockReads();
+        if (!indexesRead()) {
+            // First round - current block reads, if any, then index reads
+            int currentBlockReadCount = blockReads.size() - stripeNames.length;
+            for (int i = 0; i < currentBlockReadCount; i++) addPoints(i, blockReads.get(i).record);
+            for (int i = 0; i < stripeNames.length; i++) {
+                Record indexListRecord = blockReads.get(currentBlockReadCount + i).record;
+                Deque<Long> blockStartTimes = new ArrayDeque<>();
+                if (indexListRecord != null) {
+                    for (Object blockStartTime : indexListRecord.getList(Constants.TIME_SERIES_INDEX_BIN_NAME))
+                        blockStartTimes.push((Long) blockStartTime);
+                }
+                unreadBlockStartTimes.set(i, blockStartTimes);
+            }
+        } else {
+            for (int i = 0; i < blockReads.size(); i++) addPoints(readStripes.get(i), blockReads.get(i).record);
+        }
+    }
+
+    /**
+     * Add the points of a block to those of its stripe. Blocks are read latest first, so points already held - which
+     * can be duplicated if a block copy was interrupted - take precedence
+     *
+     * @param stripe - stripe index
+     * @param block  - block as retrieved from the database - may be null
+     */
+    private void addPoints(int stripe, Record block) {
+        if (block == null) return;
+        TreeMap<Long, Double> points = stripePoints.get(stripe);
+        TimeSeriesClient.forEachPointInBlock(block, Long.MIN_VALUE, Long.MAX_VALUE, points::putIfAbsent);
+    }
+
+    /**
+     * Merge the stripes, taking the latest points, and cache the tail read
+     * The tail holds the whole series if every block of every stripe was read, and no stripe was trimmed to pointCount
+     */
+    private void finish() {
+        TreeMap<Long, Double> points = new TreeMap<>();
+        boolean complete = true;
+        for (int i = 0; i < stripeNames.length; i++) {
+            points.putAll(stripePoints.get(i));
+            complete &= unreadBlockStartTimes.get(i).isEmpty() && stripePoints.get(i).size() < pointCount;
+        }
+        complete &= points.size() <= pointCount;
+        if (tailCache != null)
+            tailCache.put(timeSeriesName, writeCount, TimeSeriesClient.lastPoints(points, pointCount), complete, System.currentTimeMillis());
+        result = TimeSeriesClient.lastPoints(points, n);
+    }
+}
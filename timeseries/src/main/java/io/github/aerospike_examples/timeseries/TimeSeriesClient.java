@@ -9,13 +9,29 @@ import com.aerospike.client.cdt.MapReturnType;
 import com.aerospike.client.cdt.MapWriteFlags;
 import com.aerospike.client.cdt.MapWriteMode;
 import com.aerospike.client.exp.Exp;
+import com.aerospike.client.exp.ExpOperation;
+import com.aerospike.client.exp.ExpReadFlags;
+import com.aerospike.client.exp.ExpWriteFlags;
+import com.aerospike.client.exp.MapExp;
 import com.aerospike.client.policy.BatchPolicy;
 import com.aerospike.client.policy.GenerationPolicy;
 import com.aerospike.client.policy.Policy;
+import com.aerospike.client.policy.RecordExistsAction;
 import com.aerospike.client.policy.WritePolicy;
 import io.github.aerospike_examples.timeseries.util.Constants;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * TimeSeriesClient is the fundamental object for writing and reading time series data to Aerospike
@@ -35,6 +51,50 @@ public class TimeSeriesClient implements ITimeSeriesClient {
      */
     private static final int RETRY_COUNT_FOR_FAILED_BLOCK_COPY = 5;
 
+    // Number of series names remembered as added to the catalog before the names are forgotten - see addToCatalogIfNew
+    private static final int CATALOGED_SERIES_LIMIT = 100_000;
+
+    /**
+     * Writes to the current block return a snapshot of the block if the write leaves it full, so it can be 'archived'
+     * without re-reading it. These are the names the snapshot of the time series and metadata bins are returned under
+     */
+    private static final String FULL_BLOCK_SERIES_SNAPSHOT_NAME = "fullSeries";
+    private static final String FULL_BLOCK_METADATA_SNAPSHOT_NAME = "fullMetadata";
+
+    /**
+     * When the background archiver is in use, writes to the current block return the block size under this name instead
+     */
+    private static final String CURRENT_BLOCK_SIZE_NAME = "blockSize";
+
+    /**
+     * Writes of late points to a historic block return the block's most recent timestamp under this name
+     */
+    private static final String BLOCK_END_TIME_NAME = "blockEndTime";
+
+    /**
+     * Writes of late points to a historic block return the number of points in the block under this name
+     */
+    private static final String BLOCK_ENTRY_COUNT_NAME = "blockEntryCount";
+
+    /**
+     * Metadata fields holding the running statistics of the current block - see opsForRunningStatistics
+     */
+    private static final List<String> RUNNING_STATISTICS_FIELD_NAMES = Arrays.asList(Constants.ENTRY_COUNT_FIELD_NAME,
+            Constants.SUM_FIELD_NAME, Constants.SUM_OF_SQUARES_FIELD_NAME, Constants.MIN_VALUE_FIELD_NAME, Constants.MAX_VALUE_FIELD_NAME);
+
+    /**
+     * Query reads of the current block return the points in the query range under this name, unless the block's running
+     * statistics can be used instead - see currentBlockRead. Package level visibility as QueryPlan uses this
+     */
+    static final String CURRENT_BLOCK_RANGE_POINTS_NAME = "rangePoints";
+
+    /**
+     * Bins holding the points in a block, whatever its encoding. Package level visibility as the asynchronous client
+     * shares this
+     */
+    static final String[] BLOCK_DATA_BIN_NAMES = {Constants.TIME_SERIES_BIN_NAME, Constants.COMPRESSED_TIME_SERIES_BIN_NAME,
+            Constants.COLUMNAR_TIMESTAMPS_BIN_NAME, Constants.COLUMNAR_VALUES_BIN_NAME};
+
     // Aerospike Client required
     private final AerospikeClient asClient;
     // Define namespace used as part of initialisation
@@ -50,10 +110,59 @@ public class TimeSeriesClient implements ITimeSeriesClient {
     // Max entry count per data block
     private final int maxBlockEntryCount;
 
+    // Batch puts send each chunk of data points as a single putItems map operation unless this is set to false,
+    // in which case one map put operation per data point is used. The latter is retained for benchmarking purposes
+    private boolean usePutItemsForBatchPut = true;
+
+    // Width, in milliseconds, of the fixed time buckets used as blocks by the bucketed layout. Zero means the bucketed
+    // layout is not in use, and blocks are formed by filling a current block and 'archiving' it. See setBucketWidth
+    private long bucketWidth = 0;
+
+    // Number of stripes each time series is spread across. One means no striping. See setStripeCount
+    private int stripeCount = 1;
+
+    // Format historic blocks are written in. See setHistoricBlockEncoding
+    private BlockEncoding historicBlockEncoding = BlockEncoding.MAP;
+
+    // Number of blocks read per batch read when streaming a range. See setStreamBlocksPerFetch
+    private int streamBlocksPerFetch = Constants.DEFAULT_STREAM_BLOCKS_PER_FETCH;
+
+    // Block directories read from index records - null if not in use. See setBlockDirectoryCacheSize
+    private volatile BlockDirectoryCache blockDirectoryCache = null;
+
+    // Historic blocks read in full - null if not in use. See setBlockCacheSize
+    private volatile BlockCache blockCache = null;
+    // Decoded historic blocks on local disk - null if not in use. See setDiskBlockCache
+    private volatile DiskBlockCache diskBlockCache = null;
+
+    // Latest points of each series, kept up to date by put - null if not in use. See setTailCache
+    private volatile TailCache tailCache = null;
+
+    // Rollup tiers maintained as blocks are archived - null if there are none. See setRollupWidths
+    private RollupTiers rollupTiers = null;
+
+    // Series tags and the index used to find series by tag. See setTags
+    private final TagIndex tagIndex;
+    // Catalog of series names. See listSeries
+    private final SeriesCatalog seriesCatalog;
+    // Names of series this client has added to the catalog, so they are not added again each time a block is created
+    private final Set<String> catalogedSeries = ConcurrentHashMap.newKeySet();
 
     // Map policy for inserts - these are not modifiable
     private final MapPolicy insertMapPolicy = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteMode.UPDATE);
     private final MapPolicy createOnlyMapPolicy = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.CREATE_ONLY + MapWriteFlags.NO_FAIL);
+    private final MapPolicy metadataUpdateMapPolicy = new MapPolicy(MapOrder.UNORDERED, MapWriteMode.UPDATE);
+
+    // Block rollover metrics - number of rollovers and total database round trips used to carry them out
+    private final AtomicLong blockRolloverCount = new AtomicLong();
+    private final AtomicLong blockRolloverRoundTripCount = new AtomicLong();
+
+    // Background archiver - null unless enabled. Archives full current blocks away from the put path
+    private volatile ExecutorService backgroundArchiver = null;
+    // Series with an archive queued or in progress - prevents the same block being submitted repeatedly
+    private final Set<String> seriesBeingArchived = ConcurrentHashMap.newKeySet();
+    // Number of background archives that failed - the next write to the series will trigger a further attempt
+    private final AtomicLong backgroundArchiveFailureCount = new AtomicLong();
 
     // We need a special way of referring to the current record block for a time series - use CURRENT_RECORD_TIMESTAMP
     public static final long CURRENT_RECORD_TIMESTAMP = 0;
@@ -64,6 +173,31 @@ public class TimeSeriesClient implements ITimeSeriesClient {
      */
     private final static String TIME_SERIES_INDEX_SET_SUFFIX = "idx";
 
+    /**
+     * Rollup tiers are stored in separate sets - these set names are formed by appending this suffix (rollup) and the
+     * tier's bucket width to the time series set name
+     */
+    private final static String ROLLUP_SET_SUFFIX = "rollup";
+
+    /**
+     * Series tags and the tag index are stored in separate sets - these set names are formed by appending these
+     * suffixes (tags and tagidx) to the time series set name
+     */
+    private final static String TAG_SET_SUFFIX = "tags";
+    private final static String TAG_INDEX_SET_SUFFIX = "tagidx";
+
+    /**
+     * The series catalog is stored in a separate set - this set name is formed by appending this suffix (catalog)
+     * to the time series set name
+     */
+    private final static String CATALOG_SET_SUFFIX = "catalog";
+
+    /**
+     * If striping is in use, each stripe of a time series is stored as a series in its own right, named by appending
+     * this separator and the stripe number to the time series name
+     */
+    public final static String STRIPE_SEPARATOR = "#";
+
     // parameters allowing testing of correct handling of race conditions
     public boolean testMode = false;
     public double failurePctRateForCopyBlock = 0;
@@ -82,6 +216,8 @@ public class TimeSeriesClient implements ITimeSeriesClient {
         this.asNamespace = asNamespace;
         this.maxBlockEntryCount = maxBlockEntryCount;
         this.timeSeriesSet = timeSeriesSet;
+        this.tagIndex = new TagIndex(asNamespace, tagSetName(), tagIndexSetName());
+        this.seriesCatalog = new SeriesCatalog(asNamespace, catalogSetName());
         this.readPolicy = asClient.readPolicyDefault;
         this.writePolicy = asClient.writePolicyDefault;
     }
@@ -181,414 +317,3445 @@ public class TimeSeriesClient implements ITimeSeriesClient {
     }
 
     /**
-     * Saves data point to the database
-     * <p>
-     * By default insert always goes to the current block for the time series which has key TimeSeriesName
-     * <p>
-     * If Max Values per block is exceeded, save block under name TimeSeries-StartTime and remove 'current' block
+     * Whether batch puts send each chunk of data points to the database as a single putItems map operation
      *
-     * @param timeSeriesName - time series name to write to
-     * @param dataPoint      - data point to write
+     * @return true if putItems is used, false if one map put operation per data point is used
      */
-    public void put(String timeSeriesName, DataPoint dataPoint) {
-        // Rely on automatic map creation - don't need to explicitly create a map - put will do that for you
-        // Need to put the metadata ops and the insert together in one array
-        Operation[] ops = new Operation[4];
-        // Data point put operation
-        ops[0] = MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME,
-                new Value.LongValue(dataPoint.getTimestamp()), new Value.DoubleValue(dataPoint.getValue()));
-        // Metadata operations
-        Operation[] metadataOps = opsForMetadataCreation(timeSeriesName, dataPoint.getTimestamp(), maxBlockEntryCount);
-        // Add to the actual operations list
-        ops[1] = metadataOps[0];
-        ops[2] = metadataOps[1];
-        ops[3] = metadataOps[2];
-        // and execute
-        Record r = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), ops);
-        // Put operation returns map size by default
-        long mapSize = r.getLong(Constants.TIME_SERIES_BIN_NAME);
-        // If it is greater than the required size, save a copy of the block with key TimeSeries-StartTime
-        if (mapSize >= maxBlockEntryCount) {
-            copyCurrentDataToHistoricBlock(timeSeriesName);
-        }
+    @SuppressWarnings("unused") // Required in API
+    public boolean isUsePutItemsForBatchPut() {
+        return usePutItemsForBatchPut;
     }
 
     /**
-     * Private method to create the operations needed to insert the metadata for a time series block
-     * Breaking out as a separate method as we use in more than one place
+     * Control how batch puts are encoded. By default (true) each chunk of data points is sent as a single putItems map
+     * operation. If false, one map put operation per data point is sent, which is more expensive to encode and apply -
+     * this option exists to allow the two to be compared
      *
-     * @param timeSeriesName - time series name
-     * @param startTimestamp - timestamp
-     * @param maxEntryCount  - max entry count
-     * @return the operations required to build the metadata
+     * @param usePutItemsForBatchPut - true to use a single putItems operation per chunk
      */
-    private Operation[] opsForMetadataCreation(String timeSeriesName, long startTimestamp, long maxEntryCount) {
-        // createOnlyMapPolicy ensures we are not over-writing the start time for the block
-        Operation[] opsForMetadataCreation = new Operation[3];
-        // Store time series name at time of creation
-        opsForMetadataCreation[0] =
-                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
-                        new Value.StringValue(Constants.TIME_SERIES_NAME_FIELD_NAME), new Value.StringValue(timeSeriesName));
-        // Start time for block
-        opsForMetadataCreation[1] =
-                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
-                        new Value.StringValue(Constants.START_TIME_FIELD_NAME), new Value.LongValue(startTimestamp));
-        // Max entries for block
-        opsForMetadataCreation[2] =
-                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
-                        new Value.StringValue(Constants.MAX_BLOCK_TIME_SERIES_ENTRIES_FIELD_NAME), new Value.LongValue(maxEntryCount));
-        return opsForMetadataCreation;
+    public void setUsePutItemsForBatchPut(boolean usePutItemsForBatchPut) {
+        this.usePutItemsForBatchPut = usePutItemsForBatchPut;
     }
 
     /**
-     * Take current block for timeSeriesName and copy it to a historic block
-     * Remove the current block when done
+     * Width, in milliseconds, of the time buckets used by the bucketed block layout
      *
-     * @param timeSeriesName - name of series we're processing
+     * @return bucket width, or zero if the bucketed layout is not in use
      */
-    private void copyCurrentDataToHistoricBlock(String timeSeriesName) {
-        copyCurrentDataToHistoricBlock(timeSeriesName, RETRY_COUNT_FOR_FAILED_BLOCK_COPY);
+    public long getBucketWidth() {
+        return bucketWidth;
     }
 
     /**
-     * copyCurrentDataToHistoricBlock(String timeSeriesName) will retry a set number of times if there is a failure
-     * This is facilitated via the function below. Every time we retry, retryCount is deprecated
+     * Use the bucketed block layout, with buckets of the given width
+     * <p>
+     * In this layout each point is written directly to the block for the fixed time bucket containing it, which has
+     * key TimeSeriesName-BucketStartTime. There is no current block, and no block 'archiving'. As block keys can be
+     * calculated from a time range, getPoints retrieves blocks with a single batch read, without first reading the index.
+     * The index is still maintained - an entry is added the first time a bucket is written to.
+     * <p>
+     * Block size is governed by the bucket width rather than maxBlockEntryCount, so choose a width that will hold
+     * roughly maxBlockEntryCount points. All readers and writers of a series must use the same layout and bucket width
      *
-     * @param timeSeriesName - name of series we're processing
-     * @param retryCount     - number of retries to allow if there is a generation check error - function calls itself recursively to do this
-     */
-    private void copyCurrentDataToHistoricBlock(String timeSeriesName, int retryCount) {
-        Record currentRecord = asClient.get(readPolicy, asCurrentKeyForTimeSeries(timeSeriesName));
-        Objects.requireNonNull(currentRecord, "currentRecord is null");
-        // Need to copy the current record into a historic block
-        Bin[] bins = new Bin[2];
-        // First the time series bin
-        bins[0] = new Bin(Constants.TIME_SERIES_BIN_NAME,
-                currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME),
-                MapOrder.KEY_ORDERED);
-        // Now the metadata - add in the timestamp of the most recent observation
-        Map metadata = currentRecord.getMap(Constants.METADATA_BIN_NAME);
-        @SuppressWarnings("unchecked") // Should be able to assume the below casting works
-        long lastTimestamp = Collections.max(((Map<Long, Double>) currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME)).keySet());
-        //noinspection unchecked
-        metadata.put(Constants.END_TIME_FIELD_NAME, lastTimestamp);
-        bins[1] = new Bin(Constants.METADATA_BIN_NAME, metadata);
-
-        long startTime = (Long) currentRecord.getMap(Constants.METADATA_BIN_NAME).get(Constants.START_TIME_FIELD_NAME);
-        long entryCount = currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME).size();
-
-        addTimeSeriesIndexRecord(timeSeriesName, startTime, lastTimestamp, entryCount);
-        Key key = asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTime);
-        asClient.put(writePolicy, key, bins);
-        // and remove the current block, if the archived block exists
-        // Strictly speaking I don't think the 'exists' check is necessary, but it does make things clear
-        if (asClient.exists(readPolicy, key)) {
-            // We check that in the meantime the current record has not changed via the generation check
-            WritePolicy checkGenerationWritePolicy = new WritePolicy(writePolicy);
-            checkGenerationWritePolicy.generation = currentRecord.generation;
-            checkGenerationWritePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
-            // This code is for testing purposes to verify that even if the current record is modified
-            // we still get correct results
-            // testMode = true should only be set by test code
-            if (testMode) {
-                // & we mimic 'new writes' with probability failurePctRateForCopyBlock, set to zero by default
-                if (new Random().nextDouble() < failurePctRateForCopyBlock / 100) {
-                    asClient.touch(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName));
-                    System.out.println("Failure triggered in copy block section");
-                }
-            }
-            // Out of test code block. If the delete fails, we retry
-            try {
-                asClient.delete(checkGenerationWritePolicy, asCurrentKeyForTimeSeries(timeSeriesName));
-            } catch (AerospikeException e) {
-                if (e.getResultCode() == ResultCode.GENERATION_ERROR) {
-                    if (retryCount > 0) {
-                        retryCount--;
-                        copyCurrentDataToHistoricBlock(timeSeriesName, retryCount);
-                    }
-                } else {
-                    throw e;
-                }
-            }
-        }
+     * @param bucketWidth - bucket width in milliseconds, or zero to use the default layout
+     */
+    public void setBucketWidth(long bucketWidth) {
+        if (bucketWidth < 0) throw new IllegalArgumentException("bucketWidth must not be negative");
+        this.bucketWidth = bucketWidth;
     }
 
     /**
-     * Save data points to the database
-     * <p>
-     * Inserts always go to the current block for the time series which has key TimeSeriesName
+     * Whether the bucketed block layout is in use. See setBucketWidth
      *
-     * @param timeSeriesName - time series name
-     * @param dataPoints     - data points as an array
+     * @return true if blocks are fixed time buckets
      */
-    public void put(String timeSeriesName, DataPoint[] dataPoints) {
-        // First of all need to find out how much 'room' is available
-        Record r = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), MapOperation.size(Constants.TIME_SERIES_BIN_NAME));
-        int existingRecordCount = 0;
-        if (r != null) existingRecordCount = r.getInt(Constants.TIME_SERIES_BIN_NAME);
-
-        // We will be working through the data points iteratively, so we need to keep track of where we are
-        int lastRecordLoaded = 0;
-
-        // Stop when all records have been 'put'
-        while (lastRecordLoaded < dataPoints.length) {
-            // Load records remaining or whatever we have space for, whichever is the smaller
-            int numberOfRecordsToLoad = Math.min(dataPoints.length - lastRecordLoaded, maxBlockEntryCount - existingRecordCount);
-            // Insert metadata - may not be needed, but will be ignored if it already exists
-            Operation[] metadataOps = opsForMetadataCreation(timeSeriesName, dataPoints[lastRecordLoaded].getTimestamp(), maxBlockEntryCount);
-            // Batch inserting data points is done via an array of operations
-            Operation[] ops = new Operation[numberOfRecordsToLoad + metadataOps.length];
-            // Construct the array of operations
-            for (int i = lastRecordLoaded; i < lastRecordLoaded + numberOfRecordsToLoad; i++)
-                ops[i - lastRecordLoaded] = MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME,
-                        Value.get(dataPoints[i].getTimestamp()), Value.get(dataPoints[i].getValue()));
-            // and add the metadata
-            System.arraycopy(metadataOps, 0, ops, numberOfRecordsToLoad, metadataOps.length);
-            // Put to the database
-            asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), ops);
-            // If the block is full, 'archive' it
-            if (numberOfRecordsToLoad + existingRecordCount == maxBlockEntryCount)
-                copyCurrentDataToHistoricBlock(timeSeriesName);
-            // If we're at this point in the code we know we'll be inserting to an empty block
-            existingRecordCount = 0;
-            // Update the running total of records we've inserted
-            lastRecordLoaded += numberOfRecordsToLoad;
-        }
+    public boolean isBucketed() {
+        return bucketWidth > 0;
     }
 
     /**
-     * Retrieve a specific data point for a named time series
+     * Format historic blocks are written in
      *
-     * @param timeSeriesName name of relevant series
-     * @param dateTime       timestamp for point we want
-     * @return data point if found
+     * @return historic block encoding
      */
-    public DataPoint getPoint(String timeSeriesName, Date dateTime) {
-        DataPoint[] dataPointArray = getPoints(timeSeriesName, dateTime, dateTime);
-        if (dataPointArray.length == 1) {
-            return dataPointArray[0];
-        } else {
-            return null;
-        }
+    public BlockEncoding getHistoricBlockEncoding() {
+        return historicBlockEncoding;
     }
 
     /**
-     * Retrieve all time series points between two given date / times (inclusive)
+     * Set the format historic blocks are written in when the current block is 'archived'
+     * <p>
+     * BlockEncoding.GORILLA compresses the block into a blob, typically cutting storage and read bandwidth per point
+     * several fold for regularly sampled series. BlockEncoding.COLUMNAR packs the block into timestamp and value columns,
+     * which are read without creating an object per point. Points written late to an encoded block are held in its map
+     * bin alongside the encoded bins, taking precedence for the same timestamp. Blocks are decoded transparently on
+     * read whatever their encoding, so the encoding can be changed at any time.
+     * The current block, and blocks in the bucketed layout, are always maps as they are updated in place
      *
-     * @param timeSeriesName - name of time series
-     * @param fromDateTime   - start time for required range
-     * @param toDateTime     - end time for required range
-     * @return array of DataPoint objects
+     * @param historicBlockEncoding - encoding for blocks written from now on
      */
-    public DataPoint[] getPoints(String timeSeriesName, Date fromDateTime, Date toDateTime) {
-        return getPoints(timeSeriesName, fromDateTime.getTime(), toDateTime.getTime());
+    public void setHistoricBlockEncoding(BlockEncoding historicBlockEncoding) {
+        this.historicBlockEncoding = historicBlockEncoding;
     }
 
     /**
-     * Aerospike Key for a given time series name
-     * Package level visibility to allow testing
+     * Number of blocks read per batch read when streaming a range
      *
-     * @param timeSeriesName name of time series
-     * @return Aerospike Key for current block for this time series
+     * @return blocks per fetch
      */
-    public Key asCurrentKeyForTimeSeries(String timeSeriesName) {
-        return new Key(asNamespace, timeSeriesSet, timeSeriesName);
+    public int getStreamBlocksPerFetch() {
+        return streamBlocksPerFetch;
     }
 
     /**
-     * Aerospike Key for a given block for a given time series
+     * Set the number of blocks read per batch read by stream
+     * <p>
+     * A stream holds the blocks from at most two reads at once - those being consumed and those being prefetched - so
+     * this bounds the memory used by a stream, whatever the length of the range. For a striped series, this applies
+     * per stripe. Larger values mean fewer round trips
      *
-     * @param timeSeriesName         - name of time series
-     * @param startTimestampForBlock - start timestamp for block
-     * @return Aerospike Key for required block
+     * @param streamBlocksPerFetch - blocks per batch read
      */
-    public Key asKeyForHistoricTimeSeriesBlock(String timeSeriesName, long startTimestampForBlock) {
-        String historicBlockKey = String.format("%s-%d", timeSeriesName, startTimestampForBlock);
-        return new Key(asNamespace, timeSeriesSet, historicBlockKey);
+    public void setStreamBlocksPerFetch(int streamBlocksPerFetch) {
+        if (streamBlocksPerFetch < 1) throw new IllegalArgumentException("streamBlocksPerFetch must be positive");
+        this.streamBlocksPerFetch = streamBlocksPerFetch;
     }
 
     /**
-     * Aerospike Index Key name for a given time series name
+     * Maximum number of block directories held by the block directory cache
      *
-     * @param timeSeriesName - time series in question
-     * @return - Aerospike Key to index block for that time series
+     * @return cache size - zero if the cache is not in use
      */
-    public Key asKeyForTimeSeriesIndexes(String timeSeriesName) {
-        return new Key(asNamespace, timeSeriesIndexSetName(), timeSeriesName);
+    public int getBlockDirectoryCacheSize() {
+        BlockDirectoryCache cache = blockDirectoryCache;
+        return cache == null ? 0 : cache.getMaxSize();
     }
 
     /**
-     * Each time series will have a number of Aerospike records associated with it
-     * We keep a record of these to make data retrieval efficient
+     * Cache the block directories - the block start times held in the index record - of up to the given number of
+     * time series, least recently used first out. For a striped series, each stripe has its own directory
+     * <p>
+     * Reading a range normally needs two round trips - one to read the index record, then one to read the blocks it
+     * points to. With a cached directory, getPoint and getPoints read the blocks straight away, and confirm in the same
+     * batch read, with a header only read of the index record, that the directory is current. Index records only
+     * change when a block is archived or late points are written, so repeated reads of the same series usually need a
+     * single round trip. A directory found to be out of date is evicted and the read is repeated without the cache
+     * <p>
+     * Each directory holds one start time per block. Replaces any cache in use
      *
-     * @param timeSeriesName - name of time series we are updating index for
-     * @param startTime      - start time of the block we're adding to the index
+     * @param blockDirectoryCacheSize - maximum number of directories to hold - zero to stop caching
      */
-    private void addTimeSeriesIndexRecord(String timeSeriesName, long startTime, long endTime, long entryCount) {
-        Map<String, Object> metadata = new HashMap<>();
-        metadata.put(Constants.END_TIME_FIELD_NAME, endTime);
-        metadata.put(Constants.ENTRY_COUNT_FIELD_NAME, entryCount);
-        // Rely on automatic map creation - don't need to explicitly create a map - put will do that for you
-        asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName),
-                Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(timeSeriesName))),
-                // Inserts data point
-                MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_INDEX_BIN_NAME,
-                        new Value.LongValue(startTime), new Value.MapValue(metadata))
-        );
+    public void setBlockDirectoryCacheSize(int blockDirectoryCacheSize) {
+        if (blockDirectoryCacheSize < 0) throw new IllegalArgumentException("blockDirectoryCacheSize must not be negative");
+        this.blockDirectoryCache = blockDirectoryCacheSize == 0 ? null : new BlockDirectoryCache(blockDirectoryCacheSize);
     }
 
     /**
-     * Internal method to calculate the start times of the blocks we need to retrieve for time range represented by
-     * timestamps startTime and endTime
+     * Number of reads made using cached block directories - see setBlockDirectoryCacheSize
      *
-     * @param timeSeriesName - name of time series we are getting block start times for
-     * @param startTime      - start time of range we're interested in
-     * @param endTime        - end time of range we're interested in
-     * @return long[] containing the timestamps
+     * @return hit count
      */
-    /*
-        Algorithm is, to find first block, go forward until we find the first start time after startTime then go back one
-        and for endTime, go back until we find the first start time that is after the end time
+    public long getBlockDirectoryCacheHitCount() {
+        BlockDirectoryCache cache = blockDirectoryCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
 
-        Doesn't work if endTime / startTime are inverted so require specific logic for that
+    /**
+     * Number of reads that had to read index records, as block directories were not cached or were out of date
+     * Only counted while the block directory cache is in use
+     *
+     * @return miss count
      */
-    public long[] getTimestampsForTimeSeries(String timeSeriesName, long startTime, long endTime) {
-        if (endTime >= startTime) {
-            Operation mapOperation = MapOperation.getByKeyRange(
-                    Constants.TIME_SERIES_INDEX_BIN_NAME,
-                    null,
-                    null,
-                    MapReturnType.KEY
-            );
-            Record indexListRecord = asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), mapOperation);
-            if (indexListRecord != null) {
-                @SuppressWarnings("unchecked")  // Can assume below casting works
-                List<Long> timestampList = (List<Long>) indexListRecord.getList(Constants.TIME_SERIES_INDEX_BIN_NAME);
-                int indexOfFirstTimestamp = 0;
-                int indexOfLastTimestamp = timestampList.size() - 1;
-                while ((indexOfFirstTimestamp <= timestampList.size() - 2) && (timestampList.get(indexOfFirstTimestamp) < startTime))
-                    indexOfFirstTimestamp++;
-                if (timestampList.get(indexOfFirstTimestamp) > startTime)
-                    indexOfFirstTimestamp = Math.max(0, indexOfFirstTimestamp - 1);
-                while (timestampList.get(indexOfLastTimestamp) > endTime) indexOfLastTimestamp--;
-                // If we are bringing back the most recent block available we might need the current block - need a special way of indicating this
-                int extraTimestampSlot = indexOfLastTimestamp == timestampList.size() - 1 ? 1 : 0;
-                long[] timestamps = new long[indexOfLastTimestamp - indexOfFirstTimestamp + 1 + extraTimestampSlot];
-                for (int i = 0; i < timestamps.length - extraTimestampSlot; i++) {
-                    timestamps[i] = timestampList.get(i + indexOfFirstTimestamp);
-                }
-                if (extraTimestampSlot == 1) timestamps[timestamps.length - 1] = CURRENT_RECORD_TIMESTAMP;
-                return timestamps;
-            }
-            // If there's no index records, could be in the current block
-            else
-                return new long[]{CURRENT_RECORD_TIMESTAMP};
-        } else
-            return new long[0];
+    public long getBlockDirectoryCacheMissCount() {
+        BlockDirectoryCache cache = blockDirectoryCache;
+        return cache == null ? 0 : cache.getMissCount();
     }
 
     /**
-     * Get the Aerospike Keys we need for the data for timeSeriesName between startTime and endTime
-     * where this represents milliseconds since the epoch
+     * Read of the blocks covering a range using cached block directories - see setBlockDirectoryCacheSize
+     * Package level visibility as the asynchronous client shares this
      *
-     * @param timeSeriesName time series name
-     * @param startTime      start time as long
-     * @param endTime        end time as long
-     * @return Aerospike Key[]
+     * @param timeSeriesName - time series name
+     * @param startTime      - start time of required range
+     * @param endTime        - end time of required range
+     * @return cached block read - null if the cache is not in use, or the directory of any stripe is not cached
      */
-    private Key[] getKeysForQuery(String timeSeriesName, long startTime, long endTime) {
-        long[] startTimesForBlocks = getTimestampsForTimeSeries(timeSeriesName, startTime, endTime);
-        Key[] keysForQuery = new Key[startTimesForBlocks.length];
-        for (int i = 0; i < startTimesForBlocks.length - 1; i++)
-            keysForQuery[i] = asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTimesForBlocks[i]);
-        if ((startTimesForBlocks.length > 0)) {
-            if (startTimesForBlocks[startTimesForBlocks.length - 1] == CURRENT_RECORD_TIMESTAMP) {
-                keysForQuery[startTimesForBlocks.length - 1] = asCurrentKeyForTimeSeries(timeSeriesName);
-            } else {
-                keysForQuery[startTimesForBlocks.length - 1] = asKeyForHistoricTimeSeriesBlock(timeSeriesName,
-                        startTimesForBlocks[startTimesForBlocks.length - 1]);
+    CachedBlockRead cachedBlockRead(String timeSeriesName, long startTime, long endTime) {
+        BlockDirectoryCache cache = blockDirectoryCache;
+        if (cache == null || isBucketed() || endTime < startTime) return null;
+        String[] stripeNames = stripeNames(timeSeriesName);
+        BlockDirectoryCache.Directory[] directories = new BlockDirectoryCache.Directory[stripeNames.length];
+        Key[] indexKeys = new Key[stripeNames.length];
+        List<Key[]> blockRuns = new ArrayList<>();
+        for (int i = 0; i < stripeNames.length; i++) {
+            directories[i] = cache.get(stripeNames[i]);
+            if (directories[i] == null) {
+                cache.countRead(false);
+                return null;
             }
+            indexKeys[i] = asKeyForTimeSeriesIndexes(stripeNames[i]);
+            blockRuns.add(keysForBlockStartTimes(stripeNames[i], blockStartTimesForRange(directories[i].getIndexListRecord(), startTime, endTime)));
         }
-        return keysForQuery;
+        return new CachedBlockRead(cache, stripeNames, directories, indexKeys,
+                blockCacheRead(Collections.singletonList(timeSeriesName), blockReads(blockRuns, startTime, endTime)));
     }
 
     /**
-     * Internal method - retrieve time series data points with start and end time expressed
-     * as unix epochs (seconds since 1st Jan 1970) multiplied by required resolution
-     * (10^Constants.TIMESTAMP_DECIMAL_PLACES_PER_SECOND)
+     * Cache the block directory of a time series, if the block directory cache is in use
+     * Package level visibility as the asynchronous client shares this
      *
-     * @param timeSeriesName name of time series we're retrieving points fpr
-     * @param startTime      start time of required range
-     * @param endTime        end time of required range
-     * @return DataPoint[]
+     * @param timeSeriesName  - stripe name
+     * @param indexListRecord - index record as returned by opForBlockStartTimes - null if there is none
      */
-    private DataPoint[] getPoints(String timeSeriesName, long startTime, long endTime) {
-        Key[] keys = getKeysForQuery(timeSeriesName, startTime, endTime);
-        Record[] timeSeriesBlocks = asClient.get(new BatchPolicy(readPolicy), keys, Constants.TIME_SERIES_BIN_NAME);
-        Map<Long, DataPoint> uniqueTimestampMap = new TreeMap<>();
-
-        for (Record currentRecord : timeSeriesBlocks) {
-            // Null record is a possibility if we have just made the current block a historic block
-            if (currentRecord != null) {
-                @SuppressWarnings("unchecked")
-                Map<Long, Double> timeSeries = (Map<Long, Double>) currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME);
-                for (Long timestamp : timeSeries.keySet()) {
-                    if (timestamp >= startTime && timestamp <= endTime) {
-                        uniqueTimestampMap.putIfAbsent(timestamp, new DataPoint(timestamp, timeSeries.get(timestamp)));
-                    }
-                }
-            }
-        }
-        return uniqueTimestampMap.values().toArray(new DataPoint[0]);
+    void cacheBlockDirectory(String timeSeriesName, Record indexListRecord) {
+        BlockDirectoryCache cache = blockDirectoryCache;
+        if (cache != null) cache.put(timeSeriesName, indexListRecord);
     }
 
     /**
-     * Run a query vs a particular time series range. Query types are as per the enum QueryOperation
+     * Maximum total serialized size of the blocks held by the block cache
      *
-     * @param timeSeriesName - time series to run query against
-     * @param operation      - operation to apply to query e.g. avg, vol, max, min
-     * @param fromDateTime   - start time for required time series range
-     * @param toDateTime     - end time for required time series range
-     * @return result of the query as a double
+     * @return cache size in bytes - zero if the cache is not in use
      */
-    public double runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime) {
-        DataPoint[] dataPoints = getPoints(timeSeriesName, fromDateTime, toDateTime);
-        switch (operation) {
-            case MAX:
-                double maxValue = Double.MIN_VALUE;
-                for (DataPoint d : dataPoints) maxValue = Math.max(maxValue, d.getValue());
-                return maxValue == Double.MIN_VALUE ? Double.NaN : maxValue;
-            case MIN:
-                double minValue = Double.MAX_VALUE;
-                for (DataPoint d : dataPoints) minValue = Math.min(minValue, d.getValue());
-                return minValue == Double.MAX_VALUE ? Double.NaN : minValue;
-            case COUNT:
-                return dataPoints.length;
-            case AVG:
-                double sum = 0;
-                double count = dataPoints.length;
-                for (DataPoint d : dataPoints) sum += d.getValue();
-                return count > 0 ? sum / count : Double.NaN;
-            case VOL:
-                sum = 0;
-                count = dataPoints.length;
-                if (count == 0) return Double.NaN;
-                for (DataPoint d : dataPoints) sum += d.getValue();
-                double avg = sum / count;
-                double sumsq = 0;
-                for (DataPoint d : dataPoints) sumsq += Math.pow(d.getValue() - avg, 2);
-                return Math.sqrt(sumsq / count);
-            default:
-                return Double.NaN;
-        }
+    public long getBlockCacheSize() {
+        BlockCache cache = blockCache;
+        return cache == null ? 0 : cache.getMaxBytes();
     }
 
     /**
-     * We store some 'indexes' to make the time series db work.
-     * This gives the name of the set they're stored in
-     * It simply suffixes the time series set name with TIME_SERIES_INDEX_SET_SUFFIX
+     * Whether the block cache holds its blocks off heap - see setBlockCacheSize(long, boolean)
      *
-     * @return the set name for the time series indexes
+     * @return true if blocks are held in direct byte buffers - false if held on the heap, or the cache is not in use
+     */
+    public boolean isBlockCacheOffHeap() {
+        BlockCache cache = blockCache;
+        return cache != null && cache.isOffHeap();
+    }
+
+    /**
+     * Cache historic blocks on the heap, up to the given total serialized size, least recently used first out
+     * See setBlockCacheSize(long, boolean)
+     *
+     * @param blockCacheSize - maximum total size in bytes of the blocks held - zero to stop caching
+     */
+    public void setBlockCacheSize(long blockCacheSize) {
+        setBlockCacheSize(blockCacheSize, false);
+    }
+
+    /**
+     * Cache historic blocks, up to the given total serialized size, least recently used first out
+     * <p>
+     * Historic blocks only change if late points are written to them. getPoint, getPoints and runQuery read cached
+     * blocks with a header only read, in the same batch read as any other blocks, and only use the cached copy if the
+     * record generation is unchanged, so the points of hot historic blocks are not sent by the server again. Blocks
+     * found to be out of date are read again by a follow up read. Blocks not cached are read whole, rather than trimmed
+     * to the range, so they can be cached. The current block is never cached
+     * <p>
+     * Blocks are held serialized - on the heap, or off heap in direct byte buffers, which must then be allowed for in
+     * -XX:MaxDirectMemorySize. Not used by the bucketed layout, as its latest bucket is written to continually, or by
+     * stream. Replaces any cache in use
+     *
+     * @param blockCacheSize - maximum total size in bytes of the blocks held - zero to stop caching
+     * @param offHeap        - whether to hold blocks off heap
+     */
+    public void setBlockCacheSize(long blockCacheSize, boolean offHeap) {
+        if (blockCacheSize < 0) throw new IllegalArgumentException("blockCacheSize must not be negative");
+        this.blockCache = blockCacheSize == 0 ? null : new BlockCache(blockCacheSize, offHeap);
+    }
+
+    /**
+     * Number of block reads served from the block cache - see setBlockCacheSize
+     *
+     * @return hit count
+     */
+    public long getBlockCacheHitCount() {
+        BlockCache cache = blockCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    /**
+     * Number of historic block reads not served from the block cache, as blocks were not cached or were out of date
+     * Only counted while the block cache is in use
+     *
+     * @return miss count
+     */
+    public long getBlockCacheMissCount() {
+        BlockCache cache = blockCache;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    /**
+     * Total serialized size of the blocks held by the block cache
+     *
+     * @return size in bytes - zero if the cache is not in use
+     */
+    public long getBlockCacheBytes() {
+        BlockCache cache = blockCache;
+        return cache == null ? 0 : cache.getBytes();
+    }
+
+    /**
+     * Cache decoded historic blocks in a memory mapped file on local disk, as a second tier behind the block cache -
+     * see setDiskBlockCache(String, long, int). Each block may use room for twice the block entry count, allowing for
+     * late points
+     *
+     * @param directory          - directory holding the cache file - created if need be
+     * @param diskBlockCacheSize - size in bytes of the cache file
+     * @throws IOException if the cache file cannot be created or mapped
+     */
+    public void setDiskBlockCache(String directory, long diskBlockCacheSize) throws IOException {
+        setDiskBlockCache(directory, diskBlockCacheSize, Constants.DISK_BLOCK_CACHE_SLOT_OVERHEAD + 2 * maxBlockEntryCount * Constants.DISK_BLOCK_CACHE_BYTES_PER_POINT);
+    }
+
+    /**
+     * Cache decoded historic blocks in a memory mapped file on local disk, as a second tier behind the block cache
+     * <p>
+     * Reads use the disk block cache as per the block cache - see setBlockCacheSize - trying the block cache first.
+     * Blocks are decoded before they are written, so Gorilla and columnar blocks are not decoded again. The file is an
+     * arena of fixed size slots, reused in clock order, so the least recently used blocks are overwritten first. Blocks
+     * too large for a slot are not cached
+     * <p>
+     * The file is kept, so a restarted client starts with the blocks cached by its predecessor. Blocks are validated by
+     * record generation and last update time, as a block deleted and rewritten while the client was down restarts its
+     * generation. A file written with a different format, slot size or slot count is discarded. Truncating a set makes
+     * every cached block of it out of date, but call clearDiskBlockCache afterwards to free the slots. The file is per
+     * namespace, and must not be shared by concurrent processes. Replaces, and closes, any disk block cache in use
+     *
+     * @param directory          - directory holding the cache file - created if need be. Null to stop caching
+     * @param diskBlockCacheSize - size in bytes of the cache file
+     * @param slotSize           - size in bytes of each slot
+     * @throws IOException if the cache file cannot be created or mapped
+     */
+    public void setDiskBlockCache(String directory, long diskBlockCacheSize, int slotSize) throws IOException {
+        DiskBlockCache previous = diskBlockCache;
+        diskBlockCache = null;
+        if (previous != null) previous.close();
+        if (directory == null) return;
+        long slotCount = diskBlockCacheSize / slotSize;
+        if (slotCount <= 0 || slotCount > Integer.MAX_VALUE) throw new IllegalArgumentException("diskBlockCacheSize must allow between 1 and "
+                + Integer.MAX_VALUE + " slots");
+        diskBlockCache = new DiskBlockCache(Paths.get(directory), asNamespace, slotSize, (int) slotCount);
+    }
+
+    /**
+     * Stop using the disk block cache, flushing and closing its file, which is kept for reuse - see setDiskBlockCache
+     *
+     * @throws IOException if the cache file cannot be written
+     */
+    public void closeDiskBlockCache() throws IOException {
+        setDiskBlockCache(null, 0, 0);
+    }
+
+    /**
+     * Remove all blocks from the disk block cache, if it is in use - see setDiskBlockCache
+     */
+    public void clearDiskBlockCache() {
+        DiskBlockCache cache = diskBlockCache;
+        if (cache != null) cache.clear();
+    }
+
+    /**
+     * Number of block reads served from the disk block cache - see setDiskBlockCache
+     *
+     * @return hit count
+     */
+    public long getDiskBlockCacheHitCount() {
+        DiskBlockCache cache = diskBlockCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    /**
+     * Number of historic block reads looked for in the disk block cache but not served from it, as blocks were not
+     * cached or were out of date. Reads served by the block cache are not counted
+     *
+     * @return miss count
+     */
+    public long getDiskBlockCacheMissCount() {
+        DiskBlockCache cache = diskBlockCache;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    /**
+     * Number of blocks held by the disk block cache
+     *
+     * @return block count - zero if the cache is not in use
+     */
+    public int getDiskBlockCacheBlockCount() {
+        DiskBlockCache cache = diskBlockCache;
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * Number of series whose latest points are held by the tail cache
+     *
+     * @return maximum series count - zero if the cache is not in use
+     */
+    public int getTailCacheSize() {
+        TailCache cache = tailCache;
+        return cache == null ? 0 : cache.getMaxSeries();
+    }
+
+    /**
+     * Number of points per series held by the tail cache
+     *
+     * @return points per series - zero if the cache is not in use
+     */
+    public int getTailCachePointsPerSeries() {
+        TailCache cache = tailCache;
+        return cache == null ? 0 : cache.getPointsPerSeries();
+    }
+
+    /**
+     * Cache the latest points of the most recently read series, for getLatest and getLastN
+     * <p>
+     * A series' tail is cached when first read, and kept up to date by put, which adds points written once the write
+     * completes, so reads of series written by this client are served without a database call. Writes by other
+     * clients are not seen, so tails are read again once older than maxAge - pass zero for no limit if this client is
+     * the only writer. Requests for more points than are held per series are read from the database. Replaces any cache
+     * in use
+     *
+     * @param maxSeries       - maximum number of series held, least recently used first out - zero to stop caching
+     * @param pointsPerSeries - number of points held per series
+     * @param maxAge          - milliseconds after which a cached tail is read again - zero for no limit
+     */
+    public void setTailCache(int maxSeries, int pointsPerSeries, long maxAge) {
+        if (maxSeries < 0) throw new IllegalArgumentException("maxSeries must not be negative");
+        if (maxSeries > 0 && pointsPerSeries <= 0) throw new IllegalArgumentException("pointsPerSeries must be positive");
+        if (maxAge < 0) throw new IllegalArgumentException("maxAge must not be negative");
+        this.tailCache = maxSeries == 0 ? null : new TailCache(maxSeries, pointsPerSeries, maxAge);
+    }
+
+    /**
+     * Number of getLatest and getLastN calls served from the tail cache - see setTailCache
+     *
+     * @return hit count
+     */
+    public long getTailCacheHitCount() {
+        TailCache cache = tailCache;
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    /**
+     * Number of getLatest and getLastN calls read from the database while the tail cache is in use - see setTailCache
+     *
+     * @return miss count
+     */
+    public long getTailCacheMissCount() {
+        TailCache cache = tailCache;
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    /**
+     * Add points written to a series to its cached tail, if held - see setTailCache
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - points written
+     */
+    void updateTailCache(String timeSeriesName, DataPointBatch dataPoints) {
+        TailCache cache = tailCache;
+        if (cache != null) cache.update(timeSeriesName, dataPoints);
+    }
+
+    /**
+     * Read of the latest points of a series, through the tail cache - see getLastN
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName - time series name
+     * @param n              - number of points
+     * @return tail read
+     */
+    TailRead tailRead(String timeSeriesName, int n) {
+        return new TailRead(this, timeSeriesName, n, tailCache);
+    }
+
+    /**
+     * Read of blocks through the block cache - see setBlockCacheSize
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesNames - time series the blocks belong to
+     * @param blockReads      - block reads, as per blockReads
+     * @return block cache read - making the block reads as they are if the cache is not in use
+     */
+    BlockCacheRead blockCacheRead(List<String> timeSeriesNames, List<BatchRead> blockReads) {
+        BlockCache cache = isBucketed() ? null : blockCache;
+        DiskBlockCache diskCache = isBucketed() ? null : diskBlockCache;
+        if (cache == null && diskCache == null) return new BlockCacheRead(null, blockReads, null);
+        Set<Key> currentBlockKeys = currentBlockKeys(timeSeriesNames);
+        List<Boolean> cacheable = new ArrayList<>(blockReads.size());
+        for (BatchRead blockRead : blockReads) cacheable.add(!currentBlockKeys.contains(blockRead.key));
+        return new BlockCacheRead(cache, diskCache, blockReads, cacheable);
+    }
+
+    /**
+     * Read of the blocks for a number of query plans through the block cache - only reads retrieving the points of
+     * historic blocks are served from the cache - see setBlockCacheSize
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesNames - time series queried, one per plan
+     * @param queryPlans      - query plans
+     * @return block cache read - making the block reads as they are if the cache is not in use
+     */
+    BlockCacheRead queryBlockCacheRead(List<String> timeSeriesNames, List<QueryPlan> queryPlans) {
+        BlockCache cache = isBucketed() ? null : blockCache;
+        DiskBlockCache diskCache = isBucketed() ? null : diskBlockCache;
+        if (cache == null && diskCache == null) return new BlockCacheRead(null, blockReads(queryPlans), null);
+        Set<Key> currentBlockKeys = currentBlockKeys(timeSeriesNames);
+        List<BatchRead> blockReads = new ArrayList<>();
+        List<Boolean> cacheable = new ArrayList<>();
+        for (QueryPlan queryPlan : queryPlans) {
+            for (int i = 0; i < queryPlan.getBlockReads().size(); i++) {
+                BatchRead blockRead = queryPlan.getBlockReads().get(i);
+                blockReads.add(blockRead);
+                cacheable.add(queryPlan.isPointRead(i) && !currentBlockKeys.contains(blockRead.key));
+            }
+        }
+        return new BlockCacheRead(cache, diskCache, blockReads, cacheable);
+    }
+
+    /**
+     * Keys of the current blocks of each stripe of a number of time series
+     *
+     * @param timeSeriesNames - time series names
+     * @return current block keys
+     */
+    private Set<Key> currentBlockKeys(List<String> timeSeriesNames) {
+        Set<Key> currentBlockKeys = new HashSet<>();
+        for (String timeSeriesName : timeSeriesNames)
+            for (String stripeName : stripeNames(timeSeriesName)) currentBlockKeys.add(asCurrentKeyForTimeSeries(stripeName));
+        return currentBlockKeys;
+    }
+
+    /**
+     * Complete a block cache read, once its reads have been made - making any follow up reads
+     *
+     * @param blockCacheRead - block cache read
+     * @return blocks as retrieved from the database, in block read order. May contain nulls
+     */
+    private Record[] complete(BlockCacheRead blockCacheRead) {
+        List<BatchRead> followUpReads = blockCacheRead.getFollowUpReads();
+        if (!followUpReads.isEmpty()) getAll(followUpReads);
+        blockCacheRead.complete();
+        return records(blockCacheRead.getBlockReads());
+    }
+
+    /**
+     * Bucket widths of the rollup tiers maintained for each time series
+     *
+     * @return widths in milliseconds, finest first - empty if rollups are not in use
+     */
+    public long[] getRollupWidths() {
+        return rollupTiers == null ? new long[0] : rollupTiers.getWidths();
+    }
+
+    /**
+     * Maintain rollup tiers - downsampled copies of each time series - with the given bucket widths
+     * <p>
+     * Each tier holds, for each fixed time bucket of its width, the count, sum, minimum, maximum and last value of the
+     * points in the bucket - see Rollup. Tiers are stored in their own sets, named by appending 'rollup' and the width to
+     * the time series set name, as records of Constants.ROLLUP_BUCKETS_PER_RECORD buckets with key
+     * TimeSeriesName-RecordStartTime. getRollups reads a range of buckets with a single batch read, so dashboards over
+     * long ranges need not read raw points at all.
+     * <p>
+     * Tiers are updated as each block is archived, and when points are written late to a historic block. The finest
+     * tier is built from the block's points, each coarser tier from the tier below, so each width must be a multiple of
+     * the one before. Points in the current block are rolled up when read. Blocks archived before rollups were
+     * configured are not included - as bucketed queries use rollups where they can, configure rollups before a series is
+     * first written. Not supported by the bucketed layout. All writers of a series must use the same widths
+     *
+     * @param rollupWidths - bucket widths in milliseconds, ascending - none to stop maintaining rollups
+     */
+    public void setRollupWidths(long... rollupWidths) {
+        for (int i = 0; i < rollupWidths.length; i++) {
+            if (rollupWidths[i] <= 0) throw new IllegalArgumentException("rollupWidths must be positive");
+            if (i > 0 && (rollupWidths[i] <= rollupWidths[i - 1] || rollupWidths[i] % rollupWidths[i - 1] != 0))
+                throw new IllegalArgumentException("Each of rollupWidths must be a greater multiple of the one before");
+        }
+        this.rollupTiers = rollupWidths.length == 0 ? null : new RollupTiers(this, rollupWidths);
+    }
+
+    /**
+     * Number of stripes each time series is spread across
+     *
+     * @return stripe count - one if striping is not in use
+     */
+    public int getStripeCount() {
+        return stripeCount;
+    }
+
+    /**
+     * Spread the writes for each time series across stripeCount stripes
+     * <p>
+     * Every write to a series normally goes to the same current block, so is limited by the rate at which a single
+     * Aerospike record can be updated - see Constants.SAFE_SINGLE_KEY_UPDATE_LIMIT_PER_SEC. With striping, each series is
+     * stored as stripeCount sub-series, named TimeSeriesName#0 to TimeSeriesName#(stripeCount - 1), each with its own
+     * current block, historic blocks and index. Each point goes to a stripe chosen by hashing its timestamp, so a given
+     * timestamp always goes to the same stripe. Stripe keys are spread across partitions and so across nodes, lifting
+     * the update limit for a series by a factor of up to stripeCount.
+     * <p>
+     * Reads merge the stripes - getPoints retrieves the stripe indexes with a single batch read, then all the blocks
+     * required with another. Block metadata and indexes record the time series name rather than the stripe name, so
+     * series listings are unaffected. All readers and writers of a series must use the same stripe count
+     *
+     * @param stripeCount - number of stripes, or one for no striping
+     */
+    public void setStripeCount(int stripeCount) {
+        if (stripeCount < 1) throw new IllegalArgumentException("stripeCount must be positive");
+        this.stripeCount = stripeCount;
+    }
+
+    /**
+     * Whether striping is in use. See setStripeCount
+     *
+     * @return true if series are striped
+     */
+    public boolean isStriped() {
+        return stripeCount > 1;
+    }
+
+    /**
+     * Name of the stripe of a time series that a point with the given timestamp is stored in
+     * If striping is not in use, this is the time series name
+     *
+     * @param timeSeriesName - time series name
+     * @param timestamp      - timestamp of point
+     * @return stripe name
+     */
+    String stripeName(String timeSeriesName, long timestamp) {
+        if (!isStriped()) return timeSeriesName;
+        // Mix the timestamp bits so regularly spaced timestamps are spread evenly across the stripes
+        long hash = timestamp * 0x9E3779B97F4A7C15L;
+        return stripeName(timeSeriesName, (int) Math.floorMod(hash ^ (hash >>> 32), (long) stripeCount));
+    }
+
+    private static String stripeName(String timeSeriesName, int stripe) {
+        return timeSeriesName + STRIPE_SEPARATOR + stripe;
+    }
+
+    /**
+     * Names of all the stripes of a time series
+     * If striping is not in use, this is just the time series name
+     *
+     * @param timeSeriesName - time series name
+     * @return stripe names
+     */
+    String[] stripeNames(String timeSeriesName) {
+        if (!isStriped()) return new String[]{timeSeriesName};
+        String[] stripeNames = new String[stripeCount];
+        for (int i = 0; i < stripeCount; i++) stripeNames[i] = stripeName(timeSeriesName, i);
+        return stripeNames;
+    }
+
+    /**
+     * Group data points by the stripe they are stored in
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as a batch
+     * @return data points keyed by stripe name, in their original order within each stripe
+     */
+    Map<String, DataPointBatch> dataPointsByStripe(String timeSeriesName, DataPointBatch dataPoints) {
+        Map<String, DataPointBatch> dataPointsByStripe = new LinkedHashMap<>();
+        for (int i = 0; i < dataPoints.getLength(); i++)
+            dataPointsByStripe.computeIfAbsent(stripeName(timeSeriesName, dataPoints.getTimestamp(i)), ignore -> new DataPointBatch())
+                    .add(dataPoints.getTimestamp(i), dataPoints.getValue(i));
+        return dataPointsByStripe;
+    }
+
+    /**
+     * The time series name recorded in block metadata and indexes - the stripe name with any stripe suffix removed
+     *
+     * @param stripeName - stripe name
+     * @return time series name
+     */
+    String seriesNameForMetadata(String stripeName) {
+        return isStriped() ? stripeName.substring(0, stripeName.lastIndexOf(STRIPE_SEPARATOR)) : stripeName;
+    }
+
+    /**
+     * Start time of the bucket containing a timestamp
+     *
+     * @param timestamp - timestamp
+     * @return bucket start time
+     */
+    long bucketStartTime(long timestamp) {
+        return Math.floorDiv(timestamp, bucketWidth) * bucketWidth;
+    }
+
+    /**
+     * Start times of the buckets needed to cover startTime to endTime
+     *
+     * @param startTime - start time of range we're interested in
+     * @param endTime   - end time of range we're interested in
+     * @return long[] containing the bucket start times
+     */
+    long[] bucketStartTimesForRange(long startTime, long endTime) {
+        if (endTime < startTime) return new long[0];
+        long firstBucketStartTime = bucketStartTime(startTime);
+        long[] bucketStartTimes = new long[(int) ((bucketStartTime(endTime) - firstBucketStartTime) / bucketWidth) + 1];
+        for (int i = 0; i < bucketStartTimes.length; i++) bucketStartTimes[i] = firstBucketStartTime + i * bucketWidth;
+        return bucketStartTimes;
+    }
+
+    /**
+     * Save a run of data points, all in the same bucket, to their bucket
+     * If the write creates the bucket, it is added to the index
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as a batch
+     * @param firstRecord    - index of first data point to insert
+     * @param recordCount    - number of data points to insert
+     */
+    private void putToBucket(String timeSeriesName, DataPointBatch dataPoints, int firstRecord, int recordCount) {
+        long bucketStartTime = bucketStartTime(dataPoints.getTimestamp(firstRecord));
+        Record r = asClient.operate(writePolicy, asKeyForHistoricTimeSeriesBlock(timeSeriesName, bucketStartTime),
+                opsForBucketPut(timeSeriesName, bucketStartTime, dataPoints, firstRecord, recordCount));
+        if (isNewRecord(r)) asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), opsForBucketIndexRecord(timeSeriesName, bucketStartTime));
+        addToCatalogIfNew(timeSeriesName, r);
+    }
+
+    /**
+     * Add a series to the catalog if the write whose result is given created the current block, or bucket, and this
+     * client has not already added it - see SeriesCatalog
+     *
+     * @param timeSeriesName - stripe name
+     * @param writeResult    - record returned by the write
+     */
+    private void addToCatalogIfNew(String timeSeriesName, Record writeResult) {
+        if (!isCatalogAdditionNeeded(timeSeriesName, writeResult)) return;
+        asClient.operate(writePolicy, asKeyForCatalog(timeSeriesName), SeriesCatalog.opForAddition(seriesNameForMetadata(timeSeriesName)));
+        catalogAdditionMade(timeSeriesName);
+    }
+
+    /**
+     * Whether the write whose result is given calls for the series to be added to the catalog - it created the current
+     * block, or bucket, and this client has not already added the series. So a series is usually added once per client,
+     * rather than each time a block is created
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName - stripe name
+     * @param writeResult    - record returned by the write
+     * @return true if the series should be added
+     */
+    boolean isCatalogAdditionNeeded(String timeSeriesName, Record writeResult) {
+        return isNewRecord(writeResult) && !catalogedSeries.contains(seriesNameForMetadata(timeSeriesName));
+    }
+
+    /**
+     * Note that a series has been added to the catalog, so this client does not add it again
+     * The names held are forgotten once there are too many, so memory use is bounded - at the cost of adding series again
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName - stripe name
+     */
+    void catalogAdditionMade(String timeSeriesName) {
+        if (catalogedSeries.size() >= CATALOGED_SERIES_LIMIT) catalogedSeries.clear();
+        catalogedSeries.add(seriesNameForMetadata(timeSeriesName));
+    }
+
+    /**
+     * Aerospike Key for the catalog record holding a time series name
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName - stripe name
+     * @return key
+     */
+    Key asKeyForCatalog(String timeSeriesName) {
+        return seriesCatalog.keyForSeries(seriesNameForMetadata(timeSeriesName));
+    }
+
+    /**
+     * Operations needed to insert a run of data points into a bucket
+     *
+     * @param timeSeriesName  - time series name
+     * @param bucketStartTime - start time of bucket
+     * @param dataPoints      - data points as a batch
+     * @param firstRecord     - index of first data point to insert
+     * @param recordCount     - number of data points to insert
+     * @return the operations required to insert the data points and the bucket metadata
+     */
+    Operation[] opsForBucketPut(String timeSeriesName, long bucketStartTime, DataPointBatch dataPoints, int firstRecord, int recordCount) {
+        Map<Value, Value> items = timeSeriesItems(dataPoints, firstRecord, recordCount);
+        Operation[] metadataOps = opsForMetadataCreation(timeSeriesName, bucketStartTime, maxBlockEntryCount);
+        Operation[] ops = new Operation[1 + metadataOps.length];
+        ops[0] = MapOperation.putItems(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME, items);
+        System.arraycopy(metadataOps, 0, ops, 1, metadataOps.length);
+        return ops;
+    }
+
+    /**
+     * Whether the record returned by a write was created by that write
+     * A spurious true (possible if the generation has wrapped) is harmless, as the resulting index update is idempotent
+     *
+     * @param writeResult - record returned by the write
+     * @return true if the record was created by the write
+     */
+    static boolean isNewRecord(Record writeResult) {
+        return writeResult != null && writeResult.generation == 1;
+    }
+
+    /**
+     * Operations needed to add a bucket to the index for a time series
+     * The entry is only created if absent. Bucket entry counts are not held in the index, as this would mean an index
+     * update for every write
+     *
+     * @param timeSeriesName  - name of time series we are updating index for
+     * @param bucketStartTime - start time of bucket
+     * @return operations to apply to the index record
+     */
+    Operation[] opsForBucketIndexRecord(String timeSeriesName, long bucketStartTime) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(Constants.END_TIME_FIELD_NAME, bucketStartTime + bucketWidth - 1);
+        return new Operation[]{
+                Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(seriesNameForMetadata(timeSeriesName)))),
+                MapOperation.put(createOnlyMapPolicy, Constants.TIME_SERIES_INDEX_BIN_NAME,
+                        new Value.LongValue(bucketStartTime), new Value.MapValue(metadata))
+        };
+    }
+
+    /**
+     * Number of times a full current block has been 'archived' to a historic block by this client
+     *
+     * @return block rollover count
+     */
+    public long getBlockRolloverCount() {
+        return blockRolloverCount.get();
+    }
+
+    /**
+     * Total number of database round trips used by this client to 'archive' full current blocks
+     * This excludes the write that filled the block, as the snapshot of the block needed for archiving is returned by that write
+     *
+     * @return block rollover round trip count
+     */
+    public long getBlockRolloverRoundTripCount() {
+        return blockRolloverRoundTripCount.get();
+    }
+
+    /**
+     * Average number of database round trips per block rollover - three unless rollovers have had to be retried, historic
+     * blocks are encoded, as they are merged on the client, or rollup tiers are maintained, as they are updated as part of
+     * the rollover
+     *
+     * @return round trips per rollover, or NaN if there have been no rollovers
+     */
+    @SuppressWarnings("unused") // Required in API
+    public double getRoundTripsPerBlockRollover() {
+        long rolloverCount = blockRolloverCount.get();
+        return rolloverCount > 0 ? (double) blockRolloverRoundTripCount.get() / rolloverCount : Double.NaN;
+    }
+
+    /**
+     * Record a completed block rollover in the rollover metrics
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param roundTrips - number of database round trips the rollover took
+     */
+    void recordBlockRollover(int roundTrips) {
+        blockRolloverCount.incrementAndGet();
+        blockRolloverRoundTripCount.addAndGet(roundTrips);
+    }
+
+    /**
+     * Archive full blocks in the background, using the default thread count and queue size
+     * See Constants.DEFAULT_BACKGROUND_ARCHIVER_THREAD_COUNT and DEFAULT_BACKGROUND_ARCHIVER_MAX_QUEUED_ARCHIVES
+     */
+    @SuppressWarnings("unused") // Required in API
+    public void enableBackgroundArchiver() {
+        enableBackgroundArchiver(Constants.DEFAULT_BACKGROUND_ARCHIVER_THREAD_COUNT, Constants.DEFAULT_BACKGROUND_ARCHIVER_MAX_QUEUED_ARCHIVES);
+    }
+
+    /**
+     * Archive full blocks in the background
+     * <p>
+     * By default the write that fills a block also 'archives' it, so that write pays for the whole rollover.
+     * With the background archiver enabled, the write only notes the block is full and archiving is carried out by a
+     * bounded pool of threads. Writers carry on writing to the current block in the meantime - once the archive is
+     * complete the archived points are removed from it, leaving the points written since as the start of the next block.
+     * <p>
+     * In this mode a block is archived once it holds more than maxBlockEntryCount points, so the current block is never
+     * left empty. Points may briefly be present in both the current and historic blocks - getPoints removes such duplicates.
+     * If the archive queue is full, the block is left for the next write to the series to submit again
+     *
+     * @param threadCount       - number of archiver threads
+     * @param maxQueuedArchives - maximum number of archives waiting for a thread
+     */
+    public void enableBackgroundArchiver(int threadCount, int maxQueuedArchives) {
+        if (threadCount < 1 || maxQueuedArchives < 1)
+            throw new IllegalArgumentException("threadCount and maxQueuedArchives must both be positive");
+        if (backgroundArchiver != null) throw new IllegalStateException("Background archiver is already enabled");
+        backgroundArchiver = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueuedArchives), runnable -> {
+            Thread thread = new Thread(runnable, "TimeSeriesClient-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Whether full blocks are archived in the background. See enableBackgroundArchiver
+     *
+     * @return true if the background archiver is enabled
+     */
+    public boolean isBackgroundArchiverEnabled() {
+        return backgroundArchiver != null;
+    }
+
+    /**
+     * Stop the background archiver, waiting for queued and in progress archives to complete
+     * Subsequent writes archive full blocks themselves
+     *
+     * @throws InterruptedException - if interrupted while waiting
+     */
+    public void shutdownBackgroundArchiver() throws InterruptedException {
+        ExecutorService archiver = backgroundArchiver;
+        if (archiver != null) {
+            backgroundArchiver = null;
+            archiver.shutdown();
+            archiver.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Number of background archives that have failed. The block remains in place - the next write to the series
+     * will submit it again
+     *
+     * @return background archive failure count
+     */
+    @SuppressWarnings("unused") // Required in API
+    public long getBackgroundArchiveFailureCount() {
+        return backgroundArchiveFailureCount.get();
+    }
+
+    /**
+     * Saves data point to the database
+     * <p>
+     * By default insert always goes to the current block for the time series which has key TimeSeriesName
+     * <p>
+     * If Max Values per block is exceeded, save block under name TimeSeries-StartTime and remove 'current' block
+     *
+     * @param timeSeriesName - time series name to write to
+     * @param dataPoint      - data point to write
+     */
+    public void put(String timeSeriesName, DataPoint dataPoint) {
+        putToStripe(stripeName(timeSeriesName, dataPoint.getTimestamp()), dataPoint);
+        if (tailCache != null) updateTailCache(timeSeriesName, singlePointBatch(dataPoint));
+    }
+
+    /**
+     * Save data point to a single stripe of a time series - the series itself unless striping is in use
+     *
+     * @param timeSeriesName - stripe name
+     * @param dataPoint      - data point to write
+     */
+    private void putToStripe(String timeSeriesName, DataPoint dataPoint) {
+        if (isBucketed()) {
+            putToBucket(timeSeriesName, singlePointBatch(dataPoint), 0, 1);
+            return;
+        }
+        Record r = operateOnCurrentBlock(onTimeWritePolicy(dataPoint.getTimestamp()), asCurrentKeyForTimeSeries(timeSeriesName),
+                opsForPut(timeSeriesName, dataPoint));
+        // A null result means the point precedes the current block, or there is no current block - see putLatePoints
+        if (r == null) {
+            putLatePoints(timeSeriesName, singlePointBatch(dataPoint));
+        } else {
+            addToCatalogIfNew(timeSeriesName, r);
+            rolloverIfFull(timeSeriesName, r);
+        }
+    }
+
+    /**
+     * A batch holding a single data point
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param dataPoint - data point
+     * @return batch
+     */
+    static DataPointBatch singlePointBatch(DataPoint dataPoint) {
+        DataPointBatch dataPoints = new DataPointBatch(1);
+        dataPoints.add(dataPoint.getTimestamp(), dataPoint.getValue());
+        return dataPoints;
+    }
+
+    /**
+     * Write policy for writes to the current block, which filters out the write if timestamp precedes the start of the block
+     * A filtered out write returns null rather than throwing an exception
+     * The write fails if there is no current block, as whether the point may start one depends on the index - see
+     * operateOnCurrentBlock and putLatePoints
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timestamp - timestamp of the point being written
+     * @return write policy
+     */
+    WritePolicy onTimeWritePolicy(long timestamp) {
+        WritePolicy onTimeWritePolicy = new WritePolicy(writePolicy);
+        onTimeWritePolicy.recordExistsAction = RecordExistsAction.UPDATE_ONLY;
+        onTimeWritePolicy.filterExp = Exp.build(Exp.ge(Exp.val(timestamp), MapExp.getByKey(MapReturnType.VALUE, Exp.Type.INT,
+                Exp.val(Constants.START_TIME_FIELD_NAME), Exp.mapBin(Constants.METADATA_BIN_NAME))));
+        onTimeWritePolicy.failOnFilteredOut = false;
+        return onTimeWritePolicy;
+    }
+
+    /**
+     * Write policy for a write which may create the current block, once the index has shown the points follow every
+     * historic block. As per onTimeWritePolicy, except that the write goes ahead if there is no current block
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timestamp - earliest timestamp of the points being written
+     * @return write policy
+     */
+    WritePolicy currentBlockCreationPolicy(long timestamp) {
+        WritePolicy currentBlockCreationPolicy = new WritePolicy(writePolicy);
+        // If there is no metadata the block is yet to be created, so the points are not late
+        currentBlockCreationPolicy.filterExp = Exp.build(Exp.or(
+                Exp.not(Exp.binExists(Constants.METADATA_BIN_NAME)),
+                Exp.ge(Exp.val(timestamp), MapExp.getByKey(MapReturnType.VALUE, Exp.Type.INT, Exp.val(Constants.START_TIME_FIELD_NAME),
+                        Exp.mapBin(Constants.METADATA_BIN_NAME)))));
+        currentBlockCreationPolicy.failOnFilteredOut = false;
+        return currentBlockCreationPolicy;
+    }
+
+    /**
+     * Write to the current block with the onTimeWritePolicy, or currentBlockCreationPolicy
+     *
+     * @param policy - write policy
+     * @param key    - current block key
+     * @param ops    - operations
+     * @return record returned by the write - null if the write was filtered out, or there is no current block
+     */
+    private Record operateOnCurrentBlock(WritePolicy policy, Key key, Operation... ops) {
+        try {
+            return asClient.operate(policy, key, ops);
+        } catch (AerospikeException e) {
+            if (isMissingRecord(e)) return null;
+            throw e;
+        }
+    }
+
+    /**
+     * Whether a write failed because its record does not exist - for the current block, after a rollover
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param e - exception thrown by the write
+     * @return true if the record does not exist
+     */
+    static boolean isMissingRecord(AerospikeException e) {
+        return e.getResultCode() == ResultCode.KEY_NOT_FOUND_ERROR;
+    }
+
+    /**
+     * Save points that precede the start of the current block, or that found no current block
+     * <p>
+     * Points after the end of the latest historic block go to the current block, which is created if absent, and whose
+     * start time is moved back to cover them. So the current block always starts after every historic block - reads rely
+     * on this, and it means a rollover never writes to the key of an existing historic block. Other points are written
+     * to the historic block that covers them - the one with the latest start time not after the point - and that block's
+     * entry count and end time in the index are updated. Points preceding all historic blocks form a new historic block.
+     * In all cases a block's start time is never after any of its points, which is what allows reads to be confined to
+     * the blocks covering the requested range
+     *
+     * @param timeSeriesName - time series name
+     * @param latePoints     - points preceding the start of the current block, or that found no current block
+     */
+    private void putLatePoints(String timeSeriesName, DataPointBatch latePoints) {
+        TreeMap<Long, Map<?, ?>> indexEntries = indexEntries(asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), opForIndexEntries()));
+        long latestArchivedEndTime = latestArchivedEndTime(indexEntries);
+        DataPointBatch currentBlockPoints = pointsAfter(latePoints, latestArchivedEndTime, true);
+        if (currentBlockPoints.getLength() > 0) {
+            Record r = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), opsForEarlyPointsPut(timeSeriesName, currentBlockPoints));
+            addToCatalogIfNew(timeSeriesName, r);
+            rolloverIfFull(timeSeriesName, r);
+        }
+        putToHistoricBlocks(timeSeriesName, indexEntries, pointsAfter(latePoints, latestArchivedEndTime, false));
+    }
+
+    /**
+     * Save points not after the end of the latest historic block to the historic blocks covering them - see putLatePoints
+     *
+     * @param timeSeriesName - time series name
+     * @param indexEntries   - index entries, as returned by indexEntries - may be null if there are no points
+     * @param latePoints     - points not after the end of the latest historic block
+     */
+    private void putToHistoricBlocks(String timeSeriesName, TreeMap<Long, Map<?, ?>> indexEntries, DataPointBatch latePoints) {
+        if (latePoints.getLength() == 0) return;
+        for (Map.Entry<Long, DataPointBatch> latePointsForBlock : latePointsByBlock(indexEntries.navigableKeySet(), latePoints).entrySet()) {
+            long blockStartTime = latePointsForBlock.getKey();
+            Record r = asClient.operate(writePolicy, asKeyForHistoricTimeSeriesBlock(timeSeriesName, blockStartTime),
+                    opsForLatePointsPut(timeSeriesName, blockStartTime, latePointsForBlock.getValue()));
+            asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName),
+                    opsForLateBlockIndexUpdate(timeSeriesName, blockStartTime, r));
+            rollupBlock(timeSeriesName, blockStartTime);
+        }
+    }
+
+    /**
+     * End time of the latest historic block. Only points after it may go to the current block - see putLatePoints
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param indexEntries - index entries, as returned by indexEntries - may be null
+     * @return end time - Long.MIN_VALUE if there are no historic blocks
+     */
+    static long latestArchivedEndTime(TreeMap<Long, Map<?, ?>> indexEntries) {
+        if (indexEntries == null || indexEntries.isEmpty()) return Long.MIN_VALUE;
+        Object endTime = indexEntries.lastEntry().getValue().get(Constants.END_TIME_FIELD_NAME);
+        return endTime == null ? indexEntries.lastKey() : ((Number) endTime).longValue();
+    }
+
+    /**
+     * The data points after, or not after, a given time
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param dataPoints - data points as a batch
+     * @param time       - time
+     * @param after      - true for the points after time, false for the others
+     * @return data points - the batch itself if it is unchanged
+     */
+    static DataPointBatch pointsAfter(DataPointBatch dataPoints, long time, boolean after) {
+        DataPointBatch filtered = new DataPointBatch(dataPoints.getLength());
+        for (int i = 0; i < dataPoints.getLength(); i++)
+            if ((dataPoints.getTimestamp(i) > time) == after) filtered.add(dataPoints.getTimestamp(i), dataPoints.getValue(i));
+        return filtered.getLength() == dataPoints.getLength() ? dataPoints : filtered;
+    }
+
+    /**
+     * Group late points by the historic block they belong to - the one with the latest start time not after the point
+     * Points preceding all historic blocks are grouped under the earliest of their timestamps, which will be the start
+     * time of a new block
+     *
+     * @param blockStartTimes - start times of the historic blocks
+     * @param latePoints      - points not after the end of the latest historic block
+     * @return late points keyed by the start time of the block they belong to
+     */
+    static Map<Long, DataPointBatch> latePointsByBlock(NavigableSet<Long> blockStartTimes, DataPointBatch latePoints) {
+        long newBlockStartTime = Long.MAX_VALUE;
+        for (int i = 0; i < latePoints.getLength(); i++)
+            if (blockStartTimes.floor(latePoints.getTimestamp(i)) == null) newBlockStartTime = Math.min(newBlockStartTime, latePoints.getTimestamp(i));
+        Map<Long, DataPointBatch> latePointsByBlock = new TreeMap<>();
+        for (int i = 0; i < latePoints.getLength(); i++) {
+            Long blockStartTime = blockStartTimes.floor(latePoints.getTimestamp(i));
+            latePointsByBlock.computeIfAbsent(blockStartTime == null ? newBlockStartTime : blockStartTime, ignore -> new DataPointBatch())
+                    .add(latePoints.getTimestamp(i), latePoints.getValue(i));
+        }
+        return latePointsByBlock;
+    }
+
+    /**
+     * Operations writing points that follow every historic block, but may precede the start of the current block, to the
+     * current block - creating it if absent. The start time of the block is moved back to the earliest of the points
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName - time series name
+     * @param earlyPoints    - points to write
+     * @return operations to apply to the current block
+     */
+    Operation[] opsForEarlyPointsPut(String timeSeriesName, DataPointBatch earlyPoints) {
+        long earliestTimestamp = earliestTimestamp(earlyPoints, 0, earlyPoints.getLength());
+        Exp metadataBin = Exp.mapBin(Constants.METADATA_BIN_NAME);
+        Exp startTime = MapExp.getByKey(MapReturnType.VALUE, Exp.Type.INT, Exp.val(Constants.START_TIME_FIELD_NAME), metadataBin);
+        Operation[] metadataOps = opsForMetadataCreation(timeSeriesName, earliestTimestamp, maxBlockEntryCount);
+        Operation[] rolloverCheckOps = opsForRolloverCheck();
+        Map<Value, Value> items = timeSeriesItems(earlyPoints, 0, earlyPoints.getLength());
+        Operation[] runningStatisticsOps = opsForRunningStatistics(items);
+        int putIndex = metadataOps.length + runningStatisticsOps.length;
+        Operation[] ops = new Operation[2 + putIndex + rolloverCheckOps.length];
+        System.arraycopy(metadataOps, 0, ops, 0, metadataOps.length);
+        System.arraycopy(runningStatisticsOps, 0, ops, metadataOps.length, runningStatisticsOps.length);
+        ops[putIndex] = MapOperation.putItems(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME, items);
+        // Move the start time back, unless another writer has already moved it further
+        ops[putIndex + 1] = ExpOperation.write(Constants.METADATA_BIN_NAME, Exp.build(
+                Exp.cond(Exp.lt(Exp.val(earliestTimestamp), startTime),
+                        MapExp.put(metadataUpdateMapPolicy, Exp.val(Constants.START_TIME_FIELD_NAME), Exp.val(earliestTimestamp), metadataBin),
+                        metadataBin)),
+                ExpWriteFlags.DEFAULT);
+        System.arraycopy(rolloverCheckOps, 0, ops, putIndex + 2, rolloverCheckOps.length);
+        return ops;
+    }
+
+    /**
+     * Operations writing late points to a historic block. The metadata end time is updated, and the block size and end
+     * time returned, for use by opsForLateBlockIndexUpdate
+     * The block metadata is created if absent, as the points may be forming a new block
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName - time series name
+     * @param blockStartTime - start time of the historic block
+     * @param latePoints     - points to write
+     * @return operations to apply to the historic block
+     */
+    Operation[] opsForLatePointsPut(String timeSeriesName, long blockStartTime, DataPointBatch latePoints) {
+        // An encoded block holds late points in its map bin, alongside the encoded bins - the block end time and entry count cover both
+        Exp blockIsEncoded = blockIsEncoded();
+        Exp mapEndTime = MapExp.getByIndex(MapReturnType.KEY, Exp.Type.INT, Exp.val(-1), Exp.mapBin(Constants.TIME_SERIES_BIN_NAME));
+        Exp blockEndTime = Exp.cond(blockIsEncoded,
+                Exp.max(mapEndTime, metadataValue(Constants.END_TIME_FIELD_NAME)),
+                mapEndTime);
+        Exp blockEntryCount = Exp.add(MapExp.size(Exp.mapBin(Constants.TIME_SERIES_BIN_NAME)),
+                Exp.cond(blockIsEncoded, metadataValue(Constants.COMPRESSED_ENTRY_COUNT_FIELD_NAME), Exp.val(0)));
+        Operation[] metadataOps = opsForMetadataCreation(timeSeriesName, blockStartTime, maxBlockEntryCount);
+        Operation[] ops = new Operation[4 + metadataOps.length];
+        ops[0] = MapOperation.putItems(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME, timeSeriesItems(latePoints, 0, latePoints.getLength()));
+        System.arraycopy(metadataOps, 0, ops, 1, metadataOps.length);
+        // Read the end time before it is written, as the encoded block end time comes from the metadata
+        ops[1 + metadataOps.length] = ExpOperation.read(BLOCK_END_TIME_NAME, Exp.build(blockEndTime), ExpReadFlags.DEFAULT);
+        ops[2 + metadataOps.length] = ExpOperation.write(Constants.METADATA_BIN_NAME, Exp.build(
+                MapExp.put(metadataUpdateMapPolicy, Exp.val(Constants.END_TIME_FIELD_NAME), blockEndTime, Exp.mapBin(Constants.METADATA_BIN_NAME))),
+                ExpWriteFlags.DEFAULT);
+        ops[3 + metadataOps.length] = ExpOperation.read(BLOCK_ENTRY_COUNT_NAME, Exp.build(blockEntryCount), ExpReadFlags.DEFAULT);
+        return ops;
+    }
+
+    /**
+     * Expression which is true if a block is held in one of the encoded forms, rather than as a map
+     *
+     * @return expression
+     */
+    private static Exp blockIsEncoded() {
+        return Exp.or(Exp.binExists(Constants.COMPRESSED_TIME_SERIES_BIN_NAME), Exp.binExists(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME));
+    }
+
+    /**
+     * Expression giving an integer field of a block's metadata
+     *
+     * @param fieldName - metadata field name
+     * @return expression
+     */
+    private static Exp metadataValue(String fieldName) {
+        return MapExp.getByKey(MapReturnType.VALUE, Exp.Type.INT, Exp.val(fieldName), Exp.mapBin(Constants.METADATA_BIN_NAME));
+    }
+
+    /**
+     * Operations updating the index entry for a historic block after late points have been written to it
+     * The entry is replaced, so any summary statistics for the block, which no longer describe it, are removed
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName  - time series name
+     * @param blockStartTime  - start time of the historic block
+     * @param lateWriteResult - record returned by the opsForLatePointsPut write
+     * @return operations to apply to the index record
+     */
+    Operation[] opsForLateBlockIndexUpdate(String timeSeriesName, long blockStartTime, Record lateWriteResult) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(Constants.END_TIME_FIELD_NAME, lateWriteResult.getLong(BLOCK_END_TIME_NAME));
+        metadata.put(Constants.ENTRY_COUNT_FIELD_NAME, lateWriteResult.getLong(BLOCK_ENTRY_COUNT_NAME));
+        return new Operation[]{
+                Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(seriesNameForMetadata(timeSeriesName)))),
+                MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_INDEX_BIN_NAME,
+                        new Value.LongValue(blockStartTime), new Value.MapValue(metadata))
+        };
+    }
+
+    /**
+     * Given the result of a write to the current block, 'archive' the block if it is full
+     * Either directly, saving a copy of the block with key TimeSeries-StartTime, or via the background archiver
+     *
+     * @param timeSeriesName - name of series written to
+     * @param putResult      - record returned by the write
+     */
+    private void rolloverIfFull(String timeSeriesName, Record putResult) {
+        if (isBackgroundArchiverEnabled()) {
+            archiveInBackgroundIfFull(timeSeriesName, putResult);
+        } else {
+            // If the block is now full the write returns a snapshot of it
+            Record fullBlock = fullBlockSnapshot(putResult);
+            if (fullBlock != null) copyCurrentDataToHistoricBlock(timeSeriesName, fullBlock);
+        }
+    }
+
+    /**
+     * Operations needed to insert a single data point into the current block for a time series
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoint      - data point to write
+     * @return the operations required to insert the data point and its block metadata
+     */
+    Operation[] opsForPut(String timeSeriesName, DataPoint dataPoint) {
+        // Rely on automatic map creation - don't need to explicitly create a map - put will do that for you
+        // Need to put the metadata ops and the insert together in one array
+        // Metadata operations
+        Operation[] metadataOps = opsForMetadataCreation(timeSeriesName, dataPoint.getTimestamp(), maxBlockEntryCount);
+        // Operations allowing us to tell if the block is now full
+        Operation[] rolloverCheckOps = opsForRolloverCheck();
+        // Running statistics operations - these need the metadata to exist, and must see the block as it was before the put
+        Operation[] runningStatisticsOps = opsForRunningStatistics(
+                Collections.singletonMap(new Value.LongValue(dataPoint.getTimestamp()), new Value.DoubleValue(dataPoint.getValue())));
+        Operation[] ops = new Operation[1 + metadataOps.length + runningStatisticsOps.length + rolloverCheckOps.length];
+        // Add to the actual operations list
+        System.arraycopy(metadataOps, 0, ops, 0, metadataOps.length);
+        System.arraycopy(runningStatisticsOps, 0, ops, metadataOps.length, runningStatisticsOps.length);
+        // Data point put operation
+        ops[metadataOps.length + runningStatisticsOps.length] = MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME,
+                new Value.LongValue(dataPoint.getTimestamp()), new Value.DoubleValue(dataPoint.getValue()));
+        System.arraycopy(rolloverCheckOps, 0, ops, 1 + metadataOps.length + runningStatisticsOps.length, rolloverCheckOps.length);
+        return ops;
+    }
+
+    /**
+     * Create the operations needed to insert the metadata for a time series block
+     * Breaking out as a separate method as we use in more than one place
+     *
+     * @param timeSeriesName - time series name
+     * @param startTimestamp - timestamp
+     * @param maxEntryCount  - max entry count
+     * @return the operations required to build the metadata
+     */
+    Operation[] opsForMetadataCreation(String timeSeriesName, long startTimestamp, long maxEntryCount) {
+        // createOnlyMapPolicy ensures we are not over-writing the start time for the block
+        Operation[] opsForMetadataCreation = new Operation[3];
+        // Store time series name at time of creation
+        opsForMetadataCreation[0] =
+                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
+                        new Value.StringValue(Constants.TIME_SERIES_NAME_FIELD_NAME), new Value.StringValue(seriesNameForMetadata(timeSeriesName)));
+        // Start time for block
+        opsForMetadataCreation[1] =
+                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
+                        new Value.StringValue(Constants.START_TIME_FIELD_NAME), new Value.LongValue(startTimestamp));
+        // Max entries for block
+        opsForMetadataCreation[2] =
+                MapOperation.put(createOnlyMapPolicy, Constants.METADATA_BIN_NAME,
+                        new Value.StringValue(Constants.MAX_BLOCK_TIME_SERIES_ENTRIES_FIELD_NAME), new Value.LongValue(maxEntryCount));
+        return opsForMetadataCreation;
+    }
+
+    /**
+     * Operations maintaining running statistics - entry count, sum, sum of squares, minimum and maximum - for the points
+     * in the current block, in its metadata, so that queries covering the whole block need not read its points
+     * <p>
+     * Must follow the metadata creation operations and precede the write of the points, in the same operate. If the
+     * block is new the statistics are initialised from the points. Otherwise the points are added with map increments,
+     * and the minimum and maximum replaced if exceeded. If any point replaces an existing point, or the block predates
+     * running statistics, the statistics are removed instead, so statistics that are present always describe every
+     * point in the block
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param items - the points being written, as per timeSeriesItems
+     * @return operations to apply to the current block
+     */
+    Operation[] opsForRunningStatistics(Map<Value, Value> items) {
+        List<Object> timestamps = new ArrayList<>();
+        long count = 0;
+        double sum = 0;
+        double sumOfSquares = 0;
+        double minValue = Double.MAX_VALUE;
+        double maxValue = -Double.MAX_VALUE;
+        for (Map.Entry<Value, Value> item : items.entrySet()) {
+            double value = ((Number) item.getValue().getObject()).doubleValue();
+            timestamps.add(item.getKey().getObject());
+            count++;
+            sum += value;
+            sumOfSquares += value * value;
+            minValue = Math.min(minValue, value);
+            maxValue = Math.max(maxValue, value);
+        }
+        Map<String, Object> initialStatistics = new HashMap<>();
+        initialStatistics.put(Constants.ENTRY_COUNT_FIELD_NAME, count);
+        initialStatistics.put(Constants.SUM_FIELD_NAME, sum);
+        initialStatistics.put(Constants.SUM_OF_SQUARES_FIELD_NAME, sumOfSquares);
+        initialStatistics.put(Constants.MIN_VALUE_FIELD_NAME, minValue);
+        initialStatistics.put(Constants.MAX_VALUE_FIELD_NAME, maxValue);
+        Exp metadataBin = Exp.mapBin(Constants.METADATA_BIN_NAME);
+        Exp blockExists = Exp.binExists(Constants.TIME_SERIES_BIN_NAME);
+        Exp pointsAreNew = Exp.eq(MapExp.getByKeyList(MapReturnType.COUNT, Exp.val(timestamps), Exp.mapBin(Constants.TIME_SERIES_BIN_NAME)), Exp.val(0));
+        return new Operation[]{
+                ExpOperation.write(Constants.METADATA_BIN_NAME, Exp.build(Exp.cond(
+                        Exp.not(blockExists),
+                        MapExp.putItems(metadataUpdateMapPolicy, Exp.val(initialStatistics), metadataBin),
+                        Exp.and(hasMetadataField(Constants.SUM_FIELD_NAME), pointsAreNew),
+                        MapExp.increment(metadataUpdateMapPolicy, Exp.val(Constants.ENTRY_COUNT_FIELD_NAME), Exp.val(count),
+                                MapExp.increment(metadataUpdateMapPolicy, Exp.val(Constants.SUM_FIELD_NAME), Exp.val(sum),
+                                        MapExp.increment(metadataUpdateMapPolicy, Exp.val(Constants.SUM_OF_SQUARES_FIELD_NAME), Exp.val(sumOfSquares), metadataBin))),
+                        MapExp.removeByKeyList(Exp.val(RUNNING_STATISTICS_FIELD_NAMES), metadataBin))),
+                        ExpWriteFlags.DEFAULT),
+                // The minimum and maximum are conditionally replaced. They are absent if just removed above, and after a
+                // block trim - see opsForCurrentBlockTrim
+                ExpOperation.write(Constants.METADATA_BIN_NAME, Exp.build(Exp.cond(
+                        Exp.and(blockExists, hasMetadataField(Constants.MIN_VALUE_FIELD_NAME)),
+                        MapExp.put(metadataUpdateMapPolicy, Exp.val(Constants.MAX_VALUE_FIELD_NAME),
+                                Exp.max(metadataFloatValue(Constants.MAX_VALUE_FIELD_NAME), Exp.val(maxValue)),
+                                MapExp.put(metadataUpdateMapPolicy, Exp.val(Constants.MIN_VALUE_FIELD_NAME),
+                                        Exp.min(metadataFloatValue(Constants.MIN_VALUE_FIELD_NAME), Exp.val(minValue)), metadataBin)),
+                        metadataBin)),
+                        ExpWriteFlags.DEFAULT)
+        };
+    }
+
+    /**
+     * Expression which is true if a block's metadata holds the given field
+     *
+     * @param fieldName - metadata field name
+     * @return expression
+     */
+    private static Exp hasMetadataField(String fieldName) {
+        return Exp.gt(MapExp.getByKey(MapReturnType.COUNT, Exp.Type.INT, Exp.val(fieldName), Exp.mapBin(Constants.METADATA_BIN_NAME)), Exp.val(0));
+    }
+
+    /**
+     * Expression giving a floating point field of a block's metadata
+     *
+     * @param fieldName - metadata field name
+     * @return expression
+     */
+    private static Exp metadataFloatValue(String fieldName) {
+        return MapExp.getByKey(MapReturnType.VALUE, Exp.Type.FLOAT, Exp.val(fieldName), Exp.mapBin(Constants.METADATA_BIN_NAME));
+    }
+
+    /**
+     * Operations added to the end of every write to the current block, telling us whether the block is full
+     * <p>
+     * Normally these return a snapshot of the current block - time series and metadata bins - if it holds
+     * maxBlockEntryCount or more points, and nothing otherwise. So the write that fills a block also returns the data
+     * needed to 'archive' it. Use fullBlockSnapshot to extract the snapshot from the result
+     * <p>
+     * If the background archiver is enabled the archiver reads the block itself, so only the block size is returned
+     *
+     * @return rollover check operations
+     */
+    Operation[] opsForRolloverCheck() {
+        if (isBackgroundArchiverEnabled())
+            return new Operation[]{
+                    ExpOperation.read(CURRENT_BLOCK_SIZE_NAME, Exp.build(MapExp.size(Exp.mapBin(Constants.TIME_SERIES_BIN_NAME))),
+                            ExpReadFlags.DEFAULT)
+            };
+        Exp blockIsFull = Exp.ge(MapExp.size(Exp.mapBin(Constants.TIME_SERIES_BIN_NAME)), Exp.val(maxBlockEntryCount));
+        return new Operation[]{
+                ExpOperation.read(FULL_BLOCK_SERIES_SNAPSHOT_NAME,
+                        Exp.build(Exp.cond(blockIsFull, Exp.mapBin(Constants.TIME_SERIES_BIN_NAME), Exp.unknown())),
+                        ExpReadFlags.EVAL_NO_FAIL),
+                ExpOperation.read(FULL_BLOCK_METADATA_SNAPSHOT_NAME,
+                        Exp.build(Exp.cond(blockIsFull, Exp.mapBin(Constants.METADATA_BIN_NAME), Exp.unknown())),
+                        ExpReadFlags.EVAL_NO_FAIL)
+        };
+    }
+
+    /**
+     * Extract the snapshot requested by opsForRolloverCheck from the result of a write to the current block
+     * The snapshot is returned as a block record, with the generation of the current block following the write
+     *
+     * @param operateResult - record returned by the write
+     * @return snapshot of the full block, or null if the block is not full
+     */
+    static Record fullBlockSnapshot(Record operateResult) {
+        if (operateResult == null || operateResult.getValue(FULL_BLOCK_SERIES_SNAPSHOT_NAME) == null) return null;
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.TIME_SERIES_BIN_NAME, operateResult.getValue(FULL_BLOCK_SERIES_SNAPSHOT_NAME));
+        bins.put(Constants.METADATA_BIN_NAME, operateResult.getValue(FULL_BLOCK_METADATA_SNAPSHOT_NAME));
+        return new Record(bins, operateResult.generation, operateResult.expiration);
+    }
+
+    /**
+     * Take the full current block for timeSeriesName and copy it to a historic block
+     * Remove the current block when done
+     *
+     * @param timeSeriesName - name of series we're processing
+     * @param fullBlock      - snapshot of the current block, as returned by the write that filled it
+     */
+    private void copyCurrentDataToHistoricBlock(String timeSeriesName, Record fullBlock) {
+        Key currentKey = asCurrentKeyForTimeSeries(timeSeriesName);
+        int roundTrips = 0;
+        int retryCount = RETRY_COUNT_FOR_FAILED_BLOCK_COPY;
+        while (fullBlock != null) {
+            // Merge the snapshot into the historic block - merging means a concurrent copy of the same block can't lose points
+            roundTrips += writeHistoricBlock(timeSeriesName, fullBlock);
+            addTimeSeriesIndexRecord(timeSeriesName, fullBlock);
+            roundTrips += 1 + rollupBlock(timeSeriesName, blockStartTime(fullBlock));
+            // This code is for testing purposes to verify that even if the current record is modified
+            // we still get correct results
+            // testMode = true should only be set by test code
+            // & we mimic 'new writes' with probability failurePctRateForCopyBlock, set to zero by default
+            if (testMode && new Random().nextDouble() < failurePctRateForCopyBlock / 100) asClient.touch(writePolicy, currentKey);
+            // Now remove the current block. A successful write to the historic block means it exists - no need to check
+            // We check that in the meantime the current record has not changed via the generation check
+            try {
+                roundTrips++;
+                asClient.delete(generationCheckWritePolicy(fullBlock.generation), currentKey);
+                fullBlock = null;
+            } catch (AerospikeException e) {
+                if (e.getResultCode() != ResultCode.GENERATION_ERROR) throw e;
+                // If the delete fails, we retry with a fresh copy of the current block, unless it has since been 'archived'
+                // by another writer. If retries are exhausted we still have all the data, but we may have it twice
+                fullBlock = null;
+                if (retryCount-- > 0) {
+                    roundTrips++;
+                    Record currentRecord = asClient.get(readPolicy, currentKey);
+                    if (isFullBlock(currentRecord)) fullBlock = currentRecord;
+                }
+            }
+        }
+        recordBlockRollover(roundTrips);
+    }
+
+    /**
+     * Merge a snapshot of the current block into the corresponding historic block
+     * <p>
+     * A map block is merged on the server. An encoded block can only be rewritten whole, so the historic block is read,
+     * its encoded points merged with the snapshot, and the result written back conditional on the historic block not
+     * having changed - or not existing - since it was read. If another copy of the same block got there first, the merge
+     * is retried. If retries are exhausted the exception is thrown, before the current block is removed, so no data is lost
+     *
+     * @param timeSeriesName - name of series we're processing
+     * @param block          - snapshot of the current block
+     * @return database round trips used
+     */
+    private int writeHistoricBlock(String timeSeriesName, Record block) {
+        Key historicKey = asKeyForHistoricTimeSeriesBlock(timeSeriesName, blockStartTime(block));
+        if (!isHistoricBlockMergedOnClient()) {
+            asClient.operate(writePolicy, historicKey, opsForHistoricBlock(block));
+            return 1;
+        }
+        int roundTrips = 0;
+        int retryCount = RETRY_COUNT_FOR_FAILED_BLOCK_COPY;
+        while (true) {
+            Record historicBlock = asClient.get(readPolicy, historicKey);
+            roundTrips += 2;
+            try {
+                asClient.operate(unchangedRecordWritePolicy(historicBlock), historicKey, opsForHistoricBlock(mergedHistoricBlock(block, historicBlock)));
+                return roundTrips;
+            } catch (AerospikeException e) {
+                if (!isConcurrentWrite(e) || retryCount-- == 0) throw e;
+            }
+        }
+    }
+
+    /**
+     * Whether historic blocks are written by merging on the client - see writeHistoricBlock
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @return true if blocks are merged on the client
+     */
+    boolean isHistoricBlockMergedOnClient() {
+        return historicBlockEncoding != BlockEncoding.MAP;
+    }
+
+    /**
+     * A snapshot of the current block merged with the encoded points already in the historic block
+     * Points in the snapshot take precedence. Late points held in the historic block's map bin are left where they are,
+     * but its end time, which covers them, is kept - see opsForLatePointsPut
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param block         - snapshot of the current block
+     * @param historicBlock - historic block as read from the database - may be null
+     * @return merged block record, with the metadata of the snapshot
+     */
+    static Record mergedHistoricBlock(Record block, Record historicBlock) {
+        if (historicBlock == null) return block;
+        Map<Long, Double> timeSeries = new TreeMap<>();
+        byte[] compressedTimeSeries = (byte[]) historicBlock.getValue(Constants.COMPRESSED_TIME_SERIES_BIN_NAME);
+        if (compressedTimeSeries != null) GorillaCodec.decode(compressedTimeSeries, timeSeries::put);
+        byte[] timestampColumn = (byte[]) historicBlock.getValue(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME);
+        if (timestampColumn != null) {
+            ColumnarCodec.decode(timestampColumn, (byte[]) historicBlock.getValue(Constants.COLUMNAR_VALUES_BIN_NAME),
+                    Long.MIN_VALUE, Long.MAX_VALUE, timeSeries::put);
+        }
+        for (Map.Entry<?, ?> entry : block.getMap(Constants.TIME_SERIES_BIN_NAME).entrySet())
+            timeSeries.put((Long) entry.getKey(), (Double) entry.getValue());
+        Map<Object, Object> metadata = new HashMap<>(block.getMap(Constants.METADATA_BIN_NAME));
+        Map<?, ?> historicMetadata = historicBlock.getMap(Constants.METADATA_BIN_NAME);
+        if (historicMetadata != null && historicMetadata.get(Constants.END_TIME_FIELD_NAME) != null)
+            metadata.put(Constants.END_TIME_FIELD_NAME, historicMetadata.get(Constants.END_TIME_FIELD_NAME));
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.TIME_SERIES_BIN_NAME, timeSeries);
+        bins.put(Constants.METADATA_BIN_NAME, metadata);
+        return new Record(bins, block.generation, block.expiration);
+    }
+
+    /**
+     * Write policy which only succeeds if a record is as it was read - used for historic blocks merged on the client and
+     * for rollup records
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param record - record as read from the database - may be null
+     * @return generation checking write policy, or a create only write policy if the record did not exist
+     */
+    WritePolicy unchangedRecordWritePolicy(Record record) {
+        if (record != null) return generationCheckWritePolicy(record.generation);
+        WritePolicy createOnlyWritePolicy = new WritePolicy(writePolicy);
+        createOnlyWritePolicy.recordExistsAction = RecordExistsAction.CREATE_ONLY;
+        return createOnlyWritePolicy;
+    }
+
+    /**
+     * Whether a write made with unchangedRecordWritePolicy failed because the record was written by another writer
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param e - exception thrown by the write
+     * @return true if the write should be retried from a fresh read
+     */
+    static boolean isConcurrentWrite(AerospikeException e) {
+        return e.getResultCode() == ResultCode.GENERATION_ERROR || e.getResultCode() == ResultCode.KEY_EXISTS_ERROR;
+    }
+
+    /**
+     * Update the rollup tiers for a historic block, if rollups are in use - see setRollupWidths
+     * The block is read back, so its contribution to the finest tier reflects every point written to it, then each
+     * coarser tier is recomputed from the tier below for the buckets the block touches
+     * Called before the current block is removed or trimmed, so if this fails the block will be archived, and rolled up,
+     * again
+     * <p>
+     * Other writers may be rolling up the same buckets, so each rollup record is written with a generation check against
+     * a read made before the data it is computed from - the block, or the tier below. If the check fails, the tier is
+     * read and computed again. The block is checked to be unchanged once the records of the finest tier have been read.
+     * If it has changed there is nothing to do, as the writer that changed it rolls it up afterwards
+     * <p>
+     * Each record written counts as a round trip, as does each read, batch or otherwise
+     *
+     * @param timeSeriesName - name of series we're processing
+     * @param blockStartTime - start time of the historic block
+     * @return database round trips used
+     */
+    private int rollupBlock(String timeSeriesName, long blockStartTime) {
+        RollupTiers tiers = rollupTiers;
+        if (tiers == null) return 0;
+        Key blockKey = asKeyForHistoricTimeSeriesBlock(timeSeriesName, blockStartTime);
+        BatchPolicy batchPolicy = new BatchPolicy(readPolicy);
+        SortedSet<Long> bucketStartTimes;
+        Map<Key, Record> rollupRecords;
+        int roundTrips = 0;
+        int retryCount = RETRY_COUNT_FOR_FAILED_BLOCK_COPY;
+        while (true) {
+            Record block = asClient.get(readPolicy, blockKey);
+            roundTrips++;
+            if (block == null) return roundTrips;
+            SortedMap<Long, List<Object>> bucketAggregates = RollupTiers.bucketAggregates(
+                    pointsFromBlocks(new Record[]{block}, Long.MIN_VALUE, Long.MAX_VALUE, new DataPointBatch()), tiers.getWidths()[0]);
+            if (bucketAggregates.isEmpty()) return roundTrips;
+            bucketStartTimes = new TreeSet<>(bucketAggregates.keySet());
+            List<BatchRead> recordHeaderReads = tiers.recordHeaderReads(timeSeriesName, 0, bucketStartTimes);
+            asClient.get(batchPolicy, recordHeaderReads);
+            Record blockHeader = asClient.getHeader(readPolicy, blockKey);
+            roundTrips += 2;
+            if (blockHeader == null || blockHeader.generation != block.generation) return roundTrips;
+            rollupRecords = records(recordHeaderReads);
+            Map<Key, Operation[]> opsByKey = tiers.opsForBlock(timeSeriesName, blockStartTime, bucketAggregates);
+            roundTrips += opsByKey.size();
+            try {
+                writeUnchangedRecords(opsByKey, rollupRecords);
+                break;
+            } catch (AerospikeException e) {
+                if (!isConcurrentWrite(e) || retryCount-- == 0) throw e;
+            }
+        }
+        for (int tier = 1; tier < tiers.getTierCount(); tier++) {
+            bucketStartTimes = tiers.coveringBuckets(bucketStartTimes, tier);
+            retryCount = RETRY_COUNT_FOR_FAILED_BLOCK_COPY;
+            while (true) {
+                List<BatchRead> finerBucketReads = tiers.finerBucketReads(timeSeriesName, tier, bucketStartTimes);
+                asClient.get(batchPolicy, finerBucketReads);
+                Map<Key, Operation[]> opsByKey = tiers.opsForTotals(timeSeriesName, tier, bucketStartTimes, finerBucketReads);
+                roundTrips += 1 + opsByKey.size();
+                try {
+                    writeUnchangedRecords(opsByKey, rollupRecords);
+                    break;
+                } catch (AerospikeException e) {
+                    if (!isConcurrentWrite(e) || retryCount-- == 0) throw e;
+                    List<BatchRead> recordHeaderReads = tiers.recordHeaderReads(timeSeriesName, tier, bucketStartTimes);
+                    asClient.get(batchPolicy, recordHeaderReads);
+                    roundTrips++;
+                    rollupRecords.putAll(records(recordHeaderReads));
+                }
+            }
+        }
+        return roundTrips;
+    }
+
+    /**
+     * Apply a set of operations, one per record, each only if its record is as it was read
+     *
+     * @param opsByKey - operations keyed by record
+     * @param records  - records as read, keyed by record - see records
+     */
+    private void writeUnchangedRecords(Map<Key, Operation[]> opsByKey, Map<Key, Record> records) {
+        for (Map.Entry<Key, Operation[]> recordOps : opsByKey.entrySet())
+            asClient.operate(unchangedRecordWritePolicy(records.get(recordOps.getKey())), recordOps.getKey(), recordOps.getValue());
+    }
+
+    /**
+     * The records retrieved by a set of completed batch reads, keyed by record
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param batchReads - completed batch reads
+     * @return records - null for those that do not exist
+     */
+    static Map<Key, Record> records(List<BatchRead> batchReads) {
+        Map<Key, Record> records = new HashMap<>();
+        for (BatchRead batchRead : batchReads) records.put(batchRead.key, batchRead.record);
+        return records;
+    }
+
+    /**
+     * Given the result of a write to the current block, submit the block to the background archiver if it holds more
+     * than maxBlockEntryCount points and is not already being archived
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName - name of series written to
+     * @param putResult      - record returned by the write
+     */
+    void archiveInBackgroundIfFull(String timeSeriesName, Record putResult) {
+        ExecutorService archiver = backgroundArchiver;
+        Object blockSize = putResult == null ? null : putResult.getValue(CURRENT_BLOCK_SIZE_NAME);
+        // blockSize is absent if the write was made before the archiver was enabled - the next write will pick it up
+        if (archiver == null || blockSize == null || (Long) blockSize <= maxBlockEntryCount) return;
+        submitForArchiving(archiver, timeSeriesName);
+    }
+
+    /**
+     * Submit the current block of a series to the background archiver, unless it is already being archived
+     *
+     * @param archiver       - background archiver
+     * @param timeSeriesName - name of series
+     */
+    private void submitForArchiving(ExecutorService archiver, String timeSeriesName) {
+        if (seriesBeingArchived.add(timeSeriesName)) {
+            try {
+                archiver.execute(() -> archiveCurrentBlock(timeSeriesName));
+            } catch (RejectedExecutionException e) {
+                // Archiver is saturated or shut down - leave the block for a later write to submit
+                seriesBeingArchived.remove(timeSeriesName);
+            }
+        }
+    }
+
+    /**
+     * Background archiver task - archive the first maxBlockEntryCount points in the current block
+     * Repeats while the current block holds more than maxBlockEntryCount points, in case writers have outpaced the archiver
+     * <p>
+     * The archived points are removed from the current block with a generation check, as a writer may have re-put one of
+     * them since the block was read - removing it by key would lose the new value. If the check fails the block is read
+     * and archived again, as per copyCurrentDataToHistoricBlock. If retries are exhausted the series is resubmitted, so
+     * the archived points are not left in the current block. Until they are removed they are duplicated in the historic
+     * block - reads and counts only take points after the most recent historic block from the current block
+     *
+     * @param timeSeriesName - name of series we're processing
+     */
+    private void archiveCurrentBlock(String timeSeriesName) {
+        Key currentKey = asCurrentKeyForTimeSeries(timeSeriesName);
+        boolean trimFailed = false;
+        try {
+            Record currentRecord = asClient.get(readPolicy, currentKey);
+            int roundTrips = 1;
+            int retryCount = RETRY_COUNT_FOR_FAILED_BLOCK_COPY;
+            while (currentRecord != null && currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME).size() > maxBlockEntryCount) {
+                Record block = firstEntriesOfBlock(currentRecord, maxBlockEntryCount);
+                // Merge into the historic block and index it, then remove the archived points from the current block
+                roundTrips += writeHistoricBlock(timeSeriesName, block);
+                addTimeSeriesIndexRecord(timeSeriesName, block);
+                roundTrips += 1 + rollupBlock(timeSeriesName, blockStartTime(block));
+                Record trimResult;
+                try {
+                    roundTrips++;
+                    trimResult = asClient.operate(generationCheckWritePolicy(currentRecord.generation), currentKey, opsForCurrentBlockTrim(block));
+                } catch (AerospikeException e) {
+                    if (e.getResultCode() != ResultCode.GENERATION_ERROR) throw e;
+                    // The current block has changed since it was read - archive it again from a fresh copy
+                    currentRecord = null;
+                    if (retryCount-- > 0) {
+                        currentRecord = asClient.get(readPolicy, currentKey);
+                        roundTrips++;
+                    } else {
+                        recordBlockRollover(roundTrips);
+                        trimFailed = true;
+                    }
+                    continue;
+                }
+                recordBlockRollover(roundTrips);
+                // Go round again if the current block is still over size
+                currentRecord = null;
+                if (trimResult.getLong(CURRENT_BLOCK_SIZE_NAME) > maxBlockEntryCount) {
+                    currentRecord = asClient.get(readPolicy, currentKey);
+                    roundTrips = 1;
+                    retryCount = RETRY_COUNT_FOR_FAILED_BLOCK_COPY;
+                }
+            }
+        } catch (AerospikeException e) {
+            // No data is lost - the archived points are only removed from the current block once safely copied
+            backgroundArchiveFailureCount.incrementAndGet();
+        } finally {
+            seriesBeingArchived.remove(timeSeriesName);
+        }
+        // Writers keep changing the block - try again once they have had their turn
+        ExecutorService archiver = backgroundArchiver;
+        if (trimFailed && archiver != null) submitForArchiving(archiver, timeSeriesName);
+    }
+
+    /**
+     * A block record restricted to its first entryCount points, in timestamp order
+     *
+     * @param blockRecord - block record
+     * @param entryCount  - number of points to keep
+     * @return block record holding the first entryCount points and the metadata of the original
+     */
+    static Record firstEntriesOfBlock(Record blockRecord, int entryCount) {
+        @SuppressWarnings("unchecked") // Should be able to assume the below casting works
+        TreeMap<Long, Double> timeSeries = new TreeMap<>((Map<Long, Double>) blockRecord.getMap(Constants.TIME_SERIES_BIN_NAME));
+        Map<Long, Double> firstEntries = new TreeMap<>();
+        for (Map.Entry<Long, Double> entry : timeSeries.entrySet()) {
+            if (firstEntries.size() == entryCount) break;
+            firstEntries.put(entry.getKey(), entry.getValue());
+        }
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.TIME_SERIES_BIN_NAME, firstEntries);
+        bins.put(Constants.METADATA_BIN_NAME, blockRecord.getMap(Constants.METADATA_BIN_NAME));
+        return new Record(bins, blockRecord.generation, blockRecord.expiration);
+    }
+
+    /**
+     * Operations removing an archived block's points from the current block
+     * The current block start time is reset to its earliest remaining point, and its remaining size returned
+     * The archived points are also taken out of the block's running statistics - see opsForRunningStatistics
+     * Points are removed by key, so must be applied with a generation check against the block the points were read from
+     *
+     * @param archivedBlock - block that has been archived
+     * @return operations to apply to the current block
+     */
+    Operation[] opsForCurrentBlockTrim(Record archivedBlock) {
+        List<Value> archivedTimestamps = new ArrayList<>();
+        double archivedSum = 0;
+        double archivedSumOfSquares = 0;
+        for (Map.Entry<?, ?> entry : archivedBlock.getMap(Constants.TIME_SERIES_BIN_NAME).entrySet()) {
+            double value = ((Number) entry.getValue()).doubleValue();
+            archivedTimestamps.add(Value.get(entry.getKey()));
+            archivedSum += value;
+            archivedSumOfSquares += value * value;
+        }
+        Exp timeSeriesBin = Exp.mapBin(Constants.TIME_SERIES_BIN_NAME);
+        Exp metadataBin = Exp.mapBin(Constants.METADATA_BIN_NAME);
+        return new Operation[]{
+                MapOperation.removeByKeyList(Constants.TIME_SERIES_BIN_NAME, archivedTimestamps, MapReturnType.NONE),
+                ExpOperation.write(Constants.METADATA_BIN_NAME, Exp.build(
+                        MapExp.put(insertMapPolicy, Exp.val(Constants.START_TIME_FIELD_NAME),
+                                MapExp.getByIndex(MapReturnType.KEY, Exp.Type.INT, Exp.val(0), timeSeriesBin),
+                                metadataBin)),
+                        ExpWriteFlags.DEFAULT),
+                // Take the archived points out of any running statistics. The minimum and maximum can't be adjusted, so are removed
+                ExpOperation.write(Constants.METADATA_BIN_NAME, Exp.build(Exp.cond(
+                        hasMetadataField(Constants.SUM_FIELD_NAME),
+                        MapExp.removeByKeyList(Exp.val(Arrays.asList(Constants.MIN_VALUE_FIELD_NAME, Constants.MAX_VALUE_FIELD_NAME)),
+                                MapExp.increment(metadataUpdateMapPolicy, Exp.val(Constants.ENTRY_COUNT_FIELD_NAME), Exp.val(-archivedTimestamps.size()),
+                                        MapExp.increment(metadataUpdateMapPolicy, Exp.val(Constants.SUM_FIELD_NAME), Exp.val(-archivedSum),
+                                                MapExp.increment(metadataUpdateMapPolicy, Exp.val(Constants.SUM_OF_SQUARES_FIELD_NAME),
+                                                        Exp.val(-archivedSumOfSquares), metadataBin)))),
+                        metadataBin)),
+                        ExpWriteFlags.DEFAULT),
+                ExpOperation.read(CURRENT_BLOCK_SIZE_NAME, Exp.build(MapExp.size(timeSeriesBin)), ExpReadFlags.DEFAULT)
+        };
+    }
+
+    /**
+     * Whether a current block record read from the database holds maxBlockEntryCount or more points
+     *
+     * @param currentRecord - current block record - may be null
+     * @return true if the block is full
+     */
+    boolean isFullBlock(Record currentRecord) {
+        return currentRecord != null && currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME).size() >= maxBlockEntryCount;
+    }
+
+    /**
+     * Operations merging a current block record into the corresponding historic block
+     * The metadata is supplemented with the timestamp of the most recent observation. Running statistics are not copied,
+     * as they are not maintained for historic blocks - the block's index entry holds its summary instead
+     * An encoded block replaces the encoded bins, so the record must already hold the merged points - see writeHistoricBlock
+     *
+     * @param currentRecord - current block record
+     * @return operations to apply to the historic block
+     */
+    Operation[] opsForHistoricBlock(Record currentRecord) {
+        // Now the metadata - add in the timestamp of the most recent observation
+        Map<Value, Value> metadata = new HashMap<>();
+        for (Map.Entry<?, ?> entry : currentRecord.getMap(Constants.METADATA_BIN_NAME).entrySet())
+            if (!RUNNING_STATISTICS_FIELD_NAMES.contains(entry.getKey()))
+                metadata.put(Value.get(entry.getKey()), Value.get(entry.getValue()));
+        // A merged block keeps the end time of the historic block if later - see mergedHistoricBlock
+        Object historicEndTime = currentRecord.getMap(Constants.METADATA_BIN_NAME).get(Constants.END_TIME_FIELD_NAME);
+        metadata.put(Value.get(Constants.END_TIME_FIELD_NAME), Value.get(historicEndTime == null ? blockEndTime(currentRecord)
+                : Math.max(blockEndTime(currentRecord), (Long) historicEndTime)));
+        @SuppressWarnings("unchecked") // Should be able to assume the below casting works
+        Map<Long, Double> timeSeries = (Map<Long, Double>) currentRecord.getMap(Constants.TIME_SERIES_BIN_NAME);
+        // For encoded blocks the whole block is encoded, and holds the snapshot merged with the existing encoded points
+        switch (historicBlockEncoding) {
+            case GORILLA:
+                metadata.put(Value.get(Constants.COMPRESSED_ENTRY_COUNT_FIELD_NAME), Value.get(timeSeries.size()));
+                return new Operation[]{
+                        Operation.put(new Bin(Constants.COMPRESSED_TIME_SERIES_BIN_NAME, GorillaCodec.encode(timeSeries))),
+                        MapOperation.putItems(metadataUpdateMapPolicy, Constants.METADATA_BIN_NAME, metadata)
+                };
+            case COLUMNAR:
+                metadata.put(Value.get(Constants.COMPRESSED_ENTRY_COUNT_FIELD_NAME), Value.get(timeSeries.size()));
+                byte[][] columns = ColumnarCodec.encode(timeSeries);
+                return new Operation[]{
+                        Operation.put(new Bin(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME, columns[0])),
+                        Operation.put(new Bin(Constants.COLUMNAR_VALUES_BIN_NAME, columns[1])),
+                        MapOperation.putItems(metadataUpdateMapPolicy, Constants.METADATA_BIN_NAME, metadata)
+                };
+        }
+        return new Operation[]{
+                // First the time series bin
+                MapOperation.putItems(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME, timeSeriesItems(currentRecord)),
+                MapOperation.putItems(metadataUpdateMapPolicy, Constants.METADATA_BIN_NAME, metadata)
+        };
+    }
+
+    /**
+     * A run of data points, in the form required by MapOperation.putItems
+     *
+     * @param dataPoints  - data points as a batch
+     * @param firstRecord - index of first data point
+     * @param recordCount - number of data points
+     * @return map of timestamp to value
+     */
+    private static Map<Value, Value> timeSeriesItems(DataPointBatch dataPoints, int firstRecord, int recordCount) {
+        Map<Value, Value> items = new LinkedHashMap<>(2 * recordCount);
+        for (int i = firstRecord; i < firstRecord + recordCount; i++)
+            items.put(Value.get(dataPoints.getTimestamp(i)), Value.get(dataPoints.getValue(i)));
+        return items;
+    }
+
+    /**
+     * The time series bin of a block record, in the form required by MapOperation.putItems
+     *
+     * @param blockRecord - block record
+     * @return map of timestamp to value
+     */
+    private static Map<Value, Value> timeSeriesItems(Record blockRecord) {
+        Map<?, ?> timeSeries = blockRecord.getMap(Constants.TIME_SERIES_BIN_NAME);
+        Map<Value, Value> items = new LinkedHashMap<>(2 * timeSeries.size());
+        for (Map.Entry<?, ?> entry : timeSeries.entrySet())
+            items.put(Value.get(entry.getKey()), Value.get(entry.getValue()));
+        return items;
+    }
+
+    /**
+     * Start time of a block, as recorded in its metadata
+     *
+     * @param blockRecord - block record
+     * @return start time for block
+     */
+    static long blockStartTime(Record blockRecord) {
+        return (Long) blockRecord.getMap(Constants.METADATA_BIN_NAME).get(Constants.START_TIME_FIELD_NAME);
+    }
+
+    /**
+     * Timestamp of the most recent observation in a block
+     *
+     * @param blockRecord - block record
+     * @return end time for block
+     */
+    static long blockEndTime(Record blockRecord) {
+        @SuppressWarnings("unchecked") // Should be able to assume the below casting works
+        long lastTimestamp = Collections.max(((Map<Long, Double>) blockRecord.getMap(Constants.TIME_SERIES_BIN_NAME)).keySet());
+        return lastTimestamp;
+    }
+
+    /**
+     * Write policy that will only succeed if the record generation is unchanged
+     *
+     * @param generation - generation the record is expected to have
+     * @return generation checking write policy
+     */
+    WritePolicy generationCheckWritePolicy(int generation) {
+        WritePolicy checkGenerationWritePolicy = new WritePolicy(writePolicy);
+        checkGenerationWritePolicy.generation = generation;
+        checkGenerationWritePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+        return checkGenerationWritePolicy;
+    }
+
+    /**
+     * Save data points to the database
+     * <p>
+     * Inserts always go to the current block for the time series which has key TimeSeriesName
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as an array
+     */
+    public void put(String timeSeriesName, DataPoint[] dataPoints) {
+        put(timeSeriesName, new DataPointBatch(dataPoints));
+    }
+
+    /**
+     * Save data points to the database
+     * <p>
+     * As per put(String, DataPoint[]), but taking the points as primitive arrays, so a re-used batch can be written
+     * without creating a DataPoint per point
+     *
+     * @param timeSeriesName - time series name
+     * @param dataPoints     - data points as a batch
+     */
+    public void put(String timeSeriesName, DataPointBatch dataPoints) {
+        if (isStriped()) {
+            for (Map.Entry<String, DataPointBatch> dataPointsForStripe : dataPointsByStripe(timeSeriesName, dataPoints).entrySet())
+                putToStripe(dataPointsForStripe.getKey(), dataPointsForStripe.getValue());
+        } else {
+            putToStripe(timeSeriesName, dataPoints);
+        }
+        updateTailCache(timeSeriesName, dataPoints);
+    }
+
+    /**
+     * Save data points to a single stripe of a time series - the series itself unless striping is in use
+     *
+     * @param timeSeriesName - stripe name
+     * @param dataPoints     - data points as a batch
+     */
+    private void putToStripe(String timeSeriesName, DataPointBatch dataPoints) {
+        if (isBucketed()) {
+            // One write per bucket
+            DataPointBatch bucketOrderedDataPoints = bucketOrderedDataPoints(dataPoints);
+            int firstRecord = 0;
+            for (int i = 1; i <= bucketOrderedDataPoints.getLength(); i++) {
+                if (i == bucketOrderedDataPoints.getLength() || bucketStartTime(bucketOrderedDataPoints.getTimestamp(i)) !=
+                        bucketStartTime(bucketOrderedDataPoints.getTimestamp(firstRecord))) {
+                    putToBucket(timeSeriesName, bucketOrderedDataPoints, firstRecord, i - firstRecord);
+                    firstRecord = i;
+                }
+            }
+            return;
+        }
+        // First of all need to find out how much 'room' is available, and the current block start time
+        Record r = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName), opsForCurrentBlockState());
+        int existingRecordCount = 0;
+        if (r != null) existingRecordCount = r.getInt(Constants.TIME_SERIES_BIN_NAME);
+        boolean currentBlockExists = r != null && r.getValue(Constants.METADATA_BIN_NAME) != null;
+
+        if (currentBlockExists) {
+            // Points preceding the current block go to the historic blocks covering them
+            DataPointBatch latePoints = latePoints(dataPoints, r);
+            if (latePoints.getLength() > 0) {
+                putLatePoints(timeSeriesName, latePoints);
+                dataPoints = onTimePoints(dataPoints, r);
+            }
+        } else {
+            // No current block - points not after the latest historic block go to the historic blocks, so the block created starts after them
+            TreeMap<Long, Map<?, ?>> indexEntries = indexEntries(asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), opForIndexEntries()));
+            long latestArchivedEndTime = latestArchivedEndTime(indexEntries);
+            putToHistoricBlocks(timeSeriesName, indexEntries, pointsAfter(dataPoints, latestArchivedEndTime, false));
+            dataPoints = pointsAfter(dataPoints, latestArchivedEndTime, true);
+        }
+
+        // We will be working through the data points iteratively, so we need to keep track of where we are
+        int lastRecordLoaded = 0;
+
+        // Stop when all records have been 'put'
+        while (lastRecordLoaded < dataPoints.getLength()) {
+            // Load records remaining or whatever we have space for, whichever is the smaller
+            int numberOfRecordsToLoad = Math.min(dataPoints.getLength() - lastRecordLoaded, roomInCurrentBlock(existingRecordCount));
+            // Put to the database - filtered out if the block start time has moved past the chunk since it was read. Only the
+            // first chunk may create the block - later ones find it deleted if it has been rolled over
+            long earliestTimestamp = earliestTimestamp(dataPoints, lastRecordLoaded, numberOfRecordsToLoad);
+            WritePolicy chunkWritePolicy = lastRecordLoaded == 0 && !currentBlockExists ? currentBlockCreationPolicy(earliestTimestamp) : onTimeWritePolicy(earliestTimestamp);
+            Record putResult = operateOnCurrentBlock(chunkWritePolicy, asCurrentKeyForTimeSeries(timeSeriesName),
+                    opsForBatchPut(timeSeriesName, dataPoints, lastRecordLoaded, numberOfRecordsToLoad));
+            // Start again with the points remaining, so those now late, or preceding the end of a block rolled over, go to the historic blocks covering them
+            if (putResult == null) {
+                putToStripe(timeSeriesName, subBatch(dataPoints, lastRecordLoaded, dataPoints.getLength() - lastRecordLoaded));
+                return;
+            }
+            addToCatalogIfNew(timeSeriesName, putResult);
+            // If the block is full, 'archive' it
+            rolloverIfFull(timeSeriesName, putResult);
+            // If we're at this point in the code we know we'll be inserting to an empty block
+            existingRecordCount = 0;
+            // Update the running total of records we've inserted
+            lastRecordLoaded += numberOfRecordsToLoad;
+        }
+    }
+
+    /**
+     * Earliest timestamp of a run of data points
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param dataPoints  - data points as a batch
+     * @param firstRecord - index of first data point
+     * @param recordCount - number of data points
+     * @return earliest timestamp
+     */
+    static long earliestTimestamp(DataPointBatch dataPoints, int firstRecord, int recordCount) {
+        long earliestTimestamp = Long.MAX_VALUE;
+        for (int i = firstRecord; i < firstRecord + recordCount; i++) earliestTimestamp = Math.min(earliestTimestamp, dataPoints.getTimestamp(i));
+        return earliestTimestamp;
+    }
+
+    /**
+     * A run of data points as a batch of its own
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param dataPoints  - data points as a batch
+     * @param firstRecord - index of first data point
+     * @param recordCount - number of data points
+     * @return batch
+     */
+    static DataPointBatch subBatch(DataPointBatch dataPoints, int firstRecord, int recordCount) {
+        DataPointBatch subBatch = new DataPointBatch(recordCount);
+        for (int i = firstRecord; i < firstRecord + recordCount; i++) subBatch.add(dataPoints.getTimestamp(i), dataPoints.getValue(i));
+        return subBatch;
+    }
+
+    /**
+     * Operations retrieving the size and start time of the current block
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @return operations
+     */
+    static Operation[] opsForCurrentBlockState() {
+        return new Operation[]{
+                MapOperation.size(Constants.TIME_SERIES_BIN_NAME),
+                MapOperation.getByKey(Constants.METADATA_BIN_NAME, new Value.StringValue(Constants.START_TIME_FIELD_NAME), MapReturnType.VALUE)
+        };
+    }
+
+    /**
+     * Number of points that can be added to the current block before it is full
+     * If the block is already full, as can happen while the background archiver catches up, a full block's worth is allowed
+     *
+     * @param existingRecordCount - no of points in the current block
+     * @return room in current block
+     */
+    int roomInCurrentBlock(int existingRecordCount) {
+        return existingRecordCount < maxBlockEntryCount ? maxBlockEntryCount - existingRecordCount : maxBlockEntryCount;
+    }
+
+    /**
+     * The data points preceding the start of the current block
+     *
+     * @param dataPoints        - data points as a batch
+     * @param currentBlockState - current block state, as returned by opsForCurrentBlockState. May be null
+     * @return late data points
+     */
+    static DataPointBatch latePoints(DataPointBatch dataPoints, Record currentBlockState) {
+        return filterByCurrentBlockStartTime(dataPoints, currentBlockState, true);
+    }
+
+    /**
+     * The data points not preceding the start of the current block
+     *
+     * @param dataPoints        - data points as a batch
+     * @param currentBlockState - current block state, as returned by opsForCurrentBlockState. May be null
+     * @return on time data points
+     */
+    static DataPointBatch onTimePoints(DataPointBatch dataPoints, Record currentBlockState) {
+        return filterByCurrentBlockStartTime(dataPoints, currentBlockState, false);
+    }
+
+    private static DataPointBatch filterByCurrentBlockStartTime(DataPointBatch dataPoints, Record currentBlockState, boolean late) {
+        Object startTime = currentBlockState == null ? null : currentBlockState.getValue(Constants.METADATA_BIN_NAME);
+        // No current block means no late points
+        if (startTime == null) return late ? new DataPointBatch(0) : dataPoints;
+        DataPointBatch filtered = new DataPointBatch(late ? 0 : dataPoints.getLength());
+        for (int i = 0; i < dataPoints.getLength(); i++)
+            if ((dataPoints.getTimestamp(i) < (Long) startTime) == late) filtered.add(dataPoints.getTimestamp(i), dataPoints.getValue(i));
+        return filtered;
+    }
+
+    /**
+     * Data points ordered so that points in the same bucket are adjacent
+     * Points within a bucket keep their original order, so later duplicates still win
+     *
+     * @param dataPoints - data points as a batch
+     * @return data points ordered by bucket - the batch itself if already so ordered, as is the case for time ordered points
+     */
+    DataPointBatch bucketOrderedDataPoints(DataPointBatch dataPoints) {
+        boolean bucketOrdered = true;
+        for (int i = 1; i < dataPoints.getLength() && bucketOrdered; i++)
+            bucketOrdered = bucketStartTime(dataPoints.getTimestamp(i - 1)) <= bucketStartTime(dataPoints.getTimestamp(i));
+        if (bucketOrdered) return dataPoints;
+        // Stable sort of the point indexes by bucket
+        Integer[] order = new Integer[dataPoints.getLength()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> bucketStartTime(dataPoints.getTimestamp(i))));
+        DataPointBatch bucketOrderedDataPoints = new DataPointBatch(order.length);
+        for (int i : order) bucketOrderedDataPoints.add(dataPoints.getTimestamp(i), dataPoints.getValue(i));
+        return bucketOrderedDataPoints;
+    }
+
+    /**
+     * Operations needed to insert a run of data points into the current block for a time series
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName        - time series name
+     * @param dataPoints            - data points as a batch
+     * @param firstRecord           - index of first data point to insert
+     * @param numberOfRecordsToLoad - number of data points to insert
+     * @return the operations required to insert the data points and the block metadata
+     */
+    Operation[] opsForBatchPut(String timeSeriesName, DataPointBatch dataPoints, int firstRecord, int numberOfRecordsToLoad) {
+        // Insert metadata - may not be needed, but will be ignored if it already exists
+        // The points need not be in time order, so the block starts at the earliest of them
+        Operation[] metadataOps = opsForMetadataCreation(timeSeriesName, earliestTimestamp(dataPoints, firstRecord, numberOfRecordsToLoad),
+                maxBlockEntryCount);
+        // Operations allowing us to tell if the block is now full
+        Operation[] rolloverCheckOps = opsForRolloverCheck();
+        Map<Value, Value> items = timeSeriesItems(dataPoints, firstRecord, numberOfRecordsToLoad);
+        // Running statistics operations - these need the metadata to exist, and must see the block as it was before the points are written
+        Operation[] runningStatisticsOps = opsForRunningStatistics(items);
+        int putIndex = metadataOps.length + runningStatisticsOps.length;
+        Operation[] ops;
+        if (usePutItemsForBatchPut) {
+            // All the data points go in a single operation - much cheaper to encode and apply than an operation per point
+            ops = new Operation[putIndex + 1 + rolloverCheckOps.length];
+            ops[putIndex] = MapOperation.putItems(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME, items);
+        } else {
+            // One operation per data point
+            ops = new Operation[putIndex + numberOfRecordsToLoad + rolloverCheckOps.length];
+            for (int i = firstRecord; i < firstRecord + numberOfRecordsToLoad; i++)
+                ops[putIndex + i - firstRecord] = MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_BIN_NAME,
+                        Value.get(dataPoints.getTimestamp(i)), Value.get(dataPoints.getValue(i)));
+        }
+        // Metadata and running statistics first, then the points, then the rollover check
+        System.arraycopy(metadataOps, 0, ops, 0, metadataOps.length);
+        System.arraycopy(runningStatisticsOps, 0, ops, metadataOps.length, runningStatisticsOps.length);
+        System.arraycopy(rolloverCheckOps, 0, ops, ops.length - rolloverCheckOps.length, rolloverCheckOps.length);
+        return ops;
+    }
+
+    /**
+     * Retrieve a specific data point for a named time series
+     *
+     * @param timeSeriesName name of relevant series
+     * @param dateTime       timestamp for point we want
+     * @return data point if found
+     */
+    public DataPoint getPoint(String timeSeriesName, Date dateTime) {
+        DataPoint[] dataPointArray = getPoints(timeSeriesName, dateTime, dateTime);
+        if (dataPointArray.length == 1) {
+            return dataPointArray[0];
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Retrieve the latest data point for a named time series
+     *
+     * @param timeSeriesName name of relevant series
+     * @return latest data point - null if the series has no points
+     */
+    public DataPoint getLatest(String timeSeriesName) {
+        DataPoint[] dataPoints = getLastN(timeSeriesName, 1);
+        return dataPoints.length == 1 ? dataPoints[0] : null;
+    }
+
+    /**
+     * Retrieve the latest n data points for a named time series
+     * <p>
+     * Only the latest points of the current block of each stripe are read, using a map index range operation, in the
+     * same batch read as the stripe indexes. Historic blocks are only read if the current blocks hold too few points.
+     * If the tail cache is in use, the points are served from it when held - see setTailCache
+     *
+     * @param timeSeriesName name of relevant series
+     * @param n              number of points required
+     * @return up to n latest data points, in timestamp order - fewer if the series has fewer
+     */
+    public DataPoint[] getLastN(String timeSeriesName, int n) {
+        TailRead tailRead = tailRead(timeSeriesName, n);
+        for (BlockCacheRead read = tailRead.nextRead(); read != null; read = tailRead.nextRead()) {
+            getAll(read.getReads());
+            complete(read);
+        }
+        return tailRead.getResult();
+    }
+
+    /**
+     * The latest points of a set of points
+     * Package level visibility as the tail cache shares this
+     *
+     * @param points points keyed by timestamp
+     * @param n      number of points required
+     * @return up to n latest points, in timestamp order
+     */
+    static DataPoint[] lastPoints(NavigableMap<Long, Double> points, int n) {
+        DataPoint[] dataPoints = new DataPoint[Math.min(n, points.size())];
+        int i = dataPoints.length;
+        for (Map.Entry<Long, Double> point : points.descendingMap().entrySet()) {
+            if (i == 0) break;
+            dataPoints[--i] = new DataPoint(point.getKey(), point.getValue());
+        }
+        return dataPoints;
+    }
+
+    /**
+     * Retrieve all time series points between two given date / times (inclusive)
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return array of DataPoint objects
+     */
+    public DataPoint[] getPoints(String timeSeriesName, Date fromDateTime, Date toDateTime) {
+        return getPoints(timeSeriesName, fromDateTime.getTime(), toDateTime.getTime());
+    }
+
+    /**
+     * Retrieve all time series points between two given times (inclusive) into a batch
+     * <p>
+     * As per getPoints(String, Date, Date), but the batch is cleared and filled rather than an array of DataPoint
+     * objects returned, so a re-used batch can be read into without creating an object per point
+     *
+     * @param timeSeriesName - name of time series
+     * @param startTime      - start time for required range, as a long
+     * @param endTime        - end time for required range, as a long
+     * @param dataPoints     - batch to receive the data points, in timestamp order
+     * @return the batch passed in
+     */
+    public DataPointBatch getPoints(String timeSeriesName, long startTime, long endTime, DataPointBatch dataPoints) {
+        return pointsFromBlocks(getBlocks(timeSeriesName, startTime, endTime), startTime, endTime, dataPoints);
+    }
+
+    /**
+     * Retrieve all time series points between two given date / times (inclusive) for each of a number of time series
+     * <p>
+     * The indexes of all the series are read with one batch read, then all the blocks required with another, so the
+     * number of round trips does not grow with the number of series - beyond splitting very large batches, see
+     * Constants.MAX_RECORDS_PER_BATCH_READ
+     *
+     * @param timeSeriesNames - names of time series
+     * @param fromDateTime    - start time for required range
+     * @param toDateTime      - end time for required range
+     * @return data points for each series, in timestamp order, keyed by series name in the order given
+     */
+    public Map<String, DataPoint[]> getPoints(Collection<String> timeSeriesNames, Date fromDateTime, Date toDateTime) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        List<String> seriesNames = new ArrayList<>(new LinkedHashSet<>(timeSeriesNames));
+        List<BatchRead> stripeIndexReads = null;
+        if (!isBucketed() && endTime >= startTime) {
+            stripeIndexReads = stripeIndexReads(seriesNames);
+            getAll(stripeIndexReads);
+        }
+        List<List<BatchRead>> blockReadsBySeries = new ArrayList<>();
+        List<BatchRead> blockReads = new ArrayList<>();
+        for (List<Key[]> blockRuns : blockRunsBySeries(seriesNames, stripeIndexReads, startTime, endTime)) {
+            blockReadsBySeries.add(blockReads(blockRuns, startTime, endTime));
+            blockReads.addAll(blockReadsBySeries.get(blockReadsBySeries.size() - 1));
+        }
+        BlockCacheRead blockCacheRead = blockCacheRead(seriesNames, blockReads);
+        getAll(blockCacheRead.getReads());
+        complete(blockCacheRead);
+        Map<String, DataPoint[]> dataPointsBySeries = new LinkedHashMap<>();
+        for (int i = 0; i < seriesNames.size(); i++)
+            dataPointsBySeries.put(seriesNames.get(i), dataPointsFromBlocks(records(blockReadsBySeries.get(i)), startTime, endTime));
+        return dataPointsBySeries;
+    }
+
+    /**
+     * Batch read, splitting the reads into batches of at most Constants.MAX_RECORDS_PER_BATCH_READ
+     *
+     * @param batchReads - batch reads
+     */
+    private void getAll(List<BatchRead> batchReads) {
+        for (List<BatchRead> batch : batches(batchReads)) asClient.get(new BatchPolicy(readPolicy), batch);
+    }
+
+    /**
+     * Split batch reads into batches of at most Constants.MAX_RECORDS_PER_BATCH_READ
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param batchReads - batch reads
+     * @return batches, as views of the list passed in - empty if there are no reads
+     */
+    static List<List<BatchRead>> batches(List<BatchRead> batchReads) {
+        List<List<BatchRead>> batches = new ArrayList<>();
+        for (int i = 0; i < batchReads.size(); i += Constants.MAX_RECORDS_PER_BATCH_READ)
+            batches.add(batchReads.subList(i, Math.min(batchReads.size(), i + Constants.MAX_RECORDS_PER_BATCH_READ)));
+        return batches;
+    }
+
+    /**
+     * Stream all time series points between two given date / times (inclusive)
+     * <p>
+     * As per getPoints, but rather than reading every block in the range at once, blocks are read in index order a few
+     * at a time as the stream is consumed, with the next read started while the points from the previous one are
+     * consumed - see setStreamBlocksPerFetch. Memory used is bounded by a handful of blocks, so arbitrarily long ranges
+     * can be processed. Nothing is read until the stream is consumed
+     * <p>
+     * Points written while the stream is being consumed may or may not be included
+     *
+     * @param timeSeriesName - name of time series
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return sequential stream of data points, in timestamp order
+     */
+    public Stream<DataPoint> stream(String timeSeriesName, Date fromDateTime, Date toDateTime) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        return StreamSupport.stream(() -> Spliterators.spliteratorUnknownSize(dataPointIterator(timeSeriesName, startTime, endTime),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL, false);
+    }
+
+    /**
+     * Iterator over the points in a range, reading blocks as required - see stream
+     *
+     * @param timeSeriesName name of time series
+     * @param startTime      start time of required range
+     * @param endTime        end time of required range
+     * @return iterator returning points in timestamp order
+     */
+    private Iterator<DataPoint> dataPointIterator(String timeSeriesName, long startTime, long endTime) {
+        if (endTime < startTime) return Collections.emptyIterator();
+        BatchPolicy batchPolicy = new BatchPolicy(readPolicy);
+        // In the bucketed layout, a bucket's blocks across all stripes cover the same range, so are read together
+        if (isBucketed()) {
+            String[] stripeNames = stripeNames(timeSeriesName);
+            long[] bucketStartTimes = bucketStartTimesForRange(startTime, endTime);
+            List<BatchRead[]> blockGroups = new ArrayList<>();
+            for (int i = 0; i < bucketStartTimes.length; i++) {
+                Key[] keys = keysForBuckets(stripeNames, new long[]{bucketStartTimes[i]});
+                BatchRead[] blockGroup = new BatchRead[keys.length];
+                for (int j = 0; j < keys.length; j++)
+                    blockGroup[j] = blockRead(keys[j], i == 0 || i == bucketStartTimes.length - 1, startTime, endTime);
+                blockGroups.add(blockGroup);
+            }
+            return new DataPointIterator(asClient, batchPolicy, blockGroups, startTime, endTime, streamBlocksPerFetch);
+        }
+        // Otherwise stripes have blocks with independent ranges, so each stripe is iterated over separately and the results merged
+        if (isStriped()) {
+            String[] stripeNames = stripeNames(timeSeriesName);
+            List<BatchRead> stripeIndexReads = stripeIndexReads(timeSeriesName);
+            asClient.get(batchPolicy, stripeIndexReads);
+            List<DataPointIterator> stripeIterators = new ArrayList<>();
+            for (int i = 0; i < stripeNames.length; i++) {
+                Key[] keys = keysForBlockStartTimes(stripeNames[i], blockStartTimesForRange(stripeIndexReads.get(i).record, startTime, endTime));
+                stripeIterators.add(new DataPointIterator(asClient, batchPolicy, singleBlockGroups(blockReads(keys, startTime, endTime)),
+                        startTime, endTime, streamBlocksPerFetch));
+            }
+            return DataPointIterator.merge(stripeIterators);
+        }
+        Key[] keys = keysForBlockStartTimes(timeSeriesName, getTimestampsForTimeSeries(timeSeriesName, startTime, endTime));
+        return new DataPointIterator(asClient, batchPolicy, singleBlockGroups(blockReads(keys, startTime, endTime)),
+                startTime, endTime, streamBlocksPerFetch);
+    }
+
+    /**
+     * Retrieve the rollups of a time series between two given date / times (inclusive), for one of the rollup tiers
+     * <p>
+     * The stored buckets of each stripe are read with a single batch read, along with the points in the current block,
+     * which have not yet been rolled up, and are rolled up on the fly. Buckets overlapping the range are returned whole,
+     * so may cover points outside it. See setRollupWidths
+     *
+     * @param timeSeriesName - name of time series
+     * @param rollupWidth    - bucket width of the rollup tier, as passed to setRollupWidths
+     * @param fromDateTime   - start time for required range
+     * @param toDateTime     - end time for required range
+     * @return rollups in time order, omitting buckets with no points
+     */
+    public Rollup[] getRollups(String timeSeriesName, long rollupWidth, Date fromDateTime, Date toDateTime) {
+        RollupTiers tiers = rollupTiersForQuery();
+        int tier = tiers.tier(rollupWidth);
+        String[] stripeNames = stripeNames(timeSeriesName);
+        List<BatchRead> queryReads = tiers.queryReads(stripeNames, tier, fromDateTime.getTime(), toDateTime.getTime());
+        asClient.get(new BatchPolicy(readPolicy), queryReads);
+        return tiers.queryResult(stripeNames, tier, fromDateTime.getTime(), toDateTime.getTime(), queryReads);
+    }
+
+    /**
+     * Rollup tiers, checking that rollups can be queried
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @return rollup tiers
+     */
+    RollupTiers rollupTiersForQuery() {
+        RollupTiers tiers = rollupTiers;
+        if (tiers == null) throw new IllegalStateException("No rollup tiers are configured - see setRollupWidths");
+        if (isBucketed()) throw new IllegalStateException("Rollups are not supported by the bucketed layout");
+        return tiers;
+    }
+
+    /**
+     * Rollup tiers maintained as blocks are archived - see setRollupWidths
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @return rollup tiers, or null if there are none
+     */
+    RollupTiers getRollupTiers() {
+        return rollupTiers;
+    }
+
+    private static List<BatchRead[]> singleBlockGroups(List<BatchRead> blockReads) {
+        List<BatchRead[]> blockGroups = new ArrayList<>(blockReads.size());
+        for (BatchRead blockRead : blockReads) blockGroups.add(new BatchRead[]{blockRead});
+        return blockGroups;
+    }
+
+    /**
+     * Aerospike Key for a given time series name
+     * Package level visibility to allow testing
+     *
+     * @param timeSeriesName name of time series
+     * @return Aerospike Key for current block for this time series
+     */
+    public Key asCurrentKeyForTimeSeries(String timeSeriesName) {
+        return new Key(asNamespace, timeSeriesSet, timeSeriesName);
+    }
+
+    /**
+     * Aerospike Key for a given block for a given time series
+     *
+     * @param timeSeriesName         - name of time series
+     * @param startTimestampForBlock - start timestamp for block
+     * @return Aerospike Key for required block
+     */
+    public Key asKeyForHistoricTimeSeriesBlock(String timeSeriesName, long startTimestampForBlock) {
+        String historicBlockKey = String.format("%s-%d", timeSeriesName, startTimestampForBlock);
+        return new Key(asNamespace, timeSeriesSet, historicBlockKey);
+    }
+
+    /**
+     * Aerospike Index Key name for a given time series name
+     *
+     * @param timeSeriesName - time series in question
+     * @return - Aerospike Key to index block for that time series
+     */
+    public Key asKeyForTimeSeriesIndexes(String timeSeriesName) {
+        return new Key(asNamespace, timeSeriesIndexSetName(), timeSeriesName);
+    }
+
+    /**
+     * Aerospike Key for the rollup record holding a given bucket start time, for a given time series and rollup tier
+     *
+     * @param timeSeriesName  - name of time series
+     * @param rollupWidth     - bucket width of the rollup tier
+     * @param recordStartTime - start time of the rollup record
+     * @return Aerospike Key for required rollup record
+     */
+    public Key asKeyForRollup(String timeSeriesName, long rollupWidth, long recordStartTime) {
+        String rollupKey = String.format("%s-%d", timeSeriesName, recordStartTime);
+        return new Key(asNamespace, rollupSetName(rollupWidth), rollupKey);
+    }
+
+    /**
+     * Each time series will have a number of Aerospike records associated with it
+     * We keep a record of these to make data retrieval efficient
+     *
+     * @param timeSeriesName - name of time series we are updating index for
+     * @param blockRecord    - the block we're adding to the index
+     */
+    private void addTimeSeriesIndexRecord(String timeSeriesName, Record blockRecord) {
+        asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), opsForTimeSeriesIndexRecord(timeSeriesName, blockRecord));
+    }
+
+    /**
+     * Operations needed to add a block to the index for a time series
+     * As well as the end time and entry count, the entry holds summary statistics for the block - see BlockSummary. These
+     * are taken from the block's running statistics when those describe exactly the points being archived
+     *
+     * @param timeSeriesName - name of time series we are updating index for
+     * @param blockRecord    - the block we're adding to the index
+     * @return operations to apply to the index record
+     */
+    Operation[] opsForTimeSeriesIndexRecord(String timeSeriesName, Record blockRecord) {
+        @SuppressWarnings("unchecked")
+        Map<Long, Double> timeSeries = (Map<Long, Double>) blockRecord.getMap(Constants.TIME_SERIES_BIN_NAME);
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(Constants.END_TIME_FIELD_NAME, blockEndTime(blockRecord));
+        metadata.put(Constants.ENTRY_COUNT_FIELD_NAME, (long) timeSeries.size());
+        BlockSummary.putSummaryFields(metadata, timeSeries, blockRecord.getMap(Constants.METADATA_BIN_NAME));
+        // Rely on automatic map creation - don't need to explicitly create a map - put will do that for you
+        return new Operation[]{
+                Operation.put(new Bin(Constants.TIME_SERIES_NAME_FIELD_NAME, new Value.StringValue(seriesNameForMetadata(timeSeriesName)))),
+                // Inserts data point
+                MapOperation.put(insertMapPolicy, Constants.TIME_SERIES_INDEX_BIN_NAME,
+                        new Value.LongValue(blockStartTime(blockRecord)), new Value.MapValue(metadata))
+        };
+    }
+
+    /**
+     * Internal method to calculate the start times of the blocks we need to retrieve for time range represented by
+     * timestamps startTime and endTime
+     *
+     * @param timeSeriesName - name of time series we are getting block start times for
+     * @param startTime      - start time of range we're interested in
+     * @param endTime        - end time of range we're interested in
+     * @return long[] containing the timestamps
+     */
+    public long[] getTimestampsForTimeSeries(String timeSeriesName, long startTime, long endTime) {
+        if (endTime >= startTime) {
+            Record indexListRecord = asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), opForBlockStartTimes());
+            return blockStartTimesForRange(indexListRecord, startTime, endTime);
+        } else
+            return new long[0];
+    }
+
+    /**
+     * Operation retrieving the start times of all the blocks in a time series index record
+     *
+     * @return Operation
+     */
+    static Operation opForBlockStartTimes() {
+        return MapOperation.getByKeyRange(
+                Constants.TIME_SERIES_INDEX_BIN_NAME,
+                null,
+                null,
+                MapReturnType.KEY
+        );
+    }
+
+    /**
+     * Given the result of opForBlockStartTimes, select the start times of the blocks needed to cover startTime to endTime
+     *
+     * @param indexListRecord - index record containing block start times - may be null
+     * @param startTime       - start time of range we're interested in
+     * @param endTime         - end time of range we're interested in
+     * @return long[] containing the timestamps
+     */
+    /*
+        Algorithm is, to find first block, go forward until we find the first start time after startTime then go back one
+        and for endTime, go back until we find the first start time that is after the end time
+
+        Doesn't work if endTime / startTime are inverted so require specific logic for that
+     */
+    static long[] blockStartTimesForRange(Record indexListRecord, long startTime, long endTime) {
+        @SuppressWarnings("unchecked")  // Can assume below casting works
+        List<Long> timestampList = indexListRecord == null ? null : (List<Long>) indexListRecord.getList(Constants.TIME_SERIES_INDEX_BIN_NAME);
+        return blockStartTimesForRange(timestampList, startTime, endTime);
+    }
+
+    /**
+     * As per blockStartTimesForRange(Record, long, long), given the start times of all blocks
+     *
+     * @param timestampList - start times of all blocks, in ascending order - null if there is no index record
+     * @param startTime     - start time of range we're interested in
+     * @param endTime       - end time of range we're interested in
+     * @return long[] containing the timestamps
+     */
+    private static long[] blockStartTimesForRange(List<Long> timestampList, long startTime, long endTime) {
+        if (endTime >= startTime) {
+            if (timestampList != null) {
+                int indexOfFirstTimestamp = 0;
+                int indexOfLastTimestamp = timestampList.size() - 1;
+                while ((indexOfFirstTimestamp <= timestampList.size() - 2) && (timestampList.get(indexOfFirstTimestamp) < startTime))
+                    indexOfFirstTimestamp++;
+                if (timestampList.get(indexOfFirstTimestamp) > startTime)
+                    indexOfFirstTimestamp = Math.max(0, indexOfFirstTimestamp - 1);
+                while (indexOfLastTimestamp >= 0 && timestampList.get(indexOfLastTimestamp) > endTime) indexOfLastTimestamp--;
+                // Range precedes all blocks. As no block holds points earlier than its start time, and the current block starts after
+                // every historic block - see putLatePoints - there is nothing to retrieve
+                if (indexOfLastTimestamp < 0) return new long[0];
+                // If we are bringing back the most recent block available we might need the current block - need a special way of indicating this
+                int extraTimestampSlot = indexOfLastTimestamp == timestampList.size() - 1 ? 1 : 0;
+                long[] timestamps = new long[indexOfLastTimestamp - indexOfFirstTimestamp + 1 + extraTimestampSlot];
+                for (int i = 0; i < timestamps.length - extraTimestampSlot; i++) {
+                    timestamps[i] = timestampList.get(i + indexOfFirstTimestamp);
+                }
+                if (extraTimestampSlot == 1) timestamps[timestamps.length - 1] = CURRENT_RECORD_TIMESTAMP;
+                return timestamps;
+            }
+            // If there's no index records, could be in the current block
+            else
+                return new long[]{CURRENT_RECORD_TIMESTAMP};
+        } else
+            return new long[0];
+    }
+
+    /**
+     * Operation retrieving all the entries in a time series index record - block start times with their metadata
+     *
+     * @return Operation
+     */
+    static Operation opForIndexEntries() {
+        return MapOperation.getByKeyRange(Constants.TIME_SERIES_INDEX_BIN_NAME, null, null, MapReturnType.KEY_VALUE);
+    }
+
+    /**
+     * Given the result of opForIndexEntries, the index entries keyed by block start time
+     *
+     * @param indexRecord - index record - may be null
+     * @return index entries in block start time order, or null if there is no index record
+     */
+    static TreeMap<Long, Map<?, ?>> indexEntries(Record indexRecord) {
+        Object entries = indexRecord == null ? null : indexRecord.getValue(Constants.TIME_SERIES_INDEX_BIN_NAME);
+        if (entries == null) return null;
+        TreeMap<Long, Map<?, ?>> indexEntries = new TreeMap<>();
+        // Returned as a map or as a list of entries, depending on the server
+        Iterable<?> entryList = entries instanceof Map ? ((Map<?, ?>) entries).entrySet() : (List<?>) entries;
+        for (Object entry : entryList) indexEntries.put((Long) ((Map.Entry<?, ?>) entry).getKey(), (Map<?, ?>) ((Map.Entry<?, ?>) entry).getValue());
+        return indexEntries;
+    }
+
+    /**
+     * Batch reads retrieving all the index entries for each stripe of a time series - just the series itself if
+     * striping is not in use
+     *
+     * @param timeSeriesName time series name
+     * @return batch reads, one per stripe, in stripe order
+     */
+    List<BatchRead> indexEntryReads(String timeSeriesName) {
+        List<BatchRead> indexEntryReads = new ArrayList<>();
+        for (String stripeName : stripeNames(timeSeriesName))
+            indexEntryReads.add(new BatchRead(asKeyForTimeSeriesIndexes(stripeName), new Operation[]{opForIndexEntries()}));
+        return indexEntryReads;
+    }
+
+    /**
+     * Plan a query in the index based layout, using the summary statistics held in index entries for blocks lying
+     * wholly within the range, and the running statistics of the current block - see QueryPlan
+     *
+     * @param timeSeriesName  time series name
+     * @param indexEntryReads completed batch reads, as per indexEntryReads
+     * @param startTime       start time as long
+     * @param endTime         end time as long
+     * @param operation       query operation
+     * @return query plan
+     */
+    QueryPlan queryPlanForIndexEntryReads(String timeSeriesName, List<BatchRead> indexEntryReads, long startTime, long endTime, QueryOperation operation) {
+        return queryPlanForIndexEntryReads(timeSeriesName, indexEntryReads, startTime, endTime, operation, 0);
+    }
+
+    /**
+     * As per queryPlanForIndexEntryReads, for a query computing one result per time bucket if bucketWidth is non zero
+     * The running statistics of the current block are then not used, as the block may span buckets
+     *
+     * @param timeSeriesName  time series name
+     * @param indexEntryReads completed batch reads, as per indexEntryReads
+     * @param startTime       start time as long
+     * @param endTime         end time as long
+     * @param operation       query operation
+     * @param bucketWidth     width of the time buckets in milliseconds, or zero for a single result
+     * @return query plan
+     */
+    QueryPlan queryPlanForIndexEntryReads(String timeSeriesName, List<BatchRead> indexEntryReads, long startTime, long endTime, QueryOperation operation,
+                                          long bucketWidth) {
+        String[] stripeNames = stripeNames(timeSeriesName);
+        List<Key[]> blockRuns = new ArrayList<>();
+        List<BlockSummary[]> summaryRuns = new ArrayList<>();
+        Long[] latestArchivedEndTimes = new Long[stripeNames.length];
+        for (int i = 0; i < stripeNames.length; i++) {
+            TreeMap<Long, Map<?, ?>> indexEntries = indexEntries(indexEntryReads.get(i).record);
+            long[] blockStartTimes = blockStartTimesForRange(indexEntries == null ? null : new ArrayList<>(indexEntries.keySet()), startTime, endTime);
+            if (blockStartTimes.length > 0 && blockStartTimes[blockStartTimes.length - 1] == CURRENT_RECORD_TIMESTAMP)
+                latestArchivedEndTimes[i] = indexEntries == null ? Long.MIN_VALUE
+                        : ((Number) indexEntries.lastEntry().getValue().get(Constants.END_TIME_FIELD_NAME)).longValue();
+            BlockSummary[] summaries = new BlockSummary[blockStartTimes.length];
+            for (int j = 0; j < blockStartTimes.length; j++) {
+                // The current block has no index entry
+                if (indexEntries != null && blockStartTimes[j] != CURRENT_RECORD_TIMESTAMP)
+                    summaries[j] = BlockSummary.fromIndexEntry(blockStartTimes[j], indexEntries.get(blockStartTimes[j]));
+            }
+            blockRuns.add(keysForBlockStartTimes(stripeNames[i], blockStartTimes));
+            summaryRuns.add(summaries);
+        }
+        if (bucketWidth > 0) return new QueryPlan(blockRuns, summaryRuns, true, startTime, endTime, operation, bucketWidth);
+        return new QueryPlan(blockRuns, summaryRuns, latestArchivedEndTimes, startTime, endTime, operation);
+    }
+
+    /**
+     * Get the Aerospike Keys we need for the data for timeSeriesName between startTime and endTime
+     * where this represents milliseconds since the epoch
+     * Keys are grouped into runs, one per stripe, with the keys in each run in time order
+     *
+     * @param timeSeriesName time series name
+     * @param startTime      start time as long
+     * @param endTime        end time as long
+     * @return runs of Aerospike Keys
+     */
+    private List<Key[]> getBlockRunsForQuery(String timeSeriesName, long startTime, long endTime) {
+        // In the bucketed layout, keys can be calculated directly
+        if (isBucketed()) return blockRunsForBuckets(stripeNames(timeSeriesName), bucketStartTimesForRange(startTime, endTime));
+        if (isStriped()) {
+            if (endTime < startTime) return new ArrayList<>();
+            // Read all the stripe indexes at once
+            List<BatchRead> stripeIndexReads = stripeIndexReads(timeSeriesName);
+            asClient.get(new BatchPolicy(readPolicy), stripeIndexReads);
+            cacheBlockDirectories(timeSeriesName, stripeIndexReads);
+            return blockRunsForStripeIndexReads(timeSeriesName, stripeIndexReads, startTime, endTime);
+        }
+        if (endTime < startTime) return Collections.singletonList(new Key[0]);
+        Record indexListRecord = asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), opForBlockStartTimes());
+        cacheBlockDirectory(timeSeriesName, indexListRecord);
+        return Collections.singletonList(keysForBlockStartTimes(timeSeriesName, blockStartTimesForRange(indexListRecord, startTime, endTime)));
+    }
+
+    /**
+     * Cache the block directory of each stripe of a time series, if the block directory cache is in use
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesName   time series name
+     * @param stripeIndexReads completed batch reads, as per stripeIndexReads
+     */
+    void cacheBlockDirectories(String timeSeriesName, List<BatchRead> stripeIndexReads) {
+        String[] stripeNames = stripeNames(timeSeriesName);
+        for (int i = 0; i < stripeNames.length; i++) cacheBlockDirectory(stripeNames[i], stripeIndexReads.get(i).record);
+    }
+
+    /**
+     * Batch reads for runs of blocks - see blockReads(Key[], long, long)
+     *
+     * @param blockRuns runs of block keys, each in time order
+     * @param startTime start time as long
+     * @param endTime   end time as long
+     * @return batch reads, one per key
+     */
+    static List<BatchRead> blockReads(List<Key[]> blockRuns, long startTime, long endTime) {
+        List<BatchRead> blockReads = new ArrayList<>();
+        for (Key[] blockRun : blockRuns) blockReads.addAll(blockReads(blockRun, startTime, endTime));
+        return blockReads;
+    }
+
+    /**
+     * Batch reads for a run of blocks, in time order, covering the range startTime to endTime
+     * <p>
+     * Blocks in the middle of the run lie wholly within the range, so are read whole. The first and last blocks may
+     * extend beyond the range, so their map bin is trimmed to the range on the server, and only points in range are
+     * returned. Encoded bins are blobs, so are returned whole and trimmed on decode
+     *
+     * @param keys      block keys, in time order
+     * @param startTime start time as long
+     * @param endTime   end time as long
+     * @return batch reads, one per key
+     */
+    static List<BatchRead> blockReads(Key[] keys, long startTime, long endTime) {
+        List<BatchRead> blockReads = new ArrayList<>(keys.length);
+        for (int i = 0; i < keys.length; i++)
+            blockReads.add(blockRead(keys[i], i == 0 || i == keys.length - 1, startTime, endTime));
+        return blockReads;
+    }
+
+    /**
+     * Batch read for a single block - see blockReads
+     *
+     * @param key         block key
+     * @param trimToRange whether the map bin should be trimmed to the range on the server
+     * @param startTime   start time as long
+     * @param endTime     end time as long
+     * @return batch read
+     */
+    static BatchRead blockRead(Key key, boolean trimToRange, long startTime, long endTime) {
+        if (!trimToRange) return new BatchRead(key, BLOCK_DATA_BIN_NAMES);
+        // Key range end is exclusive. A null end means no upper limit
+        Value rangeEnd = endTime == Long.MAX_VALUE ? null : Value.get(endTime + 1);
+        return new BatchRead(key, new Operation[]{
+                MapOperation.getByKeyRange(Constants.TIME_SERIES_BIN_NAME, Value.get(startTime), rangeEnd, MapReturnType.KEY_VALUE),
+                Operation.get(Constants.COMPRESSED_TIME_SERIES_BIN_NAME),
+                Operation.get(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME),
+                Operation.get(Constants.COLUMNAR_VALUES_BIN_NAME)
+        });
+    }
+
+    /**
+     * Query read of the current block of a series, using its running statistics in place of its points where possible -
+     * see opsForRunningStatistics
+     * <p>
+     * The metadata is always returned. The points in the range are returned under CURRENT_BLOCK_RANGE_POINTS_NAME unless
+     * the running statistics needed by the query operation are present, and the block lies wholly within the range,
+     * and the block starts after the most recent historic block ends. The latter rules out points held in both the
+     * current block and the most recent historic block, as may briefly be the case when a block is archived, which
+     * would otherwise be counted twice
+     *
+     * @param key                   - current block key
+     * @param latestArchivedEndTime - end time of the most recent historic block, Long.MIN_VALUE if there is none
+     * @param startTime             - start of required range
+     * @param endTime               - end of required range
+     * @param operation             - query operation
+     * @return batch read
+     */
+    static BatchRead currentBlockRead(Key key, long latestArchivedEndTime, long startTime, long endTime, QueryOperation operation) {
+        Exp timeSeriesBin = Exp.mapBin(Constants.TIME_SERIES_BIN_NAME);
+        Exp blockStartTime = metadataValue(Constants.START_TIME_FIELD_NAME);
+        Exp statisticsCoverRange = Exp.and(
+                hasMetadataField(runningStatisticFieldName(operation)),
+                Exp.ge(blockStartTime, Exp.val(startTime)),
+                Exp.gt(blockStartTime, Exp.val(latestArchivedEndTime)),
+                Exp.le(MapExp.getByIndex(MapReturnType.KEY, Exp.Type.INT, Exp.val(-1), timeSeriesBin), Exp.val(endTime)));
+        // Key range end is exclusive. A null end means no upper limit
+        Exp rangeEnd = endTime == Long.MAX_VALUE ? null : Exp.val(endTime + 1);
+        return new BatchRead(key, new Operation[]{
+                Operation.get(Constants.METADATA_BIN_NAME),
+                ExpOperation.read(CURRENT_BLOCK_RANGE_POINTS_NAME, Exp.build(Exp.cond(statisticsCoverRange, Exp.unknown(),
+                        MapExp.getByKeyRange(MapReturnType.KEY_VALUE, Exp.val(startTime), rangeEnd, timeSeriesBin))),
+                        ExpReadFlags.EVAL_NO_FAIL)
+        });
+    }
+
+    /**
+     * Running statistics field which must be present for the running statistics to be used for a query operation
+     * The minimum and maximum may be absent when the other statistics are present - see opsForCurrentBlockTrim
+     *
+     * @param operation - query operation
+     * @return metadata field name
+     */
+    static String runningStatisticFieldName(QueryOperation operation) {
+        switch (operation) {
+            case MIN:
+                return Constants.MIN_VALUE_FIELD_NAME;
+            case MAX:
+                return Constants.MAX_VALUE_FIELD_NAME;
+            default:
+                return Constants.SUM_FIELD_NAME;
+        }
+    }
+
+    /**
+     * The records retrieved by a set of completed batch reads
+     *
+     * @param batchReads completed batch reads
+     * @return records in batch read order. May contain nulls
+     */
+    static Record[] records(List<BatchRead> batchReads) {
+        Record[] records = new Record[batchReads.size()];
+        for (int i = 0; i < records.length; i++) records[i] = batchReads.get(i).record;
+        return records;
+    }
+
+    /**
+     * Batch reads retrieving the block start times from the index of each stripe of a time series
+     *
+     * @param timeSeriesName time series name
+     * @return batch reads, one per stripe, in stripe order
+     */
+    List<BatchRead> stripeIndexReads(String timeSeriesName) {
+        List<BatchRead> stripeIndexReads = new ArrayList<>();
+        for (String stripeName : stripeNames(timeSeriesName))
+            stripeIndexReads.add(new BatchRead(asKeyForTimeSeriesIndexes(stripeName), new Operation[]{opForBlockStartTimes()}));
+        return stripeIndexReads;
+    }
+
+    /**
+     * Get the Aerospike Keys we need, across all stripes, for the data between startTime and endTime
+     *
+     * @param timeSeriesName   time series name
+     * @param stripeIndexReads completed batch reads, as per stripeIndexReads
+     * @param startTime        start time as long
+     * @param endTime          end time as long
+     * @return runs of Aerospike Keys, one per stripe, each in time order
+     */
+    List<Key[]> blockRunsForStripeIndexReads(String timeSeriesName, List<BatchRead> stripeIndexReads, long startTime, long endTime) {
+        String[] stripeNames = stripeNames(timeSeriesName);
+        List<Key[]> blockRuns = new ArrayList<>();
+        for (int i = 0; i < stripeNames.length; i++)
+            blockRuns.add(keysForBlockStartTimes(stripeNames[i], blockStartTimesForRange(stripeIndexReads.get(i).record, startTime, endTime)));
+        return blockRuns;
+    }
+
+    /**
+     * Batch reads retrieving the block start times from the index of each stripe of each of a number of time series
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesNames time series names
+     * @return batch reads, as per stripeIndexReads for each series in turn
+     */
+    List<BatchRead> stripeIndexReads(List<String> timeSeriesNames) {
+        List<BatchRead> stripeIndexReads = new ArrayList<>();
+        for (String timeSeriesName : timeSeriesNames) stripeIndexReads.addAll(stripeIndexReads(timeSeriesName));
+        return stripeIndexReads;
+    }
+
+    /**
+     * Get the Aerospike Keys we need for the data between startTime and endTime, for each of a number of time series
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesNames  time series names
+     * @param stripeIndexReads completed batch reads, as per stripeIndexReads(List). Null in the bucketed layout, or if
+     *                         the range is empty
+     * @param startTime        start time as long
+     * @param endTime          end time as long
+     * @return runs of Aerospike Keys for each series, as per blockRunsForStripeIndexReads
+     */
+    List<List<Key[]>> blockRunsBySeries(List<String> timeSeriesNames, List<BatchRead> stripeIndexReads, long startTime, long endTime) {
+        List<List<Key[]>> blockRunsBySeries = new ArrayList<>();
+        for (int i = 0; i < timeSeriesNames.size(); i++) {
+            if (endTime < startTime) blockRunsBySeries.add(new ArrayList<>());
+            else if (isBucketed()) blockRunsBySeries.add(blockRunsForBuckets(stripeNames(timeSeriesNames.get(i)), bucketStartTimesForRange(startTime, endTime)));
+            else blockRunsBySeries.add(blockRunsForStripeIndexReads(timeSeriesNames.get(i),
+                        stripeIndexReads.subList(i * stripeCount, (i + 1) * stripeCount), startTime, endTime));
+        }
+        return blockRunsBySeries;
+    }
+
+    /**
+     * Get the Aerospike Keys for the buckets with the given start times, for each of the given stripes
+     *
+     * @param stripeNames      stripe names - just the time series name if striping is not in use
+     * @param bucketStartTimes bucket start times, in ascending order
+     * @return runs of Aerospike Keys, one per stripe, each in time order
+     */
+    List<Key[]> blockRunsForBuckets(String[] stripeNames, long[] bucketStartTimes) {
+        List<Key[]> blockRuns = new ArrayList<>();
+        for (String stripeName : stripeNames) blockRuns.add(keysForBuckets(new String[]{stripeName}, bucketStartTimes));
+        return blockRuns;
+    }
+
+    /**
+     * Get the Aerospike Keys for the buckets with the given start times, for each of the given stripes
+     *
+     * @param stripeNames      stripe names - just the time series name if striping is not in use
+     * @param bucketStartTimes bucket start times
+     * @return Aerospike Key[]
+     */
+    Key[] keysForBuckets(String[] stripeNames, long[] bucketStartTimes) {
+        Key[] keys = new Key[stripeNames.length * bucketStartTimes.length];
+        for (int stripe = 0; stripe < stripeNames.length; stripe++)
+            for (int i = 0; i < bucketStartTimes.length; i++)
+                keys[stripe * bucketStartTimes.length + i] = asKeyForHistoricTimeSeriesBlock(stripeNames[stripe], bucketStartTimes[i]);
+        return keys;
+    }
+
+    /**
+     * Get the Aerospike Keys for the blocks with the given start times
+     * CURRENT_RECORD_TIMESTAMP in the last position indicates the current block
+     *
+     * @param timeSeriesName      time series name
+     * @param startTimesForBlocks block start times, as per getTimestampsForTimeSeries
+     * @return Aerospike Key[]
+     */
+    Key[] keysForBlockStartTimes(String timeSeriesName, long[] startTimesForBlocks) {
+        Key[] keysForQuery = new Key[startTimesForBlocks.length];
+        for (int i = 0; i < startTimesForBlocks.length - 1; i++)
+            keysForQuery[i] = asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTimesForBlocks[i]);
+        if ((startTimesForBlocks.length > 0)) {
+            if (startTimesForBlocks[startTimesForBlocks.length - 1] == CURRENT_RECORD_TIMESTAMP) {
+                keysForQuery[startTimesForBlocks.length - 1] = asCurrentKeyForTimeSeries(timeSeriesName);
+            } else {
+                keysForQuery[startTimesForBlocks.length - 1] = asKeyForHistoricTimeSeriesBlock(timeSeriesName,
+                        startTimesForBlocks[startTimesForBlocks.length - 1]);
+            }
+        }
+        return keysForQuery;
+    }
+
+    /**
+     * Internal method - retrieve time series data points with start and end time expressed
+     * as unix epochs (seconds since 1st Jan 1970) multiplied by required resolution
+     * (10^Constants.TIMESTAMP_DECIMAL_PLACES_PER_SECOND)
+     *
+     * @param timeSeriesName name of time series we're retrieving points fpr
+     * @param startTime      start time of required range
+     * @param endTime        end time of required range
+     * @return DataPoint[]
+     */
+    private DataPoint[] getPoints(String timeSeriesName, long startTime, long endTime) {
+        return dataPointsFromBlocks(getBlocks(timeSeriesName, startTime, endTime), startTime, endTime);
+    }
+
+    /**
+     * Internal method - retrieve the blocks holding the data points between startTime and endTime
+     *
+     * @param timeSeriesName name of time series we're retrieving blocks for
+     * @param startTime      start time of required range
+     * @param endTime        end time of required range
+     * @return blocks as retrieved from the database. May contain nulls
+     */
+    private Record[] getBlocks(String timeSeriesName, long startTime, long endTime) {
+        CachedBlockRead cachedBlockRead = cachedBlockRead(timeSeriesName, startTime, endTime);
+        if (cachedBlockRead != null) {
+            asClient.get(new BatchPolicy(readPolicy), cachedBlockRead.getReads());
+            BlockCacheRead blockCacheRead = cachedBlockRead.result();
+            if (blockCacheRead != null) return complete(blockCacheRead);
+        }
+        BlockCacheRead blockCacheRead = blockCacheRead(Collections.singletonList(timeSeriesName),
+                blockReads(getBlockRunsForQuery(timeSeriesName, startTime, endTime), startTime, endTime));
+        asClient.get(new BatchPolicy(readPolicy), blockCacheRead.getReads());
+        return complete(blockCacheRead);
+    }
+
+    /**
+     * Merge the data points held in a set of blocks, restricting to those between startTime and endTime
+     * Duplicates (possible if a block copy has been interrupted) are removed
+     * Encoded blocks are decoded - points in the map bin of an encoded block take precedence
+     *
+     * @param timeSeriesBlocks blocks as retrieved from the database. May contain nulls
+     * @param startTime        start time of required range
+     * @param endTime          end time of required range
+     * @return DataPoint[] in timestamp order
+     */
+    static DataPoint[] dataPointsFromBlocks(Record[] timeSeriesBlocks, long startTime, long endTime) {
+        // Usually the blocks are in order and do not overlap, so the points can be taken as they come
+        List<DataPoint> dataPoints = new ArrayList<>();
+        if (forEachPointInOrder(timeSeriesBlocks, startTime, endTime, (timestamp, value) -> dataPoints.add(new DataPoint(timestamp, value))))
+            return dataPoints.toArray(new DataPoint[0]);
+
+        Map<Long, DataPoint> uniqueTimestampMap = new TreeMap<>();
+        for (Record currentRecord : timeSeriesBlocks) {
+            // Null record is a possibility if we have just made the current block a historic block
+            if (currentRecord != null) {
+                forEachPointInBlock(currentRecord, startTime, endTime,
+                        (timestamp, value) -> uniqueTimestampMap.putIfAbsent(timestamp, new DataPoint(timestamp, value)));
+            }
+        }
+        return uniqueTimestampMap.values().toArray(new DataPoint[0]);
+    }
+
+    /**
+     * As per dataPointsFromBlocks, but clearing and filling a batch rather than returning DataPoint objects
+     * Only in the unusual case of overlapping or out of order blocks is an object created per point
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesBlocks blocks as retrieved from the database. May contain nulls
+     * @param startTime        start time of required range
+     * @param endTime          end time of required range
+     * @param dataPoints       batch to receive the data points, in timestamp order
+     * @return the batch passed in
+     */
+    static DataPointBatch pointsFromBlocks(Record[] timeSeriesBlocks, long startTime, long endTime, DataPointBatch dataPoints) {
+        dataPoints.clear();
+        if (forEachPointInOrder(timeSeriesBlocks, startTime, endTime, dataPoints::add)) return dataPoints;
+
+        dataPoints.clear();
+        Map<Long, Double> uniqueTimestampMap = new TreeMap<>();
+        for (Record currentRecord : timeSeriesBlocks) {
+            if (currentRecord != null) forEachPointInBlock(currentRecord, startTime, endTime, uniqueTimestampMap::putIfAbsent);
+        }
+        for (Map.Entry<Long, Double> entry : uniqueTimestampMap.entrySet()) dataPoints.add(entry.getKey(), entry.getValue());
+        return dataPoints;
+    }
+
+    /**
+     * Apply a query operation to the data points held in a set of blocks, restricting to those between startTime and endTime
+     * As per dataPointsFromBlocks, but in the usual case of ordered, non overlapping blocks, without creating an object per point
+     *
+     * @param timeSeriesBlocks blocks as retrieved from the database. May contain nulls
+     * @param startTime        start time of required range
+     * @param endTime          end time of required range
+     * @param operation        operation to apply e.g. avg, vol, max, min
+     * @return result of the operation as a double
+     */
+    static double aggregate(Record[] timeSeriesBlocks, long startTime, long endTime, QueryOperation operation) {
+        QueryAggregator aggregator = new QueryAggregator();
+        if (forEachPointInOrder(timeSeriesBlocks, startTime, endTime, aggregator)) return aggregator.result(operation);
+        return aggregate(dataPointsFromBlocks(timeSeriesBlocks, startTime, endTime), operation);
+    }
+
+    /**
+     * Pass the data points held in a set of blocks, between startTime and endTime, to consumer
+     * This is abandoned, returning false, as soon as a point is found that is not later than its predecessor - the
+     * blocks overlap, or are out of order. The points already passed to consumer should then be discarded
+     *
+     * @param timeSeriesBlocks blocks as retrieved from the database. May contain nulls
+     * @param startTime        start time of required range
+     * @param endTime          end time of required range
+     * @param consumer         receives points
+     * @return true if all points were passed to consumer, in strictly ascending timestamp order
+     */
+    static boolean forEachPointInOrder(Record[] timeSeriesBlocks, long startTime, long endTime, PointConsumer consumer) {
+        // Timestamp of the last point passed on, and whether all points so far have been in order
+        long[] lastTimestamp = {Long.MIN_VALUE};
+        boolean[] inOrder = {true};
+        PointConsumer orderCheckingConsumer = (timestamp, value) -> {
+            if (!inOrder[0]) return;
+            if (timestamp > lastTimestamp[0]) {
+                lastTimestamp[0] = timestamp;
+                consumer.accept(timestamp, value);
+            } else {
+                inOrder[0] = false;
+            }
+        };
+        for (Record timeSeriesBlock : timeSeriesBlocks) {
+            if (timeSeriesBlock != null) forEachPointInBlock(timeSeriesBlock, startTime, endTime, orderCheckingConsumer);
+            if (!inOrder[0]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Pass the data points held in a block, between startTime and endTime, to consumer
+     * Points in the map bin come first, followed by those in any encoded bins
+     *
+     * @param timeSeriesBlock block as retrieved from the database
+     * @param startTime       start time of required range
+     * @param endTime         end time of required range
+     * @param consumer        receives points
+     */
+    static void forEachPointInBlock(Record timeSeriesBlock, long startTime, long endTime, PointConsumer consumer) {
+        // An encoded block's map bin only exists if late points have been written to it
+        Object timeSeries = timeSeriesBlock.getValue(Constants.TIME_SERIES_BIN_NAME);
+        if (timeSeries instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) timeSeries).entrySet()) forPointInRange(entry, startTime, endTime, consumer);
+        } else if (timeSeries instanceof List) {
+            // Map bin trimmed to the range on the server - see blockRead - so held as a list of entries, in key order
+            for (Object entry : (List<?>) timeSeries) forPointInRange((Map.Entry<?, ?>) entry, startTime, endTime, consumer);
+        }
+        byte[] compressedTimeSeries = (byte[]) timeSeriesBlock.getValue(Constants.COMPRESSED_TIME_SERIES_BIN_NAME);
+        if (compressedTimeSeries != null) {
+            GorillaCodec.decode(compressedTimeSeries, (timestamp, value) -> {
+                if (timestamp >= startTime && timestamp <= endTime) consumer.accept(timestamp, value);
+            });
+        }
+        byte[] timestampColumn = (byte[]) timeSeriesBlock.getValue(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME);
+        if (timestampColumn != null) {
+            ColumnarCodec.decode(timestampColumn, (byte[]) timeSeriesBlock.getValue(Constants.COLUMNAR_VALUES_BIN_NAME),
+                    startTime, endTime, consumer);
+        }
+    }
+
+    private static void forPointInRange(Map.Entry<?, ?> entry, long startTime, long endTime, PointConsumer consumer) {
+        long timestamp = (Long) entry.getKey();
+        if (timestamp >= startTime && timestamp <= endTime) consumer.accept(timestamp, (Double) entry.getValue());
+    }
+
+    /**
+     * Run a query vs a particular time series range. Query types are as per the enum QueryOperation
+     *
+     * @param timeSeriesName - time series to run query against
+     * @param operation      - operation to apply to query e.g. avg, vol, max, min
+     * @param fromDateTime   - start time for required time series range
+     * @param toDateTime     - end time for required time series range
+     * @return result of the query as a double
+     */
+    public double runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        QueryPlan queryPlan;
+        if (isBucketed()) {
+            queryPlan = new QueryPlan(getBlockRunsForQuery(timeSeriesName, startTime, endTime), null, false, startTime, endTime, operation);
+        } else {
+            // Index entries are read whole, as their summaries may make block reads unnecessary
+            List<BatchRead> indexEntryReads = indexEntryReads(timeSeriesName);
+            if (endTime >= startTime) asClient.get(new BatchPolicy(readPolicy), indexEntryReads);
+            queryPlan = queryPlanForIndexEntryReads(timeSeriesName, indexEntryReads, startTime, endTime, operation);
+        }
+        BlockCacheRead blockCacheRead = queryBlockCacheRead(Collections.singletonList(timeSeriesName), Collections.singletonList(queryPlan));
+        asClient.get(new BatchPolicy(readPolicy), blockCacheRead.getReads());
+        complete(blockCacheRead);
+        if (!queryPlan.getFollowUpReads().isEmpty()) asClient.get(new BatchPolicy(readPolicy), queryPlan.getFollowUpReads());
+        return queryPlan.result();
+    }
+
+    /**
+     * Run a query vs the same range of each of a number of time series
+     * <p>
+     * The index entries of all the series are read with one batch read, then all the blocks required with another, and
+     * any follow up reads with a third, so the number of round trips does not grow with the number of series - beyond
+     * splitting very large batches, see Constants.MAX_RECORDS_PER_BATCH_READ. Each series is planned as per
+     * runQuery(String, QueryOperation, Date, Date)
+     *
+     * @param timeSeriesNames - time series to run query against
+     * @param operation       - operation to apply to query e.g. avg, vol, max, min
+     * @param fromDateTime    - start time for required time series range
+     * @param toDateTime      - end time for required time series range
+     * @return result of the query for each series, keyed by series name in the order given
+     */
+    public Map<String, Double> runQuery(Collection<String> timeSeriesNames, QueryOperation operation, Date fromDateTime, Date toDateTime) {
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        List<String> seriesNames = new ArrayList<>(new LinkedHashSet<>(timeSeriesNames));
+        List<BatchRead> indexEntryReads = isBucketed() ? null : indexEntryReads(seriesNames);
+        if (indexEntryReads != null && endTime >= startTime) getAll(indexEntryReads);
+        List<QueryPlan> queryPlans = queryPlans(seriesNames, indexEntryReads, startTime, endTime, operation);
+        BlockCacheRead blockCacheRead = queryBlockCacheRead(seriesNames, queryPlans);
+        getAll(blockCacheRead.getReads());
+        complete(blockCacheRead);
+        List<BatchRead> followUpReads = followUpReads(queryPlans);
+        if (!followUpReads.isEmpty()) getAll(followUpReads);
+        return queryResults(seriesNames, queryPlans);
+    }
+
+    /**
+     * Batch reads retrieving all the index entries for each stripe of each of a number of time series
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesNames time series names
+     * @return batch reads, as per indexEntryReads for each series in turn
+     */
+    List<BatchRead> indexEntryReads(List<String> timeSeriesNames) {
+        List<BatchRead> indexEntryReads = new ArrayList<>();
+        for (String timeSeriesName : timeSeriesNames) indexEntryReads.addAll(indexEntryReads(timeSeriesName));
+        return indexEntryReads;
+    }
+
+    /**
+     * Plan a query for each of a number of time series
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesNames time series names
+     * @param indexEntryReads completed batch reads, as per indexEntryReads(List). Null in the bucketed layout
+     * @param startTime       start time as long
+     * @param endTime         end time as long
+     * @param operation       query operation
+     * @return query plans, one per series
+     */
+    List<QueryPlan> queryPlans(List<String> timeSeriesNames, List<BatchRead> indexEntryReads, long startTime, long endTime, QueryOperation operation) {
+        List<QueryPlan> queryPlans = new ArrayList<>();
+        List<List<Key[]>> blockRunsBySeries = indexEntryReads == null ? blockRunsBySeries(timeSeriesNames, null, startTime, endTime) : null;
+        for (int i = 0; i < timeSeriesNames.size(); i++) {
+            if (blockRunsBySeries != null)
+                queryPlans.add(new QueryPlan(blockRunsBySeries.get(i), null, false, startTime, endTime, operation));
+            else
+                queryPlans.add(queryPlanForIndexEntryReads(timeSeriesNames.get(i), indexEntryReads.subList(i * stripeCount, (i + 1) * stripeCount),
+                        startTime, endTime, operation));
+        }
+        return queryPlans;
+    }
+
+    /**
+     * Block reads for a number of query plans
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param queryPlans query plans
+     * @return block reads of all the plans
+     */
+    static List<BatchRead> blockReads(List<QueryPlan> queryPlans) {
+        List<BatchRead> blockReads = new ArrayList<>();
+        for (QueryPlan queryPlan : queryPlans) blockReads.addAll(queryPlan.getBlockReads());
+        return blockReads;
+    }
+
+    /**
+     * Follow up reads for a number of query plans, once their block reads have completed
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param queryPlans query plans
+     * @return follow up reads of all the plans - usually empty
+     */
+    static List<BatchRead> followUpReads(List<QueryPlan> queryPlans) {
+        List<BatchRead> followUpReads = new ArrayList<>();
+        for (QueryPlan queryPlan : queryPlans) followUpReads.addAll(queryPlan.getFollowUpReads());
+        return followUpReads;
+    }
+
+    /**
+     * Results of a number of query plans, once all their reads have completed
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param timeSeriesNames time series names
+     * @param queryPlans      query plans, one per series
+     * @return result for each series, keyed by series name
+     */
+    static Map<String, Double> queryResults(List<String> timeSeriesNames, List<QueryPlan> queryPlans) {
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (int i = 0; i < timeSeriesNames.size(); i++) results.put(timeSeriesNames.get(i), queryPlans.get(i).result());
+        return results;
+    }
+
+    /**
+     * Run a query vs a particular time series range, computing one result per fixed time bucket, e.g. the average per
+     * five minutes over a day
+     * <p>
+     * Buckets start on multiples of bucketWidth, and those at the ends of the range are restricted to the range. Blocks
+     * are aggregated into their buckets as they are decoded, without creating an object per point. Historic blocks
+     * lying wholly within a single bucket are not read - their index summaries are used instead.
+     * If rollups are in use and the width of a rollup tier divides bucketWidth, buckets wholly within the range are
+     * computed from that tier instead, and only the partial buckets at the ends of the range are computed from blocks -
+     * except for VOL, which rollups cannot provide. Rollups must then cover the whole series - see setRollupWidths
+     *
+     * @param timeSeriesName - time series to run query against
+     * @param operation      - operation to apply to query e.g. avg, vol, max, min
+     * @param fromDateTime   - start time for required time series range
+     * @param toDateTime     - end time for required time series range
+     * @param bucketWidth    - width of the time buckets in milliseconds
+     * @return bucket start times and results, as a batch of timestamps and values in time order, omitting buckets with no points
+     */
+    public DataPointBatch runQuery(String timeSeriesName, QueryOperation operation, Date fromDateTime, Date toDateTime, long bucketWidth) {
+        if (bucketWidth <= 0) throw new IllegalArgumentException("bucketWidth must be positive");
+        long startTime = fromDateTime.getTime();
+        long endTime = toDateTime.getTime();
+        TreeMap<Long, QueryAggregator> bucketAggregators = new TreeMap<>();
+        long rollupWidth = rollupWidthForBuckets(operation, bucketWidth);
+        long[] wholeBuckets = wholeBucketRange(startTime, endTime, bucketWidth);
+        if (rollupWidth > 0 && wholeBuckets != null) {
+            long wholeBucketsStartTime = wholeBuckets[0];
+            long wholeBucketsEndTime = wholeBuckets[1];
+            acceptRollups(getRollups(timeSeriesName, rollupWidth, new Date(wholeBucketsStartTime), new Date(wholeBucketsEndTime)), bucketWidth, bucketAggregators);
+            accumulateBuckets(timeSeriesName, operation, startTime, wholeBucketsStartTime - 1, bucketWidth, bucketAggregators);
+            accumulateBuckets(timeSeriesName, operation, wholeBucketsEndTime + 1, endTime, bucketWidth, bucketAggregators);
+        } else {
+            accumulateBuckets(timeSeriesName, operation, startTime, endTime, bucketWidth, bucketAggregators);
+        }
+        return bucketResults(bucketAggregators, operation, new DataPointBatch());
+    }
+
+    /**
+     * The part of a range made up of whole buckets
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param startTime   - start of range
+     * @param endTime     - end of range
+     * @param bucketWidth - bucket width
+     * @return start and end of the whole buckets, or null if there are none
+     */
+    static long[] wholeBucketRange(long startTime, long endTime, long bucketWidth) {
+        // Avoid overflow at the ends of time - such ranges are computed from blocks
+        if (startTime < Long.MIN_VALUE + bucketWidth || endTime > Long.MAX_VALUE - bucketWidth) return null;
+        long wholeBucketsStartTime = QueryPlan.bucketStartTime(startTime - 1, bucketWidth) + bucketWidth;
+        long wholeBucketsEndTime = QueryPlan.bucketStartTime(endTime + 1, bucketWidth) - 1;
+        return wholeBucketsEndTime > wholeBucketsStartTime ? new long[]{wholeBucketsStartTime, wholeBucketsEndTime} : null;
+    }
+
+    /**
+     * Accumulate the points in a range into per bucket aggregators - see runQuery
+     *
+     * @param timeSeriesName    - time series name
+     * @param operation         - query operation
+     * @param startTime         - start of range
+     * @param endTime           - end of range
+     * @param bucketWidth       - bucket width
+     * @param bucketAggregators - aggregators keyed by bucket start time
+     */
+    private void accumulateBuckets(String timeSeriesName, QueryOperation operation, long startTime, long endTime, long bucketWidth,
+                                   TreeMap<Long, QueryAggregator> bucketAggregators) {
+        if (endTime < startTime) return;
+        QueryPlan queryPlan;
+        if (isBucketed()) {
+            queryPlan = new QueryPlan(getBlockRunsForQuery(timeSeriesName, startTime, endTime), null, false, startTime, endTime, operation, bucketWidth);
+        } else {
+            List<BatchRead> indexEntryReads = indexEntryReads(timeSeriesName);
+            asClient.get(new BatchPolicy(readPolicy), indexEntryReads);
+            queryPlan = queryPlanForIndexEntryReads(timeSeriesName, indexEntryReads, startTime, endTime, operation, bucketWidth);
+        }
+        BlockCacheRead blockCacheRead = queryBlockCacheRead(Collections.singletonList(timeSeriesName), Collections.singletonList(queryPlan));
+        asClient.get(new BatchPolicy(readPolicy), blockCacheRead.getReads());
+        complete(blockCacheRead);
+        if (!queryPlan.getFollowUpReads().isEmpty()) asClient.get(new BatchPolicy(readPolicy), queryPlan.getFollowUpReads());
+        queryPlan.accumulateBuckets(bucketAggregators);
+    }
+
+    /**
+     * Width of the coarsest rollup tier that can be used for a bucketed query - see runQuery
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param operation   - query operation
+     * @param bucketWidth - bucket width of the query
+     * @return rollup tier width, or zero if no tier can be used
+     */
+    long rollupWidthForBuckets(QueryOperation operation, long bucketWidth) {
+        RollupTiers tiers = rollupTiers;
+        if (tiers == null || isBucketed() || operation == QueryOperation.VOL) return 0;
+        long rollupWidth = 0;
+        for (long width : tiers.getWidths()) if (bucketWidth % width == 0) rollupWidth = width;
+        return rollupWidth;
+    }
+
+    /**
+     * Combine rollups into per bucket aggregators. Each rollup lies within a single bucket, as its width divides the bucket width
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param rollups           - rollups
+     * @param bucketWidth       - bucket width of the query
+     * @param bucketAggregators - aggregators keyed by bucket start time
+     */
+    static void acceptRollups(Rollup[] rollups, long bucketWidth, TreeMap<Long, QueryAggregator> bucketAggregators) {
+        for (Rollup rollup : rollups)
+            bucketAggregators.computeIfAbsent(QueryPlan.bucketStartTime(rollup.getStartTime(), bucketWidth), ignore -> new QueryAggregator()).acceptRollup(rollup);
+    }
+
+    /**
+     * Results of a bucketed query, from its per bucket aggregators
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @param bucketAggregators - aggregators keyed by bucket start time
+     * @param operation         - query operation
+     * @param results           - batch to receive the bucket start times and results
+     * @return the batch passed in
+     */
+    static DataPointBatch bucketResults(TreeMap<Long, QueryAggregator> bucketAggregators, QueryOperation operation, DataPointBatch results) {
+        results.clear();
+        for (Map.Entry<Long, QueryAggregator> bucketAggregator : bucketAggregators.entrySet())
+            results.add(bucketAggregator.getKey(), bucketAggregator.getValue().result(operation));
+        return results;
+    }
+
+    /**
+     * Apply a query operation to an array of data points
+     *
+     * @param dataPoints - data points to aggregate
+     * @param operation  - operation to apply e.g. avg, vol, max, min
+     * @return result of the operation as a double
+     */
+    static double aggregate(DataPoint[] dataPoints, QueryOperation operation) {
+        QueryAggregator aggregator = new QueryAggregator();
+        for (DataPoint dataPoint : dataPoints) aggregator.accept(dataPoint.getTimestamp(), dataPoint.getValue());
+        return aggregator.result(operation);
+    }
+
+    /**
+     * We store some 'indexes' to make the time series db work.
+     * This gives the name of the set they're stored in
+     * It simply suffixes the time series set name with TIME_SERIES_INDEX_SET_SUFFIX
+     *
+     * @return the set name for the time series indexes
      */
     public String timeSeriesIndexSetName() {
         return timeSeriesIndexSetName(timeSeriesSet);
@@ -604,6 +3771,147 @@ public class TimeSeriesClient implements ITimeSeriesClient {
         return String.format("%s%s", setName, TIME_SERIES_INDEX_SET_SUFFIX);
     }
 
+    /**
+     * Name of the set a rollup tier is stored in
+     * It suffixes the time series set name with ROLLUP_SET_SUFFIX and the bucket width
+     *
+     * @param rollupWidth - bucket width of the rollup tier
+     * @return the set name for the rollup tier
+     */
+    public String rollupSetName(long rollupWidth) {
+        return String.format("%s%s%d", timeSeriesSet, ROLLUP_SET_SUFFIX, rollupWidth);
+    }
+
+    /**
+     * Name of the set the tags of each series are stored in
+     * It suffixes the time series set name with TAG_SET_SUFFIX
+     *
+     * @return the set name for series tags
+     */
+    public String tagSetName() {
+        return timeSeriesSet + TAG_SET_SUFFIX;
+    }
+
+    /**
+     * Name of the set the tag index is stored in
+     * It suffixes the time series set name with TAG_INDEX_SET_SUFFIX
+     *
+     * @return the set name for the tag index
+     */
+    public String tagIndexSetName() {
+        return timeSeriesSet + TAG_INDEX_SET_SUFFIX;
+    }
+
+    /**
+     * Name of the set the series catalog is stored in
+     * It suffixes the time series set name with CATALOG_SET_SUFFIX
+     *
+     * @return the set name for the series catalog
+     */
+    public String catalogSetName() {
+        return catalogSetName(timeSeriesSet);
+    }
+
+    /**
+     * Static method allowing inference of the series catalog set name
+     *
+     * @param setName - the name of the set that stores the time series data
+     * @return - the name of the set to store the series catalog in
+     */
+    public static String catalogSetName(String setName) {
+        return setName + CATALOG_SET_SUFFIX;
+    }
+
+    /**
+     * List a page of the time series in the set, optionally restricted to names starting with a prefix
+     * <p>
+     * Series are listed from a catalog, to which each series is added when first written - see SeriesCatalog. Listing
+     * reads a few catalog records per page rather than scanning the namespace. Names are spread over the catalog
+     * records by hash, so are in name order within each record but not across the listing as a whole. Series created
+     * while a listing is in progress may not be included
+     * <p>
+     * To list all series, pass a null page token, then the token from each page until SeriesNamePage.hasNextPage() is false
+     *
+     * @param prefix    - only list names starting with this prefix - use an empty string to list all series
+     * @param pageToken - SeriesNamePage.getNextPageToken() from the previous page, or null for the first page
+     * @param pageSize  - maximum number of names in the page
+     * @return page of series names
+     */
+    public SeriesNamePage listSeries(String prefix, String pageToken, int pageSize) {
+        SeriesListing seriesListing = new SeriesListing(seriesCatalog, prefix, pageToken, pageSize);
+        for (List<BatchRead> reads = seriesListing.getReads(); !reads.isEmpty(); reads = seriesListing.getReads()) getAll(reads);
+        return seriesListing.result();
+    }
+
+    /**
+     * Series catalog - see listSeries
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @return series catalog
+     */
+    SeriesCatalog getSeriesCatalog() {
+        return seriesCatalog;
+    }
+
+    /**
+     * Set the tags of a time series - key / value labels such as host=web01 - replacing any it already has
+     * <p>
+     * Tags are held in their own set, in a record keyed by series name, and indexed in a further set, which for each
+     * tag value lists the series having it and for each tag key lists the values it has been given - see tagSetName and
+     * tagIndexSetName. findSeries uses the index, so series can be found by tag without scanning the namespace.
+     * A series need not have been written to before it is tagged. If the update fails part way through, a series may
+     * still be found by tags it no longer has - setting its tags again completes the update
+     *
+     * @param timeSeriesName - time series name
+     * @param tags           - tag keys and values, which must not be empty. Keys must not contain '='
+     */
+    public void setTags(String timeSeriesName, Map<String, String> tags) {
+        TagIndex.checkTags(tags);
+        // Index the new tags first, so the series can always be found by the tags it has
+        for (Map.Entry<Key, Operation[]> recordOps : tagIndex.opsForIndexAdditions(timeSeriesName, tags).entrySet())
+            asClient.operate(writePolicy, recordOps.getKey(), recordOps.getValue());
+        Record previous = asClient.operate(writePolicy, tagIndex.seriesTagsKey(timeSeriesName), tagIndex.opsForSeriesTags(timeSeriesName, tags));
+        for (Map.Entry<Key, Operation[]> recordOps : tagIndex.opsForIndexRemovals(timeSeriesName, TagIndex.tags(previous), tags).entrySet())
+            asClient.operate(writePolicy, recordOps.getKey(), recordOps.getValue());
+    }
+
+    /**
+     * Get the tags of a time series
+     *
+     * @param timeSeriesName - time series name
+     * @return tag keys and values, in key order - empty if the series has no tags
+     */
+    public Map<String, String> getTags(String timeSeriesName) {
+        return TagIndex.tags(asClient.get(readPolicy, tagIndex.seriesTagsKey(timeSeriesName), Constants.TAGS_BIN_NAME));
+    }
+
+    /**
+     * Find the time series whose tags satisfy all the given matchers, e.g. findSeries(TagMatcher.equal("host", "web01"))
+     * <p>
+     * Uses the tag index - see setTags. EQUAL matchers need a single record read, other matchers read the values of
+     * their tag, then the series listings for the values that match. All reads are batched, so a lookup takes at most
+     * two round trips however many series match
+     *
+     * @param tagMatchers - tag matchers, of which there must be at least one
+     * @return names of matching series, in name order
+     */
+    public SortedSet<String> findSeries(TagMatcher... tagMatchers) {
+        TagQuery tagQuery = new TagQuery(tagIndex, tagMatchers);
+        getAll(tagQuery.getReads());
+        if (!tagQuery.getFollowUpReads().isEmpty()) getAll(tagQuery.getFollowUpReads());
+        return tagQuery.result();
+    }
+
+    /**
+     * Series tags and tag index - see setTags
+     * Package level visibility as the asynchronous client shares this
+     *
+     * @return tag index
+     */
+    TagIndex getTagIndex() {
+        return tagIndex;
+    }
+
     /**
      * Get the earliest timestamp for the given series
      *
@@ -611,6 +3919,18 @@ public class TimeSeriesClient implements ITimeSeriesClient {
      * @return earliest timestamp Long.MAX if series does not exist
      */
     public long startTimeForSeries(String timeSeriesName) {
+        long startTime = Long.MAX_VALUE;
+        for (String stripeName : stripeNames(timeSeriesName)) startTime = Math.min(startTime, startTimeForStripe(stripeName));
+        return startTime;
+    }
+
+    /**
+     * Get the earliest timestamp for a single stripe of a time series - the series itself unless striping is in use
+     *
+     * @param timeSeriesName stripe name
+     * @return earliest timestamp Long.MAX if stripe does not exist
+     */
+    private long startTimeForStripe(String timeSeriesName) {
         // First we get the earliest start time from the index block, if it exists
         // Then earliest start time from the current block
         // else Long.MAX - there is no data for this series
@@ -626,6 +3946,13 @@ public class TimeSeriesClient implements ITimeSeriesClient {
 
         if (startTimeFromFirstHistoricBlockRecord != null) {
             startTime = startTimeFromFirstHistoricBlockRecord.getLong(Constants.TIME_SERIES_INDEX_BIN_NAME);
+            // In the bucketed layout the index holds bucket start times - the earliest point is the first in the first bucket
+            if (isBucketed()) {
+                Record startTimeFromFirstBucketRecord = asClient.operate(getWritePolicy(), asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTime),
+                        MapOperation.getByIndex(Constants.TIME_SERIES_BIN_NAME, 0, MapReturnType.KEY));
+                if (startTimeFromFirstBucketRecord != null)
+                    startTime = startTimeFromFirstBucketRecord.getLong(Constants.TIME_SERIES_BIN_NAME);
+            }
         } else {
             WritePolicy currentRecordExistsPolicy = new WritePolicy(getWritePolicy());
             currentRecordExistsPolicy.filterExp = Exp.build(Exp.binExists(Constants.TIME_SERIES_BIN_NAME));
@@ -646,6 +3973,21 @@ public class TimeSeriesClient implements ITimeSeriesClient {
      * @return latest timestamp Long.MAX if series does not exist
      */
     public long endTimeForSeries(String timeSeriesName) {
+        long endTime = Long.MAX_VALUE;
+        for (String stripeName : stripeNames(timeSeriesName)) {
+            long endTimeForStripe = endTimeForStripe(stripeName);
+            if (endTimeForStripe != Long.MAX_VALUE) endTime = endTime == Long.MAX_VALUE ? endTimeForStripe : Math.max(endTime, endTimeForStripe);
+        }
+        return endTime;
+    }
+
+    /**
+     * Get the latest timestamp for a single stripe of a time series - the series itself unless striping is in use
+     *
+     * @param timeSeriesName stripe name
+     * @return latest timestamp Long.MAX if stripe does not exist
+     */
+    private long endTimeForStripe(String timeSeriesName) {
         // First we get the latest time from the current block.
         // If this does not exist then we get the  end time from the last record in the historic blocks, if it exists
         // else Long.MAX - there is no data for this series
@@ -671,11 +4013,13 @@ public class TimeSeriesClient implements ITimeSeriesClient {
             // If it exists
             if (startTimeForLastHistoricBlockRecord != null) {
                 long startTimeForLastBlock = startTimeForLastHistoricBlockRecord.getLong(Constants.TIME_SERIES_INDEX_BIN_NAME);
-                // Get the last timestamp from that record
+                // Get the last timestamp from that record - for an encoded block this is held in the metadata
+                Exp lastMapTimestamp = MapExp.getByIndex(MapReturnType.KEY, Exp.Type.INT, Exp.val(-1), Exp.mapBin(Constants.TIME_SERIES_BIN_NAME));
                 Record endTimeFromLastBlockRecord = asClient.operate(currentRecordExistsPolicy,
                         asKeyForHistoricTimeSeriesBlock(timeSeriesName, startTimeForLastBlock),
-                        MapOperation.getByIndex(Constants.TIME_SERIES_BIN_NAME, -1, MapReturnType.KEY));
-                endTime = endTimeFromLastBlockRecord.getLong(Constants.TIME_SERIES_BIN_NAME);
+                        ExpOperation.read(BLOCK_END_TIME_NAME, Exp.build(Exp.cond(blockIsEncoded(),
+                                metadataValue(Constants.END_TIME_FIELD_NAME), lastMapTimestamp)), ExpReadFlags.DEFAULT));
+                endTime = endTimeFromLastBlockRecord.getLong(BLOCK_END_TIME_NAME);
             }
         }
         return endTime;
@@ -689,27 +4033,58 @@ public class TimeSeriesClient implements ITimeSeriesClient {
      */
     public long dataPointCount(String timeSeriesName) {
         long dataPointCount = 0;
-        // Get the start times from the index block
-        Record metadataRecord = asClient.get(getWritePolicy(), asKeyForTimeSeriesIndexes(timeSeriesName),
-                Constants.TIME_SERIES_INDEX_BIN_NAME);
-        if (metadataRecord != null) {
-            // If there are any, get the size of each block
-            @SuppressWarnings("unchecked") // Type is expected
-            Map<Long, Map<String, Long>> metadataMap = (Map<Long, Map<String, Long>>) metadataRecord.getMap(Constants.TIME_SERIES_INDEX_BIN_NAME);
-            for (long startTime : metadataMap.keySet()) {
-                dataPointCount += metadataMap.get(startTime).get(Constants.ENTRY_COUNT_FIELD_NAME);
-            }
-        }
+        for (String stripeName : stripeNames(timeSeriesName)) dataPointCount += dataPointCountForStripe(stripeName);
+        return dataPointCount;
+    }
 
-        // Create a policy to make sure, when we look up the size from the current block, there are no errors
-        WritePolicy currentRecordExistsPolicy = new WritePolicy(getWritePolicy());
-        Exp.build(Exp.binExists(Constants.TIME_SERIES_BIN_NAME));
+    /**
+     * Get the data point count for a single stripe of a time series - the series itself unless striping is in use
+     * Only points after the most recent historic block are counted in the current block. Points archived by the background
+     * archiver but not yet removed from the current block are then counted once - see archiveCurrentBlock
+     *
+     * @param timeSeriesName stripe name
+     * @return data point count for stripe
+     */
+    private long dataPointCountForStripe(String timeSeriesName) {
+        if (isBucketed()) return bucketedDataPointCount(timeSeriesName);
+        long dataPointCount = 0;
+        // Get the entry counts from the index block
+        TreeMap<Long, Map<?, ?>> indexEntries = indexEntries(asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), opForIndexEntries()));
+        if (indexEntries != null) {
+            for (Map<?, ?> indexEntry : indexEntries.values())
+                dataPointCount += ((Number) indexEntry.get(Constants.ENTRY_COUNT_FIELD_NAME)).longValue();
+        }
 
-        Record sizeOfCurrentRecord = asClient.operate(currentRecordExistsPolicy, asCurrentKeyForTimeSeries(timeSeriesName),
-                MapOperation.size(Constants.TIME_SERIES_BIN_NAME));
+        // Key range start is inclusive. A null start means no lower limit
+        long latestArchivedEndTime = latestArchivedEndTime(indexEntries);
+        Value rangeStart = latestArchivedEndTime == Long.MIN_VALUE ? null : Value.get(latestArchivedEndTime + 1);
+        Record sizeOfCurrentRecord = asClient.operate(writePolicy, asCurrentKeyForTimeSeries(timeSeriesName),
+                MapOperation.getByKeyRange(Constants.TIME_SERIES_BIN_NAME, rangeStart, null, MapReturnType.COUNT));
         if (sizeOfCurrentRecord != null) dataPointCount += sizeOfCurrentRecord.getLong(Constants.TIME_SERIES_BIN_NAME);
 
         return dataPointCount;
     }
 
+    /**
+     * Get the data point count for a series stored using the bucketed layout
+     * The index does not hold bucket entry counts, so the bucket sizes are retrieved with a batch read
+     *
+     * @param timeSeriesName time series name
+     * @return data point count for series
+     */
+    private long bucketedDataPointCount(String timeSeriesName) {
+        long dataPointCount = 0;
+        Record indexListRecord = asClient.operate(writePolicy, asKeyForTimeSeriesIndexes(timeSeriesName), opForBlockStartTimes());
+        if (indexListRecord != null) {
+            List<BatchRead> bucketSizeReads = new ArrayList<>();
+            for (Object bucketStartTime : indexListRecord.getList(Constants.TIME_SERIES_INDEX_BIN_NAME))
+                bucketSizeReads.add(new BatchRead(asKeyForHistoricTimeSeriesBlock(timeSeriesName, (Long) bucketStartTime),
+                        new Operation[]{MapOperation.size(Constants.TIME_SERIES_BIN_NAME)}));
+            asClient.get(new BatchPolicy(readPolicy), bucketSizeReads);
+            for (BatchRead bucketSizeRead : bucketSizeReads)
+                if (bucketSizeRead.record != null) dataPointCount += bucketSizeRead.record.getLong(Constants.TIME_SERIES_BIN_NAME);
+        }
+        return dataPointCount;
+    }
+
 }
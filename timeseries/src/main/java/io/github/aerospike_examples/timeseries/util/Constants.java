@@ -22,11 +22,51 @@ public final class Constants {
      */
     public final static String TIME_SERIES_BIN_NAME = "tsSeries";
 
+    /**
+     * Bin in which we store compressed time series data, for historic blocks using BlockEncoding.GORILLA - bin = tsCompressed
+     */
+    public final static String COMPRESSED_TIME_SERIES_BIN_NAME = "tsCompressed";
+
+    /**
+     * Bin in which we store the timestamp column, for historic blocks using BlockEncoding.COLUMNAR - bin = tsTimestamps
+     */
+    public final static String COLUMNAR_TIMESTAMPS_BIN_NAME = "tsTimestamps";
+
+    /**
+     * Bin in which we store the value column, for historic blocks using BlockEncoding.COLUMNAR - bin = tsValues
+     */
+    public final static String COLUMNAR_VALUES_BIN_NAME = "tsValues";
+
     /**
      * Bin in which we store time series index data - bin = tsIndex
      */
     public final static String TIME_SERIES_INDEX_BIN_NAME = "tsIndex";
 
+    /**
+     * Bin in which we store the buckets of a rollup record - bin = tsRollup
+     */
+    public final static String ROLLUP_BIN_NAME = "tsRollup";
+
+    /**
+     * Bin in which we store the tags of a time series - bin = tsTags
+     */
+    public final static String TAGS_BIN_NAME = "tsTags";
+
+    /**
+     * Bin in which the tag index lists the series having a tag value - bin = tsTagged
+     */
+    public final static String TAGGED_SERIES_BIN_NAME = "tsTagged";
+
+    /**
+     * Bin in which the tag index lists the values a tag has been given - bin = tsTagValues
+     */
+    public final static String TAG_VALUES_BIN_NAME = "tsTagValues";
+
+    /**
+     * Bin in which the series catalog lists series names - bin = tsSeries
+     */
+    public final static String SERIES_NAMES_BIN_NAME = "tsSeries";
+
     /**
      * Field name used when storing time series name - = TimeSeriesName
      */
@@ -53,6 +93,36 @@ public final class Constants {
     @SuppressWarnings("SpellCheckingInspection")
     public final static String ENTRY_COUNT_FIELD_NAME = "EntryCount";
 
+    /**
+     * Field name used when storing the number of points held in the encoded bins of a GORILLA or COLUMNAR block,
+     * excluding any late points held in its map bin - = CompressedEntryCount
+     */
+    public final static String COMPRESSED_ENTRY_COUNT_FIELD_NAME = "CompressedEntryCount";
+
+    /**
+     * Field name used in a block's index entry, and in the current block's running statistics, when storing the sum of its
+     * values - = Sum
+     */
+    public final static String SUM_FIELD_NAME = "Sum";
+
+    /**
+     * Field name used in a block's index entry, and in the current block's running statistics, when storing the sum of the
+     * squares of its values - = SumOfSquares
+     */
+    public final static String SUM_OF_SQUARES_FIELD_NAME = "SumOfSquares";
+
+    /**
+     * Field name used in a block's index entry, and in the current block's running statistics, when storing its minimum
+     * value - = MinValue
+     */
+    public final static String MIN_VALUE_FIELD_NAME = "MinValue";
+
+    /**
+     * Field name used in a block's index entry, and in the current block's running statistics, when storing its maximum
+     * value - = MaxValue
+     */
+    public final static String MAX_VALUE_FIELD_NAME = "MaxValue";
+
     /**
      * When we store the max block entries in force, store under this field name - = maxTSEntries
      */
@@ -63,6 +133,69 @@ public final class Constants {
      */
     public final static int DEFAULT_MAX_ENTRIES_PER_TIME_SERIES_BLOCK = 1000;
 
+    /**
+     * Default number of points buffered per series by BufferedTimeSeriesWriter before the series is flushed - = 100
+     */
+    public final static int DEFAULT_BUFFERED_WRITER_MAX_POINTS_PER_SERIES = 100;
+
+    /**
+     * Default maximum age, in milliseconds, of a point held by BufferedTimeSeriesWriter before its series is flushed - = 1000
+     */
+    public final static long DEFAULT_BUFFERED_WRITER_MAX_AGE_MS = 1000;
+
+    /**
+     * Default upper limit on the total number of points held by BufferedTimeSeriesWriter across all series - = 100,000
+     */
+    public final static int DEFAULT_BUFFERED_WRITER_MAX_PENDING_POINTS = 100000;
+
+    /**
+     * Default number of threads used by the TimeSeriesClient background archiver - = 2
+     */
+    public final static int DEFAULT_BACKGROUND_ARCHIVER_THREAD_COUNT = 2;
+
+    /**
+     * Default maximum number of block archives queued for the TimeSeriesClient background archiver - = 1000
+     */
+    public final static int DEFAULT_BACKGROUND_ARCHIVER_MAX_QUEUED_ARCHIVES = 1000;
+
+    /**
+     * Default number of blocks read per batch read by TimeSeriesClient.stream - = 4
+     */
+    public final static int DEFAULT_STREAM_BLOCKS_PER_FETCH = 4;
+
+    /**
+     * Name of the file holding the disk block cache for a namespace, within its directory - see TimeSeriesClient.setDiskBlockCache
+     */
+    public final static String DISK_BLOCK_CACHE_FILE_NAME_FORMAT = "blocks-%s.cache";
+
+    /**
+     * Serialized size of a point held in the disk block cache - timestamp and value - = 16
+     */
+    public final static int DISK_BLOCK_CACHE_BYTES_PER_POINT = 16;
+
+    /**
+     * Room allowed in each disk block cache slot for the slot header and block framing, by default - = 64
+     */
+    public final static int DISK_BLOCK_CACHE_SLOT_OVERHEAD = 64;
+
+    /**
+     * Number of buckets held in each rollup record - = 240
+     */
+    public final static int ROLLUP_BUCKETS_PER_RECORD = 240;
+
+    /**
+     * Maximum number of records read by a single batch read when querying multiple series - = 5000
+     * This is the default limit imposed by the server - see batch-max-requests
+     */
+    public final static int MAX_RECORDS_PER_BATCH_READ = 5000;
+
+    /**
+     * Number of records the series catalog is spread over - = 256
+     * Sized so that 5 million series names fit comfortably within the default maximum record size. Must be the same
+     * for every client using a set, as names are assigned to records by hash
+     */
+    public final static int SERIES_CATALOG_SHARD_COUNT = 256;
+
     /**
      * Converting seconds to milliseconds and back again is so prevalent, best to make it a constant for clarity
      */
@@ -1,6 +1,7 @@
 package io.github.aerospike_examples.timeseries.util;
 
 import com.aerospike.client.policy.ScanPolicy;
+import io.github.aerospike_examples.timeseries.SeriesNamePage;
 import io.github.aerospike_examples.timeseries.TimeSeriesClient;
 
 import java.util.Date;
@@ -27,14 +28,30 @@ public final class Utilities {
         return Math.abs((actualValue - expectedValue) / expectedValue) < tolerancePct / 100;
     }
 
+    /**
+     * Number of names read per page when listing all time series from the series catalog
+     */
+    private static final int SERIES_NAMES_PER_PAGE = 1000;
+
     /**
      * Get a list of all the time series in the database
+     * <p>
+     * Series are listed from the series catalog - see TimeSeriesClient.listSeries. If the catalog is empty, which will be
+     * the case for data written before the catalog was introduced, the index and data sets are scanned instead
      *
      * @param timeSeriesClient object to use
      * @return Vector containing available time series names
      */
     public static Vector<String> getTimeSeriesNames(TimeSeriesClient timeSeriesClient) {
         HashSet<String> timeSeriesNames = new HashSet<>();
+        SeriesNamePage seriesNamePage = timeSeriesClient.listSeries("", null, SERIES_NAMES_PER_PAGE);
+        timeSeriesNames.addAll(seriesNamePage.getNames());
+        while (seriesNamePage.hasNextPage()) {
+            seriesNamePage = timeSeriesClient.listSeries("", seriesNamePage.getNextPageToken(), SERIES_NAMES_PER_PAGE);
+            timeSeriesNames.addAll(seriesNamePage.getNames());
+        }
+        if (timeSeriesNames.size() > 0) return new Vector<>(timeSeriesNames);
+
         timeSeriesClient.getAsClient().scanAll(
                 new ScanPolicy(), timeSeriesClient.getAsNamespace(), timeSeriesClient.timeSeriesIndexSetName(),
                 // Callback is a lambda function
@@ -0,0 +1,95 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.async.EventLoops;
+import com.aerospike.client.async.NioEventLoops;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import io.github.aerospike_examples.timeseries.util.TestUtilities;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+public class AsyncTimeSeriesClientTest {
+
+    // Reference base timestamp for creating test time series - 2022-01-01
+    private static final long BASE_TIMESTAMP = 1640995200000L;
+    // Random data generation object
+    private static final Random RANDOM = new Random();
+
+    // Name of test time series
+    private static final String TEST_TIME_SERIES_NAME = "AsyncTimeSeriesExample";
+
+    // Event loop for the client under test, and the client - both closed in teardown
+    private final EventLoops eventLoops = new NioEventLoops(1);
+    private AsyncTimeSeriesClient asyncClient = null;
+
+    @Test
+    /*
+      Write points asynchronously, all in flight at once, across several blocks
+      Check the points are all retrievable, in order, via both the asynchronous and synchronous clients
+     */
+    public void asyncPutsAreRetrievable() {
+        int entriesPerBlock = 60;
+        int requiredBlocks = 5;
+        int dataPointCount = entriesPerBlock * requiredBlocks + entriesPerBlock / 2;
+        asyncClient = TestUtilities.asyncTimeSeriesClient(entriesPerBlock, eventLoops);
+
+        double[] values = new double[dataPointCount];
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[dataPointCount];
+        for (int i = 0; i < dataPointCount; i++) {
+            values[i] = RANDOM.nextDouble();
+            // Points for a single series are written one block at a time so block archiving is not raced against itself
+            futures[i] = asyncClient.put(TEST_TIME_SERIES_NAME, new DataPoint(timestamp(i), values[i]));
+            if ((i + 1) % entriesPerBlock == 0) CompletableFuture.allOf(Arrays.copyOf(futures, i + 1)).join();
+        }
+        CompletableFuture.allOf(futures).join();
+
+        DataPoint[] dataPoints = asyncClient.getPoints(TEST_TIME_SERIES_NAME, new Date(timestamp(0)), new Date(timestamp(dataPointCount - 1))).join();
+        Assert.assertEquals(dataPointCount, dataPoints.length);
+        for (int i = 0; i < dataPointCount; i++)
+            Assert.assertTrue(dataPoints[i].equals(new DataPoint(timestamp(i), values[i])));
+
+        DataPoint[] synchronousDataPoints = asyncClient.getTimeSeriesClient().getPoints(TEST_TIME_SERIES_NAME,
+                new Date(timestamp(0)), new Date(timestamp(dataPointCount - 1)));
+        Assert.assertEquals(dataPointCount, synchronousDataPoints.length);
+    }
+
+    @Test
+    /*
+      Batch insert asynchronously and check query results agree with the synchronous client
+     */
+    public void asyncBatchPutAndQuery() {
+        int entriesPerBlock = 13;
+        int dataPointCount = 100;
+        asyncClient = TestUtilities.asyncTimeSeriesClient(entriesPerBlock, eventLoops);
+
+        DataPoint[] dataPoints = new DataPoint[dataPointCount];
+        for (int i = 0; i < dataPointCount; i++) dataPoints[i] = new DataPoint(timestamp(i), RANDOM.nextDouble());
+        asyncClient.put(TEST_TIME_SERIES_NAME, dataPoints).join();
+
+        Date startDate = new Date(timestamp(0));
+        Date endDate = new Date(timestamp(dataPointCount - 1));
+        for (QueryOperation operation : QueryOperation.values()) {
+            double asyncResult = asyncClient.runQuery(TEST_TIME_SERIES_NAME, operation, startDate, endDate).join();
+            double syncResult = asyncClient.getTimeSeriesClient().runQuery(TEST_TIME_SERIES_NAME, operation, startDate, endDate);
+            Assert.assertEquals(syncResult, asyncResult, 0.0);
+        }
+        Assert.assertEquals(dataPointCount, asyncClient.runQuery(TEST_TIME_SERIES_NAME, QueryOperation.COUNT, startDate, endDate).join(), 0.0);
+    }
+
+    private static long timestamp(int i) {
+        return BASE_TIMESTAMP + i * Constants.MILLISECONDS_IN_SECOND;
+    }
+
+    @After
+    // Truncate the time series set, and release the client and its event loop
+    public void teardown() {
+        TestUtilities.removeTimeSeriesTestDataForSet(TestUtilities.defaultTimeSeriesClient().getTimeSeriesSet());
+        if (asyncClient != null) asyncClient.getTimeSeriesClient().getAsClient().close();
+        eventLoops.close();
+    }
+}
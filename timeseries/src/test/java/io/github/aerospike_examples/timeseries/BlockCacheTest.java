@@ -0,0 +1,126 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class BlockCacheTest {
+
+    @Test
+    // Blocks come back from the cache as they went in, on and off heap
+    public void encodeDecode() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            BlockCache cache = new BlockCache(1_000_000, offHeap);
+            Key key = blockKey(1);
+            cache.put(key, block(3, 10, true));
+            Record cached = cache.get(key, 3);
+            Assert.assertEquals(block(3, 10, true).getMap(Constants.TIME_SERIES_BIN_NAME), cached.getMap(Constants.TIME_SERIES_BIN_NAME));
+            Assert.assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) cached.getValue(Constants.COMPRESSED_TIME_SERIES_BIN_NAME));
+            Assert.assertNull(cached.getValue(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME));
+            // Each get decodes afresh
+            Assert.assertNotNull(cache.get(key, 3));
+        }
+    }
+
+    @Test
+    // The least recently used blocks are evicted once the cache holds more than its size in bytes
+    public void leastRecentlyUsedEviction() {
+        int blockBytes = BlockCache.encode(block(1, 10, false)).length;
+        BlockCache cache = new BlockCache(2L * blockBytes, false);
+        cache.put(blockKey(1), block(1, 10, false));
+        cache.put(blockKey(2), block(1, 10, false));
+        Assert.assertNotNull(cache.get(blockKey(1), 1));
+        cache.put(blockKey(3), block(1, 10, false));
+        Assert.assertTrue(cache.contains(blockKey(1)));
+        Assert.assertFalse(cache.contains(blockKey(2)));
+        Assert.assertTrue(cache.contains(blockKey(3)));
+        Assert.assertEquals(2L * blockBytes, cache.getBytes());
+        // Blocks larger than the whole cache are not cached
+        cache.put(blockKey(4), block(1, 100, false));
+        Assert.assertFalse(cache.contains(blockKey(4)));
+    }
+
+    @Test
+    // A cached block is only used while its record keeps the same generation
+    public void generationCheck() {
+        BlockCache cache = new BlockCache(1_000_000, false);
+        cache.put(blockKey(1), block(3, 10, false));
+        Assert.assertNull(cache.get(blockKey(1), 4));
+        Assert.assertFalse(cache.contains(blockKey(1)));
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    // Cached blocks are read with header only reads, out of date ones are read again, and other reads are made as given
+    public void blockCacheRead() {
+        BlockCache cache = new BlockCache(1_000_000, false);
+        cache.put(blockKey(1), block(1, 10, false));
+        cache.put(blockKey(2), block(1, 10, false));
+        List<BatchRead> blockReads = Arrays.asList(new BatchRead(blockKey(1), TimeSeriesClient.BLOCK_DATA_BIN_NAMES),
+                new BatchRead(blockKey(2), TimeSeriesClient.BLOCK_DATA_BIN_NAMES),
+                new BatchRead(blockKey(3), TimeSeriesClient.BLOCK_DATA_BIN_NAMES),
+                new BatchRead(new Key("test", "test", "s"), TimeSeriesClient.BLOCK_DATA_BIN_NAMES));
+        BlockCacheRead read = new BlockCacheRead(cache, blockReads, Arrays.asList(true, true, true, false));
+        List<BatchRead> reads = read.getReads();
+        Assert.assertFalse(reads.get(0).readAllBins || reads.get(0).binNames != null);
+        Assert.assertSame(blockReads.get(3), reads.get(3));
+
+        reads.get(0).record = header(1);
+        reads.get(1).record = header(2);
+        reads.get(2).record = block(5, 10, false);
+        reads.get(3).record = block(9, 10, false);
+        List<BatchRead> followUpReads = read.getFollowUpReads();
+        Assert.assertEquals(1, followUpReads.size());
+        Assert.assertEquals(blockKey(2), followUpReads.get(0).key);
+        followUpReads.get(0).record = block(2, 20, false);
+        read.complete();
+
+        Assert.assertEquals(10, blockReads.get(0).record.getMap(Constants.TIME_SERIES_BIN_NAME).size());
+        Assert.assertEquals(20, blockReads.get(1).record.getMap(Constants.TIME_SERIES_BIN_NAME).size());
+        Assert.assertEquals(5, blockReads.get(2).record.generation);
+        Assert.assertEquals(9, blockReads.get(3).record.generation);
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+        // Blocks read whole are now cached
+        Assert.assertNotNull(cache.get(blockKey(2), 2));
+        Assert.assertNotNull(cache.get(blockKey(3), 5));
+        Assert.assertFalse(cache.contains(new Key("test", "test", "s")));
+    }
+
+    @Test
+    // Without a cache, the block reads are made as given
+    public void blockCacheReadWithoutCache() {
+        List<BatchRead> blockReads = Arrays.asList(new BatchRead(blockKey(1), TimeSeriesClient.BLOCK_DATA_BIN_NAMES));
+        BlockCacheRead read = new BlockCacheRead(null, blockReads, null);
+        Assert.assertSame(blockReads, read.getReads());
+        Assert.assertTrue(read.getFollowUpReads().isEmpty());
+        read.complete();
+    }
+
+    private static Key blockKey(long startTime) {
+        return new Key("test", "test", "s-" + startTime);
+    }
+
+    // Block as per a full read of a historic block, optionally with a compressed bin
+    private static Record block(int generation, int pointCount, boolean compressed) {
+        Map<Long, Double> timeSeries = new TreeMap<>();
+        for (long i = 0; i < pointCount; i++) timeSeries.put(i * 1000, (double) i);
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.TIME_SERIES_BIN_NAME, timeSeries);
+        if (compressed) bins.put(Constants.COMPRESSED_TIME_SERIES_BIN_NAME, new byte[]{1, 2, 3});
+        return new Record(bins, generation, 0);
+    }
+
+    private static Record header(int generation) {
+        return new Record(null, generation, 0);
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class BlockDirectoryCacheTest {
+
+    @Test
+    // The least recently used directory is evicted once the cache is full
+    public void leastRecentlyUsedEviction() {
+        BlockDirectoryCache cache = new BlockDirectoryCache(2);
+        cache.put("a", indexRecord(1));
+        cache.put("b", indexRecord(1));
+        Assert.assertNotNull(cache.get("a"));
+        cache.put("c", indexRecord(1));
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    // A directory is current while its index record keeps the same generation - a missing index record counts as generation zero
+    public void generationCheck() {
+        BlockDirectoryCache cache = new BlockDirectoryCache(10);
+        cache.put("a", indexRecord(3));
+        cache.put("b", null);
+        Assert.assertTrue(cache.isCurrent("a", cache.get("a"), header(3)));
+        Assert.assertTrue(cache.isCurrent("b", cache.get("b"), null));
+        Assert.assertFalse(cache.isCurrent("b", cache.get("b"), header(1)));
+        Assert.assertNull(cache.get("b"));
+        // A directory refreshed since it was used is not evicted
+        BlockDirectoryCache.Directory stale = cache.get("a");
+        cache.put("a", indexRecord(4));
+        Assert.assertFalse(cache.isCurrent("a", stale, header(4)));
+        Assert.assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    // Cached block reads return the blocks only if every stripe's directory is current
+    public void cachedBlockRead() {
+        BlockDirectoryCache cache = new BlockDirectoryCache(10);
+        cache.put("s#0", indexRecord(2));
+        cache.put("s#1", indexRecord(5));
+        String[] stripeNames = new String[]{"s#0", "s#1"};
+        BlockDirectoryCache.Directory[] directories = new BlockDirectoryCache.Directory[]{cache.get("s#0"), cache.get("s#1")};
+        Key[] indexKeys = new Key[]{new Key("test", "testidx", "s#0"), new Key("test", "testidx", "s#1")};
+        BatchRead blockRead = new BatchRead(new Key("test", "test", "s#0"), true);
+
+        CachedBlockRead current = new CachedBlockRead(cache, stripeNames, directories, indexKeys,
+                new BlockCacheRead(null, Collections.singletonList(blockRead), null));
+        Assert.assertEquals(3, current.getReads().size());
+        current.getReads().get(1).record = header(2);
+        current.getReads().get(2).record = header(5);
+        Assert.assertEquals(1, current.result().getBlockReads().size());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        CachedBlockRead stale = new CachedBlockRead(cache, stripeNames, directories, indexKeys,
+                new BlockCacheRead(null, Collections.singletonList(blockRead), null));
+        stale.getReads().get(1).record = header(2);
+        stale.getReads().get(2).record = header(6);
+        Assert.assertNull(stale.result());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertNotNull(cache.get("s#0"));
+        Assert.assertNull(cache.get("s#1"));
+    }
+
+    // Index record as returned by TimeSeriesClient.opForBlockStartTimes
+    private static Record indexRecord(int generation) {
+        return new Record(Collections.singletonMap(Constants.TIME_SERIES_INDEX_BIN_NAME, Arrays.asList(1_000L, 2_000L)), generation, 0);
+    }
+
+    private static Record header(int generation) {
+        return new Record(null, generation, 0);
+    }
+}
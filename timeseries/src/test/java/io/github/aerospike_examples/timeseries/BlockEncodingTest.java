@@ -0,0 +1,134 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class BlockEncodingTest {
+
+    private static final Random RANDOM = new Random(1);
+
+    @Test
+    // Points are merged in order across blocks of every encoding, and queries agree with the merged points
+    public void mergeAcrossEncodings() {
+        TreeMap<Long, Double> first = timeSeries(0, 50);
+        TreeMap<Long, Double> second = timeSeries(50, 50);
+        TreeMap<Long, Double> third = timeSeries(100, 50);
+        Record[] blocks = {gorillaBlock(first), null, columnarBlock(second), mapBlock(third)};
+
+        checkMerge(blocks, Long.MIN_VALUE, Long.MAX_VALUE, allOf(first, second, third));
+        checkMerge(blocks, 25_000, 124_000, allOf(first, second, third).subMap(25_000L, true, 124_000L, true));
+    }
+
+    @Test
+    // Overlapping blocks, as left by an interrupted block copy, do not give duplicates
+    public void overlappingBlocks() {
+        TreeMap<Long, Double> first = timeSeries(0, 50);
+        TreeMap<Long, Double> second = timeSeries(50, 50);
+        Record[] blocks = {columnarBlock(first), gorillaBlock(second), mapBlock(second)};
+
+        checkMerge(blocks, Long.MIN_VALUE, Long.MAX_VALUE, allOf(first, second));
+    }
+
+    @Test
+    // Late points held in the map bin of an encoded block are merged, taking precedence over the encoded points
+    public void latePointsInEncodedBlock() {
+        TreeMap<Long, Double> encoded = timeSeries(0, 50);
+        TreeMap<Long, Double> late = new TreeMap<>();
+        late.put(10_500L, 1.0);
+        late.put(20_000L, 2.0);
+        Record block = columnarBlock(encoded);
+        block.bins.put(Constants.TIME_SERIES_BIN_NAME, late);
+
+        TreeMap<Long, Double> expected = new TreeMap<>(encoded);
+        expected.putAll(late);
+        checkMerge(new Record[]{block}, Long.MIN_VALUE, Long.MAX_VALUE, expected);
+    }
+
+    @Test
+    // A map bin trimmed to the query range on the server arrives as a list of entries, and is merged as a map would be
+    public void trimmedMapBin() {
+        TreeMap<Long, Double> first = timeSeries(0, 50);
+        TreeMap<Long, Double> second = timeSeries(50, 50);
+        TreeMap<Long, Double> third = timeSeries(100, 50);
+        Record[] blocks = {trimmedMapBlock(first.tailMap(25_000L, true)), mapBlock(second), trimmedMapBlock(third.headMap(124_000L, true))};
+
+        checkMerge(blocks, 25_000, 124_000, allOf(first, second, third).subMap(25_000L, true, 124_000L, true));
+    }
+
+    @Test
+    // Only the first and last blocks of a run are trimmed on the server
+    public void edgeBlocksTrimmed() {
+        Key[] keys = new Key[4];
+        for (int i = 0; i < keys.length; i++) keys[i] = new Key("test", "set", "series-" + i);
+        List<BatchRead> blockReads = TimeSeriesClient.blockReads(keys, 0, Long.MAX_VALUE);
+        Assert.assertEquals(keys.length, blockReads.size());
+        for (int i = 0; i < keys.length; i++) {
+            boolean edge = i == 0 || i == keys.length - 1;
+            Assert.assertEquals(keys[i], blockReads.get(i).key);
+            Assert.assertEquals(edge, blockReads.get(i).ops != null);
+            Assert.assertEquals(edge, blockReads.get(i).binNames == null);
+        }
+        Assert.assertTrue(TimeSeriesClient.blockReads(new Key[0], 0, 1).isEmpty());
+    }
+
+    private static void checkMerge(Record[] blocks, long startTime, long endTime, Map<Long, Double> expected) {
+        DataPoint[] dataPoints = TimeSeriesClient.dataPointsFromBlocks(blocks, startTime, endTime);
+        Assert.assertEquals(expected.size(), dataPoints.length);
+        int i = 0;
+        for (Map.Entry<Long, Double> entry : expected.entrySet())
+            Assert.assertTrue(dataPoints[i++].equals(new DataPoint(entry.getKey(), entry.getValue())));
+        for (QueryOperation operation : QueryOperation.values())
+            Assert.assertEquals(TimeSeriesClient.aggregate(dataPoints, operation),
+                    TimeSeriesClient.aggregate(blocks, startTime, endTime, operation), 0);
+    }
+
+    private static TreeMap<Long, Double> timeSeries(int firstPoint, int pointCount) {
+        TreeMap<Long, Double> timeSeries = new TreeMap<>();
+        for (int i = firstPoint; i < firstPoint + pointCount; i++) timeSeries.put(i * 1000L, RANDOM.nextDouble());
+        return timeSeries;
+    }
+
+    @SafeVarargs
+    private static TreeMap<Long, Double> allOf(Map<Long, Double>... timeSeries) {
+        TreeMap<Long, Double> all = new TreeMap<>();
+        for (Map<Long, Double> series : timeSeries) all.putAll(series);
+        return all;
+    }
+
+    private static Record mapBlock(TreeMap<Long, Double> timeSeries) {
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.TIME_SERIES_BIN_NAME, timeSeries);
+        return new Record(bins, 1, 0);
+    }
+
+    private static Record trimmedMapBlock(Map<Long, Double> timeSeries) {
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.TIME_SERIES_BIN_NAME, new ArrayList<>(timeSeries.entrySet()));
+        return new Record(bins, 1, 0);
+    }
+
+    private static Record gorillaBlock(TreeMap<Long, Double> timeSeries) {
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.COMPRESSED_TIME_SERIES_BIN_NAME, GorillaCodec.encode(timeSeries));
+        return new Record(bins, 1, 0);
+    }
+
+    private static Record columnarBlock(TreeMap<Long, Double> timeSeries) {
+        byte[][] columns = ColumnarCodec.encode(timeSeries);
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME, columns[0]);
+        bins.put(Constants.COLUMNAR_VALUES_BIN_NAME, columns[1]);
+        return new Record(bins, 1, 0);
+    }
+}
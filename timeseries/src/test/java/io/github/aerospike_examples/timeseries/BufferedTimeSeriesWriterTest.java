@@ -0,0 +1,144 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.AerospikeException;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import io.github.aerospike_examples.timeseries.util.TestConstants;
+import io.github.aerospike_examples.timeseries.util.TestUtilities;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Random;
+
+public class BufferedTimeSeriesWriterTest {
+
+    // Reference base timestamp for creating test time series - 2022-01-01
+    private static final long BASE_TIMESTAMP = 1640995200000L;
+    // Random data generation object
+    private static final Random RANDOM = new Random();
+
+    // Name of test time series
+    private static final String TEST_TIME_SERIES_NAME = "BufferedTimeSeriesExample";
+
+    @Test
+    /*
+      Points are held until the per series threshold is reached, then written as a batch
+      Remaining points are written on close
+     */
+    public void pointsFlushedAtThresholdAndOnClose() {
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        int maxPointsPerSeries = 10;
+        int dataPointCount = 25;
+        // Long max age so only the size threshold triggers flushes
+        BufferedTimeSeriesWriter writer = new BufferedTimeSeriesWriter(timeSeriesClient, maxPointsPerSeries, 60 * Constants.MILLISECONDS_IN_SECOND, 1000);
+        for (int i = 0; i < dataPointCount; i++) {
+            writer.put(TEST_TIME_SERIES_NAME, new DataPoint(timestamp(i), RANDOM.nextDouble()));
+        }
+        Assert.assertEquals(dataPointCount % maxPointsPerSeries, writer.getPendingPointCount());
+        Assert.assertEquals(dataPointCount % maxPointsPerSeries, writer.getPendingPointCount(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPointCount - dataPointCount % maxPointsPerSeries, pointCount(timeSeriesClient, dataPointCount));
+
+        writer.close();
+        Assert.assertEquals(0, writer.getPendingPointCount());
+        Assert.assertEquals(dataPointCount, pointCount(timeSeriesClient, dataPointCount));
+    }
+
+    @Test
+    /*
+      Buffered points are written once they reach the max age, without any further puts
+     */
+    public void pointsFlushedOnAge() throws Exception {
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        long maxAgeMs = 100;
+        BufferedTimeSeriesWriter writer = new BufferedTimeSeriesWriter(timeSeriesClient, 1000, maxAgeMs, 1000);
+        writer.put(TEST_TIME_SERIES_NAME, new DataPoint(timestamp(0), RANDOM.nextDouble()));
+        Thread.sleep(maxAgeMs * 5);
+        Assert.assertEquals(0, writer.getPendingPointCount());
+        Assert.assertEquals(1, pointCount(timeSeriesClient, 1));
+        writer.close();
+    }
+
+    @Test
+    /*
+      The total number of points held never exceeds the configured maximum, even when spread across many series
+     */
+    public void pendingPointsBounded() {
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        int maxPendingPoints = 50;
+        BufferedTimeSeriesWriter writer = new BufferedTimeSeriesWriter(timeSeriesClient, 1000, 60 * Constants.MILLISECONDS_IN_SECOND, maxPendingPoints);
+        for (int i = 0; i < 200; i++) {
+            writer.put(TEST_TIME_SERIES_NAME + i % 7, new DataPoint(timestamp(i), RANDOM.nextDouble()));
+            Assert.assertTrue(writer.getPendingPointCount() < maxPendingPoints);
+        }
+        writer.close();
+    }
+
+    @Test
+    /*
+      While flushes are failing, points are kept for retry, but no more than the configured maximum - further puts are rejected
+     */
+    public void pendingPointsBoundedWhileFlushesFail() {
+        // Writes to a namespace that does not exist always fail
+        TimeSeriesClient failingClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                "no-such-namespace", TestConstants.TIME_SERIES_TEST_SET, Constants.DEFAULT_MAX_ENTRIES_PER_TIME_SERIES_BLOCK);
+        int maxPendingPoints = 20;
+        BufferedTimeSeriesWriter writer = new BufferedTimeSeriesWriter(failingClient, 10, 60 * Constants.MILLISECONDS_IN_SECOND, maxPendingPoints);
+        int rejectedCount = 0;
+        for (int i = 0; i < 100; i++) {
+            try {
+                writer.put(TEST_TIME_SERIES_NAME, new DataPoint(timestamp(i), RANDOM.nextDouble()));
+            } catch (AerospikeException e) {
+                // Flush failed - its points are kept
+            } catch (IllegalStateException e) {
+                rejectedCount++;
+            }
+            Assert.assertTrue(writer.getPendingPointCount() <= maxPendingPoints);
+        }
+        Assert.assertEquals(maxPendingPoints, writer.getPendingPointCount());
+        Assert.assertEquals(100 - maxPendingPoints, rejectedCount);
+        try {
+            writer.close();
+        } catch (AerospikeException e) {
+            // Final flush fails too
+        }
+    }
+
+    @Test
+    /*
+      Once closed, the writer accepts no more points and can't be flushed
+     */
+    public void closedWriterRejectsPutAndFlush() {
+        BufferedTimeSeriesWriter writer = new BufferedTimeSeriesWriter(TestUtilities.defaultTimeSeriesClient(), 10, 60 * Constants.MILLISECONDS_IN_SECOND, 1000);
+        writer.put(TEST_TIME_SERIES_NAME, new DataPoint(timestamp(0), RANDOM.nextDouble()));
+        writer.close();
+        Assert.assertEquals(0, writer.getPendingPointCount());
+        try {
+            writer.put(TEST_TIME_SERIES_NAME, new DataPoint(timestamp(1), RANDOM.nextDouble()));
+            Assert.fail("put after close should throw");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(0, writer.getPendingPointCount());
+        }
+        try {
+            writer.flush();
+            Assert.fail("flush after close should throw");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    private static int pointCount(TimeSeriesClient timeSeriesClient, int dataPointCount) {
+        return timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(timestamp(0)), new Date(timestamp(dataPointCount))).length;
+    }
+
+    private static long timestamp(int i) {
+        return BASE_TIMESTAMP + i * Constants.MILLISECONDS_IN_SECOND;
+    }
+
+    @After
+    // Truncate the time series set
+    public void teardown() {
+        TestUtilities.removeTimeSeriesTestDataForSet(TestUtilities.defaultTimeSeriesClient().getTimeSeriesSet());
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.aerospike_examples.timeseries;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ColumnarCodecTest {
+
+    @Test
+    // Columns are little endian, timestamps sorted, with the point count in the header
+    public void columnLayout() {
+        Map<Long, Double> timeSeries = new HashMap<>();
+        for (int i = 99; i >= 0; i--) timeSeries.put(1_600_000_000_000L + i * 1000L, (double) i);
+        byte[][] columns = ColumnarCodec.encode(timeSeries);
+
+        Assert.assertEquals(100, ColumnarCodec.pointCount(columns[0]));
+        Assert.assertEquals(8 + 100 * Long.BYTES, columns[0].length);
+        Assert.assertEquals(100 * Double.BYTES, columns[1].length);
+        ByteBuffer timestamps = ByteBuffer.wrap(columns[0]).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer values = ByteBuffer.wrap(columns[1]).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(1_600_000_000_000L + i * 1000L, timestamps.getLong(8 + i * Long.BYTES));
+            Assert.assertEquals(i, values.getDouble(i * Double.BYTES), 0);
+        }
+    }
+
+    @Test
+    // Decoding restricts to the requested range, inclusive at both ends
+    public void decodeRange() {
+        Map<Long, Double> timeSeries = new HashMap<>();
+        for (int i = 0; i < 100; i++) timeSeries.put(i * 10L, i / 2.0);
+        byte[][] columns = ColumnarCodec.encode(timeSeries);
+
+        checkDecode(columns, Long.MIN_VALUE, Long.MAX_VALUE, 0, 100);
+        checkDecode(columns, 100, 200, 10, 11);
+        checkDecode(columns, 101, 199, 11, 9);
+        checkDecode(columns, 991, 2000, 100, 0);
+        checkDecode(columns, -100, -1, 0, 0);
+
+        byte[][] emptyColumns = ColumnarCodec.encode(new HashMap<>());
+        checkDecode(emptyColumns, Long.MIN_VALUE, Long.MAX_VALUE, 0, 0);
+    }
+
+    private static void checkDecode(byte[][] columns, long startTime, long endTime, int expectedFirstIndex, int expectedCount) {
+        List<DataPoint> decoded = new ArrayList<>();
+        ColumnarCodec.decode(columns[0], columns[1], startTime, endTime, (timestamp, value) -> decoded.add(new DataPoint(timestamp, value)));
+        Assert.assertEquals(expectedCount, decoded.size());
+        for (int i = 0; i < expectedCount; i++)
+            Assert.assertTrue(decoded.get(i).equals(new DataPoint((expectedFirstIndex + i) * 10L, (expectedFirstIndex + i) / 2.0)));
+    }
+}
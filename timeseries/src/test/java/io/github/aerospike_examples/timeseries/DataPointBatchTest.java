@@ -0,0 +1,42 @@
+package io.github.aerospike_examples.timeseries;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DataPointBatchTest {
+
+    @Test
+    // Batch should grow past its initial capacity, keeping points in the order added
+    public void addAndGrow() {
+        DataPointBatch batch = new DataPointBatch(1);
+        for (int i = 0; i < 100; i++) batch.add(i * 1000L, i / 2.0);
+        Assert.assertEquals(100, batch.getLength());
+        DataPoint[] dataPoints = batch.toDataPoints();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i * 1000L, batch.getTimestamp(i));
+            Assert.assertEquals(i / 2.0, batch.getValue(i), 0);
+            Assert.assertTrue(dataPoints[i].equals(new DataPoint(i * 1000L, i / 2.0)));
+        }
+    }
+
+    @Test
+    // A cleared batch should be empty but keep its arrays for re-use
+    public void clearRetainsCapacity() {
+        DataPointBatch batch = new DataPointBatch(new DataPoint[]{new DataPoint(1, 1.5), new DataPoint(2, 2.5)});
+        long[] timestamps = batch.getTimestamps();
+        batch.clear();
+        Assert.assertEquals(0, batch.getLength());
+        Assert.assertEquals(0, batch.toDataPoints().length);
+        batch.add(3, 3.5);
+        Assert.assertSame(timestamps, batch.getTimestamps());
+        Assert.assertEquals(3, batch.getTimestamp(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    // Points beyond the batch length should not be readable, even if the backing array holds them
+    public void readBeyondLength() {
+        DataPointBatch batch = new DataPointBatch(new DataPoint[]{new DataPoint(1, 1.5)});
+        batch.clear();
+        batch.getTimestamp(0);
+    }
+}
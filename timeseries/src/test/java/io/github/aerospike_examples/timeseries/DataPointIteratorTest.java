@@ -0,0 +1,48 @@
+package io.github.aerospike_examples.timeseries;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class DataPointIteratorTest {
+
+    @Test
+    // Merging ordered iterators - as for the stripes of a series - should give a single ordered sequence
+    public void mergeIsOrdered() {
+        List<Iterator<DataPoint>> iterators = new ArrayList<>();
+        List<Long> expectedTimestamps = new ArrayList<>();
+        for (int stripe = 0; stripe < 3; stripe++) {
+            List<DataPoint> dataPoints = new ArrayList<>();
+            for (long timestamp = stripe; timestamp < 30; timestamp += 3 + stripe) {
+                dataPoints.add(new DataPoint(timestamp, timestamp / 2.0));
+                expectedTimestamps.add(timestamp);
+            }
+            iterators.add(dataPoints.iterator());
+        }
+        iterators.add(Collections.emptyIterator());
+        Collections.sort(expectedTimestamps);
+
+        Iterator<DataPoint> merged = DataPointIterator.merge(iterators);
+        for (long expectedTimestamp : expectedTimestamps) {
+            Assert.assertTrue(merged.hasNext());
+            DataPoint dataPoint = merged.next();
+            Assert.assertEquals(expectedTimestamp, dataPoint.getTimestamp());
+            Assert.assertEquals(expectedTimestamp / 2.0, dataPoint.getValue(), 0);
+        }
+        Assert.assertFalse(merged.hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    // An exhausted merge should behave as any other exhausted iterator
+    public void mergeExhausted() {
+        Iterator<DataPoint> merged = DataPointIterator.merge(Arrays.asList(Collections.emptyIterator(), Collections.emptyIterator()));
+        Assert.assertFalse(merged.hasNext());
+        merged.next();
+    }
+}
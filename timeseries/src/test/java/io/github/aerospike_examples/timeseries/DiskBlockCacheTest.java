@@ -0,0 +1,129 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class DiskBlockCacheTest {
+
+    private static final int SLOT_SIZE = 1024;
+    // Last update time of the blocks cached, in nanoseconds
+    private static final long LAST_UPDATE_TIME = 1_650_000_000_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    // Blocks survive the cache being closed and reopened, but not a change of slot size
+    public void persistence() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (DiskBlockCache cache = new DiskBlockCache(directory, "test", SLOT_SIZE, 4)) {
+            cache.put(blockKey(1), block(3, 10));
+        }
+
+        try (DiskBlockCache reopened = new DiskBlockCache(directory, "test", SLOT_SIZE, 4)) {
+            Assert.assertEquals(1, reopened.size());
+            Assert.assertEquals(block(3, 10).getMap(Constants.TIME_SERIES_BIN_NAME),
+                    reopened.get(blockKey(1), 3, LAST_UPDATE_TIME).getMap(Constants.TIME_SERIES_BIN_NAME));
+        }
+        // Each namespace has its own file
+        try (DiskBlockCache other = new DiskBlockCache(directory, "other", SLOT_SIZE, 4)) {
+            Assert.assertEquals(0, other.size());
+        }
+
+        try (DiskBlockCache resized = new DiskBlockCache(directory, "test", 2 * SLOT_SIZE, 4)) {
+            Assert.assertEquals(0, resized.size());
+        }
+    }
+
+    @Test
+    // A cached block is only used while its record keeps the same generation
+    public void generationCheck() throws Exception {
+        try (DiskBlockCache cache = new DiskBlockCache(folder.getRoot().toPath(), "test", SLOT_SIZE, 4)) {
+            cache.put(blockKey(1), block(3, 10));
+            Assert.assertNull(cache.get(blockKey(1), 4, LAST_UPDATE_TIME));
+            Assert.assertFalse(cache.contains(blockKey(1)));
+        }
+    }
+
+    @Test
+    // A block rewritten while the cache was closed may be back at the same generation, so the last update time must match too
+    public void lastUpdateTimeCheck() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (DiskBlockCache cache = new DiskBlockCache(directory, "test", SLOT_SIZE, 4)) {
+            cache.put(blockKey(1), block(1, 10));
+        }
+
+        try (DiskBlockCache reopened = new DiskBlockCache(directory, "test", SLOT_SIZE, 4)) {
+            Assert.assertNull(reopened.get(blockKey(1), 1, LAST_UPDATE_TIME + 1));
+            Assert.assertFalse(reopened.contains(blockKey(1)));
+            // Blocks read without their last update time can't be checked, so are not cached
+            reopened.put(blockKey(2), new Record(Collections.singletonMap(Constants.TIME_SERIES_BIN_NAME, Collections.singletonMap(0L, 0.0)), 1, 0));
+            Assert.assertFalse(reopened.contains(blockKey(2)));
+        }
+    }
+
+    @Test
+    // Slots not used since the clock hand last passed are reused first, and blocks too large for a slot are not cached
+    public void clockEviction() throws Exception {
+        try (DiskBlockCache cache = new DiskBlockCache(folder.getRoot().toPath(), "test", SLOT_SIZE, 2)) {
+            cache.put(blockKey(1), block(1, 10));
+            cache.put(blockKey(2), block(1, 10));
+            // All slots referenced - the clock clears both, then reuses the first
+            cache.put(blockKey(3), block(1, 10));
+            Assert.assertFalse(cache.contains(blockKey(1)));
+            Assert.assertNotNull(cache.get(blockKey(3), 1, LAST_UPDATE_TIME));
+            // Block 2 is not referenced since the hand passed it, so goes next
+            cache.put(blockKey(4), block(1, 10));
+            Assert.assertFalse(cache.contains(blockKey(2)));
+            Assert.assertTrue(cache.contains(blockKey(3)));
+
+            cache.put(blockKey(5), block(1, 100));
+            Assert.assertFalse(cache.contains(blockKey(5)));
+        }
+    }
+
+    @Test
+    // Encoded blocks are stored decoded, with late points in the map bin taking precedence
+    public void decodedBlocks() throws Exception {
+        Map<Long, Double> encodedPoints = new TreeMap<>();
+        for (long i = 0; i < 10; i++) encodedPoints.put(i * 1000, (double) i);
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.COMPRESSED_TIME_SERIES_BIN_NAME, GorillaCodec.encode(encodedPoints));
+        bins.put(Constants.TIME_SERIES_BIN_NAME, Collections.singletonMap(2000L, 20.0));
+        bins.put(DiskBlockCache.LAST_UPDATE_TIME_NAME, LAST_UPDATE_TIME);
+        try (DiskBlockCache cache = new DiskBlockCache(folder.getRoot().toPath(), "test", SLOT_SIZE, 4)) {
+            cache.put(blockKey(1), new Record(bins, 2, 0));
+
+            Record cached = cache.get(blockKey(1), 2, LAST_UPDATE_TIME);
+            Assert.assertNull(cached.getValue(Constants.COMPRESSED_TIME_SERIES_BIN_NAME));
+            Map<?, ?> timeSeries = cached.getMap(Constants.TIME_SERIES_BIN_NAME);
+            Assert.assertEquals(10, timeSeries.size());
+            Assert.assertEquals(20.0, timeSeries.get(2000L));
+        }
+    }
+
+    private static Key blockKey(long startTime) {
+        return new Key("test", "test", "s-" + startTime);
+    }
+
+    // Block as per a full read of a map encoded historic block, made with DiskBlockCache.opsForBlockRead
+    private static Record block(int generation, int pointCount) {
+        Map<Long, Double> timeSeries = new TreeMap<>();
+        for (long i = 0; i < pointCount; i++) timeSeries.put(i * 1000, (double) i);
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.TIME_SERIES_BIN_NAME, timeSeries);
+        bins.put(DiskBlockCache.LAST_UPDATE_TIME_NAME, LAST_UPDATE_TIME);
+        return new Record(bins, generation, 0);
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.aerospike_examples.timeseries;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class GorillaCodecTest {
+
+    private static final Random RANDOM = new Random(1);
+
+    @Test
+    // Regularly sampled points, unchanged values and gaps of all sizes should all survive encoding
+    public void roundTrip() {
+        TreeMap<Long, Double> timeSeries = new TreeMap<>();
+        long timestamp = 1_600_000_000_000L;
+        double value = 100;
+        for (int i = 0; i < 1000; i++) {
+            // Mostly regular, with jitter and occasional large gaps
+            long gap = 1000;
+            if (i % 10 == 0) gap += RANDOM.nextInt(100) - 50;
+            if (i % 97 == 0) gap += RANDOM.nextInt(1_000_000_000);
+            timestamp += gap;
+            if (i % 3 != 0) value += RANDOM.nextGaussian();
+            timeSeries.put(timestamp, value);
+        }
+        timeSeries.put(timestamp + 1, Double.NaN);
+        timeSeries.put(timestamp + 2, -0.0);
+        timeSeries.put(timestamp + 3, Double.MAX_VALUE);
+
+        checkRoundTrip(timeSeries);
+    }
+
+    @Test
+    // Empty and single point blocks
+    public void smallBlocks() {
+        checkRoundTrip(new TreeMap<>());
+        TreeMap<Long, Double> timeSeries = new TreeMap<>();
+        timeSeries.put(-1L, 1.5);
+        checkRoundTrip(timeSeries);
+    }
+
+    @Test
+    // A regularly sampled, slowly changing series should compress well below the ~18 bytes per point of a map
+    public void compresses() {
+        TreeMap<Long, Double> timeSeries = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) timeSeries.put(1_600_000_000_000L + i * 1000L, 100.0 + (i / 10));
+        byte[] block = GorillaCodec.encode(timeSeries);
+        Assert.assertTrue(block.length < timeSeries.size() * 2);
+        checkRoundTrip(timeSeries);
+    }
+
+    private static void checkRoundTrip(TreeMap<Long, Double> timeSeries) {
+        byte[] block = GorillaCodec.encode(timeSeries);
+        Assert.assertEquals(timeSeries.size(), GorillaCodec.pointCount(block));
+        List<DataPoint> decoded = new ArrayList<>();
+        GorillaCodec.decode(block, (timestamp, value) -> decoded.add(new DataPoint(timestamp, value)));
+        Assert.assertEquals(timeSeries.size(), decoded.size());
+        int i = 0;
+        for (Long timestamp : timeSeries.keySet()) {
+            Assert.assertEquals(timestamp.longValue(), decoded.get(i).getTimestamp());
+            Assert.assertEquals(Double.doubleToRawLongBits(timeSeries.get(timestamp)), Double.doubleToRawLongBits(decoded.get(i).getValue()));
+            i++;
+        }
+    }
+}
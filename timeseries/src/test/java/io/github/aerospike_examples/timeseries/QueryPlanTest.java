@@ -0,0 +1,238 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class QueryPlanTest {
+
+    private static final Random RANDOM = new Random(1);
+    private static final int BLOCK_COUNT = 6;
+    private static final int POINTS_PER_BLOCK = 50;
+
+    @Test
+    // Only the middle blocks of a run are aggregated on the server, and only for MIN, MAX and COUNT
+    public void planPerBlock() {
+        Key[] keys = keys();
+        for (QueryOperation operation : QueryOperation.values()) {
+            boolean serverAggregation = operation == QueryOperation.MIN || operation == QueryOperation.MAX || operation == QueryOperation.COUNT;
+            // Index based layout - last two blocks read in full
+            QueryPlan queryPlan = new QueryPlan(Collections.singletonList(keys), null, true, 0, Long.MAX_VALUE, operation);
+            for (int i = 0; i < BLOCK_COUNT; i++) {
+                Assert.assertEquals(serverAggregation && i > 0 && i < BLOCK_COUNT - 2, queryPlan.isAggregatedOnServer(i));
+                Assert.assertEquals(keys[i], queryPlan.getBlockReads().get(i).key);
+            }
+            // Bucketed layout - only the edges read in full
+            queryPlan = new QueryPlan(Collections.singletonList(keys), null, false, 0, Long.MAX_VALUE, operation);
+            for (int i = 0; i < BLOCK_COUNT; i++) Assert.assertEquals(serverAggregation && i > 0 && i < BLOCK_COUNT - 1, queryPlan.isAggregatedOnServer(i));
+        }
+    }
+
+    @Test
+    // Results combining server aggregates and points should match aggregating all the points in range
+    public void resultsMatchPoints() {
+        List<TreeMap<Long, Double>> blocks = new ArrayList<>();
+        for (int i = 0; i < BLOCK_COUNT; i++) blocks.add(timeSeries(i * POINTS_PER_BLOCK));
+        // Duplicate of the last historic block's points in the current block, as left by an interrupted block copy
+        blocks.get(BLOCK_COUNT - 1).putAll(blocks.get(BLOCK_COUNT - 2).tailMap(blocks.get(BLOCK_COUNT - 2).lastKey() - 5_000L));
+        long startTime = 20_000;
+        long endTime = (BLOCK_COUNT * POINTS_PER_BLOCK - 20) * 1000L;
+        TreeMap<Long, Double> expected = new TreeMap<>();
+        for (TreeMap<Long, Double> block : blocks) expected.putAll(block.subMap(startTime, true, endTime, true));
+
+        for (QueryOperation operation : QueryOperation.values()) {
+            QueryPlan queryPlan = new QueryPlan(Collections.singletonList(keys()), null, true, startTime, endTime, operation);
+            List<BatchRead> blockReads = queryPlan.getBlockReads();
+            for (int i = 0; i < BLOCK_COUNT; i++)
+                blockReads.get(i).record = simulateRead(blockReads.get(i), queryPlan.isAggregatedOnServer(i), blocks.get(i), startTime, endTime, operation);
+            Assert.assertTrue(queryPlan.getFollowUpReads().isEmpty());
+            DataPoint[] dataPoints = new DataPoint[expected.size()];
+            int i = 0;
+            for (Map.Entry<Long, Double> entry : expected.entrySet()) dataPoints[i++] = new DataPoint(entry.getKey(), entry.getValue());
+            Assert.assertEquals(TimeSeriesClient.aggregate(dataPoints, operation), queryPlan.result(), 1e-9);
+        }
+    }
+
+    @Test
+    // Blocks within the range with summaries in their index entries are not read, and results still match the points
+    public void summariesReplaceReads() {
+        List<TreeMap<Long, Double>> blocks = new ArrayList<>();
+        for (int i = 0; i < BLOCK_COUNT; i++) blocks.add(timeSeries(i * POINTS_PER_BLOCK));
+        long startTime = 20_000;
+        long endTime = (BLOCK_COUNT * POINTS_PER_BLOCK - 20) * 1000L;
+        TreeMap<Long, Double> expected = new TreeMap<>();
+        for (TreeMap<Long, Double> block : blocks) expected.putAll(block.subMap(startTime, true, endTime, true));
+        // Last block is the current block, so has no index entry, and one historic block has lost its summary to a late write
+        BlockSummary[] summaries = new BlockSummary[BLOCK_COUNT];
+        for (int i = 0; i < BLOCK_COUNT - 1; i++) {
+            Map<String, Object> indexEntry = new HashMap<>();
+            indexEntry.put(Constants.END_TIME_FIELD_NAME, blocks.get(i).lastKey());
+            indexEntry.put(Constants.ENTRY_COUNT_FIELD_NAME, (long) blocks.get(i).size());
+            if (i != 2) BlockSummary.putSummaryFields(indexEntry, blocks.get(i));
+            summaries[i] = BlockSummary.fromIndexEntry(blocks.get(i).firstKey(), indexEntry);
+        }
+        Assert.assertNull(summaries[2]);
+
+        for (QueryOperation operation : QueryOperation.values()) {
+            QueryPlan queryPlan = new QueryPlan(Collections.singletonList(keys()), Collections.singletonList(summaries), true, startTime, endTime, operation);
+            List<BatchRead> blockReads = queryPlan.getBlockReads();
+            // Block 0 straddles the range start, block 2 has no summary, blocks 4 and 5 are the last two
+            Assert.assertEquals(4, blockReads.size());
+            for (int i = 0; i < blockReads.size(); i++) {
+                int block = Integer.parseInt(((String) blockReads.get(i).key.userKey.getObject()).substring("series-".length()));
+                blockReads.get(i).record = simulateRead(blockReads.get(i), queryPlan.isAggregatedOnServer(i), blocks.get(block), startTime, endTime, operation);
+            }
+            DataPoint[] dataPoints = new DataPoint[expected.size()];
+            int i = 0;
+            for (Map.Entry<Long, Double> entry : expected.entrySet()) dataPoints[i++] = new DataPoint(entry.getKey(), entry.getValue());
+            Assert.assertEquals(TimeSeriesClient.aggregate(dataPoints, operation), queryPlan.result(), 1e-9);
+        }
+    }
+
+    @Test
+    // The current block's running statistics stand in for its points when the server does not return them
+    public void currentBlockRunningStatistics() {
+        List<TreeMap<Long, Double>> blocks = new ArrayList<>();
+        for (int i = 0; i < BLOCK_COUNT; i++) blocks.add(timeSeries(i * POINTS_PER_BLOCK));
+        TreeMap<Long, Double> currentBlock = blocks.get(BLOCK_COUNT - 1);
+        long startTime = 20_000;
+        TreeMap<Long, Double> expected = new TreeMap<>();
+        for (TreeMap<Long, Double> block : blocks) expected.putAll(block.tailMap(startTime, true));
+        DataPoint[] dataPoints = new DataPoint[expected.size()];
+        int j = 0;
+        for (Map.Entry<Long, Double> entry : expected.entrySet()) dataPoints[j++] = new DataPoint(entry.getKey(), entry.getValue());
+        Map<String, Object> runningStatistics = new HashMap<>();
+        runningStatistics.put(Constants.START_TIME_FIELD_NAME, currentBlock.firstKey());
+        runningStatistics.put(Constants.ENTRY_COUNT_FIELD_NAME, (long) currentBlock.size());
+        BlockSummary.putSummaryFields(runningStatistics, currentBlock);
+
+        for (QueryOperation operation : QueryOperation.values()) {
+            for (boolean pointsReturned : new boolean[]{false, true}) {
+                QueryPlan queryPlan = new QueryPlan(Collections.singletonList(keys()), null, new Long[]{blocks.get(BLOCK_COUNT - 2).lastKey()},
+                        startTime, Long.MAX_VALUE, operation);
+                List<BatchRead> blockReads = queryPlan.getBlockReads();
+                for (int i = 0; i < BLOCK_COUNT - 1; i++)
+                    blockReads.get(i).record = simulateRead(blockReads.get(i), queryPlan.isAggregatedOnServer(i), blocks.get(i), startTime, Long.MAX_VALUE, operation);
+                Map<String, Object> bins = new HashMap<>();
+                bins.put(Constants.METADATA_BIN_NAME, runningStatistics);
+                if (pointsReturned) bins.put(TimeSeriesClient.CURRENT_BLOCK_RANGE_POINTS_NAME, new ArrayList<>(currentBlock.entrySet()));
+                blockReads.get(BLOCK_COUNT - 1).record = new Record(bins, 1, 0);
+                Assert.assertTrue(queryPlan.getFollowUpReads().isEmpty());
+                Assert.assertEquals(TimeSeriesClient.aggregate(dataPoints, operation), queryPlan.result(), 1e-9);
+            }
+        }
+
+        // Neither points nor running statistics returned - the points are read instead
+        QueryPlan queryPlan = new QueryPlan(Collections.singletonList(keys()), null, new Long[]{Long.MIN_VALUE}, startTime, Long.MAX_VALUE, QueryOperation.AVG);
+        queryPlan.getBlockReads().get(BLOCK_COUNT - 1).record = new Record(new HashMap<>(), 1, 0);
+        Assert.assertEquals(1, queryPlan.getFollowUpReads().size());
+    }
+
+    @Test
+    // Per bucket results match the points in each bucket, with summaries standing in for blocks lying within one bucket
+    public void bucketedResults() {
+        long bucketWidth = 2 * POINTS_PER_BLOCK * 1000L;
+        List<TreeMap<Long, Double>> blocks = new ArrayList<>();
+        for (int i = 0; i < BLOCK_COUNT; i++) blocks.add(timeSeries(i * POINTS_PER_BLOCK));
+        long startTime = 20_000;
+        long endTime = (BLOCK_COUNT * POINTS_PER_BLOCK - 20) * 1000L;
+        BlockSummary[] summaries = new BlockSummary[BLOCK_COUNT];
+        for (int i = 0; i < BLOCK_COUNT - 1; i++) {
+            Map<String, Object> indexEntry = new HashMap<>();
+            indexEntry.put(Constants.END_TIME_FIELD_NAME, blocks.get(i).lastKey());
+            indexEntry.put(Constants.ENTRY_COUNT_FIELD_NAME, (long) blocks.get(i).size());
+            BlockSummary.putSummaryFields(indexEntry, blocks.get(i));
+            summaries[i] = BlockSummary.fromIndexEntry(blocks.get(i).firstKey(), indexEntry);
+        }
+        Map<Long, List<DataPoint>> pointsByBucket = new TreeMap<>();
+        for (TreeMap<Long, Double> block : blocks)
+            for (Map.Entry<Long, Double> entry : block.subMap(startTime, true, endTime, true).entrySet())
+                pointsByBucket.computeIfAbsent(QueryPlan.bucketStartTime(entry.getKey(), bucketWidth), ignore -> new ArrayList<>())
+                        .add(new DataPoint(entry.getKey(), entry.getValue()));
+
+        for (QueryOperation operation : QueryOperation.values()) {
+            QueryPlan queryPlan = new QueryPlan(Collections.singletonList(keys()), Collections.singletonList(summaries), true, startTime, endTime,
+                    operation, bucketWidth);
+            List<BatchRead> blockReads = queryPlan.getBlockReads();
+            // Block 0 straddles the range start, blocks 4 and 5 are the last two
+            Assert.assertEquals(3, blockReads.size());
+            for (int i = 0; i < blockReads.size(); i++) {
+                Assert.assertFalse(queryPlan.isAggregatedOnServer(i));
+                int block = Integer.parseInt(((String) blockReads.get(i).key.userKey.getObject()).substring("series-".length()));
+                blockReads.get(i).record = simulateRead(blockReads.get(i), false, blocks.get(block), startTime, endTime, operation);
+            }
+            TreeMap<Long, QueryAggregator> bucketAggregators = new TreeMap<>();
+            queryPlan.accumulateBuckets(bucketAggregators);
+            DataPointBatch results = TimeSeriesClient.bucketResults(bucketAggregators, operation, new DataPointBatch());
+            Assert.assertEquals(pointsByBucket.size(), results.getLength());
+            int i = 0;
+            for (Map.Entry<Long, List<DataPoint>> bucket : pointsByBucket.entrySet()) {
+                Assert.assertEquals((long) bucket.getKey(), results.getTimestamp(i));
+                Assert.assertEquals(TimeSeriesClient.aggregate(bucket.getValue().toArray(new DataPoint[0]), operation), results.getValue(i++), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    // An encoded block holding late points cannot be aggregated on the server so is read again in full
+    public void encodedBlockWithLatePoints() {
+        TreeMap<Long, Double> encoded = timeSeries(POINTS_PER_BLOCK);
+        QueryPlan queryPlan = new QueryPlan(Collections.singletonList(keys()), null, true, 0, Long.MAX_VALUE, QueryOperation.COUNT);
+        List<BatchRead> blockReads = queryPlan.getBlockReads();
+        for (BatchRead blockRead : blockReads) blockRead.record = new Record(new HashMap<>(), 1, 0);
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(Constants.COMPRESSED_TIME_SERIES_BIN_NAME, GorillaCodec.encode(encoded));
+        bins.put(Constants.TIME_SERIES_BIN_NAME, 1L);
+        blockReads.get(1).record = new Record(bins, 1, 0);
+
+        List<BatchRead> followUpReads = queryPlan.getFollowUpReads();
+        Assert.assertEquals(1, followUpReads.size());
+        Assert.assertEquals(blockReads.get(1).key, followUpReads.get(0).key);
+        // Late point replaces an encoded point
+        TreeMap<Long, Double> late = new TreeMap<>();
+        late.put(encoded.firstKey(), -1.0);
+        Map<String, Object> fullBins = new HashMap<>(bins);
+        fullBins.put(Constants.TIME_SERIES_BIN_NAME, late);
+        followUpReads.get(0).record = new Record(fullBins, 1, 0);
+        Assert.assertEquals(POINTS_PER_BLOCK, queryPlan.result(), 0);
+    }
+
+    // As the server would respond to each kind of block read in the plan
+    private static Record simulateRead(BatchRead blockRead, boolean aggregatedOnServer, TreeMap<Long, Double> block,
+                                       long startTime, long endTime, QueryOperation operation) {
+        Map<String, Object> bins = new HashMap<>();
+        if (blockRead.binNames != null) {
+            bins.put(Constants.TIME_SERIES_BIN_NAME, block);
+        } else if (aggregatedOnServer) {
+            if (operation == QueryOperation.COUNT) bins.put(Constants.TIME_SERIES_BIN_NAME, (long) block.size());
+            if (operation == QueryOperation.MIN) bins.put(Constants.TIME_SERIES_BIN_NAME, Collections.min(block.values()));
+            if (operation == QueryOperation.MAX) bins.put(Constants.TIME_SERIES_BIN_NAME, Collections.max(block.values()));
+        } else {
+            bins.put(Constants.TIME_SERIES_BIN_NAME, new ArrayList<>(block.subMap(startTime, true, endTime, true).entrySet()));
+        }
+        return new Record(bins, 1, 0);
+    }
+
+    private static Key[] keys() {
+        Key[] keys = new Key[BLOCK_COUNT];
+        for (int i = 0; i < BLOCK_COUNT; i++) keys[i] = new Key("test", "set", "series-" + i);
+        return keys;
+    }
+
+    private static TreeMap<Long, Double> timeSeries(int firstPoint) {
+        TreeMap<Long, Double> timeSeries = new TreeMap<>();
+        for (int i = firstPoint; i < firstPoint + POINTS_PER_BLOCK; i++) timeSeries.put(i * 1000L, RANDOM.nextGaussian());
+        return timeSeries;
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class RollupTiersTest {
+
+    private static final long WIDTH = 10_000;
+
+    @Test
+    // Buckets and rollup records start on multiples of their width, including before the epoch
+    public void bucketAndRecordStartTimes() {
+        Assert.assertEquals(20_000, RollupTiers.bucketStartTime(29_999, WIDTH));
+        Assert.assertEquals(-10_000, RollupTiers.bucketStartTime(-1, WIDTH));
+        long recordWidth = WIDTH * Constants.ROLLUP_BUCKETS_PER_RECORD;
+        Assert.assertEquals(recordWidth, RollupTiers.recordStartTime(recordWidth + 20_000, WIDTH));
+        Assert.assertEquals(-recordWidth, RollupTiers.recordStartTime(-10_000, WIDTH));
+    }
+
+    @Test
+    // Bucket aggregates hold the count, sum, min, max and last point of each bucket
+    public void bucketAggregates() {
+        DataPointBatch dataPoints = new DataPointBatch();
+        dataPoints.add(1_000, 3.0);
+        dataPoints.add(5_000, 1.0);
+        dataPoints.add(9_000, 2.0);
+        dataPoints.add(12_000, 4.0);
+        SortedMap<Long, List<Object>> bucketAggregates = RollupTiers.bucketAggregates(dataPoints, WIDTH);
+        Assert.assertEquals(2, bucketAggregates.size());
+        Assert.assertEquals(aggregate(3, 6.0, 1.0, 3.0, 9_000, 2.0), bucketAggregates.get(0L));
+        Assert.assertEquals(aggregate(1, 4.0, 4.0, 4.0, 12_000, 4.0), bucketAggregates.get(10_000L));
+    }
+
+    @Test
+    // Query results merge block contributions, stripes and the current block, counting current block points once
+    public void queryResult() {
+        RollupTiers rollupTiers = new RollupTiers(null, new long[]{WIDTH});
+        String[] stripeNames = new String[]{"series#0", "series#1"};
+        List<BatchRead> queryReads = new ArrayList<>();
+        // Stripe 0 - finest tier bucket 0 has contributions from two blocks, and the current block repeats the last archived point
+        Map<Long, List<Object>> bucket = new HashMap<>();
+        bucket.put(0L, aggregate(2, 3.0, 1.0, 2.0, 4_000, 2.0));
+        bucket.put(5_000L, aggregate(1, 5.0, 5.0, 5.0, 6_000, 5.0));
+        queryReads.add(read(Constants.ROLLUP_BIN_NAME, Collections.singletonMap(0L, bucket)));
+        TreeMap<Long, Double> currentBlock = new TreeMap<>();
+        currentBlock.put(6_000L, 5.0);
+        currentBlock.put(11_000L, 7.0);
+        queryReads.add(read(Constants.TIME_SERIES_BIN_NAME, currentBlock));
+        queryReads.add(read(Constants.TIME_SERIES_INDEX_BIN_NAME, Collections.singletonMap(5_000L,
+                Collections.singletonMap(Constants.END_TIME_FIELD_NAME, 6_000L))));
+        // Stripe 1 - no rollups or index yet, just a current block
+        queryReads.add(read(Constants.ROLLUP_BIN_NAME, null));
+        queryReads.add(read(Constants.TIME_SERIES_BIN_NAME, Collections.singletonMap(8_000L, -1.0)));
+        queryReads.add(read(Constants.TIME_SERIES_INDEX_BIN_NAME, null));
+
+        Rollup[] rollups = rollupTiers.queryResult(stripeNames, 0, 0, 19_999, queryReads);
+        Assert.assertEquals(2, rollups.length);
+        Assert.assertEquals(0, rollups[0].getStartTime());
+        Assert.assertEquals(4, rollups[0].getCount());
+        Assert.assertEquals(7.0, rollups[0].getSum(), 0);
+        Assert.assertEquals(-1.0, rollups[0].getMinValue(), 0);
+        Assert.assertEquals(5.0, rollups[0].getMaxValue(), 0);
+        Assert.assertEquals(8_000, rollups[0].getLastTimestamp());
+        Assert.assertEquals(-1.0, rollups[0].getLastValue(), 0);
+        Assert.assertEquals(10_000, rollups[1].getStartTime());
+        Assert.assertEquals(1, rollups[1].getCount());
+        Assert.assertEquals(7.0, rollups[1].getLastValue(), 0);
+    }
+
+    private static List<Object> aggregate(long count, double sum, double minValue, double maxValue, long lastTimestamp, double lastValue) {
+        List<Object> aggregate = new ArrayList<>();
+        Collections.addAll(aggregate, count, sum, minValue, maxValue, lastTimestamp, lastValue);
+        return aggregate;
+    }
+
+    // A completed batch read returning a single bin, or no record if the value is null
+    private static BatchRead read(String binName, Object value) {
+        BatchRead batchRead = new BatchRead(new Key("test", "test", binName), true);
+        if (value != null) batchRead.record = new Record(Collections.singletonMap(binName, value), 1, 0);
+        return batchRead;
+    }
+}
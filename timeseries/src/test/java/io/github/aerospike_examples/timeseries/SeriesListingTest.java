@@ -0,0 +1,90 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class SeriesListingTest {
+
+    private final SeriesCatalog seriesCatalog = new SeriesCatalog("test", "testcatalog");
+    // Simulated catalog - names by shard
+    private final Map<Integer, TreeSet<String>> catalog = new TreeMap<>();
+    // Names listed so far
+    private final Set<String> listed = new HashSet<>();
+
+    @Test
+    // Paging through the catalog lists every name with the prefix exactly once
+    public void pagesCoverCatalog() {
+        Set<String> expected = new TreeSet<>();
+        for (int i = 0; i < 500; i++) {
+            add("host-" + i);
+            expected.add("host-" + i);
+            if (i % 10 == 0) add("db-" + i);
+        }
+        for (int pageSize : new int[]{1, 7, 1000}) {
+            listed.clear();
+            List<String> names = new ArrayList<>();
+            SeriesNamePage page = list("host-", null, pageSize);
+            names.addAll(page.getNames());
+            while (page.hasNextPage()) {
+                Assert.assertEquals(pageSize, page.getNames().size());
+                page = list("host-", page.getNextPageToken(), pageSize);
+                names.addAll(page.getNames());
+            }
+            Assert.assertEquals(expected.size(), names.size());
+            Assert.assertEquals(expected, new TreeSet<>(names));
+        }
+    }
+
+    @Test
+    // An empty catalog lists nothing
+    public void emptyCatalog() {
+        SeriesNamePage page = list("", null, 100);
+        Assert.assertTrue(page.getNames().isEmpty());
+        Assert.assertFalse(page.hasNextPage());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPageToken() {
+        new SeriesListing(seriesCatalog, "", "-1:host", 10);
+    }
+
+    private void add(String timeSeriesName) {
+        catalog.computeIfAbsent(SeriesCatalog.shard(timeSeriesName), ignore -> new TreeSet<>()).add(timeSeriesName);
+    }
+
+    // Run a listing, completing its reads from the simulated catalog
+    private SeriesNamePage list(String prefix, String pageToken, int pageSize) {
+        SeriesListing seriesListing = new SeriesListing(seriesCatalog, prefix, pageToken, pageSize);
+        for (List<BatchRead> reads = seriesListing.getReads(); !reads.isEmpty(); reads = seriesListing.getReads())
+            for (BatchRead read : reads) complete(read, prefix, pageSize);
+        SeriesNamePage page = seriesListing.result();
+        listed.addAll(page.getNames());
+        return page;
+    }
+
+    // Names are returned from after the last name listed from the shard, or from the prefix if none have been
+    private void complete(BatchRead read, String prefix, int count) {
+        TreeSet<String> shardNames = catalog.get(read.key.userKey.toInteger());
+        if (shardNames == null) return;
+        String lastListed = null;
+        for (String name : shardNames) if (listed.contains(name)) lastListed = name;
+        List<String> names = new ArrayList<>();
+        for (String name : lastListed == null ? shardNames.tailSet(prefix, true) : shardNames.tailSet(lastListed, false)) {
+            if (names.size() == count) break;
+            names.add(name);
+        }
+        read.record = new Record(Collections.singletonMap(Constants.SERIES_NAMES_BIN_NAME, names), 1, 0);
+    }
+}
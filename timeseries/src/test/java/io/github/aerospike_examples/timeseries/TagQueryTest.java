@@ -0,0 +1,74 @@
+package io.github.aerospike_examples.timeseries;
+
+import com.aerospike.client.BatchRead;
+import com.aerospike.client.Record;
+import io.github.aerospike_examples.timeseries.util.Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class TagQueryTest {
+
+    private final TagIndex tagIndex = new TagIndex("test", "testtags", "testtagidx");
+
+    @Test
+    // EQUAL matchers need no follow up reads, and results are the intersection of each matcher's series
+    public void equalMatchers() {
+        TagQuery tagQuery = new TagQuery(tagIndex, TagMatcher.equal("region", "eu"), TagMatcher.equal("role", "web"));
+        Assert.assertEquals(2, tagQuery.getReads().size());
+        complete(tagQuery.getReads().get(0), Constants.TAGGED_SERIES_BIN_NAME, "a", "b", "c");
+        complete(tagQuery.getReads().get(1), Constants.TAGGED_SERIES_BIN_NAME, "b", "c", "d");
+        Assert.assertTrue(tagQuery.getFollowUpReads().isEmpty());
+        Assert.assertEquals(new TreeSet<>(Arrays.asList("b", "c")), tagQuery.result());
+    }
+
+    @Test
+    // NOT_EQUAL and REGEX matchers read the listings of the tag values they select
+    public void valueMatchers() {
+        TagQuery tagQuery = new TagQuery(tagIndex, TagMatcher.notEqual("host", "web00"), TagMatcher.regex("region", "eu|us"));
+        complete(tagQuery.getReads().get(0), Constants.TAG_VALUES_BIN_NAME, "web00", "web01", "web02");
+        complete(tagQuery.getReads().get(1), Constants.TAG_VALUES_BIN_NAME, "ap", "eu", "us");
+        List<BatchRead> followUpReads = tagQuery.getFollowUpReads();
+        Assert.assertEquals(Arrays.asList(tagIndex.taggedSeriesKey("host", "web01"), tagIndex.taggedSeriesKey("host", "web02"),
+                tagIndex.taggedSeriesKey("region", "eu"), tagIndex.taggedSeriesKey("region", "us")),
+                Arrays.asList(followUpReads.get(0).key, followUpReads.get(1).key, followUpReads.get(2).key, followUpReads.get(3).key));
+        complete(followUpReads.get(0), Constants.TAGGED_SERIES_BIN_NAME, "b");
+        // Stale value - no series has it any more
+        followUpReads.get(1).record = null;
+        complete(followUpReads.get(2), Constants.TAGGED_SERIES_BIN_NAME, "a", "b");
+        complete(followUpReads.get(3), Constants.TAGGED_SERIES_BIN_NAME, "c");
+        Assert.assertEquals(new TreeSet<>(Collections.singletonList("b")), tagQuery.result());
+    }
+
+    @Test
+    // Re-tagging a series removes it only from the listings of tag values it no longer has
+    public void indexRemovals() {
+        Map<String, String> previousTags = new HashMap<>();
+        previousTags.put("host", "web00");
+        previousTags.put("region", "eu");
+        Map<String, String> tags = new HashMap<>();
+        tags.put("host", "web00");
+        tags.put("region", "us");
+        Assert.assertEquals(Collections.singleton(tagIndex.taggedSeriesKey("region", "eu")),
+                tagIndex.opsForIndexRemovals("a", previousTags, tags).keySet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tagKeysMustNotContainSeparator() {
+        TagIndex.checkTags(Collections.singletonMap("host=web", "00"));
+    }
+
+    // Complete a batch read with a listing map
+    private static void complete(BatchRead batchRead, String binName, String... listed) {
+        Map<String, Integer> listing = new TreeMap<>();
+        for (String name : listed) listing.put(name, 1);
+        batchRead.record = new Record(Collections.singletonMap(binName, listing), 1, 0);
+    }
+}
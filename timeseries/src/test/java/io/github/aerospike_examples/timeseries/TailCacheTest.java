@@ -0,0 +1,90 @@
+package io.github.aerospike_examples.timeseries;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TailCacheTest {
+
+    private static final String SERIES_NAME = "series";
+
+    @Test
+    // Tails are served while they hold enough points, or the whole series
+    public void getCachedTail() {
+        TailCache cache = new TailCache(10, 5, 0);
+        Assert.assertNull(cache.get(SERIES_NAME, 1, 0));
+        cache.put(SERIES_NAME, cache.writeCount(SERIES_NAME), points(0, 10), false, 0);
+        assertTimestamps(new long[]{7000, 8000, 9000}, cache.get(SERIES_NAME, 3, 0));
+        assertTimestamps(new long[]{5000, 6000, 7000, 8000, 9000}, cache.get(SERIES_NAME, 5, 0));
+        // The series has points before those held
+        Assert.assertNull(cache.get(SERIES_NAME, 6, 0));
+
+        cache.put(SERIES_NAME, cache.writeCount(SERIES_NAME), points(0, 3), true, 0);
+        assertTimestamps(new long[]{0, 1000, 2000}, cache.get(SERIES_NAME, 6, 0));
+        Assert.assertEquals(3, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    // Writes add their points to held tails, which keep the latest points only
+    public void writeThrough() {
+        TailCache cache = new TailCache(10, 5, 0);
+        cache.put(SERIES_NAME, cache.writeCount(SERIES_NAME), points(0, 3), true, 0);
+        cache.update(SERIES_NAME, batch(3, 2));
+        assertTimestamps(new long[]{0, 1000, 2000, 3000, 4000}, cache.get(SERIES_NAME, 10, 0));
+        cache.update(SERIES_NAME, batch(5, 2));
+        assertTimestamps(new long[]{2000, 3000, 4000, 5000, 6000}, cache.get(SERIES_NAME, 5, 0));
+        // Points have been dropped, so the tail no longer holds the whole series
+        Assert.assertNull(cache.get(SERIES_NAME, 6, 0));
+        // Late points earlier than the whole tail are ignored
+        cache.update(SERIES_NAME, batch(1, 1));
+        assertTimestamps(new long[]{2000, 3000, 4000, 5000, 6000}, cache.get(SERIES_NAME, 5, 0));
+        // Series not held are not cached by a write
+        cache.update("other", batch(0, 1));
+        Assert.assertNull(cache.get("other", 1, 0));
+    }
+
+    @Test
+    // A tail read before a write completes is not cached, as it may lack the points written
+    public void writeDuringRead() {
+        TailCache cache = new TailCache(10, 5, 0);
+        long writeCount = cache.writeCount(SERIES_NAME);
+        cache.update(SERIES_NAME, batch(3, 1));
+        cache.put(SERIES_NAME, writeCount, points(0, 3), true, 0);
+        Assert.assertNull(cache.get(SERIES_NAME, 1, 0));
+    }
+
+    @Test
+    // Tails are dropped once older than the maximum age, and the least recently used once there are too many
+    public void expiryAndEviction() {
+        TailCache cache = new TailCache(2, 5, 1000);
+        cache.put(SERIES_NAME, cache.writeCount(SERIES_NAME), points(0, 3), true, 0);
+        Assert.assertNotNull(cache.get(SERIES_NAME, 1, 1000));
+        Assert.assertNull(cache.get(SERIES_NAME, 1, 1001));
+
+        cache.put("a", cache.writeCount("a"), points(0, 1), true, 0);
+        cache.put("b", cache.writeCount("b"), points(0, 1), true, 0);
+        Assert.assertNotNull(cache.get("a", 1, 0));
+        cache.put("c", cache.writeCount("c"), points(0, 1), true, 0);
+        Assert.assertNotNull(cache.get("a", 1, 0));
+        Assert.assertNull(cache.get("b", 1, 0));
+        Assert.assertNotNull(cache.get("c", 1, 0));
+    }
+
+    // Points one second apart, starting at the given second
+    private static DataPoint[] points(int first, int count) {
+        DataPoint[] dataPoints = new DataPoint[count];
+        for (int i = 0; i < count; i++) dataPoints[i] = new DataPoint((first + i) * 1000L, first + i);
+        return dataPoints;
+    }
+
+    private static DataPointBatch batch(int first, int count) {
+        return new DataPointBatch(points(first, count));
+    }
+
+    private static void assertTimestamps(long[] expected, DataPoint[] dataPoints) {
+        Assert.assertNotNull(dataPoints);
+        long[] timestamps = new long[dataPoints.length];
+        for (int i = 0; i < dataPoints.length; i++) timestamps[i] = dataPoints[i].getTimestamp();
+        Assert.assertArrayEquals(expected, timestamps);
+    }
+}
@@ -2,7 +2,9 @@ package io.github.aerospike_examples.timeseries;
 
 import com.aerospike.client.AerospikeClient;
 import com.aerospike.client.Record;
+import com.aerospike.client.Value;
 import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapPolicy;
 import com.aerospike.client.policy.WritePolicy;
 import io.github.aerospike_examples.timeseries.util.Constants;
 import io.github.aerospike_examples.timeseries.util.TestConstants;
@@ -12,9 +14,19 @@ import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 public class TimeSeriesClientTest {
 
@@ -162,6 +174,736 @@ public class TimeSeriesClientTest {
         Assert.assertEquals(TestUtilities.blockCountForTimeseries(timeSeriesClient, TEST_TIME_SERIES_NAME), requiredBlocks);
     }
 
+    @Test
+    // Check block rollover takes three round trips - historic block write, index write, current block delete
+    // and that no points are lost in the process
+    public void blockRolloverRoundTrips() throws Exception {
+        int entriesPerBlock = 60;
+        int requiredBlocks = 10;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        for (int i = 0; i < requiredBlocks * entriesPerBlock; i++)
+            timeSeriesClient.put(TEST_TIME_SERIES_NAME,
+                    new DataPoint(new Date(getTestBaseDate().getTime() + i * Constants.MILLISECONDS_IN_SECOND), RANDOM.nextDouble()));
+
+        Assert.assertEquals(requiredBlocks, timeSeriesClient.getBlockRolloverCount());
+        Assert.assertEquals(3 * requiredBlocks, timeSeriesClient.getBlockRolloverRoundTripCount());
+        Assert.assertEquals(requiredBlocks, TestUtilities.blockCountForTimeseries(timeSeriesClient, TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(requiredBlocks * entriesPerBlock, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+    }
+
+    @Test
+    // Check late points go to the historic block covering them, and late points before the start of the series form a new block
+    public void latePointsRoutedToHistoricBlocks() throws Exception {
+        int entriesPerBlock = 60;
+        int requiredBlocks = 5;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        // Points every two seconds, plus one more so there is a current block
+        long startTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(startTime, 2, requiredBlocks * entriesPerBlock + 1);
+        for (DataPoint dataPoint : dataPoints) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoint);
+
+        // Late point in the odd second after the first point of the second block
+        long blockTwoStartTime = dataPoints[entriesPerBlock].getTimestamp();
+        DataPoint latePoint = new DataPoint(new Date(blockTwoStartTime + Constants.MILLISECONDS_IN_SECOND), RANDOM.nextDouble());
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, latePoint);
+        // Late points before the start of the series, as a batch
+        DataPoint[] earlyPoints = createDataPoints(startTime - 10 * Constants.MILLISECONDS_IN_SECOND, 1, 5);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, earlyPoints);
+
+        // Late point is in block two, and the index entry count reflects this
+        Record blockTwo = timeSeriesClient.getAsClient().get(null, timeSeriesClient.asKeyForHistoricTimeSeriesBlock(TEST_TIME_SERIES_NAME, blockTwoStartTime));
+        Assert.assertEquals(entriesPerBlock + 1, blockTwo.getMap(Constants.TIME_SERIES_BIN_NAME).size());
+        Assert.assertEquals(requiredBlocks * entriesPerBlock + 1 + 1 + earlyPoints.length, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+        // Early points form a block of their own
+        Assert.assertEquals(requiredBlocks + 1 + 1, TestUtilities.blockCountForTimeseries(timeSeriesClient, TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(earlyPoints[0].getTimestamp(), timeSeriesClient.startTimeForSeries(TEST_TIME_SERIES_NAME));
+
+        // Reads find the late points, and only need the blocks covering the requested range
+        Assert.assertTrue(latePoint.equals(timeSeriesClient.getPoint(TEST_TIME_SERIES_NAME, new Date(latePoint.getTimestamp()))));
+        Assert.assertEquals(1, timeSeriesClient.getTimestampsForTimeSeries(TEST_TIME_SERIES_NAME, latePoint.getTimestamp(), latePoint.getTimestamp()).length);
+        DataPoint[] retrievedEarlyPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(earlyPoints[0].getTimestamp()),
+                new Date(earlyPoints[earlyPoints.length - 1].getTimestamp()));
+        Assert.assertEquals(earlyPoints.length, retrievedEarlyPoints.length);
+        for (int i = 0; i < earlyPoints.length; i++) Assert.assertTrue(retrievedEarlyPoints[i].equals(earlyPoints[i]));
+    }
+
+    @Test
+    // Check a batch not in time order starts the block at its earliest point, so none of its points are late
+    public void unorderedBatchStartsBlockAtEarliestPoint() throws Exception {
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        long startTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(startTime, 1, 5);
+        DataPoint[] unorderedDataPoints = new DataPoint[]{dataPoints[3], dataPoints[0], dataPoints[4], dataPoints[1], dataPoints[2]};
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, unorderedDataPoints);
+
+        Assert.assertEquals(startTime, timeSeriesClient.startTimeForSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(1, TestUtilities.blockCountForTimeseries(timeSeriesClient, TEST_TIME_SERIES_NAME));
+        DataPoint[] retrievedDataPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(startTime),
+                new Date(dataPoints[dataPoints.length - 1].getTimestamp()));
+        Assert.assertEquals(dataPoints.length, retrievedDataPoints.length);
+        for (int i = 0; i < dataPoints.length; i++) Assert.assertTrue(retrievedDataPoints[i].equals(dataPoints[i]));
+    }
+
+    @Test
+    // Check late points written just after a rollover, when there is no current block, go to the historic block covering them,
+    // so the current block created afterwards starts after it and range reads find every point
+    public void latePointsAfterRollover() throws Exception {
+        int entriesPerBlock = 60;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        // Points every two seconds, exactly filling a block, so it is rolled over
+        long startTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(startTime, 2, entriesPerBlock);
+        for (DataPoint dataPoint : dataPoints) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoint);
+        Assert.assertEquals(1, timeSeriesClient.getBlockRolloverCount());
+
+        // Late point in an odd second, then a batch holding a late point and one after the rolled over block
+        DataPoint latePoint = new DataPoint(new Date(startTime + Constants.MILLISECONDS_IN_SECOND), RANDOM.nextDouble());
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, latePoint);
+        DataPoint[] batch = new DataPoint[]{
+                new DataPoint(new Date(startTime + 3 * Constants.MILLISECONDS_IN_SECOND), RANDOM.nextDouble()),
+                new DataPoint(new Date(dataPoints[entriesPerBlock - 1].getTimestamp() + 2 * Constants.MILLISECONDS_IN_SECOND), RANDOM.nextDouble())};
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, batch);
+
+        // Late points are in the historic block, and the current block holds just the point after it
+        Record blockOne = timeSeriesClient.getAsClient().get(null, timeSeriesClient.asKeyForHistoricTimeSeriesBlock(TEST_TIME_SERIES_NAME, startTime));
+        Assert.assertEquals(entriesPerBlock + 2, blockOne.getMap(Constants.TIME_SERIES_BIN_NAME).size());
+        Record currentBlock = timeSeriesClient.getAsClient().get(null, timeSeriesClient.asCurrentKeyForTimeSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(1, currentBlock.getMap(Constants.TIME_SERIES_BIN_NAME).size());
+        Assert.assertEquals(2, TestUtilities.blockCountForTimeseries(timeSeriesClient, TEST_TIME_SERIES_NAME));
+
+        // Range reads find the late points, and every point
+        DataPoint[] retrievedLatePoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(latePoint.getTimestamp()), new Date(batch[0].getTimestamp()));
+        Assert.assertEquals(3, retrievedLatePoints.length);
+        Assert.assertTrue(latePoint.equals(retrievedLatePoints[0]));
+        Assert.assertTrue(batch[0].equals(retrievedLatePoints[2]));
+        DataPoint[] retrievedDataPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(startTime), new Date(batch[1].getTimestamp()));
+        Assert.assertEquals(entriesPerBlock + 3, retrievedDataPoints.length);
+        Assert.assertTrue(batch[1].equals(retrievedDataPoints[entriesPerBlock + 2]));
+    }
+
+    @Test
+    // Check historic blocks are compressed when requested, and read back transparently, including late points
+    public void compressedHistoricBlocksTest() throws Exception {
+        int entriesPerBlock = 60;
+        int requiredBlocks = 5;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setHistoricBlockEncoding(BlockEncoding.GORILLA);
+        // Points every two seconds, all but the last block written singly
+        long startTime = getTestBaseDate().getTime();
+        int dataPointCount = requiredBlocks * entriesPerBlock + 1;
+        DataPoint[] dataPoints = createDataPoints(startTime, 2, dataPointCount);
+        for (int i = 0; i < dataPointCount - entriesPerBlock; i++) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints[i]);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(dataPoints, dataPointCount - entriesPerBlock, dataPointCount));
+
+        // Historic blocks hold a blob rather than a map
+        long blockTwoStartTime = dataPoints[entriesPerBlock].getTimestamp();
+        Record blockTwo = timeSeriesClient.getAsClient().get(null, timeSeriesClient.asKeyForHistoricTimeSeriesBlock(TEST_TIME_SERIES_NAME, blockTwoStartTime));
+        Assert.assertNull(blockTwo.getValue(Constants.TIME_SERIES_BIN_NAME));
+        Assert.assertNotNull(blockTwo.getValue(Constants.COMPRESSED_TIME_SERIES_BIN_NAME));
+
+        DataPoint[] retrievedDataPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(startTime),
+                new Date(dataPoints[dataPointCount - 1].getTimestamp()));
+        Assert.assertEquals(dataPointCount, retrievedDataPoints.length);
+        for (int i = 0; i < dataPointCount; i++) Assert.assertTrue(retrievedDataPoints[i].equals(dataPoints[i]));
+
+        // A late point lands in the compressed block's map bin, and is counted
+        DataPoint latePoint = new DataPoint(new Date(blockTwoStartTime + Constants.MILLISECONDS_IN_SECOND), RANDOM.nextDouble());
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, latePoint);
+        Assert.assertTrue(latePoint.equals(timeSeriesClient.getPoint(TEST_TIME_SERIES_NAME, new Date(latePoint.getTimestamp()))));
+        Assert.assertEquals(dataPointCount + 1, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPointCount + 1, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(startTime),
+                new Date(dataPoints[dataPointCount - 1].getTimestamp())).length);
+    }
+
+    @Test
+    // Check concurrent rollovers of the same block don't lose points when historic blocks are compressed
+    public void compressedConcurrentRolloverTest() throws Exception {
+        checkConcurrentRollovers(BlockEncoding.GORILLA);
+    }
+
+    @Test
+    // Check historic blocks are written as packed columns when requested, and queried correctly
+    public void columnarHistoricBlocksTest() throws Exception {
+        int entriesPerBlock = 60;
+        int requiredBlocks = 5;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setHistoricBlockEncoding(BlockEncoding.COLUMNAR);
+        long startTime = getTestBaseDate().getTime();
+        int dataPointCount = requiredBlocks * entriesPerBlock + 1;
+        DataPoint[] dataPoints = createDataPoints(startTime, 2, dataPointCount);
+        for (DataPoint dataPoint : dataPoints) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoint);
+
+        // Historic blocks hold columns rather than a map
+        Record blockOne = timeSeriesClient.getAsClient().get(null, timeSeriesClient.asKeyForHistoricTimeSeriesBlock(TEST_TIME_SERIES_NAME, startTime));
+        Assert.assertNull(blockOne.getValue(Constants.TIME_SERIES_BIN_NAME));
+        Assert.assertEquals(8 + entriesPerBlock * Long.BYTES, ((byte[]) blockOne.getValue(Constants.COLUMNAR_TIMESTAMPS_BIN_NAME)).length);
+
+        Date endDate = new Date(dataPoints[dataPointCount - 1].getTimestamp());
+        DataPoint[] retrievedDataPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(startTime), endDate);
+        Assert.assertEquals(dataPointCount, retrievedDataPoints.length);
+        for (int i = 0; i < dataPointCount; i++) Assert.assertTrue(retrievedDataPoints[i].equals(dataPoints[i]));
+        Assert.assertEquals(dataPointCount, timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, QueryOperation.COUNT, new Date(startTime), endDate), 0);
+        Assert.assertEquals(TimeSeriesClient.aggregate(dataPoints, QueryOperation.AVG),
+                timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, QueryOperation.AVG, new Date(startTime), endDate), 0);
+        Assert.assertEquals(dataPoints[dataPointCount - 1].getTimestamp(), timeSeriesClient.endTimeForSeries(TEST_TIME_SERIES_NAME));
+    }
+
+    @Test
+    // Check concurrent rollovers of the same block don't lose points when historic blocks are columnar
+    public void columnarConcurrentRolloverTest() throws Exception {
+        checkConcurrentRollovers(BlockEncoding.COLUMNAR);
+    }
+
+    @Test
+    // Check the bucketed layout - one block per bucket, all points retrievable, series statistics correct
+    public void bucketedLayoutTest() throws Exception {
+        int bucketWidthInSeconds = 60;
+        int requiredBuckets = 5;
+        TimeSeriesClient timeSeriesClient = TestUtilities.defaultTimeSeriesClient();
+        timeSeriesClient.setBucketWidth(bucketWidthInSeconds * Constants.MILLISECONDS_IN_SECOND);
+
+        // Insert single points for the first bucket, then the rest as a batch, in reverse order
+        int dataPointCount = requiredBuckets * bucketWidthInSeconds;
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, dataPointCount);
+        for (int i = 0; i < bucketWidthInSeconds; i++) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints[i]);
+        DataPoint[] remainingDataPoints = new DataPoint[dataPointCount - bucketWidthInSeconds];
+        for (int i = 0; i < remainingDataPoints.length; i++) remainingDataPoints[i] = dataPoints[dataPointCount - 1 - i];
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, remainingDataPoints);
+
+        Assert.assertEquals(requiredBuckets, TestUtilities.blockCountForTimeseries(timeSeriesClient, TEST_TIME_SERIES_NAME));
+        DataPoint[] retrievedDataPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, getTestBaseDate(),
+                new Date(dataPoints[dataPointCount - 1].getTimestamp()));
+        Assert.assertEquals(dataPointCount, retrievedDataPoints.length);
+        for (int i = 0; i < dataPointCount; i++) Assert.assertTrue(retrievedDataPoints[i].equals(dataPoints[i]));
+        Assert.assertEquals(dataPointCount, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPoints[0].getTimestamp(), timeSeriesClient.startTimeForSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPoints[dataPointCount - 1].getTimestamp(), timeSeriesClient.endTimeForSeries(TEST_TIME_SERIES_NAME));
+    }
+
+    @Test
+    // Check a striped series rolls over per stripe and reads back as a single series
+    public void stripedSeriesTest() throws Exception {
+        int entriesPerBlock = 60;
+        int stripeCount = 4;
+        int dataPointCount = 20 * entriesPerBlock;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setStripeCount(stripeCount);
+
+        // Insert the first half as single points, the rest as a batch
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, dataPointCount);
+        for (int i = 0; i < dataPointCount / 2; i++) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints[i]);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(dataPoints, dataPointCount / 2, dataPointCount));
+
+        // Block metadata records the series name, so blocks for all stripes are counted - stripes should have rolled over
+        Assert.assertTrue(TestUtilities.blockCountForTimeseries(timeSeriesClient, TEST_TIME_SERIES_NAME) > stripeCount);
+        DataPoint[] retrievedDataPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, getTestBaseDate(),
+                new Date(dataPoints[dataPointCount - 1].getTimestamp()));
+        Assert.assertEquals(dataPointCount, retrievedDataPoints.length);
+        for (int i = 0; i < dataPointCount; i++) Assert.assertTrue(retrievedDataPoints[i].equals(dataPoints[i]));
+        Assert.assertEquals(dataPointCount, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPoints[0].getTimestamp(), timeSeriesClient.startTimeForSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(dataPoints[dataPointCount - 1].getTimestamp(), timeSeriesClient.endTimeForSeries(TEST_TIME_SERIES_NAME));
+    }
+
+    @Test
+    // Points written from a batch should be read back into a re-used batch, across several blocks
+    public void dataPointBatchTest() throws Exception {
+        int entriesPerBlock = 60;
+        int dataPointCount = 5 * entriesPerBlock + 1;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, dataPointCount);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, new DataPointBatch(dataPoints));
+
+        DataPointBatch batch = new DataPointBatch();
+        long endTime = dataPoints[dataPointCount - 1].getTimestamp();
+        Assert.assertSame(batch, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, getTestBaseDate().getTime(), endTime, batch));
+        Assert.assertEquals(dataPointCount, batch.getLength());
+        DataPoint[] retrievedDataPoints = batch.toDataPoints();
+        for (int i = 0; i < dataPointCount; i++) Assert.assertTrue(retrievedDataPoints[i].equals(dataPoints[i]));
+
+        // Re-use for a sub range - previous contents should be discarded
+        timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, dataPoints[10].getTimestamp(), dataPoints[19].getTimestamp(), batch);
+        Assert.assertEquals(10, batch.getLength());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(dataPoints[10 + i].getTimestamp(), batch.getTimestamp(i));
+            Assert.assertEquals(dataPoints[10 + i].getValue(), batch.getValue(i), 0);
+        }
+    }
+
+    @Test
+    // Streaming a range should give the same points as getPoints, for plain, striped and bucketed series
+    public void streamTest() throws Exception {
+        int entriesPerBlock = 60;
+        int dataPointCount = 10 * entriesPerBlock + 1;
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, dataPointCount);
+        Date endDateTime = new Date(dataPoints[dataPointCount - 1].getTimestamp());
+        for (int layout = 0; layout < 3; layout++) {
+            String timeSeriesName = TEST_TIME_SERIES_NAME + layout;
+            TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                    TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+            timeSeriesClient.setStreamBlocksPerFetch(3);
+            if (layout == 1) timeSeriesClient.setStripeCount(4);
+            if (layout == 2) timeSeriesClient.setBucketWidth(entriesPerBlock * Constants.MILLISECONDS_IN_SECOND);
+            timeSeriesClient.put(timeSeriesName, dataPoints);
+
+            List<DataPoint> streamedDataPoints = timeSeriesClient.stream(timeSeriesName, getTestBaseDate(), endDateTime).collect(Collectors.toList());
+            Assert.assertEquals(dataPointCount, streamedDataPoints.size());
+            for (int i = 0; i < dataPointCount; i++) Assert.assertTrue(streamedDataPoints.get(i).equals(dataPoints[i]));
+            // Sub range, starting and ending part way through blocks
+            Assert.assertEquals(200, timeSeriesClient.stream(timeSeriesName, new Date(dataPoints[30].getTimestamp()),
+                    new Date(dataPoints[229].getTimestamp())).count());
+        }
+    }
+
+    @Test
+    // Archived blocks should have summary statistics in their index entries, and queries using them should match the points
+    public void indexSummaryTest() throws Exception {
+        int entriesPerBlock = 60;
+        int dataPointCount = 10 * entriesPerBlock + 1;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, dataPointCount);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+
+        Record indexRecord = timeSeriesClient.getAsClient().get(null, timeSeriesClient.asKeyForTimeSeriesIndexes(TEST_TIME_SERIES_NAME));
+        for (Object indexEntry : indexRecord.getMap(Constants.TIME_SERIES_INDEX_BIN_NAME).values())
+            Assert.assertTrue(((Map<?, ?>) indexEntry).containsKey(Constants.SUM_FIELD_NAME));
+
+        // Range starting and ending part way through blocks, so blocks are read as well as summaries used
+        Date fromDateTime = new Date(dataPoints[30].getTimestamp());
+        Date toDateTime = new Date(dataPoints[dataPointCount - 30].getTimestamp());
+        DataPoint[] pointsInRange = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime);
+        for (QueryOperation operation : QueryOperation.values())
+            Assert.assertEquals(TimeSeriesClient.aggregate(pointsInRange, operation),
+                    timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, operation, fromDateTime, toDateTime), 1e-9);
+    }
+
+    @Test
+    // The current block should hold running statistics for its points, removed if a point is replaced, and queries should match the points
+    public void runningStatisticsTest() throws Exception {
+        int entriesPerBlock = 60;
+        int dataPointCount = 2 * entriesPerBlock + 25;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, dataPointCount);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+        for (int i = 0; i < 5; i++)
+            timeSeriesClient.put(TEST_TIME_SERIES_NAME, new DataPoint(dataPoints[dataPointCount - 1].getTimestamp() + (i + 1) * 1000L, RANDOM.nextDouble()));
+
+        Date fromDateTime = getTestBaseDate();
+        Date toDateTime = new Date(getTestBaseDate().getTime() + 2L * dataPointCount * Constants.MILLISECONDS_IN_SECOND);
+        Record currentBlock = timeSeriesClient.getAsClient().get(null, timeSeriesClient.asCurrentKeyForTimeSeries(TEST_TIME_SERIES_NAME));
+        Map<?, ?> timeSeries = currentBlock.getMap(Constants.TIME_SERIES_BIN_NAME);
+        Map<?, ?> metadata = currentBlock.getMap(Constants.METADATA_BIN_NAME);
+        double sum = 0;
+        double maxValue = -Double.MAX_VALUE;
+        for (Object value : timeSeries.values()) {
+            sum += (Double) value;
+            maxValue = Math.max(maxValue, (Double) value);
+        }
+        Assert.assertEquals((long) timeSeries.size(), metadata.get(Constants.ENTRY_COUNT_FIELD_NAME));
+        Assert.assertEquals(sum, (Double) metadata.get(Constants.SUM_FIELD_NAME), 1e-9);
+        Assert.assertEquals(maxValue, (Double) metadata.get(Constants.MAX_VALUE_FIELD_NAME), 0);
+        DataPoint[] pointsInRange = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime);
+        for (QueryOperation operation : QueryOperation.values())
+            Assert.assertEquals(TimeSeriesClient.aggregate(pointsInRange, operation),
+                    timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, operation, fromDateTime, toDateTime), 1e-9);
+
+        // Replacing a point removes the running statistics, and queries still match the points
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, new DataPoint(dataPoints[dataPointCount - 1].getTimestamp(), -1.0));
+        currentBlock = timeSeriesClient.getAsClient().get(null, timeSeriesClient.asCurrentKeyForTimeSeries(TEST_TIME_SERIES_NAME));
+        Assert.assertFalse(currentBlock.getMap(Constants.METADATA_BIN_NAME).containsKey(Constants.SUM_FIELD_NAME));
+        pointsInRange = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime);
+        for (QueryOperation operation : QueryOperation.values())
+            Assert.assertEquals(TimeSeriesClient.aggregate(pointsInRange, operation),
+                    timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, operation, fromDateTime, toDateTime), 1e-9);
+    }
+
+    @Test
+    // Rollups should match the points in each bucket, including points in the current block and points written late
+    public void rollupTest() throws Exception {
+        int entriesPerBlock = 60;
+        int dataPointCount = 3 * entriesPerBlock + 25;
+        long[] rollupWidths = new long[]{10 * Constants.MILLISECONDS_IN_SECOND, 60 * Constants.MILLISECONDS_IN_SECOND};
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setRollupWidths(rollupWidths);
+        for (long rollupWidth : rollupWidths)
+            timeSeriesClient.getAsClient().truncate(null, TestConstants.AEROSPIKE_NAMESPACE, timeSeriesClient.rollupSetName(rollupWidth), null);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, dataPointCount);
+        for (DataPoint dataPoint : dataPoints) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoint);
+        // Updating the tiers is part of the rollover, so counted in its round trips
+        Assert.assertTrue(timeSeriesClient.getRoundTripsPerBlockRollover() > 3);
+
+        Date fromDateTime = getTestBaseDate();
+        Date toDateTime = new Date(getTestBaseDate().getTime() + 2L * dataPointCount * Constants.MILLISECONDS_IN_SECOND);
+        for (long rollupWidth : rollupWidths) checkRollups(timeSeriesClient, rollupWidth, fromDateTime, toDateTime);
+        // A late point, written to the first historic block, is reflected in every tier
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, new DataPoint(getTestBaseDate().getTime() + 500, -1.0));
+        for (long rollupWidth : rollupWidths) checkRollups(timeSeriesClient, rollupWidth, fromDateTime, toDateTime);
+
+        for (long rollupWidth : rollupWidths)
+            timeSeriesClient.getAsClient().truncate(null, TestConstants.AEROSPIKE_NAMESPACE, timeSeriesClient.rollupSetName(rollupWidth), null);
+    }
+
+    @Test
+    // Rollups should match the points when blocks are rolled up by several writers at once
+    public void concurrentRollupTest() throws Exception {
+        int entriesPerBlock = 20;
+        int threadCount = 8;
+        int dataPointCount = 10 * entriesPerBlock * threadCount;
+        long[] rollupWidths = new long[]{10 * Constants.MILLISECONDS_IN_SECOND, 60 * Constants.MILLISECONDS_IN_SECOND};
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setRollupWidths(rollupWidths);
+        for (long rollupWidth : rollupWidths)
+            timeSeriesClient.getAsClient().truncate(null, TestConstants.AEROSPIKE_NAMESPACE, timeSeriesClient.rollupSetName(rollupWidth), null);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, dataPointCount);
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            int firstPoint = i;
+            writers.add(new Thread(() -> {
+                for (int j = firstPoint; j < dataPointCount; j += threadCount) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints[j]);
+            }));
+        }
+        for (Thread writer : writers) writer.start();
+        for (Thread writer : writers) writer.join();
+
+        Date fromDateTime = getTestBaseDate();
+        Date toDateTime = new Date(getTestBaseDate().getTime() + 2L * dataPointCount * Constants.MILLISECONDS_IN_SECOND);
+        for (long rollupWidth : rollupWidths) checkRollups(timeSeriesClient, rollupWidth, fromDateTime, toDateTime);
+
+        for (long rollupWidth : rollupWidths)
+            timeSeriesClient.getAsClient().truncate(null, TestConstants.AEROSPIKE_NAMESPACE, timeSeriesClient.rollupSetName(rollupWidth), null);
+    }
+
+    @Test
+    // Per bucket query results should match the points in each bucket, whether computed from blocks or from rollups
+    public void bucketedQueryTest() throws Exception {
+        int entriesPerBlock = 60;
+        int dataPointCount = 4 * entriesPerBlock + 25;
+        long bucketWidth = 30 * Constants.MILLISECONDS_IN_SECOND;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setRollupWidths(10 * Constants.MILLISECONDS_IN_SECOND);
+        timeSeriesClient.getAsClient().truncate(null, TestConstants.AEROSPIKE_NAMESPACE, timeSeriesClient.rollupSetName(10 * Constants.MILLISECONDS_IN_SECOND), null);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, dataPointCount);
+        for (DataPoint dataPoint : dataPoints) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoint);
+
+        // Range starts and ends part way through a bucket
+        Date fromDateTime = new Date(getTestBaseDate().getTime() + 7 * Constants.MILLISECONDS_IN_SECOND);
+        Date toDateTime = new Date(getTestBaseDate().getTime() + (dataPointCount - 11) * Constants.MILLISECONDS_IN_SECOND);
+        Map<Long, List<DataPoint>> pointsByBucket = new TreeMap<>();
+        for (DataPoint dataPoint : timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime))
+            pointsByBucket.computeIfAbsent(Math.floorDiv(dataPoint.getTimestamp(), bucketWidth) * bucketWidth, ignore -> new ArrayList<>()).add(dataPoint);
+        // VOL is always computed from blocks, other operations from rollups where possible
+        for (QueryOperation operation : QueryOperation.values()) {
+            DataPointBatch results = timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, operation, fromDateTime, toDateTime, bucketWidth);
+            Assert.assertEquals(pointsByBucket.size(), results.getLength());
+            int i = 0;
+            for (Map.Entry<Long, List<DataPoint>> bucket : pointsByBucket.entrySet()) {
+                Assert.assertEquals((long) bucket.getKey(), results.getTimestamp(i));
+                Assert.assertEquals(TimeSeriesClient.aggregate(bucket.getValue().toArray(new DataPoint[0]), operation), results.getValue(i++), 1e-9);
+            }
+        }
+        timeSeriesClient.getAsClient().truncate(null, TestConstants.AEROSPIKE_NAMESPACE, timeSeriesClient.rollupSetName(10 * Constants.MILLISECONDS_IN_SECOND), null);
+    }
+
+    @Test
+    // Multi series reads and queries should match reading and querying each series in turn
+    public void multiSeriesTest() throws Exception {
+        int entriesPerBlock = 60;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        List<String> seriesNames = Arrays.asList(TEST_TIME_SERIES_NAME + "-0", TEST_TIME_SERIES_NAME + "-1", TEST_TIME_SERIES_NAME + "-2");
+        for (int i = 0; i < seriesNames.size(); i++)
+            timeSeriesClient.put(seriesNames.get(i), createDataPoints(getTestBaseDate().getTime(), 1, (i + 1) * entriesPerBlock + 7));
+        // Series that has never been written to
+        List<String> queriedNames = new ArrayList<>(seriesNames);
+        queriedNames.add(TEST_TIME_SERIES_NAME + "-missing");
+
+        Date fromDateTime = new Date(getTestBaseDate().getTime() + 5 * Constants.MILLISECONDS_IN_SECOND);
+        Date toDateTime = new Date(getTestBaseDate().getTime() + 2L * entriesPerBlock * Constants.MILLISECONDS_IN_SECOND);
+        Map<String, DataPoint[]> dataPointsBySeries = timeSeriesClient.getPoints(queriedNames, fromDateTime, toDateTime);
+        Assert.assertEquals(queriedNames, new ArrayList<>(dataPointsBySeries.keySet()));
+        for (String seriesName : queriedNames)
+            Assert.assertArrayEquals(timeSeriesClient.getPoints(seriesName, fromDateTime, toDateTime), dataPointsBySeries.get(seriesName));
+        for (QueryOperation operation : QueryOperation.values()) {
+            Map<String, Double> results = timeSeriesClient.runQuery(queriedNames, operation, fromDateTime, toDateTime);
+            for (String seriesName : queriedNames)
+                Assert.assertEquals(timeSeriesClient.runQuery(seriesName, operation, fromDateTime, toDateTime), results.get(seriesName), 1e-9);
+        }
+    }
+
+    @Test
+    // Check series can be found by tag, and that re-tagging a series updates the tag index
+    public void tagsTest() {
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, Constants.DEFAULT_MAX_ENTRIES_PER_TIME_SERIES_BLOCK);
+        timeSeriesClient.getAsClient().truncate(null, TestConstants.AEROSPIKE_NAMESPACE, timeSeriesClient.tagSetName(), null);
+        timeSeriesClient.getAsClient().truncate(null, TestConstants.AEROSPIKE_NAMESPACE, timeSeriesClient.tagIndexSetName(), null);
+        String[] seriesNames = new String[]{TEST_TIME_SERIES_NAME + "-0", TEST_TIME_SERIES_NAME + "-1", TEST_TIME_SERIES_NAME + "-2"};
+        for (int i = 0; i < seriesNames.length; i++) {
+            Map<String, String> tags = new HashMap<>();
+            tags.put("host", "web0" + i);
+            tags.put("region", i < 2 ? "eu" : "us");
+            timeSeriesClient.setTags(seriesNames[i], tags);
+        }
+        Assert.assertEquals("web01", timeSeriesClient.getTags(seriesNames[1]).get("host"));
+        Assert.assertTrue(timeSeriesClient.getTags(TEST_TIME_SERIES_NAME + "-missing").isEmpty());
+        Assert.assertEquals(new TreeSet<>(Arrays.asList(seriesNames[0], seriesNames[1])), timeSeriesClient.findSeries(TagMatcher.equal("region", "eu")));
+        Assert.assertEquals(new TreeSet<>(Collections.singletonList(seriesNames[1])),
+                timeSeriesClient.findSeries(TagMatcher.equal("region", "eu"), TagMatcher.notEqual("host", "web00")));
+        Assert.assertEquals(new TreeSet<>(Arrays.asList(seriesNames)), timeSeriesClient.findSeries(TagMatcher.regex("host", "web0[0-2]")));
+        Assert.assertTrue(timeSeriesClient.findSeries(TagMatcher.equal("datacentre", "dc1")).isEmpty());
+
+        // Move a series to another region - it should no longer be found under the old one
+        timeSeriesClient.setTags(seriesNames[0], Collections.singletonMap("region", "us"));
+        Assert.assertEquals(new TreeSet<>(Arrays.asList(seriesNames[0], seriesNames[2])), timeSeriesClient.findSeries(TagMatcher.equal("region", "us")));
+        Assert.assertEquals(new TreeSet<>(Collections.singletonList(seriesNames[1])), timeSeriesClient.findSeries(TagMatcher.regex("host", ".*")));
+        timeSeriesClient.getAsClient().truncate(null, TestConstants.AEROSPIKE_NAMESPACE, timeSeriesClient.tagSetName(), null);
+        timeSeriesClient.getAsClient().truncate(null, TestConstants.AEROSPIKE_NAMESPACE, timeSeriesClient.tagIndexSetName(), null);
+    }
+
+    @Test
+    // Check series are added to the catalog when created, and can be listed by prefix a page at a time
+    public void catalogTest() throws Exception {
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, 10);
+        List<String> seriesNames = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            seriesNames.add(TEST_TIME_SERIES_NAME + "-" + i);
+            // Enough points to archive a block, so the current block is created more than once
+            timeSeriesClient.put(seriesNames.get(i), createDataPoints(getTestBaseDate().getTime(), 1, 15));
+        }
+        timeSeriesClient.put("other", new DataPoint(getTestBaseDate(), 1.0));
+
+        List<String> listedNames = new ArrayList<>();
+        SeriesNamePage seriesNamePage = null;
+        do {
+            seriesNamePage = timeSeriesClient.listSeries(TEST_TIME_SERIES_NAME, seriesNamePage == null ? null : seriesNamePage.getNextPageToken(), 4);
+            Assert.assertTrue(seriesNamePage.getNames().size() <= 4);
+            listedNames.addAll(seriesNamePage.getNames());
+        } while (seriesNamePage.hasNextPage());
+        Collections.sort(seriesNames);
+        Collections.sort(listedNames);
+        Assert.assertEquals(seriesNames, listedNames);
+        Assert.assertEquals(seriesNames.size() + 1, Utilities.getTimeSeriesNames(timeSeriesClient).size());
+        // Once added, a series is not added again when its current block is next created
+        Record newCurrentBlock = new Record(new HashMap<>(), 1, 0);
+        Assert.assertFalse(timeSeriesClient.isCatalogAdditionNeeded(seriesNames.get(0), newCurrentBlock));
+        Assert.assertTrue(timeSeriesClient.isCatalogAdditionNeeded("unwritten", newCurrentBlock));
+    }
+
+    @Test
+    // Check reads using cached block directories return the same points as uncached reads, including after blocks are archived
+    public void blockDirectoryCacheTest() throws Exception {
+        int entriesPerBlock = 60;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setBlockDirectoryCacheSize(100);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, 3 * entriesPerBlock);
+        Date fromDateTime = new Date(dataPoints[0].getTimestamp());
+        Date toDateTime = new Date(dataPoints[dataPoints.length - 1].getTimestamp());
+
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(dataPoints, 0, 2 * entriesPerBlock + 10));
+        Assert.assertArrayEquals(Arrays.copyOfRange(dataPoints, 0, 2 * entriesPerBlock + 10), timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime));
+        Assert.assertEquals(1, timeSeriesClient.getBlockDirectoryCacheMissCount());
+        Assert.assertArrayEquals(Arrays.copyOfRange(dataPoints, 0, 2 * entriesPerBlock + 10), timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime));
+        Assert.assertEquals(1, timeSeriesClient.getBlockDirectoryCacheHitCount());
+
+        // Archiving a block changes the index, so the cached directory is out of date
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, Arrays.copyOfRange(dataPoints, 2 * entriesPerBlock + 10, dataPoints.length));
+        Assert.assertArrayEquals(dataPoints, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime));
+        Assert.assertEquals(2, timeSeriesClient.getBlockDirectoryCacheMissCount());
+        Assert.assertArrayEquals(dataPoints, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime));
+        Assert.assertEquals(2, timeSeriesClient.getBlockDirectoryCacheHitCount());
+    }
+
+    @Test
+    // Check reads through the block cache return the same points and query results as uncached reads, including after late points change a cached block
+    public void blockCacheTest() throws Exception {
+        int entriesPerBlock = 60;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setBlockCacheSize(1_000_000, true);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, 3 * entriesPerBlock);
+        Date fromDateTime = new Date(dataPoints[0].getTimestamp());
+        Date toDateTime = new Date(dataPoints[dataPoints.length - 1].getTimestamp());
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+
+        // Historic blocks are cached on first read, and served from the cache thereafter - the current block is never cached
+        Assert.assertArrayEquals(dataPoints, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime));
+        long historicBlockCount = timeSeriesClient.getBlockCacheMissCount();
+        Assert.assertTrue(historicBlockCount > 0);
+        Assert.assertEquals(0, timeSeriesClient.getBlockCacheHitCount());
+        Assert.assertArrayEquals(dataPoints, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime));
+        Assert.assertEquals(historicBlockCount, timeSeriesClient.getBlockCacheHitCount());
+        Assert.assertEquals(historicBlockCount, timeSeriesClient.getBlockCacheMissCount());
+        double average = Arrays.stream(dataPoints).mapToDouble(DataPoint::getValue).average().getAsDouble();
+        Assert.assertEquals(average, timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, QueryOperation.AVG, fromDateTime, toDateTime), 1e-6);
+
+        // A late point changes the generation of the first block, so its cached copy is not used
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, new DataPoint(dataPoints[0].getTimestamp() + 1, 100));
+        Assert.assertEquals(dataPoints.length + 1, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime).length);
+        Assert.assertEquals((average * dataPoints.length + 100) / (dataPoints.length + 1),
+                timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, QueryOperation.AVG, fromDateTime, toDateTime), 1e-6);
+    }
+
+    @Test
+    // Check a new client using the same disk block cache directory is served from the blocks cached by its predecessor
+    public void diskBlockCacheTest() throws Exception {
+        int entriesPerBlock = 60;
+        String directory = Files.createTempDirectory("diskBlockCacheTest").toString();
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setDiskBlockCache(directory, 1_000_000);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, 3 * entriesPerBlock);
+        Date fromDateTime = new Date(dataPoints[0].getTimestamp());
+        Date toDateTime = new Date(dataPoints[dataPoints.length - 1].getTimestamp());
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+        Assert.assertArrayEquals(dataPoints, timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime));
+        int historicBlockCount = timeSeriesClient.getDiskBlockCacheBlockCount();
+        Assert.assertTrue(historicBlockCount > 0);
+        timeSeriesClient.closeDiskBlockCache();
+
+        TimeSeriesClient restartedClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        restartedClient.setBlockCacheSize(1_000_000);
+        restartedClient.setDiskBlockCache(directory, 1_000_000);
+        Assert.assertArrayEquals(dataPoints, restartedClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime));
+        Assert.assertEquals(historicBlockCount, restartedClient.getDiskBlockCacheHitCount());
+        // Blocks found on disk are added to the block cache
+        Assert.assertArrayEquals(dataPoints, restartedClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime));
+        Assert.assertEquals(historicBlockCount, restartedClient.getBlockCacheHitCount());
+        Assert.assertEquals(historicBlockCount, restartedClient.getDiskBlockCacheHitCount());
+        restartedClient.closeDiskBlockCache();
+    }
+
+    @Test
+    // Check the latest points are read from the current block, and older blocks if need be, for each layout
+    public void getLastNTest() {
+        int entriesPerBlock = 60;
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, 2 * entriesPerBlock + 30);
+        for (int layout = 0; layout < 3; layout++) {
+            String timeSeriesName = TEST_TIME_SERIES_NAME + layout;
+            TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                    TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+            if (layout == 1) timeSeriesClient.setStripeCount(4);
+            if (layout == 2) timeSeriesClient.setBucketWidth(entriesPerBlock * Constants.MILLISECONDS_IN_SECOND);
+            timeSeriesClient.put(timeSeriesName, dataPoints);
+
+            Assert.assertEquals(dataPoints[dataPoints.length - 1], timeSeriesClient.getLatest(timeSeriesName));
+            for (int n : new int[]{10, 100}) {
+                Assert.assertArrayEquals(Arrays.copyOfRange(dataPoints, dataPoints.length - n, dataPoints.length),
+                        timeSeriesClient.getLastN(timeSeriesName, n));
+            }
+            Assert.assertArrayEquals(dataPoints, timeSeriesClient.getLastN(timeSeriesName, 1000));
+            Assert.assertNull(timeSeriesClient.getLatest(timeSeriesName + "-none"));
+        }
+    }
+
+    @Test
+    // Check the tail cache serves repeated reads, and is kept up to date by writes
+    public void tailCacheTest() {
+        int entriesPerBlock = 60;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setTailCache(100, 20, 0);
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, 2 * entriesPerBlock);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints);
+
+        DataPoint[] lastTen = Arrays.copyOfRange(dataPoints, dataPoints.length - 10, dataPoints.length);
+        Assert.assertArrayEquals(lastTen, timeSeriesClient.getLastN(TEST_TIME_SERIES_NAME, 10));
+        Assert.assertEquals(1, timeSeriesClient.getTailCacheMissCount());
+        Assert.assertArrayEquals(lastTen, timeSeriesClient.getLastN(TEST_TIME_SERIES_NAME, 10));
+        Assert.assertEquals(1, timeSeriesClient.getTailCacheHitCount());
+
+        // Points written are added to the cached tail
+        DataPoint latest = new DataPoint(dataPoints[dataPoints.length - 1].getTimestamp() + 1000, 100);
+        timeSeriesClient.put(TEST_TIME_SERIES_NAME, latest);
+        Assert.assertEquals(latest, timeSeriesClient.getLatest(TEST_TIME_SERIES_NAME));
+        Assert.assertEquals(2, timeSeriesClient.getTailCacheHitCount());
+
+        // More points than are cached per series are read from the database
+        Assert.assertEquals(50, timeSeriesClient.getLastN(TEST_TIME_SERIES_NAME, 50).length);
+        Assert.assertEquals(2, timeSeriesClient.getTailCacheMissCount());
+    }
+
+    // Compare the rollups for a range with the points in each bucket
+    private static void checkRollups(TimeSeriesClient timeSeriesClient, long rollupWidth, Date fromDateTime, Date toDateTime) {
+        Rollup[] rollups = timeSeriesClient.getRollups(TEST_TIME_SERIES_NAME, rollupWidth, fromDateTime, toDateTime);
+        Map<Long, List<DataPoint>> pointsByBucket = new TreeMap<>();
+        for (DataPoint dataPoint : timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, fromDateTime, toDateTime))
+            pointsByBucket.computeIfAbsent(Math.floorDiv(dataPoint.getTimestamp(), rollupWidth) * rollupWidth, ignore -> new ArrayList<>()).add(dataPoint);
+        Assert.assertEquals(pointsByBucket.size(), rollups.length);
+        int i = 0;
+        for (Map.Entry<Long, List<DataPoint>> bucket : pointsByBucket.entrySet()) {
+            Rollup rollup = rollups[i++];
+            DataPoint[] bucketPoints = bucket.getValue().toArray(new DataPoint[0]);
+            Assert.assertEquals((long) bucket.getKey(), rollup.getStartTime());
+            Assert.assertEquals(bucketPoints.length, rollup.getCount());
+            Assert.assertEquals(TimeSeriesClient.aggregate(bucketPoints, QueryOperation.AVG), rollup.getAverage(), 1e-9);
+            Assert.assertEquals(TimeSeriesClient.aggregate(bucketPoints, QueryOperation.MIN), rollup.getMinValue(), 0);
+            Assert.assertEquals(TimeSeriesClient.aggregate(bucketPoints, QueryOperation.MAX), rollup.getMaxValue(), 0);
+            Assert.assertEquals(bucketPoints[bucketPoints.length - 1].getValue(), rollup.getLastValue(), 0);
+        }
+    }
+
+    @Test
+    // Check no points are lost or duplicated when blocks are archived in the background
+    public void backgroundArchiverTest() throws Exception {
+        int entriesPerBlock = 60;
+        int requiredBlocks = 10;
+        // One more point than will fit in the required blocks, as the archiver only archives blocks holding more than entriesPerBlock points
+        int dataPointCount = requiredBlocks * entriesPerBlock + 1;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.enableBackgroundArchiver();
+        for (int i = 0; i < dataPointCount; i++)
+            timeSeriesClient.put(TEST_TIME_SERIES_NAME,
+                    new DataPoint(new Date(getTestBaseDate().getTime() + i * Constants.MILLISECONDS_IN_SECOND), RANDOM.nextDouble()));
+        timeSeriesClient.shutdownBackgroundArchiver();
+
+        Assert.assertTrue(timeSeriesClient.getBlockRolloverCount() > 0);
+        Assert.assertEquals(0, timeSeriesClient.getBackgroundArchiveFailureCount());
+        DataPoint[] dataPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, getTestBaseDate(),
+                new Date(getTestBaseDate().getTime() + dataPointCount * Constants.MILLISECONDS_IN_SECOND));
+        Assert.assertEquals(dataPointCount, dataPoints.length);
+    }
+
+    @Test
+    // Check points archived in the background but not yet removed from the current block are read and counted once
+    public void untrimmedArchivedPointsCountedOnce() throws Exception {
+        int entriesPerBlock = 60;
+        int dataPointCount = entriesPerBlock + 1;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.enableBackgroundArchiver();
+        DataPoint[] dataPoints = createDataPoints(getTestBaseDate().getTime(), 1, dataPointCount);
+        for (DataPoint dataPoint : dataPoints) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoint);
+        timeSeriesClient.shutdownBackgroundArchiver();
+        Assert.assertEquals(1, timeSeriesClient.getBlockRolloverCount());
+
+        // As if the archived points had not been removed from the current block
+        timeSeriesClient.getAsClient().operate(new WritePolicy(), timeSeriesClient.asCurrentKeyForTimeSeries(TEST_TIME_SERIES_NAME),
+                MapOperation.put(MapPolicy.Default, Constants.TIME_SERIES_BIN_NAME, Value.get(dataPoints[0].getTimestamp()), Value.get(dataPoints[0].getValue())));
+
+        Assert.assertEquals(dataPointCount, timeSeriesClient.dataPointCount(TEST_TIME_SERIES_NAME));
+        DataPoint[] retrievedDataPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(dataPoints[0].getTimestamp()),
+                new Date(dataPoints[dataPointCount - 1].getTimestamp()));
+        Assert.assertEquals(dataPointCount, retrievedDataPoints.length);
+        Assert.assertEquals(dataPointCount, timeSeriesClient.runQuery(TEST_TIME_SERIES_NAME, QueryOperation.COUNT,
+                new Date(dataPoints[0].getTimestamp()), new Date(dataPoints[dataPointCount - 1].getTimestamp())), 0);
+    }
+
     @Test
     /*
       Check correct time series points are retrieved
@@ -379,6 +1121,38 @@ public class TimeSeriesClientTest {
         }
     }
 
+    /**
+     * Write a series from several threads at once, so blocks are rolled over by more than one writer, and check all the
+     * points can be read back
+     *
+     * @param historicBlockEncoding - encoding for historic blocks
+     * @throws Exception - but it's a test
+     */
+    private void checkConcurrentRollovers(BlockEncoding historicBlockEncoding) throws Exception {
+        int entriesPerBlock = 20;
+        int threadCount = 8;
+        int dataPointCount = 10 * entriesPerBlock * threadCount;
+        TimeSeriesClient timeSeriesClient = new TimeSeriesClient(new AerospikeClient(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT),
+                TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, entriesPerBlock);
+        timeSeriesClient.setHistoricBlockEncoding(historicBlockEncoding);
+        long startTime = getTestBaseDate().getTime();
+        DataPoint[] dataPoints = createDataPoints(startTime, 1, dataPointCount);
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            int firstPoint = i;
+            writers.add(new Thread(() -> {
+                for (int j = firstPoint; j < dataPointCount; j += threadCount) timeSeriesClient.put(TEST_TIME_SERIES_NAME, dataPoints[j]);
+            }));
+        }
+        for (Thread writer : writers) writer.start();
+        for (Thread writer : writers) writer.join();
+
+        DataPoint[] retrievedDataPoints = timeSeriesClient.getPoints(TEST_TIME_SERIES_NAME, new Date(startTime),
+                new Date(dataPoints[dataPointCount - 1].getTimestamp()));
+        Assert.assertEquals(dataPointCount, retrievedDataPoints.length);
+        for (int i = 0; i < dataPointCount; i++) Assert.assertTrue(retrievedDataPoints[i].equals(dataPoints[i]));
+    }
+
     /**
      * Utility method to create time series
      * Returns an array of the random values generated
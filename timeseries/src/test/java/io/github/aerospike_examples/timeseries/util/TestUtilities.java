@@ -1,12 +1,16 @@
 package io.github.aerospike_examples.timeseries.util;
 
 import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.Host;
 import com.aerospike.client.Record;
+import com.aerospike.client.async.EventLoops;
 import com.aerospike.client.cdt.MapReturnType;
 import com.aerospike.client.exp.Exp;
 import com.aerospike.client.exp.MapExp;
+import com.aerospike.client.policy.ClientPolicy;
 import com.aerospike.client.policy.InfoPolicy;
 import com.aerospike.client.policy.ScanPolicy;
+import io.github.aerospike_examples.timeseries.AsyncTimeSeriesClient;
 import io.github.aerospike_examples.timeseries.TimeSeriesClient;
 
 import java.util.Vector;
@@ -18,6 +22,7 @@ public final class TestUtilities {
 
         asClient.truncate(new InfoPolicy(), TestConstants.AEROSPIKE_NAMESPACE, timeSeriesSetName, null);
         asClient.truncate(new InfoPolicy(), TestConstants.AEROSPIKE_NAMESPACE, TimeSeriesClient.timeSeriesIndexSetName(timeSeriesSetName), null);
+        asClient.truncate(new InfoPolicy(), TestConstants.AEROSPIKE_NAMESPACE, TimeSeriesClient.catalogSetName(timeSeriesSetName), null);
     }
 
     public static TimeSeriesClient defaultTimeSeriesClient() {
@@ -25,6 +30,15 @@ public final class TestUtilities {
                 TestConstants.AEROSPIKE_NAMESPACE, TestConstants.TIME_SERIES_TEST_SET, Constants.DEFAULT_MAX_ENTRIES_PER_TIME_SERIES_BLOCK);
     }
 
+    // Caller must close the Aerospike client, then the event loops, when done
+    public static AsyncTimeSeriesClient asyncTimeSeriesClient(int maxBlockEntryCount, EventLoops eventLoops) {
+        ClientPolicy clientPolicy = new ClientPolicy();
+        clientPolicy.eventLoops = eventLoops;
+        AerospikeClient asClient = new AerospikeClient(clientPolicy, new Host(TestConstants.AEROSPIKE_HOST, Constants.DEFAULT_AEROSPIKE_PORT));
+        return new AsyncTimeSeriesClient(new TimeSeriesClient(asClient, TestConstants.AEROSPIKE_NAMESPACE,
+                TestConstants.TIME_SERIES_TEST_SET, maxBlockEntryCount), eventLoops);
+    }
+
     public static int blockCountForTimeseries(TimeSeriesClient timeSeriesClient, String timeSeriesName) {
         // Filter expression - only get records where metadata.timeseriesfieldname = timeseriesname
         Exp filterExp =